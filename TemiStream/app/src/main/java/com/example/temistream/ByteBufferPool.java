@@ -0,0 +1,55 @@
+package com.example.temistream;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-size pool of direct buffers for outbound control messages.
+ *
+ * Buffers are handed out cleared and must be given back with {@link #release} once the send
+ * call has returned. An empty pool allocates rather than blocks, and buffers of a different
+ * capacity (oversized one-offs) are simply dropped on release.
+ */
+final class ByteBufferPool {
+
+    private final ByteBuffer[] free;
+    private final int bufferSize;
+    private int freeCount;
+    private long acquired;
+    private long allocated;
+
+    ByteBufferPool(int maxPooled, int bufferSize) {
+        this.free = new ByteBuffer[maxPooled];
+        this.bufferSize = bufferSize;
+    }
+
+    int getBufferSize() {
+        return bufferSize;
+    }
+
+    synchronized ByteBuffer acquire() {
+        acquired++;
+        if (freeCount > 0) {
+            ByteBuffer buffer = free[--freeCount];
+            free[freeCount] = null;
+            buffer.clear();
+            return buffer;
+        }
+        allocated++;
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    synchronized void release(ByteBuffer buffer) {
+        if (buffer.capacity() == bufferSize && buffer.isDirect() && freeCount < free.length) {
+            free[freeCount++] = buffer;
+        }
+    }
+
+    synchronized long getAcquiredCount() {
+        return acquired;
+    }
+
+    /** Buffers allocated because the pool was empty; flat once the pool is warm. */
+    synchronized long getAllocatedCount() {
+        return allocated;
+    }
+}
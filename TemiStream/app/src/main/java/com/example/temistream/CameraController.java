@@ -0,0 +1,356 @@
+package com.example.temistream;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.CameraEnumerationAndroid.CaptureFormat;
+import org.webrtc.CameraEnumerator;
+import org.webrtc.CameraVideoCapturer;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Picks the camera and capture format from what the device reports, and switches either
+ * while streaming.
+ *
+ * Both switches go through the running {@link CameraVideoCapturer}, which restarts only its
+ * camera session; the video source, track and PeerConnection stay as they are, so the viewer
+ * sees a short freeze instead of a renegotiation. Each switch is timed from the request to
+ * the capturer's confirmation and to the first frame of the new session.
+ */
+final class CameraController {
+
+    interface Listener {
+        /** Called on the camera thread once the first frame after a switch has arrived. */
+        void onCameraChanged(String deviceName, boolean frontFacing, CaptureFormat format, long switchMs,
+                             long firstFrameMs);
+
+        void onCameraChangeFailed(String error);
+    }
+
+    static final int DEFAULT_WIDTH = 1280;
+    static final int DEFAULT_HEIGHT = 720;
+    static final int DEFAULT_FPS = 30;
+
+    private static final String TAG = "TemiStream";
+
+    private final CameraEnumerator enumerator;
+    private final Executor blockingExecutor;
+    private final Listener listener;
+    private final LongSupplier clock;
+    // Camera1 opens the device to list formats, so ask once per camera
+    private final Map<String, List<CaptureFormat>> formatCache = new HashMap<>();
+
+    private CameraVideoCapturer capturer;
+    private String deviceName;
+    private CaptureFormat format;
+
+    // Switch in progress, timed in clock nanos
+    private boolean switching;
+    private boolean switchDone;
+    private long switchStartNanos;
+    private long switchDoneNanos;
+    private String switchTarget;
+
+    /** {@code blockingExecutor} runs capturer calls that wait for the camera thread. */
+    CameraController(CameraEnumerator enumerator, Executor blockingExecutor, Listener listener) {
+        this(enumerator, blockingExecutor, listener, System::nanoTime);
+    }
+
+    CameraController(CameraEnumerator enumerator, Executor blockingExecutor, Listener listener,
+                     LongSupplier clock) {
+        this.enumerator = enumerator;
+        this.blockingExecutor = blockingExecutor;
+        this.listener = listener;
+        this.clock = clock;
+    }
+
+    /** Opens the front camera if there is one, otherwise the first camera that opens. */
+    synchronized CameraVideoCapturer createCapturer() {
+        String[] deviceNames = enumerator.getDeviceNames();
+        for (int pass = 0; pass < 2; pass++) {
+            for (String name : deviceNames) {
+                if (enumerator.isFrontFacing(name) != (pass == 0)) {
+                    continue;
+                }
+                CameraVideoCapturer created = enumerator.createCapturer(name, eventsHandler);
+                if (created != null) {
+                    capturer = created;
+                    deviceName = name;
+                    return created;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Starts the capturer with the supported format closest to 1280x720 at 30 fps. */
+    synchronized void startCapture() {
+        format = selectFormat(getSupportedFormats(deviceName), DEFAULT_WIDTH, DEFAULT_HEIGHT, DEFAULT_FPS);
+        capturer.startCapture(format.width, format.height, maxFps(format));
+        Log.d(TAG, "Capturing " + describe(format) + " from " + deviceName);
+    }
+
+    synchronized void release() {
+        capturer = null;
+        switching = false;
+    }
+
+    /**
+     * Switches to {@code name}, or to the next camera if it is null. Returns an error message,
+     * or null if the switch has started.
+     */
+    String switchCamera(String name) {
+        CameraVideoCapturer target;
+        String requested;
+        synchronized (this) {
+            String error = prepareSwitchLocked(name);
+            if (error != null) {
+                return error;
+            }
+            target = capturer;
+            requested = switchTarget;
+        }
+        target.switchCamera(new CameraVideoCapturer.CameraSwitchHandler() {
+            @Override
+            public void onCameraSwitchDone(boolean isFrontCamera) {
+                synchronized (CameraController.this) {
+                    deviceName = requested;
+                    // The session keeps the requested size and picks the closest one the new camera has
+                    format = selectFormat(getSupportedFormats(requested), format.width, format.height,
+                            maxFps(format));
+                    switchDoneNanos = clock.getAsLong();
+                    switchDone = true;
+                }
+            }
+
+            @Override
+            public void onCameraSwitchError(String error) {
+                synchronized (CameraController.this) {
+                    switching = false;
+                }
+                listener.onCameraChangeFailed(error);
+            }
+        }, requested);
+        return null;
+    }
+
+    private String prepareSwitchLocked(String name) {
+        if (capturer == null) {
+            return "Not streaming";
+        }
+        if (switching) {
+            return "Camera switch already in progress";
+        }
+        String[] deviceNames = enumerator.getDeviceNames();
+        String target = name;
+        if (target == null) {
+            if (deviceNames.length < 2) {
+                return "No other camera";
+            }
+            int current = 0;
+            for (int i = 0; i < deviceNames.length; i++) {
+                if (deviceNames[i].equals(deviceName)) {
+                    current = i;
+                }
+            }
+            target = deviceNames[(current + 1) % deviceNames.length];
+        } else if (!contains(deviceNames, target)) {
+            return "Unknown camera " + target;
+        } else if (target.equals(deviceName)) {
+            return "Camera " + target + " already active";
+        }
+
+        getSupportedFormats(target);
+        switchTarget = target;
+        switching = true;
+        switchDone = false;
+        switchStartNanos = clock.getAsLong();
+        return null;
+    }
+
+    /**
+     * Restarts the current camera with the supported format closest to the request. Returns an
+     * error message, or null if the change has started.
+     */
+    String changeCaptureFormat(int width, int height, int fps) {
+        CameraVideoCapturer target;
+        CaptureFormat selected;
+        synchronized (this) {
+            if (capturer == null) {
+                return "Not streaming";
+            }
+            if (switching) {
+                return "Camera switch already in progress";
+            }
+            selected = selectFormat(getSupportedFormats(deviceName), width, height, fps);
+            target = capturer;
+            format = selected;
+            switching = true;
+            switchDone = false;
+            switchStartNanos = clock.getAsLong();
+        }
+        int selectedFps = Math.min(fps, maxFps(selected));
+        // Blocks until the old session has stopped, and the camera thread needs this lock to
+        // report the new session's first frame
+        blockingExecutor.execute(() -> {
+            target.changeCaptureFormat(selected.width, selected.height, selectedFps);
+            synchronized (CameraController.this) {
+                if (switching && !switchDone) {
+                    switchDoneNanos = clock.getAsLong();
+                    switchDone = true;
+                }
+            }
+        });
+        return null;
+    }
+
+    /** Cameras with their facing and supported formats, for the viewer. */
+    synchronized JSONArray describeCameras() throws JSONException {
+        JSONArray cameras = new JSONArray();
+        for (String name : enumerator.getDeviceNames()) {
+            JSONArray formats = new JSONArray();
+            for (CaptureFormat supported : getSupportedFormats(name)) {
+                formats.put(new JSONObject()
+                        .put("width", supported.width)
+                        .put("height", supported.height)
+                        .put("minFps", supported.framerate.min / 1000)
+                        .put("maxFps", maxFps(supported)));
+            }
+            cameras.put(new JSONObject()
+                    .put("name", name)
+                    .put("facing", enumerator.isFrontFacing(name) ? "front"
+                            : enumerator.isBackFacing(name) ? "back" : "external")
+                    .put("active", name.equals(deviceName))
+                    .put("formats", formats));
+        }
+        return cameras;
+    }
+
+    synchronized String getDeviceName() {
+        return deviceName;
+    }
+
+    synchronized CaptureFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * The supported format closest to the request: the smallest one that covers the requested
+     * size, else the largest, preferring formats that reach the requested frame rate.
+     */
+    static CaptureFormat selectFormat(List<CaptureFormat> formats, int width, int height, int fps) {
+        if (formats.isEmpty()) {
+            // Nothing reported; let the camera session pick
+            return new CaptureFormat(width, height, fps * 1000, fps * 1000);
+        }
+        CaptureFormat best = null;
+        long bestScore = Long.MAX_VALUE;
+        for (CaptureFormat candidate : formats) {
+            long pixels = (long) candidate.width * candidate.height;
+            long requested = (long) width * height;
+            long score;
+            if (candidate.width >= width && candidate.height >= height) {
+                score = pixels - requested;
+            } else {
+                // Too small in some dimension: rank behind every covering format, larger first
+                score = Long.MAX_VALUE / 2 - pixels;
+            }
+            if (maxFps(candidate) < fps) {
+                score += Long.MAX_VALUE / 4;
+            }
+            if (score < bestScore) {
+                bestScore = score;
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    static int maxFps(CaptureFormat format) {
+        // Frame rates are reported in fps * 1000
+        return (format.framerate.max + 999) / 1000;
+    }
+
+    static String describe(CaptureFormat format) {
+        return format.width + "x" + format.height + "@" + maxFps(format);
+    }
+
+    private List<CaptureFormat> getSupportedFormats(String name) {
+        List<CaptureFormat> formats = formatCache.get(name);
+        if (formats == null) {
+            formats = enumerator.getSupportedFormats(name);
+            if (formats == null) {
+                formats = Collections.emptyList();
+            }
+            formatCache.put(name, formats);
+        }
+        return formats;
+    }
+
+    private static boolean contains(String[] names, String name) {
+        for (String candidate : names) {
+            if (candidate.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private final CameraVideoCapturer.CameraEventsHandler eventsHandler =
+            new CameraVideoCapturer.CameraEventsHandler() {
+        @Override
+        public void onCameraError(String error) {
+            Log.e(TAG, "Camera error: " + error);
+        }
+
+        @Override
+        public void onCameraDisconnected() {
+            Log.w(TAG, "Camera disconnected");
+        }
+
+        @Override
+        public void onCameraFreezed(String error) {
+            Log.w(TAG, "Camera frozen: " + error);
+        }
+
+        @Override
+        public void onCameraOpening(String cameraName) {
+            Log.d(TAG, "Opening camera " + cameraName);
+        }
+
+        @Override
+        public void onFirstFrameAvailable() {
+            String name;
+            CaptureFormat current;
+            long switchMs;
+            long firstFrameMs;
+            synchronized (CameraController.this) {
+                if (!switching) {
+                    return;
+                }
+                long now = clock.getAsLong();
+                long doneNanos = switchDone ? switchDoneNanos : now;
+                switchMs = TimeUnit.NANOSECONDS.toMillis(doneNanos - switchStartNanos);
+                firstFrameMs = TimeUnit.NANOSECONDS.toMillis(now - switchStartNanos);
+                switching = false;
+                name = deviceName;
+                current = format;
+            }
+            Log.d(TAG, "Camera " + name + " " + describe(current) + " live after " + firstFrameMs + "ms");
+            listener.onCameraChanged(name, enumerator.isFrontFacing(name), current, switchMs, firstFrameMs);
+        }
+
+        @Override
+        public void onCameraClosed() {
+        }
+    };
+}
@@ -0,0 +1,255 @@
+package com.example.temistream;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends large payloads (snapshots, map tiles) over the control channel without starving it.
+ *
+ * A transfer is a {@code transfer_begin} JSON message, binary chunks of at most
+ * {@link #CHUNK_SIZE} bytes, and a {@code transfer_end} message. Each chunk starts with two
+ * big-endian ints, the transfer id and the chunk index. Chunks are only handed to the channel
+ * while its buffered amount is below {@link #HIGH_WATERMARK_BYTES}, so robot responses and
+ * position updates queued behind a transfer wait for at most that much data. Transfers run
+ * one at a time in submission order.
+ *
+ * {@link Priority#LOW} transfers (map tiles) only use the channel while no normal transfer is
+ * waiting, and only up to the lower {@link #LOW_PRIORITY_WATERMARK_BYTES}. A normal transfer
+ * submitted while a low-priority one is under way goes next; the viewer reassembles by
+ * transfer id, so the paused transfer simply resumes afterwards.
+ */
+final class ChunkedTransferSender {
+
+    enum Priority { NORMAL, LOW }
+
+    interface Callback {
+        /** Called once the last chunk has been handed to the channel, or on cancellation. */
+        void onTransferFinished(int transferId, boolean completed, long durationMs);
+    }
+
+    static final int CHUNK_SIZE = 16 * 1024;
+    static final int CHUNK_HEADER_SIZE = 8;
+    static final long HIGH_WATERMARK_BYTES = 256 * 1024;
+    static final long LOW_PRIORITY_WATERMARK_BYTES = 64 * 1024;
+    // Re-check the buffer this often in case no buffered-amount callback arrives
+    private static final long RETRY_DELAY_MS = 20;
+
+    private static final String TAG = "TemiStream";
+
+    private static final class Transfer {
+        final int id;
+        final String kind;
+        final JSONObject meta;
+        final byte[] data;
+        final int offset;
+        final int length;
+        final Callback callback;
+        int nextChunk;
+        boolean started;
+        long startNanos;
+
+        Transfer(int id, String kind, JSONObject meta, byte[] data, int offset, int length, Callback callback) {
+            this.id = id;
+            this.kind = kind;
+            this.meta = meta;
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+            this.callback = callback;
+        }
+
+        int chunkCount() {
+            return (length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        }
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final ByteBufferPool chunkPool = new ByteBufferPool(2, CHUNK_HEADER_SIZE + CHUNK_SIZE);
+    private final ArrayDeque<Transfer> queue = new ArrayDeque<>();
+    private final ArrayDeque<Transfer> lowPriorityQueue = new ArrayDeque<>();
+    private MessageChannel channel;
+    private ScheduledFuture<?> retry;
+    private int nextTransferId = 1;
+    private long chunksSent;
+    private long throttledCount;
+
+    ChunkedTransferSender(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /** Attaches a session's channel; pending transfers from an earlier session are cancelled. */
+    void setChannel(MessageChannel channel) {
+        synchronized (this) {
+            this.channel = channel;
+        }
+        cancelAll();
+    }
+
+    /**
+     * Queues {@code data[offset, offset + length)} for sending. The array must not change
+     * until the callback runs.
+     *
+     * @return the transfer id the viewer will see
+     */
+    int send(String kind, JSONObject meta, byte[] data, int offset, int length, Callback callback) {
+        return send(kind, meta, data, offset, length, Priority.NORMAL, callback);
+    }
+
+    int send(String kind, JSONObject meta, byte[] data, int offset, int length, Priority priority,
+             Callback callback) {
+        int id;
+        synchronized (this) {
+            id = nextTransferId++;
+            Transfer transfer = new Transfer(id, kind, meta, data, offset, length, callback);
+            (priority == Priority.LOW ? lowPriorityQueue : queue).add(transfer);
+        }
+        pump();
+        return id;
+    }
+
+    /** Hook for the DataChannel observer's buffered-amount callback. */
+    void onBufferedAmountChange() {
+        pump();
+    }
+
+    void cancelAll() {
+        ArrayDeque<Transfer> cancelled;
+        synchronized (this) {
+            cancelled = new ArrayDeque<>(queue);
+            cancelled.addAll(lowPriorityQueue);
+            queue.clear();
+            lowPriorityQueue.clear();
+            if (retry != null) {
+                retry.cancel(false);
+                retry = null;
+            }
+        }
+        for (Transfer transfer : cancelled) {
+            transfer.callback.onTransferFinished(transfer.id, false, 0);
+        }
+    }
+
+    synchronized int getQueuedCount() {
+        return queue.size() + lowPriorityQueue.size();
+    }
+
+    synchronized long getChunksSent() {
+        return chunksSent;
+    }
+
+    /** Times a chunk had to wait for the channel to drain. */
+    synchronized long getThrottledCount() {
+        return throttledCount;
+    }
+
+    private void pump() {
+        Transfer finished = null;
+        long durationMs = 0;
+        synchronized (this) {
+            ArrayDeque<Transfer> source = queue.isEmpty() ? lowPriorityQueue : queue;
+            Transfer transfer = source.peek();
+            if (transfer == null || channel == null || !channel.isOpen()) {
+                return;
+            }
+            long watermark = source == queue ? HIGH_WATERMARK_BYTES : LOW_PRIORITY_WATERMARK_BYTES;
+            if (!transfer.started) {
+                transfer.started = true;
+                transfer.startNanos = System.nanoTime();
+                sendJson(beginMessage(transfer));
+            }
+            while (transfer.nextChunk < transfer.chunkCount()) {
+                if (channel.bufferedAmount() >= watermark) {
+                    throttledCount++;
+                    scheduleRetryLocked();
+                    return;
+                }
+                sendChunkLocked(transfer);
+            }
+            source.poll();
+            durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - transfer.startNanos);
+            sendJson(endMessage(transfer, durationMs));
+            finished = transfer;
+            if (!queue.isEmpty() || !lowPriorityQueue.isEmpty()) {
+                scheduleRetryLocked();
+            }
+        }
+        finished.callback.onTransferFinished(finished.id, true, durationMs);
+    }
+
+    private void sendChunkLocked(Transfer transfer) {
+        int start = transfer.nextChunk * CHUNK_SIZE;
+        int size = Math.min(CHUNK_SIZE, transfer.length - start);
+        ByteBuffer buffer = chunkPool.acquire();
+        try {
+            buffer.putInt(transfer.id);
+            buffer.putInt(transfer.nextChunk);
+            buffer.put(transfer.data, transfer.offset + start, size);
+            buffer.flip();
+            channel.send(buffer, true);
+        } finally {
+            chunkPool.release(buffer);
+        }
+        transfer.nextChunk++;
+        chunksSent++;
+    }
+
+    private void scheduleRetryLocked() {
+        if (retry == null) {
+            retry = scheduler.schedule(this::retry, RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void retry() {
+        synchronized (this) {
+            // The running task's future is not done yet, so clear it to allow rescheduling
+            retry = null;
+        }
+        pump();
+    }
+
+    private JSONObject beginMessage(Transfer transfer) {
+        JSONObject message = new JSONObject();
+        try {
+            message.put("type", "transfer_begin");
+            message.put("transferId", transfer.id);
+            message.put("kind", transfer.kind);
+            message.put("size", transfer.length);
+            message.put("chunkSize", CHUNK_SIZE);
+            message.put("chunks", transfer.chunkCount());
+            if (transfer.meta != null) {
+                message.put("meta", transfer.meta);
+            }
+            message.put("timestamp", System.currentTimeMillis());
+        } catch (JSONException e) {
+            Log.e(TAG, "Error creating transfer header", e);
+        }
+        return message;
+    }
+
+    private JSONObject endMessage(Transfer transfer, long durationMs) {
+        JSONObject message = new JSONObject();
+        try {
+            message.put("type", "transfer_end");
+            message.put("transferId", transfer.id);
+            message.put("kind", transfer.kind);
+            message.put("durationMs", durationMs);
+            message.put("timestamp", System.currentTimeMillis());
+        } catch (JSONException e) {
+            Log.e(TAG, "Error creating transfer trailer", e);
+        }
+        return message;
+    }
+
+    private void sendJson(JSONObject message) {
+        channel.send(ByteBuffer.wrap(message.toString().getBytes(StandardCharsets.UTF_8)), false);
+    }
+}
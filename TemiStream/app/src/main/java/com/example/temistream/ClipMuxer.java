@@ -0,0 +1,121 @@
+package com.example.temistream;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes a {@link PreEventBuffer.Clip} to disk with {@link MediaMuxer}, without re-encoding.
+ * H.264 and H.265 go into MP4; VP8 and VP9 go into WebM, the container MediaMuxer supports
+ * for them.
+ */
+final class ClipMuxer {
+
+    private ClipMuxer() {
+    }
+
+    /** Writes {@code clip} to {@code directory/baseName.mp4} (or .webm) and returns the file. */
+    static File write(PreEventBuffer.Clip clip, File directory, String baseName) throws IOException {
+        String mimeType;
+        int outputFormat = MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4;
+        String extension = ".mp4";
+        switch (clip.codec) {
+            case "H264":
+                mimeType = MediaFormat.MIMETYPE_VIDEO_AVC;
+                break;
+            case "H265":
+                mimeType = MediaFormat.MIMETYPE_VIDEO_HEVC;
+                break;
+            case "VP8":
+                mimeType = MediaFormat.MIMETYPE_VIDEO_VP8;
+                outputFormat = MediaMuxer.OutputFormat.MUXER_OUTPUT_WEBM;
+                extension = ".webm";
+                break;
+            case "VP9":
+                mimeType = MediaFormat.MIMETYPE_VIDEO_VP9;
+                outputFormat = MediaMuxer.OutputFormat.MUXER_OUTPUT_WEBM;
+                extension = ".webm";
+                break;
+            default:
+                throw new IOException("Cannot mux " + clip.codec + " clips");
+        }
+
+        MediaFormat format = MediaFormat.createVideoFormat(mimeType, clip.width, clip.height);
+        if (clip.codec.equals("H264")) {
+            // MP4 needs the parameter sets up front; WebRTC sends them in-band with keyframes
+            ByteBuffer sps = findNalUnit(clip.data, clip.offsets[0], clip.sizes[0], 7);
+            ByteBuffer pps = findNalUnit(clip.data, clip.offsets[0], clip.sizes[0], 8);
+            if (sps == null || pps == null) {
+                throw new IOException("First keyframe has no SPS/PPS");
+            }
+            format.setByteBuffer("csd-0", sps);
+            format.setByteBuffer("csd-1", pps);
+        }
+
+        File file = new File(directory, baseName + extension);
+        MediaMuxer muxer = new MediaMuxer(file.getPath(), outputFormat);
+        boolean complete = false;
+        try {
+            if (outputFormat == MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4) {
+                muxer.setOrientationHint(clip.rotation);
+            }
+            int track = muxer.addTrack(format);
+            muxer.start();
+
+            ByteBuffer data = ByteBuffer.wrap(clip.data);
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            long previousUs = -1;
+            for (int i = 0; i < clip.getFrameCount(); i++) {
+                // The muxer rejects non-increasing timestamps
+                long presentationUs = Math.max(clip.timesUs[i] - clip.timesUs[0], previousUs + 1);
+                previousUs = presentationUs;
+                info.set(clip.offsets[i], clip.sizes[i], presentationUs,
+                        clip.keyFrames[i] ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+                muxer.writeSampleData(track, data, info);
+            }
+            muxer.stop();
+            complete = true;
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            throw new IOException("Muxing failed", e);
+        } finally {
+            muxer.release();
+            if (!complete) {
+                file.delete();
+            }
+        }
+        return file;
+    }
+
+    /** Returns the first Annex-B NAL unit of {@code type} in the range, with its start code. */
+    static ByteBuffer findNalUnit(byte[] data, int offset, int length, int type) {
+        int end = offset + length;
+        int start = -1;
+        for (int i = offset; i + 3 <= end; i++) {
+            boolean startCode = data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1;
+            if (!startCode) {
+                continue;
+            }
+            if (start >= 0) {
+                // Trim the extra zero of a four-byte start code
+                int unitEnd = i > offset && data[i - 1] == 0 ? i - 1 : i;
+                return nalWithStartCode(data, start, unitEnd);
+            }
+            if (i + 3 < end && (data[i + 3] & 0x1F) == type) {
+                start = i + 3;
+            }
+            i += 2;
+        }
+        return start >= 0 ? nalWithStartCode(data, start, end) : null;
+    }
+
+    private static ByteBuffer nalWithStartCode(byte[] data, int start, int end) {
+        ByteBuffer unit = ByteBuffer.allocate(4 + end - start);
+        unit.put(new byte[]{0, 0, 0, 1}).put(data, start, end - start);
+        unit.flip();
+        return unit;
+    }
+}
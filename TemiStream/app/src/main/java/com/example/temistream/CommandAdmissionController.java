@@ -0,0 +1,312 @@
+package com.example.temistream;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Admission control in front of robot command dispatch.
+ *
+ * Every command is mapped to a {@link CommandClass} with its own token bucket. Commands that
+ * find their bucket empty wait in a bounded per-class queue and are released as tokens
+ * refill; when the queue is full, or a command has waited too long to still be meaningful,
+ * it is rejected. {@code stop} and {@code emergency_stop} bypass the buckets entirely and
+ * flush everything still queued, so a flood of commands can never delay them.
+ *
+ * A batch takes one BATCH token to get in, and then each of its entries is charged to its own
+ * class through {@link #tryAdmitNow}, so batching does not raise any class above its rate.
+ */
+final class CommandAdmissionController {
+
+    enum CommandClass {
+        EMERGENCY, MOTION, HEAD, SPEECH, AUDIO, LOCATION, MEDIA, QUERY, BATCH
+    }
+
+    interface Dispatcher {
+        void dispatch(String command, JSONObject params, String commandId);
+
+        void reject(String command, String commandId, String reason);
+    }
+
+    // Upper bound on commands waiting for tokens across all classes
+    static final int MAX_PENDING = 32;
+    // Queued commands older than this are dropped; a stale move is worse than none
+    static final long MAX_QUEUE_WAIT_MS = 1000;
+
+    private static final class PendingCommand {
+        final String command;
+        final JSONObject params;
+        final String commandId;
+        final long enqueuedAtNanos;
+
+        PendingCommand(String command, JSONObject params, String commandId, long enqueuedAtNanos) {
+            this.command = command;
+            this.params = params;
+            this.commandId = commandId;
+            this.enqueuedAtNanos = enqueuedAtNanos;
+        }
+    }
+
+    private final Dispatcher dispatcher;
+    private final ScheduledExecutorService scheduler;
+    private final LongSupplier clock;
+
+    private final Map<CommandClass, TokenBucket> buckets = new EnumMap<>(CommandClass.class);
+    private final Map<CommandClass, ArrayDeque<PendingCommand>> queues = new EnumMap<>(CommandClass.class);
+    private int pendingCount = 0;
+    private boolean drainScheduled = false;
+
+    // Counters, guarded by this
+    private final Map<CommandClass, Long> admittedByClass = new EnumMap<>(CommandClass.class);
+    private final Map<CommandClass, Long> rejectedByClass = new EnumMap<>(CommandClass.class);
+    private long queuedTotal = 0;
+    private long expiredTotal = 0;
+    private long flushedTotal = 0;
+    private long queueWaitTotalNanos = 0;
+    private long queueWaitMaxNanos = 0;
+    private long dequeuedTotal = 0;
+
+    CommandAdmissionController(Dispatcher dispatcher, ScheduledExecutorService scheduler) {
+        this(dispatcher, scheduler, System::nanoTime);
+    }
+
+    CommandAdmissionController(Dispatcher dispatcher, ScheduledExecutorService scheduler, LongSupplier clock) {
+        this.dispatcher = dispatcher;
+        this.scheduler = scheduler;
+        this.clock = clock;
+
+        long now = clock.getAsLong();
+        // Held movement keys resend "move" every 200ms, so motion gets generous headroom
+        buckets.put(CommandClass.MOTION, new TokenBucket(10, 10, now));
+        buckets.put(CommandClass.HEAD, new TokenBucket(10, 10, now));
+        buckets.put(CommandClass.SPEECH, new TokenBucket(3, 1, now));
+        buckets.put(CommandClass.AUDIO, new TokenBucket(5, 2, now));
+        buckets.put(CommandClass.LOCATION, new TokenBucket(5, 2, now));
+        // Encodes, exports and camera or session changes; each one costs seconds of work
+        buckets.put(CommandClass.MEDIA, new TokenBucket(2, 0.5, now));
+        buckets.put(CommandClass.QUERY, new TokenBucket(5, 5, now));
+        buckets.put(CommandClass.BATCH, new TokenBucket(3, 1, now));
+
+        for (CommandClass commandClass : CommandClass.values()) {
+            queues.put(commandClass, new ArrayDeque<>());
+            admittedByClass.put(commandClass, 0L);
+            rejectedByClass.put(commandClass, 0L);
+        }
+    }
+
+    static CommandClass classify(String command) {
+        switch (command) {
+            case "stop":
+            case "emergency_stop":
+                return CommandClass.EMERGENCY;
+            case "move":
+            case "turn_by":
+            case "turn_around":
+            case "go_to_location":
+            case "go_home":
+            case "follow_me":
+            case "stop_follow":
+                return CommandClass.MOTION;
+            case "tilt_up":
+            case "tilt_down":
+            case "tilt_to_angle":
+            case "reset_tilt":
+                return CommandClass.HEAD;
+            case "speak":
+                return CommandClass.SPEECH;
+            case "set_volume":
+                return CommandClass.AUDIO;
+            case "save_location":
+            case "delete_location":
+            case "get_locations":
+                return CommandClass.LOCATION;
+            case "snapshot":
+            case "switch_camera":
+            case "set_capture_format":
+            case "set_opus":
+            case "get_map":
+            case "get_map_tiles":
+            case "set_ice_policy":
+            case "save_clip":
+                return CommandClass.MEDIA;
+            case "batch":
+                return CommandClass.BATCH;
+            default:
+                return CommandClass.QUERY;
+        }
+    }
+
+    void submit(String command, JSONObject params, String commandId) {
+        CommandClass commandClass = classify(command);
+        if (commandClass == CommandClass.EMERGENCY) {
+            List<PendingCommand> flushed = flushAll();
+            for (PendingCommand pending : flushed) {
+                dispatcher.reject(pending.command, pending.commandId, "Preempted by " + command);
+            }
+            synchronized (this) {
+                admittedByClass.merge(commandClass, 1L, Long::sum);
+            }
+            dispatcher.dispatch(command, params, commandId);
+            return;
+        }
+
+        String rejection = null;
+        boolean dispatchNow = false;
+        synchronized (this) {
+            long now = clock.getAsLong();
+            ArrayDeque<PendingCommand> queue = queues.get(commandClass);
+            if (queue.isEmpty() && buckets.get(commandClass).tryAcquire(now)) {
+                admittedByClass.merge(commandClass, 1L, Long::sum);
+                dispatchNow = true;
+            } else if (pendingCount >= MAX_PENDING) {
+                rejectedByClass.merge(commandClass, 1L, Long::sum);
+                rejection = "Rate limited: command queue full";
+            } else {
+                queue.addLast(new PendingCommand(command, params, commandId, now));
+                pendingCount++;
+                queuedTotal++;
+                scheduleDrainLocked(now);
+            }
+        }
+
+        if (dispatchNow) {
+            dispatcher.dispatch(command, params, commandId);
+        } else if (rejection != null) {
+            dispatcher.reject(command, commandId, rejection);
+        }
+    }
+
+    /**
+     * Charges one token of {@code command}'s class without queueing, for an entry of a batch
+     * that is already running. Refused when the bucket is empty or commands of the class are
+     * waiting ahead of it; emergency and batch commands are never admitted this way.
+     */
+    synchronized boolean tryAdmitNow(String command) {
+        CommandClass commandClass = classify(command);
+        if (commandClass == CommandClass.EMERGENCY || commandClass == CommandClass.BATCH) {
+            return false;
+        }
+        if (queues.get(commandClass).isEmpty() && buckets.get(commandClass).tryAcquire(clock.getAsLong())) {
+            admittedByClass.merge(commandClass, 1L, Long::sum);
+            return true;
+        }
+        rejectedByClass.merge(commandClass, 1L, Long::sum);
+        return false;
+    }
+
+    /** Drops every queued command, e.g. when the session ends. */
+    void clear() {
+        flushAll();
+    }
+
+    private synchronized List<PendingCommand> flushAll() {
+        List<PendingCommand> flushed = new ArrayList<>(pendingCount);
+        for (ArrayDeque<PendingCommand> queue : queues.values()) {
+            flushed.addAll(queue);
+            queue.clear();
+        }
+        flushedTotal += flushed.size();
+        pendingCount = 0;
+        return flushed;
+    }
+
+    private void drain() {
+        List<PendingCommand> ready = new ArrayList<>();
+        List<PendingCommand> expired = new ArrayList<>();
+        synchronized (this) {
+            drainScheduled = false;
+            long now = clock.getAsLong();
+            long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(MAX_QUEUE_WAIT_MS);
+
+            for (Map.Entry<CommandClass, ArrayDeque<PendingCommand>> entry : queues.entrySet()) {
+                ArrayDeque<PendingCommand> queue = entry.getValue();
+                TokenBucket bucket = buckets.get(entry.getKey());
+                while (!queue.isEmpty()) {
+                    PendingCommand head = queue.peekFirst();
+                    long waited = now - head.enqueuedAtNanos;
+                    if (waited > maxWaitNanos) {
+                        queue.pollFirst();
+                        pendingCount--;
+                        expiredTotal++;
+                        rejectedByClass.merge(entry.getKey(), 1L, Long::sum);
+                        expired.add(head);
+                    } else if (bucket.tryAcquire(now)) {
+                        queue.pollFirst();
+                        pendingCount--;
+                        dequeuedTotal++;
+                        queueWaitTotalNanos += waited;
+                        queueWaitMaxNanos = Math.max(queueWaitMaxNanos, waited);
+                        admittedByClass.merge(entry.getKey(), 1L, Long::sum);
+                        ready.add(head);
+                    } else {
+                        break;
+                    }
+                }
+            }
+
+            if (pendingCount > 0) {
+                scheduleDrainLocked(now);
+            }
+        }
+
+        for (PendingCommand pending : expired) {
+            dispatcher.reject(pending.command, pending.commandId, "Rate limited: expired in queue");
+        }
+        for (PendingCommand pending : ready) {
+            dispatcher.dispatch(pending.command, pending.params, pending.commandId);
+        }
+    }
+
+    private void scheduleDrainLocked(long now) {
+        if (drainScheduled) {
+            return;
+        }
+        long delay = Long.MAX_VALUE;
+        for (Map.Entry<CommandClass, ArrayDeque<PendingCommand>> entry : queues.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                delay = Math.min(delay, buckets.get(entry.getKey()).nanosUntilAvailable(now));
+            }
+        }
+        if (delay == Long.MAX_VALUE) {
+            return;
+        }
+        drainScheduled = true;
+        scheduler.schedule(this::drain, delay, TimeUnit.NANOSECONDS);
+    }
+
+    synchronized int getPendingCount() {
+        return pendingCount;
+    }
+
+    synchronized JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        JSONObject admitted = new JSONObject();
+        JSONObject rejected = new JSONObject();
+        long rejectedTotal = 0;
+        for (CommandClass commandClass : CommandClass.values()) {
+            String key = commandClass.name().toLowerCase();
+            admitted.put(key, admittedByClass.get(commandClass));
+            rejected.put(key, rejectedByClass.get(commandClass));
+            rejectedTotal += rejectedByClass.get(commandClass);
+        }
+        stats.put("admitted", admitted);
+        stats.put("rejected", rejected);
+        stats.put("rejectedTotal", rejectedTotal);
+        stats.put("pending", pendingCount);
+        stats.put("queued", queuedTotal);
+        stats.put("expired", expiredTotal);
+        stats.put("flushed", flushedTotal);
+        stats.put("queueWaitAvgMs", dequeuedTotal == 0 ? 0.0
+                : queueWaitTotalNanos / (double) dequeuedTotal / 1_000_000.0);
+        stats.put("queueWaitMaxMs", queueWaitMaxNanos / 1_000_000.0);
+        return stats;
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.temistream;
+
+/**
+ * Outcome of a single robot command, reported back to the viewer in a robot_response.
+ */
+final class CommandResult {
+    final boolean success;
+    final String message;
+
+    CommandResult(boolean success, String message) {
+        this.success = success;
+        this.message = message;
+    }
+}
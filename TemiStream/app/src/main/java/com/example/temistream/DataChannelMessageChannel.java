@@ -0,0 +1,37 @@
+package com.example.temistream;
+
+import org.webrtc.DataChannel;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link MessageChannel} over a WebRTC {@link DataChannel}.
+ *
+ * Sends are not zero-copy. {@link DataChannel#send} copies the remaining bytes into a new
+ * byte[] on the Java side, direct buffer or not, and hands that array across JNI, where it
+ * is copied again. The pooled buffers of {@link OutboundEncoder} save the message building,
+ * not this copy.
+ */
+final class DataChannelMessageChannel implements MessageChannel {
+
+    private final DataChannel dataChannel;
+
+    DataChannelMessageChannel(DataChannel dataChannel) {
+        this.dataChannel = dataChannel;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return dataChannel.state() == DataChannel.State.OPEN;
+    }
+
+    @Override
+    public boolean send(ByteBuffer data, boolean binary) {
+        return dataChannel.send(new DataChannel.Buffer(data, binary));
+    }
+
+    @Override
+    public long bufferedAmount() {
+        return dataChannel.bufferedAmount();
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.temistream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Always-on binary flight recorder backed by a fixed-size memory-mapped ring file.
+ *
+ * Every record is a fixed {@link #RECORD_SIZE}-byte slot written with absolute puts into the
+ * mapping, so recording costs an atomic increment and a handful of stores: no allocation, no
+ * locks, no syscalls. The kernel owns the dirty pages, which means the last records survive
+ * a crash of the app process. {@link FlightRecorderExporter} turns the file into JSON or CSV.
+ *
+ * The next sequence number is not kept in the header, where concurrent writers could store
+ * it out of order; {@link #open} recovers it from the highest committed record instead.
+ *
+ * File layout (little endian):
+ * <pre>
+ * header  0: int magic, int version, int recordSize, int capacity,
+ *        16: long reserved (0), long baseEpochMicros
+ * record  0: long commitMarker (sequence + 1, 0 = empty), long epochMicros,
+ *        16: byte type, byte flag, byte textLength, byte reserved, int value,
+ *        24: float x, float y, float z, 36: byte[28] text (ASCII, truncated)
+ * </pre>
+ */
+final class FlightRecorder {
+
+    static final int MAGIC = 0x54465231; // "TFR1"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 64;
+    static final int TEXT_OFFSET = 36;
+    static final int MAX_TEXT_LENGTH = RECORD_SIZE - TEXT_OFFSET;
+    static final int DEFAULT_CAPACITY = 8192;
+
+    // Record types
+    static final byte TYPE_COMMAND = 1;
+    static final byte TYPE_RESPONSE = 2;
+    static final byte TYPE_POSE = 3;
+    static final byte TYPE_ICE_STATE = 4;
+    static final byte TYPE_DATA_CHANNEL_STATE = 5;
+    static final byte TYPE_STATS = 6;
+    static final byte TYPE_SIGNALING = 7;
+    static final byte TYPE_EVENT = 8;
+
+    private static final int RESERVED_OFFSET = 16;
+    private static final int BASE_TIME_OFFSET = 24;
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final AtomicLong nextSequence;
+    private final long baseEpochMicros;
+    private final long baseNanos;
+
+    /** A recorder that drops everything, used when the ring file cannot be mapped. */
+    static FlightRecorder disabled() {
+        return new FlightRecorder(null, null, 1, 0);
+    }
+
+    private FlightRecorder(File file, MappedByteBuffer buffer, int capacity, long firstSequence) {
+        this.file = file;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.nextSequence = new AtomicLong(firstSequence);
+        this.baseEpochMicros = System.currentTimeMillis() * 1000L;
+        this.baseNanos = System.nanoTime();
+    }
+
+    /**
+     * Maps the ring file, creating or resetting it if it does not match the requested layout.
+     * An existing file with the same layout keeps its records; new records continue after them.
+     */
+    static FlightRecorder open(File file, int capacity) throws IOException {
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            boolean reuse = raf.length() == size;
+            raf.setLength(size);
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            reuse = reuse
+                    && buffer.getInt(0) == MAGIC
+                    && buffer.getInt(4) == VERSION
+                    && buffer.getInt(8) == RECORD_SIZE
+                    && buffer.getInt(12) == capacity;
+            long firstSequence = 0;
+            if (reuse) {
+                firstSequence = recoverNextSequence(buffer, capacity);
+                buffer.putLong(RESERVED_OFFSET, 0L);
+            } else {
+                for (int i = 0; i < size; i += 8) {
+                    buffer.putLong(i, 0L);
+                }
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, RECORD_SIZE);
+                buffer.putInt(12, capacity);
+            }
+
+            FlightRecorder recorder = new FlightRecorder(file, buffer, capacity, firstSequence);
+            buffer.putLong(BASE_TIME_OFFSET, recorder.baseEpochMicros);
+            return recorder;
+        }
+    }
+
+    /** One past the highest sequence committed to the ring; slots caught mid-write do not count. */
+    private static long recoverNextSequence(MappedByteBuffer buffer, int capacity) {
+        long next = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            long marker = buffer.getLong(HEADER_SIZE + slot * RECORD_SIZE);
+            if (marker > 0 && (marker - 1) % capacity == slot) {
+                next = Math.max(next, marker);
+            }
+        }
+        return next;
+    }
+
+    void recordCommand(String command, String commandId) {
+        write(TYPE_COMMAND, (byte) 0, commandId.hashCode(), 0f, 0f, 0f, command);
+    }
+
+    void recordResponse(String commandId, boolean success) {
+        write(TYPE_RESPONSE, (byte) (success ? 1 : 0), commandId.hashCode(), 0f, 0f, 0f, commandId);
+    }
+
+    void recordPose(float x, float y, float yaw, int tiltAngle) {
+        write(TYPE_POSE, (byte) 0, tiltAngle, x, y, yaw, null);
+    }
+
+    void recordIceState(Enum<?> state) {
+        write(TYPE_ICE_STATE, (byte) 0, state.ordinal(), 0f, 0f, 0f, state.name());
+    }
+
+    void recordDataChannelState(Enum<?> state) {
+        write(TYPE_DATA_CHANNEL_STATE, (byte) 0, state.ordinal(), 0f, 0f, 0f, state.name());
+    }
+
+    void recordSignaling(String event) {
+        write(TYPE_SIGNALING, (byte) 0, 0, 0f, 0f, 0f, event);
+    }
+
+    void recordStat(String name, int value, float x) {
+        write(TYPE_STATS, (byte) 0, value, x, 0f, 0f, name);
+    }
+
+    void recordEvent(String event) {
+        write(TYPE_EVENT, (byte) 0, 0, 0f, 0f, 0f, event);
+    }
+
+    private void write(byte type, byte flag, int value, float x, float y, float z, String text) {
+        if (buffer == null) {
+            return;
+        }
+        long sequence = nextSequence.getAndIncrement();
+        int base = HEADER_SIZE + (int) (sequence % capacity) * RECORD_SIZE;
+        long epochMicros = baseEpochMicros + (System.nanoTime() - baseNanos) / 1000L;
+
+        // Invalidate the slot first so a torn write is never exported as a valid record
+        buffer.putLong(base, 0L);
+        buffer.putLong(base + 8, epochMicros);
+        buffer.put(base + 16, type);
+        buffer.put(base + 17, flag);
+        buffer.putInt(base + 20, value);
+        buffer.putFloat(base + 24, x);
+        buffer.putFloat(base + 28, y);
+        buffer.putFloat(base + 32, z);
+
+        int length = 0;
+        if (text != null) {
+            length = Math.min(text.length(), MAX_TEXT_LENGTH);
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                buffer.put(base + TEXT_OFFSET + i, c < 0x80 ? (byte) c : (byte) '?');
+            }
+        }
+        buffer.put(base + 18, (byte) length);
+        buffer.putLong(base, sequence + 1);
+    }
+
+    long getRecordCount() {
+        return nextSequence.get();
+    }
+
+    /**
+     * Copies the ring to {@code destination} so an incident survives being overwritten.
+     * Records written during the copy may or may not be included.
+     */
+    void snapshot(File destination) throws IOException {
+        if (buffer == null) {
+            throw new IOException("Flight recorder is disabled");
+        }
+        buffer.force();
+        Files.copy(file.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
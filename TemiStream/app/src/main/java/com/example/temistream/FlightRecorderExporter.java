@@ -0,0 +1,189 @@
+package com.example.temistream;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Converts a {@link FlightRecorder} dump into JSON or CSV, oldest record first.
+ *
+ * Runs on the device or on a desktop JVM against a file pulled with
+ * {@code adb exec-out run-as com.example.temistream cat files/flight_recorder.bin}:
+ * <pre>java FlightRecorderExporter flight_recorder.bin [json|csv]</pre>
+ */
+final class FlightRecorderExporter {
+
+    static final class Record {
+        final long sequence;
+        final long epochMicros;
+        final byte type;
+        final byte flag;
+        final int value;
+        final float x;
+        final float y;
+        final float z;
+        final String text;
+
+        Record(long sequence, long epochMicros, byte type, byte flag, int value,
+               float x, float y, float z, String text) {
+            this.sequence = sequence;
+            this.epochMicros = epochMicros;
+            this.type = type;
+            this.flag = flag;
+            this.value = value;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.text = text;
+        }
+    }
+
+    private FlightRecorderExporter() {
+    }
+
+    static List<Record> read(ByteBuffer dump) throws IOException {
+        ByteBuffer buffer = dump.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < FlightRecorder.HEADER_SIZE || buffer.getInt(0) != FlightRecorder.MAGIC) {
+            throw new IOException("Not a flight recorder dump");
+        }
+        if (buffer.getInt(4) != FlightRecorder.VERSION) {
+            throw new IOException("Unsupported flight recorder version " + buffer.getInt(4));
+        }
+        int recordSize = buffer.getInt(8);
+        int capacity = buffer.getInt(12);
+        if (buffer.limit() < FlightRecorder.HEADER_SIZE + (long) capacity * recordSize) {
+            throw new IOException("Truncated flight recorder dump");
+        }
+
+        List<Record> records = new ArrayList<>();
+        byte[] text = new byte[FlightRecorder.MAX_TEXT_LENGTH];
+        for (int slot = 0; slot < capacity; slot++) {
+            int base = FlightRecorder.HEADER_SIZE + slot * recordSize;
+            long marker = buffer.getLong(base);
+            // Skip empty slots and slots caught mid-write
+            if (marker == 0 || (marker - 1) % capacity != slot) {
+                continue;
+            }
+            int length = Math.min(buffer.get(base + 18) & 0xFF, FlightRecorder.MAX_TEXT_LENGTH);
+            for (int i = 0; i < length; i++) {
+                text[i] = buffer.get(base + FlightRecorder.TEXT_OFFSET + i);
+            }
+            records.add(new Record(
+                    marker - 1,
+                    buffer.getLong(base + 8),
+                    buffer.get(base + 16),
+                    buffer.get(base + 17),
+                    buffer.getInt(base + 20),
+                    buffer.getFloat(base + 24),
+                    buffer.getFloat(base + 28),
+                    buffer.getFloat(base + 32),
+                    new String(text, 0, length, StandardCharsets.US_ASCII)));
+        }
+        Collections.sort(records, (a, b) -> Long.compare(a.sequence, b.sequence));
+        return records;
+    }
+
+    static String typeName(byte type) {
+        switch (type) {
+            case FlightRecorder.TYPE_COMMAND:
+                return "command";
+            case FlightRecorder.TYPE_RESPONSE:
+                return "response";
+            case FlightRecorder.TYPE_POSE:
+                return "pose";
+            case FlightRecorder.TYPE_ICE_STATE:
+                return "ice_state";
+            case FlightRecorder.TYPE_DATA_CHANNEL_STATE:
+                return "data_channel_state";
+            case FlightRecorder.TYPE_STATS:
+                return "stats";
+            case FlightRecorder.TYPE_SIGNALING:
+                return "signaling";
+            case FlightRecorder.TYPE_EVENT:
+                return "event";
+            default:
+                return "unknown_" + type;
+        }
+    }
+
+    static JSONArray toJson(List<Record> records) throws JSONException {
+        JSONArray array = new JSONArray();
+        for (Record record : records) {
+            JSONObject entry = new JSONObject();
+            entry.put("seq", record.sequence);
+            entry.put("timeMicros", record.epochMicros);
+            entry.put("type", typeName(record.type));
+            switch (record.type) {
+                case FlightRecorder.TYPE_COMMAND:
+                    entry.put("command", record.text);
+                    entry.put("commandHash", record.value);
+                    break;
+                case FlightRecorder.TYPE_RESPONSE:
+                    entry.put("commandId", record.text);
+                    entry.put("commandHash", record.value);
+                    entry.put("success", record.flag != 0);
+                    break;
+                case FlightRecorder.TYPE_POSE:
+                    entry.put("x", record.x);
+                    entry.put("y", record.y);
+                    entry.put("yaw", record.z);
+                    entry.put("tiltAngle", record.value);
+                    break;
+                case FlightRecorder.TYPE_STATS:
+                    entry.put("name", record.text);
+                    entry.put("value", record.value);
+                    entry.put("x", record.x);
+                    break;
+                default:
+                    entry.put("text", record.text);
+                    entry.put("value", record.value);
+                    break;
+            }
+            array.put(entry);
+        }
+        return array;
+    }
+
+    static String toCsv(List<Record> records) {
+        StringBuilder csv = new StringBuilder("seq,timeMicros,type,flag,value,x,y,z,text\n");
+        for (Record record : records) {
+            csv.append(record.sequence).append(',')
+                    .append(record.epochMicros).append(',')
+                    .append(typeName(record.type)).append(',')
+                    .append(record.flag).append(',')
+                    .append(record.value).append(',')
+                    .append(record.x).append(',')
+                    .append(record.y).append(',')
+                    .append(record.z).append(',')
+                    .append('"').append(record.text.replace("\"", "\"\"")).append('"')
+                    .append('\n');
+        }
+        return csv.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: FlightRecorderExporter <dump.bin> [json|csv]");
+            System.exit(2);
+        }
+        List<Record> records = read(ByteBuffer.wrap(Files.readAllBytes(Paths.get(args[0]))));
+        String format = args.length > 1 ? args[1] : "json";
+        PrintStream out = System.out;
+        if (format.equals("csv")) {
+            out.print(toCsv(records));
+        } else {
+            out.println(toJson(records).toString());
+        }
+    }
+}
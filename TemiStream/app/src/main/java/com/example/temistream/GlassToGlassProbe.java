@@ -0,0 +1,255 @@
+package com.example.temistream;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.VideoFrame;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * Measures glass-to-glass video latency: from camera capture on the robot to the frame being
+ * shown in the viewer, continuously while enabled.
+ *
+ * The viewer echoes the RTP timestamp of every frame it presents, together with how long ago
+ * it was shown. WebRTC derives a frame's RTP timestamp from its capture time at 90 kHz plus
+ * a random per-stream offset, so once the offset is known each echo maps back to a capture
+ * time. The offset is found by marking the stream: the probe drops two frames in a fixed
+ * pattern, the viewer's echoes show the same gaps in RTP time, and matching the intervals
+ * around the gaps pins the offset down to a single frame. Markers repeat every two seconds
+ * until the offset is found and every thirty seconds after that; each costs one skipped
+ * frame twice, which the viewer cannot see.
+ *
+ * The echoes' arrival time is moved back by half the control channel's minimum round-trip
+ * time, measured with {@code latency_ping}/{@code latency_pong}, to get the display time on
+ * the robot's clock.
+ */
+final class GlassToGlassProbe implements RoiVideoProcessor.FrameFilter {
+
+    static final int MARKER_INTERVAL_FRAMES = 60;
+    static final int RELOCK_INTERVAL_FRAMES = 900;
+    static final int MAX_SAMPLES = 512;
+    // Native capture times are truncated to whole milliseconds
+    static final long TOLERANCE_TICKS = 180;
+    private static final long TICK_MASK = 0xFFFFFFFFL;
+    private static final int TICKS_PER_MS = 90;
+    // Frame timestamps further from our clock than this come from another clock base
+    private static final long MAX_CAPTURE_AGE_NS = 500_000_000L;
+    private static final int MAX_MARKERS = 8;
+    private static final int RTT_WINDOW = 10;
+
+    // Pattern relative to the marker's first frame: keep, drop, keep, keep, drop, keep
+    private static final boolean[] MARKER_DROPS = {false, true, false, false, true, false};
+
+    private final LongSupplier clockNanos;
+    private volatile boolean enabled;
+
+    // Capture thread state
+    private int framesUntilMarker;
+    private int markerPhase = -1;
+    private final long[] markerFrames = new long[4];
+    private int markerFrameCount;
+
+    // Marker capture times in ms, four per marker, newest last
+    private final long[][] markers = new long[MAX_MARKERS][];
+    private int markerCount;
+
+    private boolean locked;
+    private long offsetTicks;
+    private final double[] rttMs = new double[RTT_WINDOW];
+    private int rttCount;
+    private final double[] samplesMs = new double[MAX_SAMPLES];
+    private long sampleCount;
+
+    GlassToGlassProbe() {
+        this(System::nanoTime);
+    }
+
+    GlassToGlassProbe(LongSupplier clockNanos) {
+        this.clockNanos = clockNanos;
+    }
+
+    synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (enabled) {
+            locked = false;
+            markerCount = 0;
+            rttCount = 0;
+            sampleCount = 0;
+            framesUntilMarker = 0;
+            markerPhase = -1;
+        }
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public boolean accept(VideoFrame frame) {
+        return !enabled || onFrameCaptured(frame.getTimestampNs());
+    }
+
+    /** Capture-thread side; returns false for the frames a marker drops. */
+    synchronized boolean onFrameCaptured(long frameTimestampNs) {
+        if (!enabled) {
+            return true;
+        }
+        long now = clockNanos.getAsLong();
+        long captureNs = now - frameTimestampNs >= 0 && now - frameTimestampNs < MAX_CAPTURE_AGE_NS
+                ? frameTimestampNs : now;
+
+        if (markerPhase < 0) {
+            if (--framesUntilMarker > 0) {
+                return true;
+            }
+            markerPhase = 0;
+            markerFrameCount = 0;
+        }
+        boolean drop = MARKER_DROPS[markerPhase];
+        if (!drop) {
+            markerFrames[markerFrameCount++] = captureNs / 1_000_000;
+        }
+        if (++markerPhase == MARKER_DROPS.length) {
+            addMarkerLocked(markerFrames.clone());
+            markerPhase = -1;
+            framesUntilMarker = locked ? RELOCK_INTERVAL_FRAMES : MARKER_INTERVAL_FRAMES;
+        }
+        return !drop;
+    }
+
+    /** Time to put in the next {@code latency_ping}, in ms of the probe's clock. */
+    double pingTime() {
+        return clockNanos.getAsLong() / 1e6;
+    }
+
+    synchronized void onPong(double pingTimeMs) {
+        double rtt = clockNanos.getAsLong() / 1e6 - pingTimeMs;
+        if (rtt >= 0) {
+            rttMs[rttCount++ % RTT_WINDOW] = rtt;
+        }
+    }
+
+    /**
+     * Handles a {@code frame_echo} batch: {@code frames} holds {@code [rtpTimestamp,
+     * presentedFrames, ageMs]} entries in presentation order.
+     */
+    synchronized void onEcho(JSONArray frames) throws JSONException {
+        if (!enabled) {
+            return;
+        }
+        int count = frames.length();
+        long[] rtp = new long[count];
+        long[] presented = new long[count];
+        double[] ageMs = new double[count];
+        for (int i = 0; i < count; i++) {
+            JSONArray frame = frames.getJSONArray(i);
+            rtp[i] = frame.getLong(0) & TICK_MASK;
+            presented[i] = frame.getLong(1);
+            ageMs[i] = frame.getDouble(2);
+        }
+        findOffsetLocked(rtp, presented);
+        if (!locked || rttCount == 0) {
+            return;
+        }
+
+        double nowMs = clockNanos.getAsLong() / 1e6;
+        double oneWayMs = minRttLocked() / 2;
+        long nowTicks = ((long) nowMs * TICKS_PER_MS + offsetTicks) & TICK_MASK;
+        for (int i = 0; i < count; i++) {
+            long backTicks = (nowTicks - rtp[i]) & TICK_MASK;
+            if (backTicks > 10_000L * TICKS_PER_MS) {
+                // Older than ten seconds or from before the offset changed
+                continue;
+            }
+            double captureMs = (long) nowMs - backTicks / (double) TICKS_PER_MS;
+            double displayMs = nowMs - oneWayMs - ageMs[i];
+            double latency = displayMs - captureMs;
+            if (latency >= 0) {
+                samplesMs[(int) (sampleCount++ % MAX_SAMPLES)] = latency;
+            }
+        }
+    }
+
+    synchronized boolean isLocked() {
+        return locked;
+    }
+
+    synchronized long getSampleCount() {
+        return sampleCount;
+    }
+
+    /** Lock state, control-channel RTT and the distribution of the last {@link #MAX_SAMPLES} samples. */
+    synchronized JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("locked", locked);
+        stats.put("controlRttMs", rttCount > 0 ? round(minRttLocked()) : JSONObject.NULL);
+        int count = (int) Math.min(sampleCount, MAX_SAMPLES);
+        stats.put("samples", sampleCount);
+        if (count > 0) {
+            double[] sorted = Arrays.copyOf(samplesMs, count);
+            Arrays.sort(sorted);
+            stats.put("p50Ms", round(percentile(sorted, 0.5)));
+            stats.put("p95Ms", round(percentile(sorted, 0.95)));
+            stats.put("p99Ms", round(percentile(sorted, 0.99)));
+            stats.put("minMs", round(sorted[0]));
+            stats.put("maxMs", round(sorted[count - 1]));
+        }
+        return stats;
+    }
+
+    /** The latest sample, for the flight recorder; -1 if there is none. */
+    synchronized int getLatestMs() {
+        return sampleCount == 0 ? -1 : (int) samplesMs[(int) ((sampleCount - 1) % MAX_SAMPLES)];
+    }
+
+    private void addMarkerLocked(long[] frameMs) {
+        if (markerCount == MAX_MARKERS) {
+            System.arraycopy(markers, 1, markers, 0, MAX_MARKERS - 1);
+            markerCount--;
+        }
+        markers[markerCount++] = frameMs;
+    }
+
+    private void findOffsetLocked(long[] rtp, long[] presented) {
+        for (int i = 0; i + 3 < rtp.length; i++) {
+            if (presented[i + 3] - presented[i] != 3) {
+                // The viewer skipped a frame in between; the intervals would not line up
+                continue;
+            }
+            for (int m = markerCount - 1; m >= 0; m--) {
+                long[] marker = markers[m];
+                if (matches(rtp[i + 1] - rtp[i], marker[1] - marker[0])
+                        && matches(rtp[i + 2] - rtp[i + 1], marker[2] - marker[1])
+                        && matches(rtp[i + 3] - rtp[i + 2], marker[3] - marker[2])) {
+                    offsetTicks = (rtp[i] - marker[0] * TICKS_PER_MS) & TICK_MASK;
+                    locked = true;
+                    // Older markers can no longer be told apart from this one
+                    markerCount = 0;
+                    return;
+                }
+            }
+        }
+    }
+
+    private static boolean matches(long rtpDelta, long captureDeltaMs) {
+        return Math.abs((rtpDelta & TICK_MASK) - captureDeltaMs * TICKS_PER_MS) <= TOLERANCE_TICKS;
+    }
+
+    private double minRttLocked() {
+        double min = Double.MAX_VALUE;
+        for (int i = 0; i < Math.min(rttCount, RTT_WINDOW); i++) {
+            min = Math.min(min, rttMs[i]);
+        }
+        return min;
+    }
+
+    private static double percentile(double[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10) / 10.0;
+    }
+}
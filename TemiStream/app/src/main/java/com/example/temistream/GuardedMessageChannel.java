@@ -0,0 +1,102 @@
+package com.example.temistream;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link MessageChannel} that can be closed while other threads are still sending on it.
+ *
+ * Telemetry, command replies and transfers send from several threads, and a DataChannel that
+ * is disposed under a send crashes in native code. Here every call registers itself on an
+ * atomic counter first and is refused once {@link #close} has run. The release action, which
+ * closes and disposes the DataChannel, runs exactly once: right away if nothing is in flight,
+ * otherwise on the thread of the last call to return. Sends never take a lock.
+ */
+final class GuardedMessageChannel implements MessageChannel {
+
+    // Added to the count by close(); the count stays negative from then on
+    private static final int CLOSED = Integer.MIN_VALUE;
+
+    private final MessageChannel delegate;
+    private final Runnable release;
+    private final AtomicInteger users = new AtomicInteger();
+
+    GuardedMessageChannel(MessageChannel delegate, Runnable release) {
+        this.delegate = delegate;
+        this.release = release;
+    }
+
+    @Override
+    public boolean isOpen() {
+        if (!enter()) {
+            return false;
+        }
+        try {
+            return delegate.isOpen();
+        } finally {
+            leave();
+        }
+    }
+
+    @Override
+    public boolean send(ByteBuffer data, boolean binary) {
+        if (!enter()) {
+            return false;
+        }
+        try {
+            return delegate.send(data, binary);
+        } finally {
+            leave();
+        }
+    }
+
+    @Override
+    public long bufferedAmount() {
+        if (!enter()) {
+            return 0;
+        }
+        try {
+            return delegate.bufferedAmount();
+        } finally {
+            leave();
+        }
+    }
+
+    /** Refuses further calls; the release runs once the calls in flight have returned. */
+    void close() {
+        for (;;) {
+            int count = users.get();
+            if (count < 0) {
+                return;
+            }
+            if (users.compareAndSet(count, count + CLOSED)) {
+                if (count == 0) {
+                    release.run();
+                }
+                return;
+            }
+        }
+    }
+
+    boolean isClosed() {
+        return users.get() < 0;
+    }
+
+    private boolean enter() {
+        for (;;) {
+            int count = users.get();
+            if (count < 0) {
+                return false;
+            }
+            if (users.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void leave() {
+        if (users.decrementAndGet() == CLOSED) {
+            release.run();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.temistream;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Coalescing servo loop for the head tilt.
+ *
+ * Tilt commands only update a target angle; the SDK is driven from a single scheduled tick
+ * that sends the latest target at most once per {@link #MIN_ISSUE_INTERVAL_MS}. Holding a tilt
+ * key therefore never builds a backlog of {@code tiltAngle} calls: whatever arrives between
+ * two ticks collapses into one setpoint. A slew-rate model of the head estimates the real
+ * angle so position updates report where the head is, not where it was last told to go.
+ */
+final class HeadTiltController {
+
+    interface TiltActuator {
+        void tiltAngle(int degrees);
+    }
+
+    // Minimum spacing between tiltAngle calls sent to the SDK
+    static final long MIN_ISSUE_INTERVAL_MS = 120;
+    // Approximate head servo speed used by the position model
+    static final double SLEW_DEGREES_PER_SECOND = 90.0;
+    // Cadence of model updates while the head is still moving
+    private static final long MODEL_TICK_MS = 50;
+
+    private final TiltActuator actuator;
+    private final ScheduledExecutorService scheduler;
+    private final LongSupplier clock;
+    private final int minAngle;
+    private final int maxAngle;
+
+    private int targetAngle = 0;
+    private int commandedAngle = 0;
+    private double estimatedAngle = 0;
+    private long lastModelUpdateNanos;
+    private long lastIssueNanos;
+    private boolean tickScheduled = false;
+    private long issuedCount = 0;
+    private long coalescedCount = 0;
+
+    HeadTiltController(TiltActuator actuator, ScheduledExecutorService scheduler, int minAngle, int maxAngle) {
+        this(actuator, scheduler, minAngle, maxAngle, System::nanoTime);
+    }
+
+    HeadTiltController(TiltActuator actuator, ScheduledExecutorService scheduler,
+                       int minAngle, int maxAngle, LongSupplier clock) {
+        this.actuator = actuator;
+        this.scheduler = scheduler;
+        this.clock = clock;
+        this.minAngle = minAngle;
+        this.maxAngle = maxAngle;
+        long now = clock.getAsLong();
+        this.lastModelUpdateNanos = now;
+        this.lastIssueNanos = now - TimeUnit.MILLISECONDS.toNanos(MIN_ISSUE_INTERVAL_MS);
+    }
+
+    /** Sets an absolute target, clamped to the head's range. Returns the clamped target. */
+    synchronized int setTarget(int angle) {
+        int clamped = Math.max(minAngle, Math.min(maxAngle, angle));
+        if (clamped != targetAngle && targetAngle != commandedAngle) {
+            // The previous target never reached the SDK
+            coalescedCount++;
+        }
+        targetAngle = clamped;
+        scheduleTickLocked(clock.getAsLong());
+        return clamped;
+    }
+
+    /**
+     * Moves the target relative to the current target rather than the estimated angle, so
+     * repeated key presses accumulate even while the head is still travelling.
+     */
+    synchronized int stepTarget(int delta) {
+        return setTarget(targetAngle + delta);
+    }
+
+    /** Resets the model without moving the head, e.g. after the robot reports ready. */
+    synchronized void resetTo(int angle) {
+        targetAngle = angle;
+        commandedAngle = angle;
+        estimatedAngle = angle;
+        lastModelUpdateNanos = clock.getAsLong();
+    }
+
+    synchronized int getTargetAngle() {
+        return targetAngle;
+    }
+
+    synchronized int getEstimatedAngle() {
+        updateModelLocked(clock.getAsLong());
+        return (int) Math.round(estimatedAngle);
+    }
+
+    synchronized long getIssuedCount() {
+        return issuedCount;
+    }
+
+    synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    private void tick() {
+        int issue;
+        synchronized (this) {
+            tickScheduled = false;
+            long now = clock.getAsLong();
+            updateModelLocked(now);
+
+            long sinceIssue = now - lastIssueNanos;
+            if (targetAngle != commandedAngle
+                    && sinceIssue >= TimeUnit.MILLISECONDS.toNanos(MIN_ISSUE_INTERVAL_MS)) {
+                commandedAngle = targetAngle;
+                lastIssueNanos = now;
+                issuedCount++;
+                issue = commandedAngle;
+            } else {
+                issue = Integer.MIN_VALUE;
+            }
+            scheduleTickLocked(now);
+        }
+
+        if (issue != Integer.MIN_VALUE) {
+            actuator.tiltAngle(issue);
+        }
+    }
+
+    private void scheduleTickLocked(long now) {
+        if (tickScheduled) {
+            return;
+        }
+        long delayNanos;
+        if (targetAngle != commandedAngle) {
+            long nextIssue = lastIssueNanos + TimeUnit.MILLISECONDS.toNanos(MIN_ISSUE_INTERVAL_MS);
+            delayNanos = Math.max(0, nextIssue - now);
+        } else if (Math.abs(estimatedAngle - commandedAngle) > 0.5) {
+            // Keep the model ticking until the head has settled
+            delayNanos = TimeUnit.MILLISECONDS.toNanos(MODEL_TICK_MS);
+        } else {
+            return;
+        }
+        tickScheduled = true;
+        scheduler.schedule(this::tick, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void updateModelLocked(long now) {
+        double elapsedSeconds = (now - lastModelUpdateNanos) / 1_000_000_000.0;
+        lastModelUpdateNanos = now;
+        if (elapsedSeconds <= 0) {
+            return;
+        }
+        double maxTravel = SLEW_DEGREES_PER_SECOND * elapsedSeconds;
+        double error = commandedAngle - estimatedAngle;
+        if (Math.abs(error) <= maxTravel) {
+            estimatedAngle = commandedAngle;
+        } else {
+            estimatedAngle += Math.signum(error) * maxTravel;
+        }
+    }
+}
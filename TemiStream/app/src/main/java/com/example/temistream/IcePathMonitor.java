@@ -0,0 +1,274 @@
+package com.example.temistream;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.PeerConnection;
+import org.webrtc.RTCStats;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the "direct first, relay as fallback" ICE policy and reports which network path a
+ * session ended up on.
+ *
+ * With {@link IceServerConfig.Policy#PREFER_DIRECT} a session starts with STUN servers only,
+ * so no TURN allocation is made on networks where a host or server-reflexive pair works. If
+ * ICE fails, or is not connected {@link #DIRECT_TIMEOUT_MS} after checks began, the listener
+ * adds TURN and restarts ICE. Once that has happened, later sessions start with TURN right
+ * away, on the assumption that the network has not changed.
+ *
+ * The selected candidate pair is read from the stats the app samples anyway; a change of
+ * route is reported with both candidate types, the transport and the round-trip time.
+ */
+final class IcePathMonitor {
+
+    interface Listener {
+        /**
+         * TURN should be added to the configuration and ICE restarted.
+         *
+         * @param generation the session the fallback is for, as passed to {@link #onSessionStart}
+         */
+        void onRelayFallback(String reason, int generation);
+
+        void onPathChanged(Path path);
+    }
+
+    static final long DIRECT_TIMEOUT_MS = 5000;
+
+    /** The selected candidate pair of a session. */
+    static final class Path {
+        final String localType;
+        final String remoteType;
+        final String protocol;
+        final String relayProtocol;
+        final String networkType;
+        final String localId;
+        final String remoteId;
+        final long rttMs;
+
+        Path(String localType, String remoteType, String protocol, String relayProtocol, String networkType,
+             String localId, String remoteId, long rttMs) {
+            this.localType = localType;
+            this.remoteType = remoteType;
+            this.protocol = protocol;
+            this.relayProtocol = relayProtocol;
+            this.networkType = networkType;
+            this.localId = localId;
+            this.remoteId = remoteId;
+            this.rttMs = rttMs;
+        }
+
+        boolean isRelay() {
+            return "relay".equals(localType) || "relay".equals(remoteType);
+        }
+
+        /** E.g. "srflx/host udp" or "relay/srflx udp via tls relay". */
+        String describe() {
+            return localType + "/" + remoteType + " " + protocol
+                    + (relayProtocol != null ? " via " + relayProtocol + " relay" : "");
+        }
+
+        boolean sameRoute(Path other) {
+            return other != null && Objects.equals(localId, other.localId) && Objects.equals(remoteId, other.remoteId);
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("localType", localType);
+            json.put("remoteType", remoteType);
+            json.put("protocol", protocol);
+            if (relayProtocol != null) {
+                json.put("relayProtocol", relayProtocol);
+            }
+            if (networkType != null) {
+                json.put("networkType", networkType);
+            }
+            json.put("relay", isRelay());
+            json.put("description", describe());
+            json.put("rttMs", rttMs);
+            return json;
+        }
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final Listener listener;
+
+    private boolean relayNeeded;
+    private boolean directStage;
+    private boolean connected;
+    private boolean fellBack;
+    private String fallbackReason;
+    private int generation;
+    private ScheduledFuture<?> directTimeout;
+    private Path path;
+    private int pathChanges;
+    private int fallbacks;
+
+    IcePathMonitor(ScheduledExecutorService scheduler, Listener listener) {
+        this.scheduler = scheduler;
+        this.listener = listener;
+    }
+
+    /** Whether an earlier session needed TURN, so new ones should not hold it back. */
+    synchronized boolean isRelayNeeded() {
+        return relayNeeded;
+    }
+
+    /**
+     * @param withoutTurn whether the session starts with TURN held back
+     * @param generation  the session's {@link SessionLoop.State#generation}, handed back with a fallback
+     */
+    synchronized void onSessionStart(boolean withoutTurn, int generation) {
+        cancelTimeoutLocked();
+        this.generation = generation;
+        directStage = withoutTurn;
+        connected = false;
+        fellBack = false;
+        fallbackReason = null;
+        path = null;
+    }
+
+    void onIceConnectionChange(PeerConnection.IceConnectionState state) {
+        String reason = null;
+        int session;
+        synchronized (this) {
+            session = generation;
+            switch (state) {
+                case CONNECTED:
+                case COMPLETED:
+                    connected = true;
+                    cancelTimeoutLocked();
+                    break;
+                case CHECKING:
+                case DISCONNECTED:
+                    connected = false;
+                    if (directStage && directTimeout == null) {
+                        directTimeout = scheduler.schedule(this::onDirectTimeout, DIRECT_TIMEOUT_MS,
+                                TimeUnit.MILLISECONDS);
+                    }
+                    break;
+                case FAILED:
+                    connected = false;
+                    if (directStage) {
+                        reason = "ice_failed";
+                        fallBackLocked(reason);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (reason != null) {
+            listener.onRelayFallback(reason, session);
+        }
+    }
+
+    private void onDirectTimeout() {
+        int session;
+        synchronized (this) {
+            directTimeout = null;
+            if (!directStage || connected) {
+                return;
+            }
+            fallBackLocked("direct_timeout");
+            session = generation;
+        }
+        listener.onRelayFallback("direct_timeout", session);
+    }
+
+    private void fallBackLocked(String reason) {
+        cancelTimeoutLocked();
+        directStage = false;
+        relayNeeded = true;
+        fellBack = true;
+        fallbackReason = reason;
+        fallbacks++;
+    }
+
+    private void cancelTimeoutLocked() {
+        if (directTimeout != null) {
+            directTimeout.cancel(false);
+            directTimeout = null;
+        }
+    }
+
+    /** Feeds a stats report; reports the path if the selected pair changed. */
+    void onStats(Map<String, RTCStats> report) {
+        Path selected = selectedPath(report);
+        if (selected == null) {
+            return;
+        }
+        boolean changed;
+        synchronized (this) {
+            changed = !selected.sameRoute(path);
+            path = selected;
+            if (changed) {
+                pathChanges++;
+            }
+        }
+        if (changed) {
+            listener.onPathChanged(selected);
+        }
+    }
+
+    synchronized JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("directStage", directStage);
+        stats.put("fellBack", fellBack);
+        if (fallbackReason != null) {
+            stats.put("fallbackReason", fallbackReason);
+        }
+        stats.put("relayNeeded", relayNeeded);
+        stats.put("fallbacks", fallbacks);
+        stats.put("pathChanges", pathChanges);
+        stats.put("path", path != null ? path.toJson() : JSONObject.NULL);
+        return stats;
+    }
+
+    /** The transport's selected pair, or the nominated succeeded pair if none is marked. */
+    static Path selectedPath(Map<String, RTCStats> report) {
+        RTCStats pair = null;
+        for (RTCStats stats : report.values()) {
+            if ("transport".equals(stats.getType())) {
+                Object id = stats.getMembers().get("selectedCandidatePairId");
+                if (id != null) {
+                    pair = report.get(id.toString());
+                    break;
+                }
+            }
+        }
+        if (pair == null) {
+            for (RTCStats stats : report.values()) {
+                Map<String, Object> members = stats.getMembers();
+                if ("candidate-pair".equals(stats.getType()) && Boolean.TRUE.equals(members.get("nominated"))
+                        && "succeeded".equals(members.get("state"))) {
+                    pair = stats;
+                    break;
+                }
+            }
+        }
+        if (pair == null) {
+            return null;
+        }
+        Map<String, Object> members = pair.getMembers();
+        RTCStats local = report.get(String.valueOf(members.get("localCandidateId")));
+        RTCStats remote = report.get(String.valueOf(members.get("remoteCandidateId")));
+        if (local == null || remote == null) {
+            return null;
+        }
+        Object rtt = members.get("currentRoundTripTime");
+        long rttMs = rtt instanceof Number ? Math.round(((Number) rtt).doubleValue() * 1000) : -1;
+        Map<String, Object> localMembers = local.getMembers();
+        return new Path(
+                String.valueOf(localMembers.get("candidateType")),
+                String.valueOf(remote.getMembers().get("candidateType")),
+                String.valueOf(localMembers.get("protocol")),
+                (String) localMembers.get("relayProtocol"),
+                (String) localMembers.get("networkType"),
+                local.getId(), remote.getId(), rttMs);
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.temistream;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.PeerConnection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The STUN and TURN servers a session may use and the policy for when to use TURN.
+ *
+ * The configuration comes from the signaling server's {@code connection_established}
+ * message, or from the launch intent when no server provides one; the public Google STUN
+ * servers are the fallback. It is written in the browser's {@code RTCIceServer} format, so
+ * the viewer can use the same message:
+ *
+ * <pre>{"iceServers": [{"urls": ["turn:turn.example.com:3478?transport=udp",
+ *     "turns:turn.example.com:5349?transport=tcp"], "username": "u", "credential": "p"}],
+ *  "icePolicy": "prefer_direct"}</pre>
+ */
+final class IceServerConfig {
+
+    enum Policy {
+        /** STUN only at first; TURN is added if no direct path is found in time. */
+        PREFER_DIRECT("prefer_direct"),
+        /** All servers from the start; ICE priorities still rank host and srflx above relay. */
+        ALL("all"),
+        /** Relay candidates only, e.g. to check a TURN server. */
+        RELAY("relay");
+
+        final String key;
+
+        Policy(String key) {
+            this.key = key;
+        }
+
+        static Policy fromKey(String key) {
+            for (Policy policy : values()) {
+                if (policy.key.equals(key)) {
+                    return policy;
+                }
+            }
+            throw new IllegalArgumentException("Unknown ICE policy: " + key);
+        }
+    }
+
+    static final class Server {
+        final List<String> urls;
+        final String username;
+        final String credential;
+
+        Server(List<String> urls, String username, String credential) {
+            this.urls = urls;
+            this.username = username;
+            this.credential = credential;
+        }
+
+        boolean isTurn() {
+            return isTurnUrl(urls.get(0));
+        }
+    }
+
+    static final IceServerConfig DEFAULT = new IceServerConfig(List.of(
+            new Server(List.of("stun:stun.l.google.com:19302"), null, null),
+            new Server(List.of("stun:stun1.l.google.com:19302"), null, null)),
+            Policy.PREFER_DIRECT, "default");
+
+    final List<Server> servers;
+    final Policy policy;
+    /** Where the configuration came from, for reporting. */
+    final String source;
+
+    IceServerConfig(List<Server> servers, Policy policy, String source) {
+        this.servers = Collections.unmodifiableList(servers);
+        this.policy = policy;
+        this.source = source;
+    }
+
+    /**
+     * Parses {@code iceServers} and {@code icePolicy} from {@code json}. Entries are checked
+     * the way the browser checks them: every URL needs a known scheme, and TURN needs a
+     * username and credential.
+     *
+     * @throws IllegalArgumentException if an entry is invalid or there are no servers
+     */
+    static IceServerConfig parse(JSONObject json, String source) throws JSONException {
+        JSONArray entries = json.getJSONArray("iceServers");
+        List<Server> servers = new ArrayList<>();
+        for (int i = 0; i < entries.length(); i++) {
+            JSONObject entry = entries.getJSONObject(i);
+            List<String> urls = new ArrayList<>();
+            JSONArray urlArray = entry.optJSONArray("urls");
+            if (urlArray != null) {
+                for (int j = 0; j < urlArray.length(); j++) {
+                    urls.add(urlArray.getString(j));
+                }
+            } else {
+                urls.add(entry.getString("urls"));
+            }
+            if (urls.isEmpty()) {
+                throw new IllegalArgumentException("ICE server without URLs");
+            }
+            String username = entry.has("username") ? entry.getString("username") : null;
+            String credential = entry.has("credential") ? entry.getString("credential") : null;
+            boolean turn = false;
+            for (String url : urls) {
+                String scheme = url.substring(0, Math.max(0, url.indexOf(':'))).toLowerCase(Locale.ROOT);
+                switch (scheme) {
+                    case "stun":
+                    case "stuns":
+                        break;
+                    case "turn":
+                    case "turns":
+                        turn = true;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unsupported ICE server URL: " + url);
+                }
+            }
+            if (turn && (username == null || credential == null)) {
+                throw new IllegalArgumentException("TURN server needs username and credential: " + urls.get(0));
+            }
+            // Keep STUN and TURN apart so the staged policy can leave TURN out
+            List<String> stunUrls = new ArrayList<>();
+            List<String> turnUrls = new ArrayList<>();
+            for (String url : urls) {
+                (isTurnUrl(url) ? turnUrls : stunUrls).add(url);
+            }
+            if (!stunUrls.isEmpty()) {
+                servers.add(new Server(stunUrls, null, null));
+            }
+            if (!turnUrls.isEmpty()) {
+                servers.add(new Server(turnUrls, username, credential));
+            }
+        }
+        if (servers.isEmpty()) {
+            throw new IllegalArgumentException("No ICE servers");
+        }
+        Policy policy = json.has("icePolicy") ? Policy.fromKey(json.getString("icePolicy")) : Policy.PREFER_DIRECT;
+        return new IceServerConfig(servers, policy, source);
+    }
+
+    IceServerConfig withPolicy(Policy policy) {
+        return new IceServerConfig(servers, policy, source);
+    }
+
+    /** turn: and turns: URLs, in any case, as the URI scheme is case-insensitive. */
+    static boolean isTurnUrl(String url) {
+        return url.toLowerCase(Locale.ROOT).startsWith("turn");
+    }
+
+    boolean hasTurn() {
+        for (Server server : servers) {
+            if (server.isTurn()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Whether a new session should start without TURN and add it only on fallback. */
+    boolean startsDirect() {
+        return policy == Policy.PREFER_DIRECT && hasTurn();
+    }
+
+    List<PeerConnection.IceServer> toIceServers(boolean includeTurn) {
+        List<PeerConnection.IceServer> iceServers = new ArrayList<>();
+        for (Server server : servers) {
+            if (server.isTurn() && !includeTurn) {
+                continue;
+            }
+            PeerConnection.IceServer.Builder builder = PeerConnection.IceServer.builder(server.urls);
+            if (server.username != null) {
+                builder.setUsername(server.username).setPassword(server.credential);
+            }
+            iceServers.add(builder.createIceServer());
+        }
+        return iceServers;
+    }
+
+    PeerConnection.IceTransportsType transportsType() {
+        return policy == Policy.RELAY ? PeerConnection.IceTransportsType.RELAY : PeerConnection.IceTransportsType.ALL;
+    }
+
+    /** The configuration without credentials. */
+    JSONObject describe() throws JSONException {
+        JSONArray urls = new JSONArray();
+        for (Server server : servers) {
+            for (String url : server.urls) {
+                urls.put(url);
+            }
+        }
+        JSONObject description = new JSONObject();
+        description.put("source", source);
+        description.put("policy", policy.key);
+        description.put("urls", urls);
+        return description;
+    }
+}
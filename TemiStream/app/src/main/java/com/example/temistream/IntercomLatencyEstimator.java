@@ -0,0 +1,95 @@
+package com.example.temistream;
+
+import org.webrtc.RTCStats;
+import org.webrtc.RTCStatsReport;
+
+import java.util.Map;
+
+/**
+ * Estimates the intercom's mouth-to-ear latency, from the operator's microphone to the robot
+ * speaker, out of the robot's own receive statistics.
+ *
+ * Of the stages on that path the robot can observe the network (half the round-trip time of
+ * the selected candidate pair) and its jitter buffer (the growth of {@code jitterBufferDelay}
+ * per emitted sample since the last sample). Packetization adds one Opus frame; browser
+ * capture and Android playout buffering are not visible in either peer's stats, so typical
+ * values are added for them.
+ */
+final class IntercomLatencyEstimator {
+
+    static final int CAPTURE_BUFFER_MS = 10;
+    static final int PLAYOUT_BUFFER_MS = 40;
+
+    private long lastEmittedCount = -1;
+    private double lastJitterBufferDelay;
+    private int jitterBufferMs;
+    private int rttMs;
+    private int estimateMs = -1;
+
+    /** Pulls the audio inbound-rtp and nominated candidate-pair entries out of {@code report}. */
+    synchronized void onStats(RTCStatsReport report, int ptimeMs) {
+        double jitterBufferDelay = -1;
+        long emittedCount = -1;
+        double roundTripTime = -1;
+        for (RTCStats stats : report.getStatsMap().values()) {
+            Map<String, Object> members = stats.getMembers();
+            if ("inbound-rtp".equals(stats.getType()) && "audio".equals(members.get("kind"))) {
+                jitterBufferDelay = asDouble(members.get("jitterBufferDelay"), -1);
+                emittedCount = (long) asDouble(members.get("jitterBufferEmittedCount"), -1);
+            } else if ("candidate-pair".equals(stats.getType()) && Boolean.TRUE.equals(members.get("nominated"))
+                    && "succeeded".equals(members.get("state"))) {
+                roundTripTime = asDouble(members.get("currentRoundTripTime"), -1);
+            }
+        }
+        update(jitterBufferDelay, emittedCount, roundTripTime, ptimeMs);
+    }
+
+    /**
+     * Takes cumulative {@code jitterBufferDelay} seconds and emitted sample count, and the
+     * current round-trip time in seconds; negative values mean not reported.
+     */
+    synchronized void update(double jitterBufferDelay, long emittedCount, double roundTripTime, int ptimeMs) {
+        if (roundTripTime >= 0) {
+            rttMs = (int) Math.round(roundTripTime * 1000);
+        }
+        if (emittedCount >= 0 && jitterBufferDelay >= 0) {
+            if (lastEmittedCount >= 0 && emittedCount > lastEmittedCount) {
+                jitterBufferMs = (int) Math.round((jitterBufferDelay - lastJitterBufferDelay) * 1000
+                        / (emittedCount - lastEmittedCount));
+            } else if (lastEmittedCount < 0 && emittedCount > 0) {
+                jitterBufferMs = (int) Math.round(jitterBufferDelay * 1000 / emittedCount);
+            }
+            // With DTX nothing is emitted during silence; keep the last value
+            lastEmittedCount = emittedCount;
+            lastJitterBufferDelay = jitterBufferDelay;
+        }
+        if (emittedCount > 0) {
+            estimateMs = CAPTURE_BUFFER_MS + ptimeMs + rttMs / 2 + jitterBufferMs + PLAYOUT_BUFFER_MS;
+        }
+    }
+
+    synchronized void reset() {
+        lastEmittedCount = -1;
+        lastJitterBufferDelay = 0;
+        jitterBufferMs = 0;
+        rttMs = 0;
+        estimateMs = -1;
+    }
+
+    /** The latest estimate, or -1 before any audio has been received. */
+    synchronized int getEstimateMs() {
+        return estimateMs;
+    }
+
+    synchronized int getJitterBufferMs() {
+        return jitterBufferMs;
+    }
+
+    synchronized int getRttMs() {
+        return rttMs;
+    }
+
+    private static double asDouble(Object value, double fallback) {
+        return value instanceof Number ? ((Number) value).doubleValue() : fallback;
+    }
+}
@@ -2,9 +2,17 @@
 package com.example.temistream;
 
 import android.Manifest;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
+import android.media.AudioManager;
 import android.os.Bundle;
+import android.provider.Settings;
 import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -18,17 +26,19 @@ import org.webrtc.AudioSource;
 import org.webrtc.AudioTrack;
 import org.webrtc.Camera1Enumerator;
 import org.webrtc.Camera2Enumerator;
+import org.webrtc.CameraEnumerationAndroid;
 import org.webrtc.CameraEnumerator;
 import org.webrtc.CameraVideoCapturer;
 import org.webrtc.DataChannel;
 import org.webrtc.DefaultVideoDecoderFactory;
-import org.webrtc.DefaultVideoEncoderFactory;
 import org.webrtc.EglBase;
 import org.webrtc.IceCandidate;
 import org.webrtc.MediaConstraints;
 import org.webrtc.MediaStream;
+import org.webrtc.MediaStreamTrack;
 import org.webrtc.PeerConnection;
 import org.webrtc.PeerConnectionFactory;
+import org.webrtc.RTCStats;
 import org.webrtc.RtpReceiver;
 import org.webrtc.SdpObserver;
 import org.webrtc.SessionDescription;
@@ -40,19 +50,20 @@ import org.webrtc.VideoTrack;
 
 // Temi Robot SDK 1.136.0 Imports
 import com.robotemi.sdk.Robot;
-import com.robotemi.sdk.TtsRequest;
-import com.robotemi.sdk.listeners.OnRobotReadyListener;
-import com.robotemi.sdk.listeners.OnGoToLocationStatusChangedListener;
-import com.robotemi.sdk.listeners.OnMovementStatusChangedListener;
-import com.robotemi.sdk.navigation.listener.OnCurrentPositionChangedListener;
-import com.robotemi.sdk.navigation.model.Position;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.HashMap;
-import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.io.File;
+import java.io.IOException;
 
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -64,11 +75,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-public class MainActivity extends AppCompatActivity implements
-        OnRobotReadyListener,
-        OnGoToLocationStatusChangedListener,
-        OnMovementStatusChangedListener,
-        OnCurrentPositionChangedListener {
+public class MainActivity extends AppCompatActivity implements RobotCommandHandler.Listener {
 
     private static final String TAG = "TemiStream";
     private static final int PERMISSION_REQUEST_CODE = 1000;
@@ -76,42 +83,125 @@ public class MainActivity extends AppCompatActivity implements
     // UPDATE THIS WITH YOUR NGROK URL
     private static final String WEBSOCKET_URL = "wss://366f607b8176.ngrok-free.app";
 
-    // Tilt angle constants
-    private static final int MIN_TILT_ANGLE = -25;  // Maximum down
-    private static final int MAX_TILT_ANGLE = 55;   // Maximum up
-    private static final int DEFAULT_TILT_STEP = 10; // Default step for tilt adjustments
+    // Launch with --ez com.example.temistream.WEBRTC_TRACER true to enable WebRTC's internal tracer
+    static final String EXTRA_WEBRTC_TRACER = "com.example.temistream.WEBRTC_TRACER";
+    /** ICE servers as JSON in {@link IceServerConfig} format, used until signaling provides some. */
+    static final String EXTRA_ICE_CONFIG = "com.example.temistream.ICE_CONFIG";
+
+    // Background startup
+    private static final int STARTUP_THREADS = 3;
+    private ExecutorService startupExecutor;
+    private StartupOrchestrator startup;
+    private boolean startupComplete = false;
+
+    // WebRTC internal trace capture, available when the tracer was enabled at launch
+    private static final int MAX_SAVED_TRACES = 5;
+    private static final long MAX_TRACE_DURATION_MS = 60_000;
+    private boolean webrtcTracerEnabled;
+    private File webrtcTraceFile;
+    private ScheduledFuture<?> webrtcTraceTimeout;
 
     // UI Elements
     private Button startButton, stopButton;
     private TextView statusText, robotStatusText;
     private SurfaceViewRenderer localVideoView;
 
-    // WebRTC Components
+    // Preview rendering policy; goes off by itself in the background, screen off or idle
+    private PreviewPolicy previewPolicy;
+    private final BroadcastReceiver screenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (previewPolicy != null) {
+                previewPolicy.setScreenOn(Intent.ACTION_SCREEN_ON.equals(intent.getAction()));
+            }
+        }
+    };
+
+    // Owns the peer connection, control channel and signaling flags; see SessionLoop
+    private final SessionLoop session = new SessionLoop();
+
+    // WebRTC Components; capturer, sources, stream and channels are only touched on the session loop
     private PeerConnectionFactory peerConnectionFactory;
-    private PeerConnection peerConnection;
     private VideoCapturer videoCapturer;
     private VideoSource videoSource;
     private AudioSource audioSource;
     private MediaStream localMediaStream;
     private EglBase eglBase;
     private DataChannel dataChannel;
+    private GuardedMessageChannel controlChannel;
 
     // WebSocket
     private WebSocket webSocket;
     private OkHttpClient httpClient;
 
     // Temi Robot
-    private Robot robot;
-    private boolean robotReady = false;
-    private List<String> savedLocations = new ArrayList<>();
-    private Map<String, Position> locationPositions = new HashMap<>();
-    private int currentTiltAngle = 0;
-
-    // State
-    private boolean isStreaming = false;
-    private boolean viewerReady = false;
-    private boolean isMoving = false;
-    private Position currentPosition;
+    private RobotGateway robot;
+    private RobotCommandHandler commandHandler;
+    private ScheduledExecutorService commandScheduler;
+
+    // Flight recorder; opened by a startup phase while other threads may already log to it
+    private volatile FlightRecorder flightRecorder = FlightRecorder.disabled();
+    private ScheduledFuture<?> statsSampler;
+
+    // Incident clips
+    private static final int MAX_SAVED_CLIPS = 10;
+    private PreEventBuffer preEventBuffer;
+
+    // Keyframes on demand and after loss, with freeze statistics
+    private VideoRecoveryMonitor videoRecoveryMonitor;
+    private ExecutorService clipExecutor;
+    private final AtomicBoolean clipSaving = new AtomicBoolean(false);
+
+    // Snapshots and other bulk transfers over the control channel
+    private static final int DEFAULT_SNAPSHOT_QUALITY = 90;
+    private SnapshotSink snapshotSink;
+    private ExecutorService snapshotExecutor;
+    private ChunkedTransferSender transferSender;
+
+    // Floor map export in cached tiles; the worker fetches and compresses the map
+    private MapExporter mapExporter;
+    private ExecutorService mapExecutor;
+
+    // Two-way audio: the viewer's microphone plays on the robot speaker while enabled
+    private static final long INTERCOM_STATS_INTERVAL_MS = 2000;
+    private volatile OpusTuning opusTuning = OpusTuning.VOICE;
+    private volatile boolean intercomEnabled;
+    private volatile AudioTrack remoteAudioTrack;
+    private final IntercomLatencyEstimator intercomLatency = new IntercomLatencyEstimator();
+    private ScheduledFuture<?> intercomSampler;
+
+    // Glass-to-glass latency measurement, on request from the viewer
+    private static final long LATENCY_PING_INTERVAL_MS = 500;
+    private static final long LATENCY_STATS_INTERVAL_MS = 2000;
+    private final GlassToGlassProbe latencyProbe = new GlassToGlassProbe();
+    private ScheduledFuture<?> latencyPinger;
+    private ScheduledFuture<?> latencyReporter;
+
+    // Fewer encoded frames while robot and scene are still; one instance across sessions
+    private final MotionAdaptiveFramerate motionAdaptive = new MotionAdaptiveFramerate(
+            new MotionDetector()::hasMotion, this::holdsFullFrameRate,
+            (still, reason) -> flightRecorder.recordEvent("motion_" + reason));
+
+    // Offer shaping: max-bundle, rtcp-mux and pruned codecs/extensions; takes effect per session
+    private volatile boolean sdpShaping = true;
+    private volatile boolean sessionShaped;
+    private final NegotiationStats negotiationStats = new NegotiationStats();
+
+    // STUN/TURN servers and the staged relay fallback; a new configuration applies per session
+    private volatile IceServerConfig iceConfig = IceServerConfig.DEFAULT;
+    private IcePathMonitor iceMonitor;
+    private PeerConnection.RTCConfiguration rtcConfig;
+
+    // Previous outbound video counters for the stream_stats telemetry topic; stats thread only
+    private long lastBytesSent;
+    private double lastStreamStatsUs;
+
+    // Camera and capture format selection, switchable while streaming
+    private CameraController cameraController;
+    private ExecutorService cameraExecutor;
+
+    // Region-of-interest crop between the camera and the video source
+    private RoiVideoProcessor roiProcessor;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -119,12 +209,75 @@ public class MainActivity extends AppCompatActivity implements
         setContentView(R.layout.activity_main);
 
         initViews();
+        IntentFilter screenFilter = new IntentFilter(Intent.ACTION_SCREEN_OFF);
+        screenFilter.addAction(Intent.ACTION_SCREEN_ON);
+        registerReceiver(screenReceiver, screenFilter);
         checkPermissions();
-        initRobot();
-        initWebRTC();
-        setupWebSocket();
+        startBackgroundInit();
     }
 
+    /**
+     * Runs the slow parts of startup off the UI thread. Independent phases overlap; the
+     * start button stays disabled until all of them have finished.
+     */
+    private void startBackgroundInit() {
+        startupExecutor = Executors.newFixedThreadPool(STARTUP_THREADS,
+                runnable -> new Thread(runnable, "Startup"));
+        webrtcTracerEnabled = getIntent() != null && getIntent().getBooleanExtra(EXTRA_WEBRTC_TRACER, false);
+        String iceExtra = getIntent() != null ? getIntent().getStringExtra(EXTRA_ICE_CONFIG) : null;
+        if (iceExtra != null) {
+            applyIceConfig(iceExtra, "intent");
+        }
+        startup = new StartupOrchestrator(startupListener)
+                .add("flight_recorder", startupExecutor, this::initFlightRecorder)
+                .add("webrtc_init", startupExecutor, () -> initWebRTCLibrary(webrtcTracerEnabled))
+                .add("egl", startupExecutor, () -> eglBase = EglBase.create())
+                .add("robot", startupExecutor, this::initRobot, "flight_recorder")
+                .add("factory", startupExecutor, this::initPeerConnectionFactory,
+                        "webrtc_init", "egl", "flight_recorder")
+                .add("local_view", this::runOnUiThread, this::initLocalVideoView, "egl")
+                .add("signaling", startupExecutor, this::setupWebSocket, "robot");
+        startup.start();
+    }
+
+    private final StartupOrchestrator.Listener startupListener = new StartupOrchestrator.Listener() {
+        @Override
+        public void onPhaseFailed(String name, Exception error) {
+            Log.e(TAG, "Startup phase " + name + " failed", error);
+            flightRecorder.recordEvent("startup_failed_" + name);
+            updateStatus("Initialization failed: " + name);
+        }
+
+        @Override
+        public void onStartupComplete(StartupOrchestrator orchestrator, boolean success) {
+            startupExecutor.shutdown();
+            try {
+                JSONObject timings = orchestrator.getTimings();
+                Log.d(TAG, "Startup timings: " + timings);
+                JSONArray phases = timings.getJSONArray("phases");
+                for (int i = 0; i < phases.length(); i++) {
+                    JSONObject phase = phases.getJSONObject(i);
+                    if (phase.has("durationMs")) {
+                        flightRecorder.recordStat("startup_" + phase.getString("name") + "_ms",
+                                (int) phase.getDouble("durationMs"), (float) phase.getDouble("queuedMs"));
+                    }
+                }
+                flightRecorder.recordStat("startup_total_ms", (int) orchestrator.getTotalMs(), 0f);
+            } catch (JSONException e) {
+                Log.e(TAG, "Error reading startup timings", e);
+            }
+            if (!success) {
+                return;
+            }
+            runOnUiThread(() -> {
+                startupComplete = true;
+                updateStatus(session.state().viewerReady
+                        ? "Viewer connected - ready to stream" : "Ready - waiting for viewer");
+                startButton.setEnabled(canStart());
+            });
+        }
+    };
+
     private void initViews() {
         startButton = findViewById(R.id.startButton);
         stopButton = findViewById(R.id.stopButton);
@@ -132,79 +285,63 @@ public class MainActivity extends AppCompatActivity implements
         robotStatusText = findViewById(R.id.robotStatusText);
         localVideoView = findViewById(R.id.localVideoView);
 
-        startButton.setOnClickListener(v -> startStreaming());
-        stopButton.setOnClickListener(v -> stopStreaming());
+        startButton.setOnClickListener(v -> session.execute(this::startStreaming));
+        stopButton.setOnClickListener(v -> session.execute(this::stopStreaming));
 
         updateStatus("Initializing...");
         updateRobotStatus("Connecting to robot...");
         stopButton.setEnabled(false);
     }
 
-    private void initRobot() {
+    private void initFlightRecorder() {
         try {
-            robot = Robot.getInstance();
-
-            // Add the supported listeners
-            robot.addOnRobotReadyListener(this);
-            robot.addOnGoToLocationStatusChangedListener(this);
-            robot.addOnMovementStatusChangedListener(this);
-            robot.addOnCurrentPositionChangedListener(this);
-
-            updateRobotStatus("Robot SDK initialized - waiting for ready signal");
-            Log.d(TAG, "Robot SDK initialized with supported listeners");
-        } catch (Exception e) {
-            Log.e(TAG, "Error initializing Robot SDK", e);
-            updateRobotStatus("Robot SDK error: " + e.getMessage());
+            flightRecorder = FlightRecorder.open(new File(getFilesDir(), "flight_recorder.bin"),
+                    FlightRecorder.DEFAULT_CAPACITY);
+            flightRecorder.recordEvent("app_start");
+        } catch (IOException e) {
+            // Startup goes on without it
+            Log.e(TAG, "Flight recorder unavailable", e);
         }
     }
 
-    private void loadSavedLocations() {
+    private void initRobot() {
         try {
-            if (robot != null && robotReady) {
-                // Get all saved locations from the robot
-                savedLocations = robot.getLocations();
-                Log.d(TAG, "Loaded " + savedLocations.size() + " saved locations");
-
-                // Send updated location list to viewer
-                sendLocationList();
-                updateRobotStatus("Loaded " + savedLocations.size() + " locations");
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error loading saved locations", e);
-        }
-    }
-
-    private void sendLocationList() {
-        if (dataChannel != null && dataChannel.state() == DataChannel.State.OPEN) {
-            try {
-                JSONObject locationData = new JSONObject();
-                locationData.put("type", "location_update");
-
-                JSONArray locationsArray = new JSONArray();
-                for (String location : savedLocations) {
-                    locationsArray.put(location);
-                }
-                locationData.put("locations", locationsArray);
-
-                // Also include current position if available
-                if (currentPosition != null) {
-                    JSONObject positionObj = new JSONObject();
-                    positionObj.put("x", currentPosition.getX());
-                    positionObj.put("y", currentPosition.getY());
-                    positionObj.put("yaw", currentPosition.getYaw());
-                    positionObj.put("tiltAngle", currentTiltAngle);
-                    locationData.put("currentPosition", positionObj);
-                }
+            robot = new TemiRobotGateway(Robot.getInstance());
+
+            // Commands run on the session loop; the scheduler paces admission, tilt and speech
+            commandScheduler = Executors.newSingleThreadScheduledExecutor();
+            commandHandler = new RobotCommandHandler(robot, session, commandScheduler,
+                    System::nanoTime, flightRecorder, this);
+            transferSender = new ChunkedTransferSender(commandScheduler);
+            mapExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "MapExporter");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+            mapExporter = new MapExporter(robot::getMapData, transferSender, mapExecutor,
+                    new MapExporter.Listener() {
+                        @Override
+                        public void onManifest(JSONObject manifest) {
+                            flightRecorder.recordStat("map_export_ms", (int) manifest.optLong("exportMs"),
+                                    manifest.optInt("uniqueTiles"));
+                            commandHandler.sendMessage(manifest);
+                        }
 
-                String message = locationData.toString();
-                DataChannel.Buffer buffer = new DataChannel.Buffer(
-                        ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)), false);
-                dataChannel.send(buffer);
+                        @Override
+                        public void onExportFailed(String error) {
+                            Log.w(TAG, error);
+                            sendMapStatus(error);
+                        }
+                    });
+            commandHandler.getTelemetry().setPoller(TelemetryPublisher.Topic.STREAM_STATS,
+                    this::publishStreamStats);
+            iceMonitor = new IcePathMonitor(commandScheduler, iceListener);
 
-                Log.d(TAG, "Sent location list to viewer");
-            } catch (JSONException e) {
-                Log.e(TAG, "Error creating location list message", e);
-            }
+            updateRobotStatus("Robot SDK initialized - waiting for ready signal");
+            Log.d(TAG, "Robot SDK initialized with supported listeners");
+        } catch (RuntimeException e) {
+            updateRobotStatus("Robot SDK error: " + e.getMessage());
+            throw e;
         }
     }
 
@@ -231,37 +368,74 @@ public class MainActivity extends AppCompatActivity implements
         }
     }
 
-    private void initWebRTC() {
-        try {
-            // Initialize EGL context
-            eglBase = EglBase.create();
-
-            // Initialize PeerConnectionFactory
-            PeerConnectionFactory.InitializationOptions initOptions =
-                    PeerConnectionFactory.InitializationOptions.builder(this)
-                            .setEnableInternalTracer(true)
-                            .createInitializationOptions();
-            PeerConnectionFactory.initialize(initOptions);
-
-            PeerConnectionFactory.Options options = new PeerConnectionFactory.Options();
-            options.disableEncryption = false;
-            options.disableNetworkMonitor = false;
-
-            peerConnectionFactory = PeerConnectionFactory.builder()
-                    .setVideoDecoderFactory(new DefaultVideoDecoderFactory(eglBase.getEglBaseContext()))
-                    .setVideoEncoderFactory(new DefaultVideoEncoderFactory(eglBase.getEglBaseContext(), true, true))
-                    .setOptions(options)
-                    .createPeerConnectionFactory();
-
-            // Initialize local video view
-            localVideoView.init(eglBase.getEglBaseContext(), null);
-            localVideoView.setMirror(true);
-
-            Log.d(TAG, "WebRTC initialized successfully");
-        } catch (Exception e) {
-            Log.e(TAG, "Error initializing WebRTC", e);
-            updateStatus("WebRTC initialization failed");
+    /**
+     * Loads the native library. The internal tracer costs on every traced call, so it is
+     * only enabled when the app is launched with {@link #EXTRA_WEBRTC_TRACER}.
+     */
+    private void initWebRTCLibrary(boolean enableTracer) {
+        PeerConnectionFactory.InitializationOptions initOptions =
+                PeerConnectionFactory.InitializationOptions.builder(this)
+                        .setEnableInternalTracer(enableTracer)
+                        .createInitializationOptions();
+        PeerConnectionFactory.initialize(initOptions);
+    }
+
+    private void initPeerConnectionFactory() {
+        // The stream's own encoder output feeds the incident clip ring
+        preEventBuffer = new PreEventBuffer(PreEventBuffer.DEFAULT_CAPACITY_BYTES,
+                PreEventBuffer.DEFAULT_MAX_FRAMES, PreEventBuffer.DEFAULT_WINDOW_US);
+        videoRecoveryMonitor = new VideoRecoveryMonitor(flightRecorder);
+        clipExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ClipWriter");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SnapshotEncoder");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        snapshotSink = new SnapshotSink(snapshotExecutor);
+        cameraExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "CameraControl"));
+
+        PeerConnectionFactory.Options options = new PeerConnectionFactory.Options();
+        options.disableEncryption = false;
+        options.disableNetworkMonitor = false;
+
+        peerConnectionFactory = PeerConnectionFactory.builder()
+                .setVideoDecoderFactory(new DefaultVideoDecoderFactory(eglBase.getEglBaseContext()))
+                .setVideoEncoderFactory(new TappingVideoEncoderFactory(eglBase.getEglBaseContext(),
+                        true, true, preEventBuffer, videoRecoveryMonitor))
+                .setOptions(options)
+                .createPeerConnectionFactory();
+
+        Log.d(TAG, "WebRTC initialized successfully");
+    }
+
+    private void initLocalVideoView() {
+        localVideoView.init(eglBase.getEglBaseContext(), null);
+        localVideoView.setMirror(true);
+        previewPolicy = new PreviewPolicy(localVideoView, mode -> runOnUiThread(this::applyPreviewLayout));
+        previewPolicy.setIdleTimeoutMs(screenOffTimeoutMs());
+        applyPreviewLayout();
+    }
+
+    /** Sizes the preview for the policy's current mode; UI thread only. */
+    private void applyPreviewLayout() {
+        PreviewPolicy.Mode mode = previewPolicy.getEffectiveMode();
+        if (mode == PreviewPolicy.Mode.OFF) {
+            localVideoView.clearImage();
+        }
+        ViewGroup.LayoutParams params = localVideoView.getLayoutParams();
+        if (mode == PreviewPolicy.Mode.THUMBNAIL) {
+            params.width = ((View) localVideoView.getParent()).getWidth() / 3;
+            params.height = params.width * 9 / 16;
+        } else {
+            params.width = ViewGroup.LayoutParams.MATCH_PARENT;
+            params.height = ViewGroup.LayoutParams.MATCH_PARENT;
         }
+        localVideoView.setLayoutParams(params);
+        flightRecorder.recordEvent("preview_" + mode.key);
     }
 
     private void setupWebSocket() {
@@ -274,6 +448,7 @@ public class MainActivity extends AppCompatActivity implements
             @Override
             public void onOpen(WebSocket webSocket, Response response) {
                 Log.d(TAG, "WebSocket connected");
+                flightRecorder.recordSignaling("ws_open");
                 runOnUiThread(() -> updateStatus("Connected to server"));
 
                 // Register as streamer
@@ -292,53 +467,10 @@ public class MainActivity extends AppCompatActivity implements
                     JSONObject message = new JSONObject(text);
                     String type = message.getString("type");
 
-                    Log.d(TAG, "Received message: " + type);
-
-                    switch (type) {
-                        case "viewer-ready":
-                            viewerReady = true;
-                            runOnUiThread(() -> {
-                                updateStatus("Viewer connected - ready to stream");
-                                startButton.setEnabled(robotReady);
-                            });
-                            break;
-
-                        case "answer":
-                            if (peerConnection != null) {
-                                JSONObject answerObj = message.getJSONObject("answer");
-                                SessionDescription answer = new SessionDescription(
-                                        SessionDescription.Type.ANSWER,
-                                        answerObj.getString("sdp")
-                                );
-                                peerConnection.setRemoteDescription(new CustomSdpObserver() {
-                                    @Override
-                                    public void onSetSuccess() {
-                                        Log.d(TAG, "Remote description set successfully");
-                                        runOnUiThread(() -> updateStatus("Video connection established"));
-                                        // Send initial location list
-                                        sendLocationList();
-                                    }
-
-                                    @Override
-                                    public void onSetFailure(String error) {
-                                        Log.e(TAG, "Failed to set remote description: " + error);
-                                    }
-                                }, answer);
-                            }
-                            break;
-
-                        case "candidate":
-                            if (peerConnection != null) {
-                                JSONObject candidateObj = message.getJSONObject("candidate");
-                                IceCandidate candidate = new IceCandidate(
-                                        candidateObj.getString("sdpMid"),
-                                        candidateObj.getInt("sdpMLineIndex"),
-                                        candidateObj.getString("candidate")
-                                );
-                                peerConnection.addIceCandidate(candidate);
-                            }
-                            break;
+                    if (Tracing.debug()) {
+                        Log.d(TAG, "Received message: " + type);
                     }
+                    session.execute(() -> handleSignalingMessage(type, message));
                 } catch (JSONException e) {
                     Log.e(TAG, "Error parsing message", e);
                 }
@@ -347,359 +479,117 @@ public class MainActivity extends AppCompatActivity implements
             @Override
             public void onClosed(WebSocket webSocket, int code, String reason) {
                 Log.d(TAG, "WebSocket closed: " + reason);
+                flightRecorder.recordSignaling("ws_closed");
                 runOnUiThread(() -> updateStatus("Disconnected from server"));
-                viewerReady = false;
+                session.execute(() -> session.update(state -> state.withViewerReady(false)));
             }
 
             @Override
             public void onFailure(WebSocket webSocket, Throwable t, Response response) {
                 Log.e(TAG, "WebSocket error", t);
+                flightRecorder.recordSignaling("ws_failure");
                 runOnUiThread(() -> updateStatus("Connection failed"));
-                viewerReady = false;
+                session.execute(() -> session.update(state -> state.withViewerReady(false)));
             }
         });
     }
 
-    private void handleDataChannelMessage(DataChannel.Buffer buffer) {
-        try {
-            byte[] data = new byte[buffer.data.remaining()];
-            buffer.data.get(data);
-            String messageStr = new String(data, StandardCharsets.UTF_8);
-            JSONObject message = new JSONObject(messageStr);
-
-            Log.d(TAG, "Received robot command: " + message.toString());
-
-            if (!message.has("type") || !message.getString("type").equals("robot_command")) {
-                return;
-            }
-
-            String command = message.getString("command");
-            JSONObject params = message.optJSONObject("params");
-            String commandId = message.optString("commandId", "");
-
-            runOnUiThread(() -> handleRobotCommand(command, params, commandId));
-
-        } catch (Exception e) {
-            Log.e(TAG, "Error handling data channel message", e);
-        }
-    }
-
-    private void handleRobotCommand(String command, JSONObject params, String commandId) {
-        if (!robotReady || robot == null) {
-            Log.w(TAG, "Robot not ready for command: " + command);
-            sendCommandResponse(commandId, false, "Robot not ready");
-            return;
-        }
-
-        boolean success = true;
-        String responseMessage = "Command executed";
-
+    /** Session loop only. */
+    private void handleSignalingMessage(String type, JSONObject message) {
+        PeerConnection connection = session.state().peerConnection;
         try {
-            Log.d(TAG, "Executing robot command: " + command);
-
-            switch (command) {
-                case "move":
-                    if (params != null && params.has("direction")) {
-                        String direction = params.getString("direction");
-                        handleMovement(direction);
-                        responseMessage = "Moving " + direction;
-                    } else {
-                        success = false;
-                        responseMessage = "Direction parameter required";
-                    }
-                    break;
-
-                case "stop":
-                    robot.stopMovement();
-                    isMoving = false;
-                    updateRobotStatus("Movement stopped");
-                    responseMessage = "Movement stopped";
-                    break;
-
-                case "speak":
-                    if (params != null && params.has("text")) {
-                        String text = params.getString("text");
-                        TtsRequest ttsRequest = TtsRequest.create(text, false);
-                        robot.speak(ttsRequest);
-                        updateRobotStatus("Speaking: " + text);
-                        responseMessage = "Speaking: " + text;
-                    } else {
-                        success = false;
-                        responseMessage = "Text parameter required";
-                    }
-                    break;
-
-                case "go_to_location":
-                    if (params != null && params.has("location")) {
-                        String location = params.getString("location");
-                        if (savedLocations.contains(location)) {
-                            robot.goTo(location);
-                            updateRobotStatus("Going to: " + location);
-                            responseMessage = "Navigating to " + location;
-                        } else {
-                            success = false;
-                            responseMessage = "Location '" + location + "' not found";
-                        }
-                    } else {
-                        success = false;
-                        responseMessage = "Location parameter required";
-                    }
-                    break;
-
-                case "save_location":
-                    String locationName = "custom_location_" + System.currentTimeMillis();
-                    if (params != null && params.has("name")) {
-                        locationName = params.getString("name");
-                    }
-
-                    boolean saved = robot.saveLocation(locationName);
-                    if (saved) {
-                        // Refresh locations list
-                        loadSavedLocations();
-                        updateRobotStatus("Location saved: " + locationName);
-                        responseMessage = "Location saved: " + locationName;
-                    } else {
-                        success = false;
-                        responseMessage = "Failed to save location";
-                    }
-                    break;
-
-                case "delete_location":
-                    if (params != null && params.has("location")) {
-                        String location = params.getString("location");
-                        boolean deleted = robot.deleteLocation(location);
-                        if (deleted) {
-                            // Refresh locations list
-                            loadSavedLocations();
-                            updateRobotStatus("Location deleted: " + location);
-                            responseMessage = "Location deleted: " + location;
-                        } else {
-                            success = false;
-                            responseMessage = "Failed to delete location";
-                        }
-                    } else {
-                        success = false;
-                        responseMessage = "Location parameter required";
-                    }
-                    break;
-
-                case "get_locations":
-                    loadSavedLocations();
-                    responseMessage = "Location list updated (" + savedLocations.size() + " locations)";
-                    break;
-
-                case "follow_me":
-                    // Follow me is not available in current SDK, use alternative
-                    robot.speak(TtsRequest.create("Follow me mode not available in current SDK", false));
-                    updateRobotStatus("Follow me mode not available");
-                    responseMessage = "Follow me mode not available in current SDK";
-                    success = false;
-                    break;
-
-                case "stop_follow":
-                    robot.stopMovement();
-                    updateRobotStatus("Movement stopped");
-                    responseMessage = "Movement stopped";
-                    break;
-
-                case "tilt_up":
-                    int upAngle = DEFAULT_TILT_STEP;
-                    if (params != null && params.has("angle")) {
-                        upAngle = params.getInt("angle");
+            switch (type) {
+                case "connection_established":
+                    JSONObject ice = message.optJSONObject("ice");
+                    if (ice != null) {
+                        applyIceConfig(ice.toString(), "signaling");
                     }
-                    int newUpAngle = Math.min(currentTiltAngle + upAngle, MAX_TILT_ANGLE);
-                    robot.tiltAngle(newUpAngle);
-                    currentTiltAngle = newUpAngle;
-                    updateRobotStatus("Head tilted up to " + newUpAngle + "°");
-                    responseMessage = "Head tilted to " + newUpAngle + "°";
                     break;
 
-                case "tilt_down":
-                    int downAngle = DEFAULT_TILT_STEP;
-                    if (params != null && params.has("angle")) {
-                        downAngle = params.getInt("angle");
-                    }
-                    int newDownAngle = Math.max(currentTiltAngle - downAngle, MIN_TILT_ANGLE);
-                    robot.tiltAngle(newDownAngle);
-                    currentTiltAngle = newDownAngle;
-                    updateRobotStatus("Head tilted down to " + newDownAngle + "°");
-                    responseMessage = "Head tilted to " + newDownAngle + "°";
-                    break;
-
-                case "tilt_to_angle":
-                    if (params != null && params.has("angle")) {
-                        int targetAngle = params.getInt("angle");
-                        targetAngle = Math.max(MIN_TILT_ANGLE, Math.min(MAX_TILT_ANGLE, targetAngle));
-                        robot.tiltAngle(targetAngle);
-                        currentTiltAngle = targetAngle;
-                        updateRobotStatus("Head tilted to " + targetAngle + "°");
-                        responseMessage = "Head tilted to " + targetAngle + "°";
-                    } else {
-                        success = false;
-                        responseMessage = "Angle parameter required";
-                    }
-                    break;
-
-                case "reset_tilt":
-                    robot.tiltAngle(0);
-                    currentTiltAngle = 0;
-                    updateRobotStatus("Head tilt reset to center");
-                    responseMessage = "Head tilt reset to center";
-                    break;
-
-                case "emergency_stop":
-                    robot.stopMovement();
-                    robot.speak(TtsRequest.create("Emergency stop activated", true));
-                    updateRobotStatus("EMERGENCY STOP ACTIVATED");
-                    responseMessage = "Emergency stop activated";
+                case "viewer-ready":
+                    session.update(state -> state.withViewerReady(true));
+                    runOnUiThread(() -> {
+                        updateStatus("Viewer connected - ready to stream");
+                        startButton.setEnabled(canStart());
+                    });
                     break;
 
-                case "turn_around":
-                    robot.turnBy(180);
-                    updateRobotStatus("Turning around 180°");
-                    responseMessage = "Turning around";
-                    break;
-
-                case "turn_by":
-                    if (params != null && params.has("degrees")) {
-                        int degrees = params.getInt("degrees");
-                        robot.turnBy(degrees);
-                        updateRobotStatus("Turning by " + degrees + "°");
-                        responseMessage = "Turning by " + degrees + "°";
-                    } else {
-                        success = false;
-                        responseMessage = "Degrees parameter required";
-                    }
-                    break;
-
-                case "go_home":
-                    if (savedLocations.contains("home base")) {
-                        robot.goTo("home base");
-                        updateRobotStatus("Going home");
-                        responseMessage = "Going home";
-                    } else {
-                        // Try to go to first saved location
-                        if (!savedLocations.isEmpty()) {
-                            String homeLocation = savedLocations.get(0);
-                            robot.goTo(homeLocation);
-                            updateRobotStatus("Going to " + homeLocation);
-                            responseMessage = "Going to " + homeLocation;
-                        } else {
-                            success = false;
-                            responseMessage = "No home location saved";
-                        }
-                    }
-                    break;
+                case "answer":
+                    if (connection != null) {
+                        negotiationStats.onAnswer();
+                        JSONObject answerObj = message.getJSONObject("answer");
+                        // The answer's Opus parameters steer our own encoder
+                        SessionDescription answer = new SessionDescription(
+                                SessionDescription.Type.ANSWER,
+                                opusTuning.apply(answerObj.getString("sdp"))
+                        );
+                        connection.setRemoteDescription(new CustomSdpObserver() {
+                            @Override
+                            public void onSetSuccess() {
+                                Log.d(TAG, "Remote description set successfully");
+                                runOnUiThread(() -> updateStatus("Video connection established"));
+                                // Send initial location list
+                                if (commandHandler != null) {
+                                    commandHandler.sendLocationList();
+                                }
+                            }
 
-                case "get_battery_info":
-                    // Get battery information (simplified since getBatteryLevel is not available)
-                    try {
-                        // Use alternative method if available
-                        updateRobotStatus("Battery info requested");
-                        responseMessage = "Battery info requested - check robot display";
-                    } catch (Exception e) {
-                        success = false;
-                        responseMessage = "Could not get battery information";
+                            @Override
+                            public void onSetFailure(String error) {
+                                Log.e(TAG, "Failed to set remote description: " + error);
+                            }
+                        }, answer);
                     }
                     break;
 
-                case "set_volume":
-                    if (params != null && params.has("level")) {
-                        int volume = params.getInt("level");
-                        volume = Math.max(0, Math.min(100, volume)); // Clamp to 0-100
-                        robot.setVolume(volume);
-                        updateRobotStatus("Volume set to " + volume + "%");
-                        responseMessage = "Volume set to " + volume + "%";
-                    } else {
-                        success = false;
-                        responseMessage = "Volume level parameter required";
+                case "candidate":
+                    if (connection != null) {
+                        JSONObject candidateObj = message.getJSONObject("candidate");
+                        IceCandidate candidate = new IceCandidate(
+                                candidateObj.getString("sdpMid"),
+                                candidateObj.getInt("sdpMLineIndex"),
+                                candidateObj.getString("candidate")
+                        );
+                        connection.addIceCandidate(candidate);
                     }
                     break;
-
-                default:
-                    Log.w(TAG, "Unknown command: " + command);
-                    success = false;
-                    responseMessage = "Unknown command: " + command;
-                    break;
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error executing robot command: " + command, e);
-            updateRobotStatus("Command error: " + e.getMessage());
-            success = false;
-            responseMessage = "Error: " + e.getMessage();
-        }
-
-        sendCommandResponse(commandId, success, responseMessage);
-    }
-
-    private void sendCommandResponse(String commandId, boolean success, String message) {
-        if (dataChannel != null && dataChannel.state() == DataChannel.State.OPEN && !commandId.isEmpty()) {
-            try {
-                JSONObject response = new JSONObject();
-                response.put("type", "robot_response");
-                response.put("commandId", commandId);
-                response.put("success", success);
-                response.put("message", message);
-                response.put("timestamp", System.currentTimeMillis());
-
-                String responseStr = response.toString();
-                DataChannel.Buffer buffer = new DataChannel.Buffer(
-                        ByteBuffer.wrap(responseStr.getBytes(StandardCharsets.UTF_8)), false);
-                dataChannel.send(buffer);
-
-                Log.d(TAG, "Sent command response: " + success + " - " + message);
-            } catch (JSONException e) {
-                Log.e(TAG, "Error creating command response", e);
             }
+        } catch (JSONException e) {
+            Log.e(TAG, "Error parsing " + type + " message", e);
         }
     }
 
-    private void handleMovement(String direction) {
-        float speed = 0.5f; // Moderate speed
-
-        switch (direction) {
-            case "forward":
-                robot.skidJoy(speed, 0.0f);
-                break;
-            case "backward":
-                robot.skidJoy(-speed, 0.0f);
-                break;
-            case "left":
-                robot.skidJoy(0.0f, speed);
-                break;
-            case "right":
-                robot.skidJoy(0.0f, -speed);
-                break;
-            case "turn_left":
-                robot.turnBy(-45); // Smaller turn increments for better control
-                return; // Don't set isMoving for turns
-            case "turn_right":
-                robot.turnBy(45); // Smaller turn increments for better control
-                return; // Don't set isMoving for turns
-        }
-
-        isMoving = true;
-        updateRobotStatus("Moving " + direction);
-    }
-
-    // Continue with the rest of the methods...
+    /** Session loop only. */
     private void startStreaming() {
-        if (isStreaming) return;
+        if (session.state().streaming) return;
 
         updateStatus("Starting stream...");
 
         try {
-            // Create peer connection
-            List<PeerConnection.IceServer> iceServers = new ArrayList<>();
-            iceServers.add(PeerConnection.IceServer.builder("stun:stun.l.google.com:19302").createIceServer());
-            iceServers.add(PeerConnection.IceServer.builder("stun:stun1.l.google.com:19302").createIceServer());
-
-            PeerConnection.RTCConfiguration rtcConfig = new PeerConnection.RTCConfiguration(iceServers);
+            // Callbacks of this connection and its channel are dropped once the session ends
+            int generation = session.state().generation + 1;
+
+            // Create peer connection; with PREFER_DIRECT, TURN is held back until direct paths fail
+            IceServerConfig ice = iceConfig;
+            boolean includeTurn = !ice.startsDirect() || iceMonitor == null || iceMonitor.isRelayNeeded();
+            rtcConfig = new PeerConnection.RTCConfiguration(ice.toIceServers(includeTurn));
+            rtcConfig.iceTransportsType = ice.transportsType();
+            if (iceMonitor != null) {
+                iceMonitor.onSessionStart(!includeTurn, generation);
+            }
             rtcConfig.sdpSemantics = PeerConnection.SdpSemantics.UNIFIED_PLAN;
+            sessionShaped = sdpShaping;
+            if (sessionShaped) {
+                // One transport for audio, video and the data channel, RTCP on the RTP port
+                rtcConfig.bundlePolicy = PeerConnection.BundlePolicy.MAXBUNDLE;
+                rtcConfig.rtcpMuxPolicy = PeerConnection.RtcpMuxPolicy.REQUIRE;
+            }
+            negotiationStats.onSessionStart(sessionShaped);
 
-            peerConnection = peerConnectionFactory.createPeerConnection(rtcConfig, new PeerConnectionObserver());
+            PeerConnection connection = peerConnectionFactory.createPeerConnection(rtcConfig,
+                    new PeerConnectionObserver(generation));
 
-            if (peerConnection == null) {
+            if (connection == null) {
                 updateStatus("Failed to create peer connection");
                 return;
             }
@@ -708,22 +598,28 @@ public class MainActivity extends AppCompatActivity implements
             DataChannel.Init dataChannelInit = new DataChannel.Init();
             dataChannelInit.ordered = true;
             dataChannelInit.negotiated = false;
-            dataChannel = peerConnection.createDataChannel("robotControl", dataChannelInit);
+            DataChannel channel = connection.createDataChannel("robotControl", dataChannelInit);
+            dataChannel = channel;
+            // Senders on other threads may still be inside send() when the session stops
+            controlChannel = new GuardedMessageChannel(new DataChannelMessageChannel(channel), () -> {
+                channel.unregisterObserver();
+                channel.close();
+                channel.dispose();
+            });
+            MessageChannel published = controlChannel;
 
-            dataChannel.registerObserver(new DataChannel.Observer() {
+            channel.registerObserver(new DataChannel.Observer() {
                 @Override
                 public void onBufferedAmountChange(long l) {
-                    // Handle buffered amount change
+                    // Bulk transfers resume once the channel drains
+                    if (transferSender != null) {
+                        transferSender.onBufferedAmountChange();
+                    }
                 }
 
                 @Override
                 public void onStateChange() {
-                    Log.d(TAG, "Data channel state: " + dataChannel.state());
-                    if (dataChannel.state() == DataChannel.State.OPEN) {
-                        runOnUiThread(() -> updateStatus("Robot control channel ready"));
-                        // Send initial location list when channel opens
-                        loadSavedLocations();
-                    }
+                    session.executeFor(generation, () -> onControlChannelStateChange(channel));
                 }
 
                 @Override
@@ -733,9 +629,20 @@ public class MainActivity extends AppCompatActivity implements
                 }
             });
 
+            session.update(state -> state.started(connection, published));
+            if (commandHandler != null) {
+                commandHandler.setChannel(published);
+            }
+            if (transferSender != null) {
+                transferSender.setChannel(published);
+            }
+            flightRecorder.recordEvent("stream_start");
+
             // Create video capturer
-            videoCapturer = createCameraCapturer();
+            cameraController = new CameraController(createCameraEnumerator(), cameraExecutor, cameraListener);
+            videoCapturer = cameraController.createCapturer();
             if (videoCapturer == null) {
+                stopStreaming();
                 updateStatus("Failed to create camera capturer");
                 return;
             }
@@ -743,14 +650,26 @@ public class MainActivity extends AppCompatActivity implements
             // Create video source and track
             SurfaceTextureHelper surfaceTextureHelper = SurfaceTextureHelper.create("CaptureThread", eglBase.getEglBaseContext());
             videoSource = peerConnectionFactory.createVideoSource(videoCapturer.isScreencast());
+            roiProcessor = new RoiVideoProcessor();
+            videoSource.setVideoProcessor(roiProcessor);
+            roiProcessor.addFrameFilter(latencyProbe);
+            roiProcessor.addFrameFilter(motionAdaptive);
             videoCapturer.initialize(surfaceTextureHelper, this, videoSource.getCapturerObserver());
-            videoCapturer.startCapture(1280, 720, 30);
+            cameraController.startCapture();
 
             VideoTrack videoTrack = peerConnectionFactory.createVideoTrack("video_track", videoSource);
-            videoTrack.addSink(localVideoView);
+            videoTrack.addSink(previewPolicy);
+            if (snapshotSink != null) {
+                videoTrack.addSink(snapshotSink);
+            }
 
             // Create audio source and track
+            // Echo cancellation matters once the viewer's voice plays on the robot speaker
             MediaConstraints audioConstraints = new MediaConstraints();
+            audioConstraints.mandatory.add(new MediaConstraints.KeyValuePair("googEchoCancellation", "true"));
+            audioConstraints.mandatory.add(new MediaConstraints.KeyValuePair("googNoiseSuppression", "true"));
+            audioConstraints.mandatory.add(new MediaConstraints.KeyValuePair("googAutoGainControl", "true"));
+            audioConstraints.mandatory.add(new MediaConstraints.KeyValuePair("googHighpassFilter", "true"));
             audioSource = peerConnectionFactory.createAudioSource(audioConstraints);
             AudioTrack audioTrack = peerConnectionFactory.createAudioTrack("audio_track", audioSource);
 
@@ -762,64 +681,129 @@ public class MainActivity extends AppCompatActivity implements
             // Add tracks to peer connection
             List<String> streamIds = new ArrayList<>();
             streamIds.add("local_stream");
-            peerConnection.addTrack(videoTrack, streamIds);
-            peerConnection.addTrack(audioTrack, streamIds);
-
-            // Create offer
-            MediaConstraints constraints = new MediaConstraints();
-            constraints.mandatory.add(new MediaConstraints.KeyValuePair("OfferToReceiveAudio", "false"));
-            constraints.mandatory.add(new MediaConstraints.KeyValuePair("OfferToReceiveVideo", "false"));
-
-            peerConnection.createOffer(new CustomSdpObserver() {
-                @Override
-                public void onCreateSuccess(SessionDescription sessionDescription) {
-                    peerConnection.setLocalDescription(new CustomSdpObserver() {
-                        @Override
-                        public void onSetSuccess() {
-                            // Send offer via WebSocket
-                            try {
-                                JSONObject offerMessage = new JSONObject();
-                                offerMessage.put("type", "offer");
-                                JSONObject offer = new JSONObject();
-                                offer.put("type", sessionDescription.type.canonicalForm());
-                                offer.put("sdp", sessionDescription.description);
-                                offerMessage.put("offer", offer);
-
-                                webSocket.send(offerMessage.toString());
-                                runOnUiThread(() -> updateStatus("Offer sent, waiting for viewer..."));
-                            } catch (JSONException e) {
-                                Log.e(TAG, "Error creating offer message", e);
-                            }
-                        }
-
-                        @Override
-                        public void onSetFailure(String error) {
-                            Log.e(TAG, "Failed to set local description: " + error);
-                        }
-                    }, sessionDescription);
-                }
+            connection.addTrack(videoTrack, streamIds);
+            connection.addTrack(audioTrack, streamIds);
 
-                @Override
-                public void onCreateFailure(String error) {
-                    Log.e(TAG, "Failed to create offer: " + error);
-                    runOnUiThread(() -> updateStatus("Failed to create offer"));
-                }
-            }, constraints);
+            createAndSendOffer(session.state());
 
-            isStreaming = true;
-            startButton.setEnabled(false);
-            stopButton.setEnabled(true);
+            if (commandHandler != null) {
+                statsSampler = commandScheduler.scheduleAtFixedRate(this::sampleStats,
+                        1, 1, TimeUnit.SECONDS);
+            }
+            runOnUiThread(() -> {
+                startButton.setEnabled(false);
+                stopButton.setEnabled(true);
+            });
 
         } catch (Exception e) {
             Log.e(TAG, "Error starting stream", e);
+            // Whatever was set up before the failure goes away with the session
+            stopStreaming();
             updateStatus("Failed to start stream: " + e.getMessage());
         }
     }
 
+    /** Session loop only, for the current session's channel. */
+    private void onControlChannelStateChange(DataChannel channel) {
+        DataChannel.State channelState = channel.state();
+        Log.d(TAG, "Data channel state: " + channelState);
+        flightRecorder.recordDataChannelState(channelState);
+        if (channelState == DataChannel.State.OPEN) {
+            negotiationStats.onChannelOpen();
+            runOnUiThread(() -> updateStatus("Robot control channel ready"));
+            // Send initial location list when channel opens
+            if (commandHandler != null) {
+                commandHandler.onChannelOpen();
+            }
+        }
+    }
+
+    /** Session loop only; offers on the connection of {@code state}. */
+    private void createAndSendOffer(SessionLoop.State state) {
+        PeerConnection connection = state.peerConnection;
+        // Audio is offered both ways so the viewer can start talking without renegotiating
+        MediaConstraints constraints = new MediaConstraints();
+        constraints.mandatory.add(new MediaConstraints.KeyValuePair("OfferToReceiveAudio", "true"));
+        constraints.mandatory.add(new MediaConstraints.KeyValuePair("OfferToReceiveVideo", "false"));
+
+        connection.createOffer(new CustomSdpObserver() {
+            @Override
+            public void onCreateSuccess(SessionDescription created) {
+                session.executeFor(state.generation, () -> setLocalOffer(connection, created));
+            }
+
+            @Override
+            public void onCreateFailure(String error) {
+                Log.e(TAG, "Failed to create offer: " + error);
+                runOnUiThread(() -> updateStatus("Failed to create offer"));
+            }
+        }, constraints);
+    }
+
+    /** Session loop only. */
+    private void setLocalOffer(PeerConnection connection, SessionDescription created) {
+        SdpShaper.Result shaped = sessionShaped ? SdpShaper.LEAN.apply(created.description) : null;
+        negotiationStats.onOffer(created.description.length(), shaped);
+        SessionDescription sessionDescription = new SessionDescription(created.type,
+                opusTuning.apply(shaped != null ? shaped.sdp : created.description));
+        connection.setLocalDescription(new CustomSdpObserver() {
+            @Override
+            public void onSetSuccess() {
+                // Send offer via WebSocket
+                try {
+                    JSONObject offerMessage = new JSONObject();
+                    offerMessage.put("type", "offer");
+                    JSONObject offer = new JSONObject();
+                    offer.put("type", sessionDescription.type.canonicalForm());
+                    offer.put("sdp", sessionDescription.description);
+                    offerMessage.put("offer", offer);
+
+                    webSocket.send(offerMessage.toString());
+                    runOnUiThread(() -> updateStatus("Offer sent, waiting for viewer..."));
+                } catch (JSONException e) {
+                    Log.e(TAG, "Error creating offer message", e);
+                }
+            }
+
+            @Override
+            public void onSetFailure(String error) {
+                Log.e(TAG, "Failed to set local description: " + error);
+            }
+        }, sessionDescription);
+    }
+
+    /** Session loop only. */
     private void stopStreaming() {
-        if (!isStreaming) return;
+        SessionLoop.State stopping = session.state();
+        if (!stopping.streaming) return;
 
         updateStatus("Stopping stream...");
+        flightRecorder.recordEvent("stream_stop");
+
+        if (statsSampler != null) {
+            statsSampler.cancel(false);
+            statsSampler = null;
+        }
+
+        // Unpublish first: readers stop picking up the channel, and sends already under way
+        // finish before the guard releases the DataChannel
+        session.update(SessionLoop.State::stopped);
+        if (commandHandler != null) {
+            commandHandler.setChannel(null);
+        }
+        if (transferSender != null) {
+            transferSender.setChannel(null);
+        }
+        if (controlChannel != null) {
+            controlChannel.close();
+            controlChannel = null;
+            dataChannel = null;
+        }
+
+        if (cameraController != null) {
+            cameraController.release();
+            cameraController = null;
+        }
 
         if (videoCapturer != null) {
             try {
@@ -835,20 +819,15 @@ public class MainActivity extends AppCompatActivity implements
             videoSource.dispose();
             videoSource = null;
         }
+        roiProcessor = null;
 
         if (audioSource != null) {
             audioSource.dispose();
             audioSource = null;
         }
 
-        if (dataChannel != null) {
-            dataChannel.close();
-            dataChannel = null;
-        }
-
-        if (peerConnection != null) {
-            peerConnection.close();
-            peerConnection = null;
+        if (stopping.peerConnection != null) {
+            stopping.peerConnection.close();
         }
 
         if (localMediaStream != null) {
@@ -856,178 +835,897 @@ public class MainActivity extends AppCompatActivity implements
             localMediaStream = null;
         }
 
-        // Stop robot movement if active
-        if (robot != null && isMoving) {
-            robot.stopMovement();
-            isMoving = false;
+        if (preEventBuffer != null) {
+            preEventBuffer.clear();
         }
 
-        isStreaming = false;
-        startButton.setEnabled(viewerReady && robotReady);
-        stopButton.setEnabled(false);
+        if (intercomEnabled) {
+            setIntercomEnabled(false);
+        }
+        if (latencyProbe.isEnabled()) {
+            setLatencyProbeEnabled(false);
+        }
+        if (videoRecoveryMonitor != null) {
+            videoRecoveryMonitor.resetCounters();
+        }
+        if (previewPolicy != null) {
+            previewPolicy.resetEncoderSample();
+        }
+        motionAdaptive.onCaptureStopped();
+        motionAdaptive.resetBytesSample();
+        remoteAudioTrack = null;
+
+        // Drop queued commands and stop robot movement if active
+        if (commandHandler != null) {
+            commandHandler.stop();
+        }
+
+        runOnUiThread(() -> {
+            startButton.setEnabled(canStart());
+            stopButton.setEnabled(false);
+        });
         updateStatus("Stream stopped");
     }
 
-    private VideoCapturer createCameraCapturer() {
-        CameraEnumerator enumerator;
-        if (Camera2Enumerator.isSupported(this)) {
-            enumerator = new Camera2Enumerator(this);
-        } else {
-            enumerator = new Camera1Enumerator(true);
+    private void handleDataChannelMessage(DataChannel.Buffer buffer) {
+        if (commandHandler != null) {
+            commandHandler.onMessage(buffer.data);
         }
+    }
+
+    /** UI thread only. */
+    private boolean canStart() {
+        return startupComplete && session.state().viewerReady && isRobotReady();
+    }
 
-        final String[] deviceNames = enumerator.getDeviceNames();
+    private boolean isRobotReady() {
+        return commandHandler != null && commandHandler.isRobotReady();
+    }
+
+    // RobotCommandHandler.Listener
+    @Override
+    public void onRobotStatus(String status) {
+        updateRobotStatus(status);
+    }
+
+    @Override
+    public void onRobotReadyChanged(boolean ready) {
+        runOnUiThread(() -> startButton.setEnabled(ready && session.state().viewerReady && startupComplete));
+    }
 
-        // Try to find front camera first
-        for (String deviceName : deviceNames) {
-            if (enumerator.isFrontFacing(deviceName)) {
-                VideoCapturer videoCapturer = enumerator.createCapturer(deviceName, null);
-                if (videoCapturer != null) {
-                    return videoCapturer;
+    @Override
+    public CommandResult onExtraCommand(String command, JSONObject params) throws Exception {
+        switch (command) {
+            case "snapshot_flight_recorder":
+                File snapshotFile = new File(getFilesDir(),
+                        "flight_recorder_" + System.currentTimeMillis() + ".bin");
+                flightRecorder.snapshot(snapshotFile);
+                return new CommandResult(true, "Flight recorder saved to " + snapshotFile.getName());
+
+            case "snapshot":
+                int quality = params != null
+                        ? params.optInt("quality", DEFAULT_SNAPSHOT_QUALITY) : DEFAULT_SNAPSHOT_QUALITY;
+                if (snapshotSink == null || transferSender == null || !session.state().streaming) {
+                    return new CommandResult(false, "Not streaming");
                 }
-            }
-        }
+                if (!snapshotSink.request(quality, snapshotCallback)) {
+                    return new CommandResult(false, "Snapshot already in progress");
+                }
+                return new CommandResult(true, "Snapshot requested");
 
-        // If no front camera, use back camera
-        for (String deviceName : deviceNames) {
-            if (!enumerator.isFrontFacing(deviceName)) {
-                VideoCapturer videoCapturer = enumerator.createCapturer(deviceName, null);
-                if (videoCapturer != null) {
-                    return videoCapturer;
+            case "get_map":
+                if (mapExporter == null) {
+                    return new CommandResult(false, "Map unavailable");
                 }
-            }
+                mapExporter.requestManifest(params != null && params.optBoolean("refresh", false));
+                return new CommandResult(true, "Map export requested");
+
+            case "get_map_tiles":
+                JSONArray tileHashes = params != null ? params.optJSONArray("hashes") : null;
+                if (mapExporter == null || tileHashes == null) {
+                    return new CommandResult(false, mapExporter == null ? "Map unavailable" : "Missing hashes");
+                }
+                int queuedTiles = mapExporter.sendTiles(tileHashes);
+                return new CommandResult(true, "Sending " + queuedTiles + " of " + tileHashes.length() + " tiles");
+
+            case "list_cameras":
+                if (cameraController == null) {
+                    return new CommandResult(false, "Not streaming");
+                }
+                JSONObject cameraList = new JSONObject();
+                cameraList.put("type", "camera_list");
+                cameraList.put("cameras", cameraController.describeCameras());
+                cameraList.put("timestamp", System.currentTimeMillis());
+                commandHandler.sendMessage(cameraList);
+                return new CommandResult(true, "Camera list sent");
+
+            case "switch_camera":
+                String switchError = cameraController == null ? "Not streaming"
+                        : cameraController.switchCamera(params != null && params.has("camera")
+                                ? params.getString("camera") : null);
+                return switchError == null
+                        ? new CommandResult(true, "Switching camera")
+                        : new CommandResult(false, switchError);
+
+            case "set_capture_format":
+                if (params == null || !params.has("width") || !params.has("height")) {
+                    return new CommandResult(false, "Missing width/height");
+                }
+                String formatError = cameraController == null ? "Not streaming"
+                        : cameraController.changeCaptureFormat(params.getInt("width"), params.getInt("height"),
+                                params.optInt("fps", CameraController.DEFAULT_FPS));
+                return formatError == null
+                        ? new CommandResult(true, "Changing capture format")
+                        : new CommandResult(false, formatError);
+
+            case "set_intercom":
+                boolean enable = params != null && params.optBoolean("enabled", false);
+                if (enable && !session.state().streaming) {
+                    return new CommandResult(false, "Not streaming");
+                }
+                setIntercomEnabled(enable);
+                return new CommandResult(true, enable ? "Intercom on" : "Intercom off");
+
+            case "set_opus":
+                if (params == null) {
+                    return new CommandResult(false, "Missing Opus parameters");
+                }
+                opusTuning = opusTuning.with(params);
+                SessionLoop.State opusSession = session.state();
+                if (opusSession.streaming) {
+                    // fmtp parameters only take effect through a new offer/answer
+                    createAndSendOffer(opusSession);
+                }
+                return new CommandResult(true, "Opus " + opusTuning);
+
+            case "set_sdp_shaping":
+                sdpShaping = params != null && params.optBoolean("enabled", true);
+                return new CommandResult(true, "SDP shaping " + (sdpShaping ? "on" : "off")
+                        + (session.state().streaming ? " from the next stream" : ""));
+
+            case "get_negotiation_stats":
+                JSONObject negotiation = new JSONObject();
+                negotiation.put("type", "negotiation_stats");
+                negotiation.put("stats", negotiationStats.getStats());
+                negotiation.put("timestamp", System.currentTimeMillis());
+                commandHandler.sendMessage(negotiation);
+                return new CommandResult(true, "Negotiation stats sent");
+
+            case "set_preview":
+                if (previewPolicy == null) {
+                    return new CommandResult(false, "Preview unavailable");
+                }
+                PreviewPolicy.Mode previewMode = PreviewPolicy.Mode.fromKey(
+                        params != null ? params.optString("mode") : "");
+                int reducedFps = params != null
+                        ? params.optInt("fps", PreviewPolicy.DEFAULT_REDUCED_FPS) : PreviewPolicy.DEFAULT_REDUCED_FPS;
+                previewPolicy.setMode(previewMode, reducedFps);
+                return new CommandResult(true, "Preview " + previewMode.key);
+
+            case "get_preview_stats":
+                if (previewPolicy == null) {
+                    return new CommandResult(false, "Preview unavailable");
+                }
+                JSONObject previewStats = new JSONObject();
+                previewStats.put("type", "preview_stats");
+                previewStats.put("stats", previewPolicy.getStats());
+                previewStats.put("timestamp", System.currentTimeMillis());
+                commandHandler.sendMessage(previewStats);
+                return new CommandResult(true, "Preview stats sent");
+
+            case "set_motion_adaptive":
+                if (params != null && params.has("stillFps")) {
+                    motionAdaptive.setStillFps(params.getInt("stillFps"));
+                }
+                boolean motionEnabled = params == null || params.optBoolean("enabled", true);
+                motionAdaptive.setEnabled(motionEnabled);
+                return new CommandResult(true, "Motion-adaptive frame rate " + (motionEnabled ? "on" : "off"));
+
+            case "get_motion_stats":
+                JSONObject motionStats = new JSONObject();
+                motionStats.put("type", "motion_stats");
+                motionStats.put("stats", motionAdaptive.getStats());
+                motionStats.put("timestamp", System.currentTimeMillis());
+                commandHandler.sendMessage(motionStats);
+                return new CommandResult(true, "Motion stats sent");
+
+            case "get_ice_stats":
+                JSONObject iceStats = new JSONObject();
+                iceStats.put("type", "ice_stats");
+                iceStats.put("config", iceConfig.describe());
+                if (iceMonitor != null) {
+                    iceStats.put("stats", iceMonitor.getStats());
+                }
+                iceStats.put("timestamp", System.currentTimeMillis());
+                commandHandler.sendMessage(iceStats);
+                return new CommandResult(true, "ICE stats sent");
+
+            case "set_ice_policy":
+                IceServerConfig.Policy policy = IceServerConfig.Policy.fromKey(
+                        params != null ? params.optString("policy") : "");
+                iceConfig = iceConfig.withPolicy(policy);
+                return new CommandResult(true, "ICE policy " + policy.key + " from the next session");
+
+            case "get_startup_timings":
+                JSONObject startupTimings = new JSONObject();
+                startupTimings.put("type", "startup_timings");
+                startupTimings.put("timings", startup.getTimings());
+                startupTimings.put("timestamp", System.currentTimeMillis());
+                commandHandler.sendMessage(startupTimings);
+                return new CommandResult(true, "Startup timings sent");
+
+            case "start_webrtc_trace":
+                return startWebRtcTrace();
+
+            case "stop_webrtc_trace":
+                return stopWebRtcTrace();
+
+            case "set_latency_probe":
+                boolean probe = params != null && params.optBoolean("enabled", false);
+                if (probe && !session.state().streaming) {
+                    return new CommandResult(false, "Not streaming");
+                }
+                setLatencyProbeEnabled(probe);
+                return new CommandResult(true, probe ? "Latency probe on" : "Latency probe off");
+
+            case "get_latency_stats":
+                sendLatencyStats();
+                return new CommandResult(true, "Latency stats sent");
+
+            case "request_keyframe":
+                if (videoRecoveryMonitor == null || !session.state().streaming) {
+                    return new CommandResult(false, "Not streaming");
+                }
+                return videoRecoveryMonitor.requestKeyFrame("viewer")
+                        ? new CommandResult(true, "Keyframe requested")
+                        : new CommandResult(false, "Keyframe requested less than "
+                                + VideoRecoveryMonitor.DEFAULT_MIN_INTERVAL_MS + "ms ago");
+
+            case "get_video_recovery_stats":
+                if (videoRecoveryMonitor == null) {
+                    return new CommandResult(false, "Video unavailable");
+                }
+                JSONObject recoveryStats = new JSONObject();
+                recoveryStats.put("type", "video_recovery_stats");
+                recoveryStats.put("stats", videoRecoveryMonitor.getStats());
+                recoveryStats.put("timestamp", System.currentTimeMillis());
+                commandHandler.sendMessage(recoveryStats);
+                return new CommandResult(true, "Video recovery stats sent");
+
+            case "set_roi":
+                if (roiProcessor == null || params == null) {
+                    return new CommandResult(false, roiProcessor == null ? "Not streaming" : "Missing region");
+                }
+                roiProcessor.setRoi(RoiVideoProcessor.Roi.covering(
+                        (float) params.optDouble("x", 0), (float) params.optDouble("y", 0),
+                        (float) params.optDouble("width", 1), (float) params.optDouble("height", 1)));
+                return roiResult();
+
+            case "zoom":
+                if (roiProcessor == null) {
+                    return new CommandResult(false, "Not streaming");
+                }
+                RoiVideoProcessor.Roi current = roiProcessor.getRoi();
+                float level = params != null ? (float) params.optDouble("level", 1) : 1f;
+                roiProcessor.setRoi(new RoiVideoProcessor.Roi(
+                        params != null ? (float) params.optDouble("centerX", current.centerX) : current.centerX,
+                        params != null ? (float) params.optDouble("centerY", current.centerY) : current.centerY,
+                        level));
+                return roiResult();
+
+            case "save_clip":
+                String reason = params != null ? params.optString("reason", "manual") : "manual";
+                return saveIncidentClip(reason);
+
+            default:
+                return null;
         }
+    }
 
-        return null;
+    private void sendMapStatus(String error) {
+        try {
+            JSONObject status = new JSONObject();
+            status.put("type", "map_status");
+            status.put("success", false);
+            status.put("error", error);
+            status.put("timestamp", System.currentTimeMillis());
+            commandHandler.sendMessage(status);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error sending map status", e);
+        }
     }
 
-    private void updateStatus(String status) {
-        runOnUiThread(() -> {
-            statusText.setText(status);
-            Log.d(TAG, "Status: " + status);
-        });
+    private void setIntercomEnabled(boolean enabled) {
+        intercomEnabled = enabled;
+        AudioTrack track = remoteAudioTrack;
+        if (track != null) {
+            track.setEnabled(enabled);
+        }
+        AudioManager audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
+        // Communication mode routes through the voice path, where the platform echo canceller runs
+        audioManager.setMode(enabled ? AudioManager.MODE_IN_COMMUNICATION : AudioManager.MODE_NORMAL);
+        audioManager.setSpeakerphoneOn(enabled);
+
+        if (intercomSampler != null) {
+            intercomSampler.cancel(false);
+            intercomSampler = null;
+        }
+        intercomLatency.reset();
+        if (enabled && commandScheduler != null) {
+            intercomSampler = commandScheduler.scheduleAtFixedRate(this::sampleIntercomLatency,
+                    INTERCOM_STATS_INTERVAL_MS, INTERCOM_STATS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+        flightRecorder.recordEvent(enabled ? "intercom_on" : "intercom_off");
     }
 
-    private void updateRobotStatus(String status) {
-        runOnUiThread(() -> {
-            if (robotStatusText != null) {
-                robotStatusText.setText("Robot: " + status);
+    private void sampleIntercomLatency() {
+        PeerConnection connection = session.state().peerConnection;
+        if (connection == null) {
+            return;
+        }
+        connection.getStats(report -> {
+            intercomLatency.onStats(report, opusTuning.ptimeMs);
+            int estimateMs = intercomLatency.getEstimateMs();
+            if (estimateMs < 0 || commandHandler == null) {
+                // Nothing received yet, or the viewer's microphone is idle
+                return;
+            }
+            flightRecorder.recordStat("intercom_mouth_to_ear_ms", estimateMs, intercomLatency.getRttMs());
+            try {
+                JSONObject status = new JSONObject();
+                status.put("type", "intercom_stats");
+                status.put("mouthToEarMs", estimateMs);
+                status.put("jitterBufferMs", intercomLatency.getJitterBufferMs());
+                status.put("rttMs", intercomLatency.getRttMs());
+                status.put("timestamp", System.currentTimeMillis());
+                commandHandler.sendMessage(status);
+            } catch (JSONException e) {
+                Log.e(TAG, "Error sending intercom stats", e);
             }
-            Log.d(TAG, "Robot Status: " + status);
         });
     }
 
-    // Temi Robot Listeners
-    @Override
-    public void onRobotReady(boolean isReady) {
-        robotReady = isReady;
-        if (isReady) {
-            updateRobotStatus("Robot ready - loading locations...");
-            runOnUiThread(() -> startButton.setEnabled(viewerReady));
+    /**
+     * Starts writing WebRTC's internal trace events to a JSON file that Perfetto and
+     * chrome://tracing open directly. Capture stops by itself after a minute.
+     */
+    private CommandResult startWebRtcTrace() {
+        if (!webrtcTracerEnabled) {
+            return new CommandResult(false, "WebRTC tracer disabled; relaunch with " + EXTRA_WEBRTC_TRACER);
+        }
+        if (webrtcTraceFile != null) {
+            return new CommandResult(false, "A trace is already being captured");
+        }
+        File directory = new File(getFilesDir(), "traces");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return new CommandResult(false, "Cannot create " + directory);
+        }
+        pruneOldest(directory, MAX_SAVED_TRACES - 1);
+        File file = new File(directory, "webrtc_" + System.currentTimeMillis() + ".json");
+        if (!PeerConnectionFactory.startInternalTracingCapture(file.getAbsolutePath())) {
+            return new CommandResult(false, "Could not start trace capture");
+        }
+        webrtcTraceFile = file;
+        if (commandScheduler != null) {
+            webrtcTraceTimeout = commandScheduler.schedule(() -> session.execute(this::stopWebRtcTrace),
+                    MAX_TRACE_DURATION_MS, TimeUnit.MILLISECONDS);
+        }
+        flightRecorder.recordEvent("webrtc_trace_start");
+        return new CommandResult(true, "Tracing WebRTC to " + file.getName());
+    }
 
-            // Load saved locations when robot becomes ready
-            loadSavedLocations();
+    private CommandResult stopWebRtcTrace() {
+        if (webrtcTraceFile == null) {
+            return new CommandResult(false, "No trace is being captured");
+        }
+        if (webrtcTraceTimeout != null) {
+            webrtcTraceTimeout.cancel(false);
+            webrtcTraceTimeout = null;
+        }
+        PeerConnectionFactory.stopInternalTracingCapture();
+        File file = webrtcTraceFile;
+        webrtcTraceFile = null;
+        flightRecorder.recordEvent("webrtc_trace_stop");
+        return new CommandResult(true, "Saved " + file.getAbsolutePath() + " (" + file.length() / 1024 + " KB)");
+    }
 
-            // Get current tilt angle - use a safe default if not available
+    private void setLatencyProbeEnabled(boolean enabled) {
+        latencyProbe.setEnabled(enabled);
+        if (latencyPinger != null) {
+            latencyPinger.cancel(false);
+            latencyPinger = null;
+        }
+        if (latencyReporter != null) {
+            latencyReporter.cancel(false);
+            latencyReporter = null;
+        }
+        if (enabled && commandScheduler != null) {
+            latencyPinger = commandScheduler.scheduleAtFixedRate(this::sendLatencyPing,
+                    0, LATENCY_PING_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            latencyReporter = commandScheduler.scheduleAtFixedRate(this::sendLatencyStats,
+                    LATENCY_STATS_INTERVAL_MS, LATENCY_STATS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+        flightRecorder.recordEvent(enabled ? "latency_probe_on" : "latency_probe_off");
+    }
+
+    private void sendLatencyPing() {
+        if (commandHandler == null) {
+            return;
+        }
+        try {
+            JSONObject ping = new JSONObject();
+            ping.put("type", "latency_ping");
+            ping.put("probeTime", latencyProbe.pingTime());
+            commandHandler.sendMessage(ping);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error sending latency ping", e);
+        }
+    }
+
+    /** Sends the glass-to-glass distribution together with the command pipeline's timings. */
+    private void sendLatencyStats() {
+        if (commandHandler == null) {
+            return;
+        }
+        int latestMs = latencyProbe.getLatestMs();
+        if (latestMs >= 0) {
+            flightRecorder.recordStat("glass_to_glass_ms", latestMs, 0f);
+        }
+        try {
+            JSONObject stats = new JSONObject();
+            stats.put("type", "latency_stats");
+            stats.put("glassToGlass", latencyProbe.getStats());
+            stats.put("commands", commandHandler.getAdmissionController().getStats());
+            stats.put("timestamp", System.currentTimeMillis());
+            commandHandler.sendMessage(stats);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error sending latency stats", e);
+        }
+    }
+
+    /** Polled while the viewer subscribes to stream_stats: what we send, and over which link. */
+    private void publishStreamStats() {
+        PeerConnection connection = session.state().peerConnection;
+        if (connection == null) {
+            return;
+        }
+        connection.getStats(report -> {
+            JSONObject stats = new JSONObject();
             try {
-                // Note: getTiltAngle() may not be available in all SDK versions
-                // currentTiltAngle = robot.getTiltAngle();
-                currentTiltAngle = 0; // Use default for now
-                Log.d(TAG, "Current tilt angle set to default: " + currentTiltAngle);
-            } catch (Exception e) {
-                Log.w(TAG, "Could not get current tilt angle, using default", e);
-                currentTiltAngle = 0;
+                for (RTCStats entry : report.getStatsMap().values()) {
+                    Map<String, Object> members = entry.getMembers();
+                    if ("outbound-rtp".equals(entry.getType()) && "video".equals(members.get("kind"))) {
+                        Object bytesSent = members.get("bytesSent");
+                        if (bytesSent instanceof Number) {
+                            long bytes = ((Number) bytesSent).longValue();
+                            double timestampUs = entry.getTimestampUs();
+                            if (lastStreamStatsUs > 0 && timestampUs > lastStreamStatsUs && bytes >= lastBytesSent) {
+                                stats.put("bitrateKbps", Math.round((bytes - lastBytesSent) * 8000.0
+                                        / (timestampUs - lastStreamStatsUs)));
+                            }
+                            lastBytesSent = bytes;
+                            lastStreamStatsUs = timestampUs;
+                        }
+                        stats.put("width", members.get("frameWidth"));
+                        stats.put("height", members.get("frameHeight"));
+                        stats.put("fps", members.get("framesPerSecond"));
+                        stats.put("qualityLimitation", members.get("qualityLimitationReason"));
+                    } else if ("candidate-pair".equals(entry.getType())
+                            && Boolean.TRUE.equals(members.get("nominated"))
+                            && "succeeded".equals(members.get("state"))) {
+                        Object rtt = members.get("currentRoundTripTime");
+                        if (rtt instanceof Number) {
+                            stats.put("rttMs", Math.round(((Number) rtt).doubleValue() * 1000));
+                        }
+                        Object available = members.get("availableOutgoingBitrate");
+                        if (available instanceof Number) {
+                            stats.put("availableKbps", Math.round(((Number) available).doubleValue() / 1000));
+                        }
+                    }
+                }
+                IcePathMonitor.Path path = IcePathMonitor.selectedPath(report.getStatsMap());
+                if (path != null) {
+                    stats.put("path", path.describe());
+                }
+                stats.put("still", motionAdaptive.isStill());
+                stats.put("type", "stream_stats");
+                stats.put("timestamp", System.currentTimeMillis());
+            } catch (JSONException e) {
+                Log.e(TAG, "Error building stream stats", e);
+                return;
             }
-        } else {
-            updateRobotStatus("Robot not ready");
-            runOnUiThread(() -> startButton.setEnabled(false));
+            RobotCommandHandler handler = commandHandler;
+            if (handler != null) {
+                handler.publishTelemetry(TelemetryPublisher.Topic.STREAM_STATS, stats);
+            }
+        });
+    }
+
+    private CommandResult roiResult() {
+        RoiVideoProcessor.Roi roi = roiProcessor.getRoi();
+        if (roi.isFull()) {
+            return new CommandResult(true, "Showing full frame");
         }
-        Log.d(TAG, "Robot ready: " + isReady);
+        return new CommandResult(true, String.format(Locale.US, "Zoom %.1fx at (%.2f, %.2f)",
+                roi.zoom, roi.centerX, roi.centerY));
     }
 
-    @Override
-    public void onGoToLocationStatusChanged(String location, String status, int descriptionId, String description) {
-        updateRobotStatus("Navigation: " + status + " to " + location);
-        Log.d(TAG, "Navigation status: " + status + " to " + location + " - " + description);
+    private final SnapshotSink.Callback snapshotCallback = new SnapshotSink.Callback() {
+        @Override
+        public void onSnapshot(byte[] jpeg, int length, int width, int height, int rotation,
+                               long encodeMs, float liveFps) {
+            JSONObject meta = new JSONObject();
+            try {
+                meta.put("mimeType", "image/jpeg");
+                meta.put("width", width);
+                meta.put("height", height);
+                meta.put("rotation", rotation);
+                meta.put("encodeMs", encodeMs);
+                meta.put("liveFps", Math.round(liveFps * 10) / 10.0);
+            } catch (JSONException e) {
+                Log.e(TAG, "Error creating snapshot metadata", e);
+            }
+            // The JPEG buffer is reused, so the sink stays busy until the transfer is done
+            transferSender.send("snapshot", meta, jpeg, 0, length,
+                    (transferId, completed, durationMs) -> snapshotSink.release());
+        }
 
-        // Send status update to viewer
-        if (dataChannel != null && dataChannel.state() == DataChannel.State.OPEN) {
+        @Override
+        public void onSnapshotFailed(String error) {
+            Log.e(TAG, "Snapshot failed: " + error);
+            if (commandHandler == null) {
+                return;
+            }
             try {
-                JSONObject statusUpdate = new JSONObject();
-                statusUpdate.put("type", "navigation_status");
-                statusUpdate.put("location", location);
-                statusUpdate.put("status", status);
-                statusUpdate.put("description", description);
-                statusUpdate.put("timestamp", System.currentTimeMillis());
-
-                String message = statusUpdate.toString();
-                DataChannel.Buffer buffer = new DataChannel.Buffer(
-                        ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)), false);
-                dataChannel.send(buffer);
+                JSONObject status = new JSONObject();
+                status.put("type", "snapshot_status");
+                status.put("success", false);
+                status.put("error", error);
+                status.put("timestamp", System.currentTimeMillis());
+                commandHandler.sendMessage(status);
             } catch (JSONException e) {
-                Log.e(TAG, "Error sending navigation status", e);
+                Log.e(TAG, "Error sending snapshot status", e);
             }
         }
+    };
+
+    @Override
+    public void onEmergencyStop() {
+        saveIncidentClip("emergency_stop");
     }
 
     @Override
-    public void onMovementStatusChanged(String type, String status) {
-        if (status.equals("idle")) {
-            isMoving = false;
+    public void onViewerReport(String type, JSONObject message) {
+        if (type.equals("video_stats") && videoRecoveryMonitor != null) {
+            videoRecoveryMonitor.onViewerReport(message);
+        } else if (type.equals("latency_pong")) {
+            latencyProbe.onPong(message.optDouble("probeTime", -1));
+        } else if (type.equals("frame_echo")) {
+            try {
+                latencyProbe.onEcho(message.getJSONArray("frames"));
+            } catch (JSONException e) {
+                Log.w(TAG, "Malformed frame echo", e);
+            }
         }
-        updateRobotStatus("Movement: " + type + " - " + status);
-        Log.d(TAG, "Movement status: " + type + " - " + status);
     }
 
-    @Override
-    public void onCurrentPositionChanged(Position position) {
-        currentPosition = position;
-        Log.d(TAG, "Position changed: x=" + position.getX() + ", y=" + position.getY() + ", yaw=" + position.getYaw());
+    /** Parses and adopts an ICE configuration; a bad one is logged and the previous one kept. */
+    private void applyIceConfig(String json, String source) {
+        try {
+            iceConfig = IceServerConfig.parse(new JSONObject(json), source);
+            flightRecorder.recordEvent("ice_config_" + source);
+        } catch (JSONException | IllegalArgumentException e) {
+            Log.w(TAG, "Ignoring ICE configuration from " + source, e);
+        }
+    }
+
+    private final IcePathMonitor.Listener iceListener = new IcePathMonitor.Listener() {
+        @Override
+        public void onRelayFallback(String reason, int generation) {
+            flightRecorder.recordEvent("ice_relay_fallback_" + reason);
+            // A timer of a session that has ended since must not restart the next one
+            session.executeFor(generation, () -> {
+                SessionLoop.State current = session.state();
+                if (current.peerConnection == null || rtcConfig == null) {
+                    return;
+                }
+                Log.i(TAG, "No direct path (" + reason + "), adding TURN and restarting ICE");
+                rtcConfig.iceServers = iceConfig.toIceServers(true);
+                current.peerConnection.setConfiguration(rtcConfig);
+                current.peerConnection.restartIce();
+                createAndSendOffer(current);
+            });
+        }
 
-        // Send position update to viewer
-        if (dataChannel != null && dataChannel.state() == DataChannel.State.OPEN) {
+        @Override
+        public void onPathChanged(IcePathMonitor.Path path) {
+            flightRecorder.recordEvent("ice_path_" + path.localType + "_" + path.remoteType);
             try {
-                JSONObject positionUpdate = new JSONObject();
-                positionUpdate.put("type", "position_update");
-                positionUpdate.put("x", position.getX());
-                positionUpdate.put("y", position.getY());
-                positionUpdate.put("yaw", position.getYaw());
-                positionUpdate.put("tiltAngle", currentTiltAngle);
-                positionUpdate.put("timestamp", System.currentTimeMillis());
-
-                String message = positionUpdate.toString();
-                DataChannel.Buffer buffer = new DataChannel.Buffer(
-                        ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)), false);
-                dataChannel.send(buffer);
+                JSONObject message = path.toJson();
+                message.put("type", "ice_path");
+                message.put("timestamp", System.currentTimeMillis());
+                commandHandler.sendMessage(message);
             } catch (JSONException e) {
-                Log.e(TAG, "Error sending position update", e);
+                Log.e(TAG, "Error sending ICE path", e);
+            }
+        }
+    };
+
+    /** The motion-adaptive rate stays at full while the robot moves or latency is measured. */
+    private boolean holdsFullFrameRate() {
+        RobotCommandHandler handler = commandHandler;
+        // The latency probe's marker pattern needs every frame encoded
+        return (handler != null && handler.isRobotMoving()) || latencyProbe.isEnabled();
+    }
+
+    private void sampleStats() {
+        commandHandler.sampleStats();
+        PeerConnection connection = session.state().peerConnection;
+        if (connection != null && videoRecoveryMonitor != null) {
+            connection.getStats(report -> {
+                videoRecoveryMonitor.onSenderReport(report);
+                if (iceMonitor != null) {
+                    iceMonitor.onStats(report.getStatsMap());
+                }
+                PreviewPolicy preview = previewPolicy;
+                for (RTCStats entry : report.getStatsMap().values()) {
+                    Map<String, Object> members = entry.getMembers();
+                    if (!"outbound-rtp".equals(entry.getType()) || !"video".equals(members.get("kind"))) {
+                        continue;
+                    }
+                    Object framesEncoded = members.get("framesEncoded");
+                    if (preview != null && motionAdaptive.isStill()) {
+                        // Still periods would make every preview mode look faster
+                        preview.resetEncoderSample();
+                    } else if (preview != null && framesEncoded instanceof Number) {
+                        preview.onFramesEncoded(((Number) framesEncoded).longValue());
+                    }
+                    Object bytesSent = members.get("bytesSent");
+                    if (bytesSent instanceof Number) {
+                        motionAdaptive.onBytesSent(((Number) bytesSent).longValue());
+                    }
+                }
+            });
+        }
+        if (previewPolicy != null) {
+            previewPolicy.checkIdle();
+        }
+    }
+
+    /**
+     * Snapshots the pre-event ring and muxes it to a file in the background. The snapshot is
+     * a single memcpy under the ring's lock, so the encoder thread is only held up briefly.
+     */
+    private CommandResult saveIncidentClip(String reason) {
+        if (preEventBuffer == null || clipExecutor == null) {
+            return new CommandResult(false, "Clip recording unavailable");
+        }
+        if (!clipSaving.compareAndSet(false, true)) {
+            return new CommandResult(false, "A clip is already being saved");
+        }
+        PreEventBuffer.Clip clip = preEventBuffer.snapshot();
+        if (clip == null) {
+            clipSaving.set(false);
+            return new CommandResult(false, "No video buffered");
+        }
+
+        String safeReason = reason.replaceAll("[^A-Za-z0-9_-]", "_");
+        if (safeReason.length() > 32) {
+            safeReason = safeReason.substring(0, 32);
+        }
+        String baseName = "clip_" + System.currentTimeMillis() + "_" + safeReason;
+        flightRecorder.recordEvent("clip_" + safeReason);
+
+        clipExecutor.execute(() -> {
+            try {
+                File directory = new File(getFilesDir(), "clips");
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("Cannot create " + directory);
+                }
+                File file = ClipMuxer.write(clip, directory, baseName);
+                pruneOldest(directory, MAX_SAVED_CLIPS);
+                Log.d(TAG, "Saved incident clip " + file.getName());
+                sendClipStatus(reason, clip, file, null);
+            } catch (IOException e) {
+                Log.e(TAG, "Error saving incident clip", e);
+                sendClipStatus(reason, clip, null, e.getMessage());
+            } finally {
+                clipSaving.set(false);
+            }
+        });
+        return new CommandResult(true, String.format(Locale.US, "Saving %.1fs clip (%s)",
+                clip.getDurationUs() / 1e6, reason));
+    }
+
+    private static void pruneOldest(File directory, int keep) {
+        File[] files = directory.listFiles();
+        if (files == null || files.length <= keep) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (int i = 0; i < files.length - keep; i++) {
+            files[i].delete();
+        }
+    }
+
+    private void sendClipStatus(String reason, PreEventBuffer.Clip clip, File file, String error) {
+        if (commandHandler == null) {
+            return;
+        }
+        try {
+            JSONObject status = new JSONObject();
+            status.put("type", "clip_status");
+            status.put("reason", reason);
+            status.put("success", file != null);
+            if (file != null) {
+                status.put("file", file.getName());
+                status.put("bytes", file.length());
+            } else {
+                status.put("error", error);
+            }
+            status.put("codec", clip.codec);
+            status.put("frames", clip.getFrameCount());
+            status.put("durationMs", clip.getDurationUs() / 1000);
+            status.put("timestamp", System.currentTimeMillis());
+            commandHandler.sendMessage(status);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error sending clip status", e);
+        }
+    }
+
+    private CameraEnumerator createCameraEnumerator() {
+        if (Camera2Enumerator.isSupported(this)) {
+            return new Camera2Enumerator(this);
+        }
+        return new Camera1Enumerator(true);
+    }
+
+    private final CameraController.Listener cameraListener = new CameraController.Listener() {
+        @Override
+        public void onCameraChanged(String deviceName, boolean frontFacing,
+                                    CameraEnumerationAndroid.CaptureFormat format, long switchMs,
+                                    long firstFrameMs) {
+            flightRecorder.recordEvent("camera_switch");
+            sendCameraStatus(true, deviceName, frontFacing, format, switchMs, firstFrameMs, null);
+        }
+
+        @Override
+        public void onCameraChangeFailed(String error) {
+            Log.e(TAG, "Camera switch failed: " + error);
+            sendCameraStatus(false, null, false, null, 0, 0, error);
+        }
+    };
+
+    private void sendCameraStatus(boolean success, String deviceName, boolean frontFacing,
+                                  CameraEnumerationAndroid.CaptureFormat format, long switchMs,
+                                  long firstFrameMs, String error) {
+        if (commandHandler == null) {
+            return;
+        }
+        try {
+            JSONObject status = new JSONObject();
+            status.put("type", "camera_status");
+            status.put("success", success);
+            if (success) {
+                status.put("camera", deviceName);
+                status.put("facing", frontFacing ? "front" : "back");
+                status.put("width", format.width);
+                status.put("height", format.height);
+                status.put("fps", CameraController.maxFps(format));
+                status.put("switchMs", switchMs);
+                status.put("firstFrameMs", firstFrameMs);
+            } else {
+                status.put("error", error);
+            }
+            status.put("timestamp", System.currentTimeMillis());
+            commandHandler.sendMessage(status);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error sending camera status", e);
+        }
+    }
+
+    private void updateStatus(String status) {
+        runOnUiThread(() -> {
+            statusText.setText(status);
+            if (Tracing.debug()) {
+                Log.d(TAG, "Status: " + status);
+            }
+        });
+    }
+
+    private void updateRobotStatus(String status) {
+        runOnUiThread(() -> {
+            if (robotStatusText != null) {
+                robotStatusText.setText("Robot: " + status);
+            }
+            if (Tracing.debug()) {
+                Log.d(TAG, "Robot Status: " + status);
             }
+        });
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (previewPolicy != null) {
+            // Staff may have changed the screen timeout while we were away
+            previewPolicy.setIdleTimeoutMs(screenOffTimeoutMs());
+            previewPolicy.setForeground(true);
+        }
+    }
+
+    private long screenOffTimeoutMs() {
+        return Settings.System.getInt(getContentResolver(), Settings.System.SCREEN_OFF_TIMEOUT,
+                (int) PreviewPolicy.DEFAULT_IDLE_TIMEOUT_MS);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (previewPolicy != null) {
+            previewPolicy.setForeground(false);
         }
     }
 
+    @Override
+    public void onUserInteraction() {
+        super.onUserInteraction();
+        if (previewPolicy != null) {
+            previewPolicy.onUserInteraction();
+        }
+    }
+
+    // Temi Robot Listeners
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        stopStreaming();
+        unregisterReceiver(screenReceiver);
+        // The factory and EGL context go last on the session thread, after the connection they
+        // back is closed; stopping the capturer can block, so the main thread does not wait
+        session.execute(() -> {
+            stopStreaming();
+            stopWebRtcTrace();
+            if (peerConnectionFactory != null) {
+                peerConnectionFactory.dispose();
+            }
+            if (eglBase != null) {
+                eglBase.release();
+            }
+        });
+        session.shutdown();
+
+        if (startupExecutor != null) {
+            startupExecutor.shutdownNow();
+        }
 
         if (webSocket != null) {
             webSocket.close(1000, "Activity destroyed");
         }
 
-        if (peerConnectionFactory != null) {
-            peerConnectionFactory.dispose();
+        if (commandScheduler != null) {
+            commandScheduler.shutdownNow();
+        }
+
+        if (clipExecutor != null) {
+            // Let a clip that is being written finish
+            clipExecutor.shutdown();
         }
 
-        if (eglBase != null) {
-            eglBase.release();
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdownNow();
+        }
+
+        if (cameraExecutor != null) {
+            cameraExecutor.shutdown();
+        }
+
+        if (mapExecutor != null) {
+            mapExecutor.shutdownNow();
         }
 
         // Clean up robot listeners
         if (robot != null) {
-            robot.removeOnRobotReadyListener(this);
-            robot.removeOnGoToLocationStatusChangedListener(this);
-            robot.removeOnMovementStatusChangedListener(this);
-            robot.removeOnCurrentPositionChangedListener(this);
+            robot.release();
         }
     }
 
@@ -1051,16 +1749,46 @@ public class MainActivity extends AppCompatActivity implements
         }
     }
 
-    // PeerConnection Observer
+    // PeerConnection Observer; runs on WebRTC's signaling thread and hands session work to the loop
     private class PeerConnectionObserver implements PeerConnection.Observer {
+        private final int generation;
+
+        PeerConnectionObserver(int generation) {
+            this.generation = generation;
+        }
+
         @Override
         public void onSignalingChange(PeerConnection.SignalingState signalingState) {
-            Log.d(TAG, "Signaling state changed: " + signalingState);
+            if (Tracing.debug()) {
+                Log.d(TAG, "Signaling state changed: " + signalingState);
+            }
+            flightRecorder.recordSignaling(signalingState.name());
         }
 
         @Override
         public void onIceConnectionChange(PeerConnection.IceConnectionState iceConnectionState) {
-            Log.d(TAG, "ICE connection state changed: " + iceConnectionState);
+            if (Tracing.debug()) {
+                Log.d(TAG, "ICE connection state changed: " + iceConnectionState);
+            }
+            flightRecorder.recordIceState(iceConnectionState);
+            // Closing the connection reports CLOSED here; by then the session is gone
+            session.executeFor(generation, () -> onSessionIceChange(iceConnectionState));
+        }
+
+        /** Session loop only. */
+        private void onSessionIceChange(PeerConnection.IceConnectionState iceConnectionState) {
+            if (iceMonitor != null) {
+                iceMonitor.onIceConnectionChange(iceConnectionState);
+            }
+            if (iceConnectionState == PeerConnection.IceConnectionState.CONNECTED) {
+                long setupMs = negotiationStats.onIceConnected();
+                if (setupMs >= 0) {
+                    flightRecorder.recordStat("setup_ms", (int) setupMs, sessionShaped ? 1f : 0f);
+                }
+            }
+            if (iceConnectionState == PeerConnection.IceConnectionState.FAILED) {
+                saveIncidentClip("ice_failed");
+            }
             runOnUiThread(() -> {
                 switch (iceConnectionState) {
                     case CONNECTED:
@@ -1081,17 +1809,30 @@ public class MainActivity extends AppCompatActivity implements
 
         @Override
         public void onIceConnectionReceivingChange(boolean receiving) {
-            Log.d(TAG, "ICE connection receiving changed: " + receiving);
+            if (Tracing.debug()) {
+                Log.d(TAG, "ICE connection receiving changed: " + receiving);
+            }
         }
 
         @Override
         public void onIceGatheringChange(PeerConnection.IceGatheringState iceGatheringState) {
-            Log.d(TAG, "ICE gathering state changed: " + iceGatheringState);
+            if (Tracing.debug()) {
+                Log.d(TAG, "ICE gathering state changed: " + iceGatheringState);
+            }
+            flightRecorder.recordEvent("ice_gathering_" + iceGatheringState.name());
         }
 
         @Override
         public void onIceCandidate(IceCandidate iceCandidate) {
-            Log.d(TAG, "New ICE candidate: " + iceCandidate.toString());
+            if (Tracing.debug()) {
+                Log.d(TAG, "New ICE candidate: " + iceCandidate);
+            }
+            session.executeFor(generation, () -> sendLocalCandidate(iceCandidate));
+        }
+
+        /** Session loop only. */
+        private void sendLocalCandidate(IceCandidate iceCandidate) {
+            negotiationStats.onLocalCandidate();
 
             try {
                 JSONObject candidateMessage = new JSONObject();
@@ -1151,6 +1892,14 @@ public class MainActivity extends AppCompatActivity implements
         @Override
         public void onAddTrack(RtpReceiver rtpReceiver, MediaStream[] mediaStreams) {
             Log.d(TAG, "Track added");
+            MediaStreamTrack track = rtpReceiver.track();
+            if (track instanceof AudioTrack) {
+                session.executeFor(generation, () -> {
+                    // The viewer's microphone; only audible while the intercom is on
+                    remoteAudioTrack = (AudioTrack) track;
+                    remoteAudioTrack.setEnabled(intercomEnabled);
+                });
+            }
         }
     }
 
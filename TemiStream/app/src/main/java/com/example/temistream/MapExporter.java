@@ -0,0 +1,305 @@
+package com.example.temistream;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
+
+/**
+ * Exports the robot's floor map to the viewer as content-addressed tiles, so a viewer that
+ * has seen the map before downloads little or nothing.
+ *
+ * An export cuts the occupancy grid into {@link #TILE_SIZE}-cell square tiles, deflates each
+ * one and names it by the SHA-256 of its contents. The viewer first gets a small
+ * {@code map_manifest} with the map's geometry, the tile hashes in row-major order and the
+ * saved locations' poses, then asks with {@code get_map_tiles} for the hashes missing from
+ * its cache. Those go out as low-priority {@code map_tile} transfers, which only use the
+ * control channel while nothing else is being transferred. Identical tiles, such as the
+ * unexplored space around a map, share a hash and are sent once.
+ *
+ * Exports are reused for {@link #CACHE_TTL_MS} so that opening the map twice does not fetch
+ * and compress it twice.
+ */
+final class MapExporter {
+
+    interface Listener {
+        void onManifest(JSONObject manifest);
+
+        void onExportFailed(String error);
+    }
+
+    static final int TILE_SIZE = 128;
+    static final long CACHE_TTL_MS = 60_000;
+
+    private static final class Tile {
+        final String hash;
+        final byte[] compressed;
+        final int width;
+        final int height;
+
+        Tile(String hash, byte[] compressed, int width, int height) {
+            this.hash = hash;
+            this.compressed = compressed;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private static final class Export {
+        final RobotGateway.MapData map;
+        final String[] tileHashes;
+        final Map<String, Tile> tiles;
+        final long createdNanos;
+        final long exportMs;
+        final long compressedBytes;
+
+        Export(RobotGateway.MapData map, String[] tileHashes, Map<String, Tile> tiles, long createdNanos,
+               long exportMs, long compressedBytes) {
+            this.map = map;
+            this.tileHashes = tileHashes;
+            this.tiles = tiles;
+            this.createdNanos = createdNanos;
+            this.exportMs = exportMs;
+            this.compressedBytes = compressedBytes;
+        }
+    }
+
+    private final Supplier<RobotGateway.MapData> source;
+    private final ChunkedTransferSender sender;
+    private final Executor worker;
+    private final LongSupplier clockNanos;
+    private final Listener listener;
+
+    private Export current;
+    private long exportCount;
+    private long tilesRequested;
+    private long tilesSent;
+    private long bytesSent;
+
+    MapExporter(Supplier<RobotGateway.MapData> source, ChunkedTransferSender sender, Executor worker,
+                Listener listener) {
+        this(source, sender, worker, listener, System::nanoTime);
+    }
+
+    MapExporter(Supplier<RobotGateway.MapData> source, ChunkedTransferSender sender, Executor worker,
+                Listener listener, LongSupplier clockNanos) {
+        this.source = source;
+        this.sender = sender;
+        this.worker = worker;
+        this.listener = listener;
+        this.clockNanos = clockNanos;
+    }
+
+    /** Sends the manifest from the worker, exporting the map first unless a fresh export exists. */
+    void requestManifest(boolean refresh) {
+        worker.execute(() -> {
+            Export export;
+            try {
+                export = getExport(refresh);
+            } catch (RuntimeException e) {
+                listener.onExportFailed("Map export failed: " + e.getMessage());
+                return;
+            }
+            if (export == null) {
+                listener.onExportFailed("Map not available");
+                return;
+            }
+            try {
+                listener.onManifest(manifest(export));
+            } catch (JSONException e) {
+                listener.onExportFailed("Map export failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Queues the tiles with the given hashes from the current export. Unknown hashes, e.g.
+     * from a manifest of a map that has since changed, are skipped.
+     *
+     * @return the number of tiles queued
+     */
+    int sendTiles(JSONArray hashes) throws JSONException {
+        List<Tile> tiles = new ArrayList<>();
+        synchronized (this) {
+            if (current == null) {
+                return 0;
+            }
+            for (int i = 0; i < hashes.length(); i++) {
+                Tile tile = current.tiles.get(hashes.getString(i));
+                if (tile != null && !tiles.contains(tile)) {
+                    tiles.add(tile);
+                }
+            }
+            tilesRequested += hashes.length();
+        }
+        for (Tile tile : tiles) {
+            JSONObject meta = new JSONObject();
+            meta.put("hash", tile.hash);
+            meta.put("width", tile.width);
+            meta.put("height", tile.height);
+            meta.put("encoding", "deflate");
+            sender.send("map_tile", meta, tile.compressed, 0, tile.compressed.length,
+                    ChunkedTransferSender.Priority.LOW, (transferId, completed, durationMs) -> {
+                        if (completed) {
+                            onTileSent(tile);
+                        }
+                    });
+        }
+        return tiles.size();
+    }
+
+    private synchronized void onTileSent(Tile tile) {
+        tilesSent++;
+        bytesSent += tile.compressed.length;
+    }
+
+    synchronized JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("exports", exportCount);
+        stats.put("tilesRequested", tilesRequested);
+        stats.put("tilesSent", tilesSent);
+        stats.put("bytesSent", bytesSent);
+        if (current != null) {
+            stats.put("tiles", current.tileHashes.length);
+            stats.put("uniqueTiles", current.tiles.size());
+            stats.put("compressedBytes", current.compressedBytes);
+            stats.put("exportMs", current.exportMs);
+        }
+        return stats;
+    }
+
+    private Export getExport(boolean refresh) {
+        synchronized (this) {
+            if (!refresh && current != null && TimeUnit.NANOSECONDS.toMillis(
+                    clockNanos.getAsLong() - current.createdNanos) < CACHE_TTL_MS) {
+                return current;
+            }
+        }
+        long start = clockNanos.getAsLong();
+        RobotGateway.MapData map = source.get();
+        if (map == null || map.width <= 0 || map.height <= 0) {
+            return null;
+        }
+        Export export = export(map, start);
+        synchronized (this) {
+            current = export;
+            exportCount++;
+        }
+        return export;
+    }
+
+    private Export export(RobotGateway.MapData map, long startNanos) {
+        int cols = (map.width + TILE_SIZE - 1) / TILE_SIZE;
+        int rows = (map.height + TILE_SIZE - 1) / TILE_SIZE;
+        String[] hashes = new String[cols * rows];
+        Map<String, Tile> tiles = new HashMap<>();
+        long compressedBytes = 0;
+        MessageDigest digest = sha256();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            for (int row = 0; row < rows; row++) {
+                for (int col = 0; col < cols; col++) {
+                    int x = col * TILE_SIZE;
+                    int y = row * TILE_SIZE;
+                    int width = Math.min(TILE_SIZE, map.width - x);
+                    int height = Math.min(TILE_SIZE, map.height - y);
+                    byte[] cells = new byte[width * height];
+                    for (int line = 0; line < height; line++) {
+                        System.arraycopy(map.cells, (y + line) * map.width + x, cells, line * width, width);
+                    }
+                    String hash = hash(digest, cells, width, height);
+                    hashes[row * cols + col] = hash;
+                    if (!tiles.containsKey(hash)) {
+                        byte[] compressed = deflate(deflater, cells);
+                        tiles.put(hash, new Tile(hash, compressed, width, height));
+                        compressedBytes += compressed.length;
+                    }
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+        long exportMs = TimeUnit.NANOSECONDS.toMillis(clockNanos.getAsLong() - startNanos);
+        return new Export(map, hashes, tiles, clockNanos.getAsLong(), exportMs, compressedBytes);
+    }
+
+    private static JSONObject manifest(Export export) throws JSONException {
+        RobotGateway.MapData map = export.map;
+        JSONObject manifest = new JSONObject();
+        manifest.put("type", "map_manifest");
+        manifest.put("mapId", map.mapId);
+        manifest.put("width", map.width);
+        manifest.put("height", map.height);
+        manifest.put("resolution", map.resolution);
+        manifest.put("originX", map.originX);
+        manifest.put("originY", map.originY);
+        manifest.put("tileSize", TILE_SIZE);
+        JSONArray tiles = new JSONArray();
+        for (String hash : export.tileHashes) {
+            tiles.put(hash);
+        }
+        manifest.put("tiles", tiles);
+        JSONArray locations = new JSONArray();
+        for (RobotGateway.LocationPose pose : map.locations) {
+            JSONObject location = new JSONObject();
+            location.put("name", pose.name);
+            location.put("x", pose.x);
+            location.put("y", pose.y);
+            location.put("yaw", pose.yaw);
+            locations.put(location);
+        }
+        manifest.put("locations", locations);
+        manifest.put("uniqueTiles", export.tiles.size());
+        manifest.put("compressedBytes", export.compressedBytes);
+        manifest.put("exportMs", export.exportMs);
+        manifest.put("timestamp", System.currentTimeMillis());
+        return manifest;
+    }
+
+    private static String hash(MessageDigest digest, byte[] cells, int width, int height) {
+        digest.reset();
+        digest.update(new byte[] {
+                (byte) (width >> 8), (byte) width, (byte) (height >> 8), (byte) height});
+        byte[] sum = digest.digest(cells);
+        StringBuilder hex = new StringBuilder(32);
+        // 128 bits is plenty to tell a map's tiles apart
+        for (int i = 0; i < 16; i++) {
+            hex.append(Character.forDigit((sum[i] >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(sum[i] & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] data) {
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 16));
+        byte[] buffer = new byte[4096];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(buffer);
+            out.write(buffer, 0, length);
+        }
+        return out.toByteArray();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
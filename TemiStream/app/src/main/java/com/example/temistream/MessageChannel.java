@@ -0,0 +1,21 @@
+package com.example.temistream;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Outbound side of the robot control channel. {@link DataChannelMessageChannel} wraps the
+ * WebRTC DataChannel; tests capture messages in memory.
+ */
+interface MessageChannel {
+
+    boolean isOpen();
+
+    /**
+     * Sends the remaining bytes of {@code data}; returns false if the channel refused them.
+     * The bytes are copied before this returns, so callers may reuse {@code data} afterwards.
+     */
+    boolean send(ByteBuffer data, boolean binary);
+
+    /** Bytes queued for sending but not yet handed to the transport. */
+    long bufferedAmount();
+}
@@ -0,0 +1,252 @@
+package com.example.temistream;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.VideoFrame;
+
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Lowers the encoded frame rate while both the robot and the scene are still.
+ *
+ * Installed as a {@link RoiVideoProcessor.FrameFilter}, it sees every captured frame. Once
+ * the robot has not moved and the {@link MotionDetector} has seen no change for
+ * {@link #STILL_AFTER_MS}, only {@code stillFps} frames a second reach the encoder. While
+ * still, every frame is analyzed, and the first one that shows motion, or arrives while the
+ * robot moves, is passed on and restores the full rate; nothing is lost to a capture
+ * restart. At full rate only every {@link #ANALYZE_EVERY}th frame is analyzed, since
+ * stillness only matters after seconds anyway.
+ *
+ * Capture keeps running at the camera's rate, so the savings are the encodes and the
+ * bytes not sent; both are accounted per state and reported by {@link #getStats}.
+ */
+final class MotionAdaptiveFramerate implements RoiVideoProcessor.FrameFilter {
+
+    /** Called on the capture thread when the rate changes. */
+    interface Listener {
+        /** @param reason "still", "robot", "scene" or "stopped" */
+        void onStillChanged(boolean still, String reason);
+    }
+
+    static final long STILL_AFTER_MS = 2000;
+    static final int DEFAULT_STILL_FPS = 2;
+    static final int MAX_STILL_FPS = 15;
+    static final int ANALYZE_EVERY = 5;
+
+    private static final class StateTotals {
+        long nanos;
+        long bytes;
+        long bytesNanos;
+    }
+
+    private final Predicate<VideoFrame> sceneMotion;
+    private final BooleanSupplier robotMoving;
+    private final Listener listener;
+    private final LongSupplier clockNanos;
+
+    private volatile boolean enabled = true;
+    private int stillFps = DEFAULT_STILL_FPS;
+
+    // Capture thread state, guarded by this
+    private boolean still;
+    private long lastMotionNanos;
+    private boolean started;
+    private int framesSinceAnalysis;
+    private long nextStillFrameNanos;
+    private long stateSinceNanos;
+
+    private long capturedFrames;
+    private long droppedFrames;
+    private long stillPeriods;
+    private long robotWakeups;
+    private long sceneWakeups;
+    private final StateTotals activeTotals = new StateTotals();
+    private final StateTotals stillTotals = new StateTotals();
+
+    private long lastBytesSent = -1;
+    private long lastBytesNanos;
+    private boolean changedSinceBytes;
+
+    MotionAdaptiveFramerate(Predicate<VideoFrame> sceneMotion, BooleanSupplier robotMoving, Listener listener) {
+        this(sceneMotion, robotMoving, listener, System::nanoTime);
+    }
+
+    MotionAdaptiveFramerate(Predicate<VideoFrame> sceneMotion, BooleanSupplier robotMoving, Listener listener,
+                            LongSupplier clockNanos) {
+        this.sceneMotion = sceneMotion;
+        this.robotMoving = robotMoving;
+        this.listener = listener;
+        this.clockNanos = clockNanos;
+    }
+
+    @Override
+    public boolean accept(VideoFrame frame) {
+        if (!enabled) {
+            return true;
+        }
+        boolean moving = robotMoving.getAsBoolean();
+        boolean analyze = !moving && needsAnalysis();
+        return onFrameCaptured(moving, analyze && sceneMotion.test(frame));
+    }
+
+    private synchronized boolean needsAnalysis() {
+        if (still) {
+            return true;
+        }
+        if (++framesSinceAnalysis < ANALYZE_EVERY) {
+            return false;
+        }
+        framesSinceAnalysis = 0;
+        return true;
+    }
+
+    /** Capture-thread side; {@code scene} is whether an analyzed frame showed motion. */
+    boolean onFrameCaptured(boolean moving, boolean scene) {
+        boolean accept = true;
+        String reason = null;
+        synchronized (this) {
+            long now = clockNanos.getAsLong();
+            capturedFrames++;
+            if (!started) {
+                started = true;
+                lastMotionNanos = now;
+                stateSinceNanos = now;
+            }
+            if (moving || scene) {
+                lastMotionNanos = now;
+                if (still) {
+                    if (moving) {
+                        robotWakeups++;
+                    } else {
+                        sceneWakeups++;
+                    }
+                    reason = moving ? "robot" : "scene";
+                    setStillLocked(false, now);
+                }
+            } else {
+                if (!still && now - lastMotionNanos >= STILL_AFTER_MS * 1_000_000) {
+                    stillPeriods++;
+                    reason = "still";
+                    setStillLocked(true, now);
+                    nextStillFrameNanos = now;
+                }
+                if (still) {
+                    long interval = 1_000_000_000L / stillFps;
+                    // Same grid with a quarter interval of slack as the preview, so camera
+                    // jitter does not push every slot back by a frame
+                    if (now >= nextStillFrameNanos - interval / 4) {
+                        nextStillFrameNanos = now - nextStillFrameNanos > interval
+                                ? now + interval : nextStillFrameNanos + interval;
+                    } else {
+                        droppedFrames++;
+                        accept = false;
+                    }
+                }
+            }
+        }
+        if (reason != null) {
+            listener.onStillChanged(reason.equals("still"), reason);
+        }
+        return accept;
+    }
+
+    private void setStillLocked(boolean still, long now) {
+        (this.still ? stillTotals : activeTotals).nanos += now - stateSinceNanos;
+        stateSinceNanos = now;
+        this.still = still;
+        changedSinceBytes = true;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            onCaptureStopped();
+        }
+    }
+
+    /** Closes the current still or active period; the next frame starts a new one. */
+    void onCaptureStopped() {
+        boolean woke;
+        synchronized (this) {
+            if (!started) {
+                return;
+            }
+            woke = still;
+            setStillLocked(false, clockNanos.getAsLong());
+            started = false;
+        }
+        if (woke) {
+            listener.onStillChanged(false, "stopped");
+        }
+    }
+
+    synchronized void setStillFps(int fps) {
+        stillFps = Math.max(1, Math.min(MAX_STILL_FPS, fps));
+    }
+
+    synchronized boolean isStill() {
+        return still;
+    }
+
+    /**
+     * Feeds the video sender's cumulative {@code bytesSent}; the bytes of each interval count
+     * for the state it was in, unless the state changed during the interval.
+     */
+    synchronized void onBytesSent(long bytesSent) {
+        long now = clockNanos.getAsLong();
+        if (lastBytesSent >= 0 && bytesSent >= lastBytesSent && !changedSinceBytes) {
+            StateTotals totals = still ? stillTotals : activeTotals;
+            totals.bytes += bytesSent - lastBytesSent;
+            totals.bytesNanos += now - lastBytesNanos;
+        }
+        lastBytesSent = bytesSent;
+        lastBytesNanos = now;
+        changedSinceBytes = false;
+    }
+
+    /** Forgets the last byte count, e.g. when a new session starts counting from zero. */
+    synchronized void resetBytesSample() {
+        lastBytesSent = -1;
+    }
+
+    synchronized JSONObject getStats() throws JSONException {
+        long now = clockNanos.getAsLong();
+        long activeNanos = activeTotals.nanos + (started && !still ? now - stateSinceNanos : 0);
+        long stillNanos = stillTotals.nanos + (started && still ? now - stateSinceNanos : 0);
+
+        JSONObject stats = new JSONObject();
+        stats.put("enabled", enabled);
+        stats.put("still", still);
+        stats.put("stillFps", stillFps);
+        stats.put("stillPeriods", stillPeriods);
+        stats.put("robotWakeups", robotWakeups);
+        stats.put("sceneWakeups", sceneWakeups);
+        stats.put("activeSeconds", activeNanos / 1_000_000_000);
+        stats.put("stillSeconds", stillNanos / 1_000_000_000);
+        stats.put("capturedFrames", capturedFrames);
+        // Every dropped frame is an encode the hardware encoder did not run
+        stats.put("encodesAvoided", droppedFrames);
+        if (capturedFrames > 0) {
+            stats.put("encodeReductionPercent", Math.round(droppedFrames * 1000.0 / capturedFrames) / 10.0);
+        }
+        double activeKbps = kbps(activeTotals);
+        double stillKbps = kbps(stillTotals);
+        if (activeKbps > 0) {
+            stats.put("activeKbps", Math.round(activeKbps));
+        }
+        if (stillKbps > 0) {
+            stats.put("stillKbps", Math.round(stillKbps));
+        }
+        if (activeKbps > 0 && stillKbps > 0) {
+            // What the still time would have cost at the active rate
+            stats.put("savedKBytes", Math.max(0, Math.round((activeKbps - stillKbps) * stillNanos / 8e9)));
+        }
+        return stats;
+    }
+
+    private static double kbps(StateTotals totals) {
+        return totals.bytesNanos > 0 ? totals.bytes * 8e6 / totals.bytesNanos : 0;
+    }
+}
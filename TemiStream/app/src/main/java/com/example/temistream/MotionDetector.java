@@ -0,0 +1,72 @@
+package com.example.temistream;
+
+import org.webrtc.VideoFrame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Tells whether the scene changed since the previous analyzed frame, by comparing the luma
+ * of a {@value #WIDTH}x{@value #HEIGHT} thumbnail.
+ *
+ * The thumbnail comes from {@code cropAndScale} on the camera's texture, so the GPU does the
+ * downscaling and only about 3 KB are read back per frame. A pixel counts as changed when it
+ * differs by more than {@link #PIXEL_THRESHOLD} after the mean brightness change of the whole
+ * picture is taken out, so auto-exposure steps and flicker are not taken for motion; the
+ * scene moved when more than {@link #CHANGED_FRACTION} of the pixels changed.
+ */
+final class MotionDetector {
+
+    static final int WIDTH = 64;
+    static final int HEIGHT = 36;
+    static final int PIXEL_THRESHOLD = 16;
+    static final float CHANGED_FRACTION = 0.005f;
+
+    private final byte[] previous = new byte[WIDTH * HEIGHT];
+    private final byte[] current = new byte[WIDTH * HEIGHT];
+    private boolean hasPrevious;
+
+    /** Capture thread only. */
+    boolean hasMotion(VideoFrame frame) {
+        VideoFrame.Buffer buffer = frame.getBuffer();
+        VideoFrame.Buffer scaled = buffer.cropAndScale(0, 0, buffer.getWidth(), buffer.getHeight(), WIDTH, HEIGHT);
+        VideoFrame.I420Buffer i420 = scaled.toI420();
+        scaled.release();
+        if (i420 == null) {
+            return true;
+        }
+        try {
+            return compare(i420.getDataY(), i420.getStrideY());
+        } finally {
+            i420.release();
+        }
+    }
+
+    /** Compares a {@value #WIDTH}x{@value #HEIGHT} luma plane with the previous one. */
+    boolean compare(ByteBuffer luma, int stride) {
+        long sum = 0;
+        long previousSum = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int value = luma.get(y * stride + x) & 0xFF;
+                current[y * WIDTH + x] = (byte) value;
+                sum += value;
+                previousSum += previous[y * WIDTH + x] & 0xFF;
+            }
+        }
+        if (!hasPrevious) {
+            hasPrevious = true;
+            System.arraycopy(current, 0, previous, 0, current.length);
+            return true;
+        }
+        int brightnessShift = (int) ((sum - previousSum) / current.length);
+        int changed = 0;
+        for (int i = 0; i < current.length; i++) {
+            int diff = (current[i] & 0xFF) - (previous[i] & 0xFF) - brightnessShift;
+            if (diff > PIXEL_THRESHOLD || diff < -PIXEL_THRESHOLD) {
+                changed++;
+            }
+        }
+        System.arraycopy(current, 0, previous, 0, current.length);
+        return changed > CHANGED_FRACTION * current.length;
+    }
+}
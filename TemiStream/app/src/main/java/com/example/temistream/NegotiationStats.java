@@ -0,0 +1,133 @@
+package com.example.temistream;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Times connection setup for each streaming session and keeps per-mode averages, so shaped
+ * and unshaped offers ({@link SdpShaper}) can be compared on the same robot and network.
+ *
+ * A session starts when the peer connection is created. Setup time is measured to the ICE
+ * connection reaching CONNECTED and to the control channel opening; the offer is measured in
+ * bytes before and after shaping, along with the number of local candidates gathered.
+ */
+final class NegotiationStats {
+
+    private static final class ModeTotals {
+        int sessions;
+        long offerBytes;
+        long setupMs;
+        long candidates;
+    }
+
+    private final LongSupplier clockNanos;
+    private final ModeTotals lean = new ModeTotals();
+    private final ModeTotals full = new ModeTotals();
+
+    private boolean shaped;
+    private long startNanos;
+    private boolean started;
+    private int unshapedOfferBytes;
+    private int offerBytes;
+    private int removedCodecs;
+    private int removedExtensions;
+    private int candidates;
+    private long answerMs = -1;
+    private long iceConnectedMs = -1;
+    private long channelOpenMs = -1;
+
+    NegotiationStats() {
+        this(System::nanoTime);
+    }
+
+    NegotiationStats(LongSupplier clockNanos) {
+        this.clockNanos = clockNanos;
+    }
+
+    synchronized void onSessionStart(boolean shaped) {
+        this.shaped = shaped;
+        started = true;
+        startNanos = clockNanos.getAsLong();
+        unshapedOfferBytes = 0;
+        offerBytes = 0;
+        removedCodecs = 0;
+        removedExtensions = 0;
+        candidates = 0;
+        answerMs = -1;
+        iceConnectedMs = -1;
+        channelOpenMs = -1;
+    }
+
+    synchronized void onOffer(int unshapedBytes, SdpShaper.Result result) {
+        unshapedOfferBytes = unshapedBytes;
+        offerBytes = result != null ? result.sdp.length() : unshapedBytes;
+        removedCodecs = result != null ? result.removedCodecs : 0;
+        removedExtensions = result != null ? result.removedExtensions : 0;
+    }
+
+    synchronized void onLocalCandidate() {
+        candidates++;
+    }
+
+    synchronized void onAnswer() {
+        if (started && answerMs < 0) {
+            answerMs = elapsedMs();
+        }
+    }
+
+    /** Returns the setup time if this is the session's first connection, or -1. */
+    synchronized long onIceConnected() {
+        if (!started || iceConnectedMs >= 0) {
+            return -1;
+        }
+        iceConnectedMs = elapsedMs();
+        ModeTotals totals = shaped ? lean : full;
+        totals.sessions++;
+        totals.offerBytes += offerBytes;
+        totals.setupMs += iceConnectedMs;
+        totals.candidates += candidates;
+        return iceConnectedMs;
+    }
+
+    synchronized void onChannelOpen() {
+        if (started && channelOpenMs < 0) {
+            channelOpenMs = elapsedMs();
+        }
+    }
+
+    synchronized JSONObject getStats() throws JSONException {
+        JSONObject session = new JSONObject();
+        session.put("shaped", shaped);
+        session.put("offerBytes", offerBytes);
+        session.put("unshapedOfferBytes", unshapedOfferBytes);
+        session.put("removedCodecs", removedCodecs);
+        session.put("removedExtensions", removedExtensions);
+        session.put("localCandidates", candidates);
+        session.put("answerMs", answerMs);
+        session.put("iceConnectedMs", iceConnectedMs);
+        session.put("channelOpenMs", channelOpenMs);
+
+        JSONObject stats = new JSONObject();
+        stats.put("session", session);
+        stats.put("lean", totals(lean));
+        stats.put("full", totals(full));
+        return stats;
+    }
+
+    private long elapsedMs() {
+        return (clockNanos.getAsLong() - startNanos) / 1_000_000;
+    }
+
+    private static JSONObject totals(ModeTotals totals) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("sessions", totals.sessions);
+        if (totals.sessions > 0) {
+            json.put("avgOfferBytes", totals.offerBytes / totals.sessions);
+            json.put("avgSetupMs", totals.setupMs / totals.sessions);
+            json.put("avgCandidates", totals.candidates / (double) totals.sessions);
+        }
+        return json;
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.temistream;
+
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Opus parameters for the intercom, applied by rewriting the audio section of the SDP.
+ *
+ * Opus fmtp parameters describe what the side that wrote them wants to receive, so the same
+ * tuning is applied to our offer, which steers the viewer's encoder, and to the viewer's
+ * answer before it is set, which steers ours. With DTX on, a silent microphone sends a
+ * comfort-noise packet every 400 ms instead of 50 packets a second.
+ */
+final class OpusTuning {
+
+    static final OpusTuning VOICE = new OpusTuning(true, true, 20, 32000);
+
+    static final int MIN_BITRATE = 6000;
+    static final int MAX_BITRATE = 128000;
+
+    private static final Pattern OPUS_RTPMAP = Pattern.compile("a=rtpmap:(\\d+) opus/48000", Pattern.CASE_INSENSITIVE);
+
+    final boolean dtx;
+    final boolean fec;
+    final int ptimeMs;
+    final int maxAverageBitrate;
+
+    OpusTuning(boolean dtx, boolean fec, int ptimeMs, int maxAverageBitrate) {
+        this.dtx = dtx;
+        this.fec = fec;
+        // Opus frames are 10, 20, 40 or 60 ms; WebRTC packs one frame per packet
+        this.ptimeMs = ptimeMs <= 10 ? 10 : ptimeMs <= 20 ? 20 : ptimeMs <= 40 ? 40 : 60;
+        this.maxAverageBitrate = Math.max(MIN_BITRATE, Math.min(MAX_BITRATE, maxAverageBitrate));
+    }
+
+    /** Returns a copy with the fields present in {@code params} replaced. */
+    OpusTuning with(JSONObject params) {
+        return new OpusTuning(
+                params.optBoolean("dtx", dtx),
+                params.optBoolean("fec", fec),
+                params.optInt("ptime", ptimeMs),
+                params.optInt("bitrate", maxAverageBitrate));
+    }
+
+    /** Rewrites the Opus fmtp and ptime lines of {@code sdp}; other codecs are left alone. */
+    String apply(String sdp) {
+        Matcher rtpmap = OPUS_RTPMAP.matcher(sdp);
+        if (!rtpmap.find()) {
+            return sdp;
+        }
+        String payloadType = rtpmap.group(1);
+        String fmtpPrefix = "a=fmtp:" + payloadType + " ";
+
+        String[] lines = sdp.split("\r\n");
+        StringBuilder out = new StringBuilder(sdp.length() + 128);
+        boolean inAudio = false;
+        boolean sawFmtp = false;
+        for (String line : lines) {
+            if (line.startsWith("m=")) {
+                if (inAudio) {
+                    finishAudioSection(out, fmtpPrefix, sawFmtp);
+                }
+                inAudio = line.startsWith("m=audio");
+                sawFmtp = false;
+            } else if (inAudio && line.startsWith("a=ptime:")) {
+                // Written again when the section ends
+                continue;
+            } else if (inAudio && line.startsWith(fmtpPrefix)) {
+                line = fmtpPrefix + mergeParameters(line.substring(fmtpPrefix.length()));
+                sawFmtp = true;
+            }
+            out.append(line).append("\r\n");
+        }
+        if (inAudio) {
+            finishAudioSection(out, fmtpPrefix, sawFmtp);
+        }
+        return out.toString();
+    }
+
+    private void finishAudioSection(StringBuilder out, String fmtpPrefix, boolean sawFmtp) {
+        if (!sawFmtp) {
+            out.append(fmtpPrefix).append(mergeParameters("")).append("\r\n");
+        }
+        out.append("a=ptime:").append(ptimeMs).append("\r\n");
+    }
+
+    private String mergeParameters(String existing) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        for (String parameter : existing.split(";")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                parameters.put(parameter.substring(0, equals).trim(), parameter.substring(equals + 1).trim());
+            }
+        }
+        parameters.put("usedtx", dtx ? "1" : "0");
+        parameters.put("useinbandfec", fec ? "1" : "0");
+        parameters.put("maxaveragebitrate", Integer.toString(maxAverageBitrate));
+
+        StringBuilder merged = new StringBuilder();
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            if (merged.length() > 0) {
+                merged.append(';');
+            }
+            merged.append(parameter.getKey()).append('=').append(parameter.getValue());
+        }
+        return merged.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "dtx=" + dtx + " fec=" + fec + " ptime=" + ptimeMs + "ms bitrate=" + maxAverageBitrate;
+    }
+}
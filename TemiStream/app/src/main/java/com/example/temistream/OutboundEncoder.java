@@ -0,0 +1,388 @@
+package com.example.temistream;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Encodes the fixed-shape viewer messages straight into pooled direct buffers.
+ *
+ * Each message type is a template: its constant JSON fragments are pre-encoded once, and only
+ * the variable fields are written per message, so encoding the hot messages (command responses,
+ * position and navigation updates, location lists) builds no JSONObject, String or byte[]. The
+ * send itself still copies: {@link DataChannelMessageChannel} explains where.
+ * Floats are written with {@link #FLOAT_DECIMALS} fixed decimals. Messages too big for a pooled
+ * buffer are retried in a larger one-off buffer.
+ *
+ * Every buffer returned by an encode method must be handed back through {@link #release}
+ * after the send call returns.
+ */
+final class OutboundEncoder {
+
+    static final int DEFAULT_POOL_SIZE = 8;
+    static final int DEFAULT_BUFFER_SIZE = 2048;
+    static final int MAX_MESSAGE_SIZE = 256 * 1024;
+    static final int FLOAT_DECIMALS = 4;
+
+    private static final long FLOAT_SCALE = 10000L;
+    private static final byte[] HEX = ascii("0123456789abcdef");
+    private static final byte[] LONG_MIN = ascii(Long.toString(Long.MIN_VALUE));
+
+    private static final byte[] TRUE = ascii("true");
+    private static final byte[] FALSE = ascii("false");
+    private static final byte[] NULL = ascii("null");
+
+    // Message templates, split around the variable fields
+    private static final byte[] RESPONSE_ID = ascii("{\"type\":\"robot_response\",\"commandId\":");
+    private static final byte[] RESPONSE_SUCCESS = ascii(",\"success\":");
+    private static final byte[] RESPONSE_MESSAGE = ascii(",\"message\":");
+    private static final byte[] RESPONSE_RESULTS = ascii(",\"results\":");
+    private static final byte[] POSITION_X = ascii("{\"type\":\"position_update\",\"x\":");
+    private static final byte[] NAVIGATION_LOCATION = ascii("{\"type\":\"navigation_status\",\"location\":");
+    private static final byte[] NAVIGATION_STATUS = ascii(",\"status\":");
+    private static final byte[] NAVIGATION_DESCRIPTION = ascii(",\"description\":");
+    private static final byte[] MOVEMENT_TYPE = ascii("{\"type\":\"movement_status\",\"movementType\":");
+    private static final byte[] BATTERY_PERCENTAGE = ascii("{\"type\":\"battery_status\",\"percentage\":");
+    private static final byte[] BATTERY_CHARGING = ascii(",\"charging\":");
+    private static final byte[] TILT_STATUS_ANGLE = ascii("{\"type\":\"tilt_status\",\"tiltAngle\":");
+    private static final byte[] LOCATIONS = ascii("{\"type\":\"location_update\",\"locations\":[");
+    private static final byte[] CURRENT_POSITION_X = ascii("],\"currentPosition\":{\"x\":");
+    private static final byte[] X = ascii("\"x\":");
+    private static final byte[] Y = ascii(",\"y\":");
+    private static final byte[] YAW = ascii(",\"yaw\":");
+    private static final byte[] TILT_ANGLE = ascii(",\"tiltAngle\":");
+    private static final byte[] TILT_TARGET = ascii(",\"tiltTarget\":");
+    private static final byte[] TIMESTAMP = ascii(",\"timestamp\":");
+
+    private final ByteBufferPool pool;
+
+    OutboundEncoder() {
+        this(new ByteBufferPool(DEFAULT_POOL_SIZE, DEFAULT_BUFFER_SIZE));
+    }
+
+    OutboundEncoder(ByteBufferPool pool) {
+        this.pool = pool;
+    }
+
+    ByteBufferPool getPool() {
+        return pool;
+    }
+
+    void release(ByteBuffer buffer) {
+        pool.release(buffer);
+    }
+
+    /**
+     * @param resultsJson already-serialized batch results array, or null; batch responses are
+     *                    rare enough that their body still comes from org.json
+     */
+    ByteBuffer commandResponse(String commandId, boolean success, String message, String resultsJson,
+                               long timestamp) {
+        ByteBuffer buffer = pool.acquire();
+        while (true) {
+            try {
+                buffer.put(RESPONSE_ID);
+                putString(buffer, commandId);
+                buffer.put(RESPONSE_SUCCESS);
+                buffer.put(success ? TRUE : FALSE);
+                buffer.put(RESPONSE_MESSAGE);
+                putString(buffer, message);
+                if (resultsJson != null) {
+                    buffer.put(RESPONSE_RESULTS);
+                    putRaw(buffer, resultsJson);
+                }
+                buffer.put(TIMESTAMP);
+                putLong(buffer, timestamp);
+                buffer.put((byte) '}');
+                buffer.flip();
+                return buffer;
+            } catch (BufferOverflowException e) {
+                buffer = grow(buffer);
+            }
+        }
+    }
+
+    ByteBuffer positionUpdate(float x, float y, float yaw, int tiltAngle, int tiltTarget, long timestamp) {
+        ByteBuffer buffer = pool.acquire();
+        // Fixed size, always fits
+        buffer.put(POSITION_X);
+        putFloat(buffer, x);
+        buffer.put(Y);
+        putFloat(buffer, y);
+        buffer.put(YAW);
+        putFloat(buffer, yaw);
+        buffer.put(TILT_ANGLE);
+        putLong(buffer, tiltAngle);
+        buffer.put(TILT_TARGET);
+        putLong(buffer, tiltTarget);
+        buffer.put(TIMESTAMP);
+        putLong(buffer, timestamp);
+        buffer.put((byte) '}');
+        buffer.flip();
+        return buffer;
+    }
+
+    ByteBuffer navigationStatus(String location, String status, String description, long timestamp) {
+        ByteBuffer buffer = pool.acquire();
+        while (true) {
+            try {
+                buffer.put(NAVIGATION_LOCATION);
+                putString(buffer, location);
+                buffer.put(NAVIGATION_STATUS);
+                putString(buffer, status);
+                buffer.put(NAVIGATION_DESCRIPTION);
+                putString(buffer, description);
+                buffer.put(TIMESTAMP);
+                putLong(buffer, timestamp);
+                buffer.put((byte) '}');
+                buffer.flip();
+                return buffer;
+            } catch (BufferOverflowException e) {
+                buffer = grow(buffer);
+            }
+        }
+    }
+
+    ByteBuffer movementStatus(String movementType, String status, long timestamp) {
+        ByteBuffer buffer = pool.acquire();
+        while (true) {
+            try {
+                buffer.put(MOVEMENT_TYPE);
+                putString(buffer, movementType);
+                buffer.put(NAVIGATION_STATUS);
+                putString(buffer, status);
+                buffer.put(TIMESTAMP);
+                putLong(buffer, timestamp);
+                buffer.put((byte) '}');
+                buffer.flip();
+                return buffer;
+            } catch (BufferOverflowException e) {
+                buffer = grow(buffer);
+            }
+        }
+    }
+
+    ByteBuffer batteryStatus(int percentage, boolean charging, long timestamp) {
+        ByteBuffer buffer = pool.acquire();
+        // Fixed size, always fits
+        buffer.put(BATTERY_PERCENTAGE);
+        putLong(buffer, percentage);
+        buffer.put(BATTERY_CHARGING);
+        buffer.put(charging ? TRUE : FALSE);
+        buffer.put(TIMESTAMP);
+        putLong(buffer, timestamp);
+        buffer.put((byte) '}');
+        buffer.flip();
+        return buffer;
+    }
+
+    ByteBuffer tiltStatus(int tiltAngle, int tiltTarget, long timestamp) {
+        ByteBuffer buffer = pool.acquire();
+        // Fixed size, always fits
+        buffer.put(TILT_STATUS_ANGLE);
+        putLong(buffer, tiltAngle);
+        buffer.put(TILT_TARGET);
+        putLong(buffer, tiltTarget);
+        buffer.put(TIMESTAMP);
+        putLong(buffer, timestamp);
+        buffer.put((byte) '}');
+        buffer.flip();
+        return buffer;
+    }
+
+    /** Location list, with the current pose when {@code hasPosition} is set. */
+    ByteBuffer locationUpdate(List<String> locations, boolean hasPosition,
+                              float x, float y, float yaw, int tiltAngle) {
+        ByteBuffer buffer = pool.acquire();
+        while (true) {
+            try {
+                buffer.put(LOCATIONS);
+                for (int i = 0; i < locations.size(); i++) {
+                    if (i > 0) {
+                        buffer.put((byte) ',');
+                    }
+                    putString(buffer, locations.get(i));
+                }
+                if (hasPosition) {
+                    buffer.put(CURRENT_POSITION_X);
+                    putFloat(buffer, x);
+                    buffer.put(Y);
+                    putFloat(buffer, y);
+                    buffer.put(YAW);
+                    putFloat(buffer, yaw);
+                    buffer.put(TILT_ANGLE);
+                    putLong(buffer, tiltAngle);
+                    buffer.put((byte) '}');
+                } else {
+                    buffer.put((byte) ']');
+                }
+                buffer.put((byte) '}');
+                buffer.flip();
+                return buffer;
+            } catch (BufferOverflowException e) {
+                buffer = grow(buffer);
+            }
+        }
+    }
+
+    /** Generic path for the rarer message shapes that are still built as JSON text. */
+    ByteBuffer raw(String json) {
+        ByteBuffer buffer = pool.acquire();
+        while (true) {
+            try {
+                putRaw(buffer, json);
+                buffer.flip();
+                return buffer;
+            } catch (BufferOverflowException e) {
+                buffer = grow(buffer);
+            }
+        }
+    }
+
+    private ByteBuffer grow(ByteBuffer buffer) {
+        int capacity = buffer.capacity() * 2;
+        pool.release(buffer);
+        if (capacity > MAX_MESSAGE_SIZE) {
+            throw new IllegalArgumentException("Outbound message larger than " + MAX_MESSAGE_SIZE + " bytes");
+        }
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    // Field writers. All of them throw BufferOverflowException when the buffer is full.
+
+    static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.put(NULL);
+            return;
+        }
+        buffer.put((byte) '"');
+        putChars(buffer, value, true);
+        buffer.put((byte) '"');
+    }
+
+    /** Writes already-valid JSON text as UTF-8. */
+    static void putRaw(ByteBuffer buffer, String json) {
+        putChars(buffer, json, false);
+    }
+
+    private static void putChars(ByteBuffer buffer, String value, boolean escape) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (escape && (c == '"' || c == '\\')) {
+                    buffer.put((byte) '\\').put((byte) c);
+                } else if (escape && c < 0x20) {
+                    putControl(buffer, c);
+                } else {
+                    buffer.put((byte) c);
+                }
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)))
+                        .put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)))
+                        .put((byte) (0x80 | ((codePoint >> 12) & 0x3F)))
+                        .put((byte) (0x80 | ((codePoint >> 6) & 0x3F)))
+                        .put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate, replaced the same way String.getBytes(UTF_8) does
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)))
+                        .put((byte) (0x80 | ((c >> 6) & 0x3F)))
+                        .put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private static void putControl(ByteBuffer buffer, char c) {
+        buffer.put((byte) '\\');
+        switch (c) {
+            case '\n':
+                buffer.put((byte) 'n');
+                break;
+            case '\r':
+                buffer.put((byte) 'r');
+                break;
+            case '\t':
+                buffer.put((byte) 't');
+                break;
+            case '\b':
+                buffer.put((byte) 'b');
+                break;
+            case '\f':
+                buffer.put((byte) 'f');
+                break;
+            default:
+                buffer.put((byte) 'u').put((byte) '0').put((byte) '0')
+                        .put(HEX[c >> 4]).put(HEX[c & 0xF]);
+                break;
+        }
+    }
+
+    static void putLong(ByteBuffer buffer, long value) {
+        if (value == Long.MIN_VALUE) {
+            buffer.put(LONG_MIN);
+            return;
+        }
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value; rest >= 10; rest /= 10) {
+            digits++;
+        }
+        if (buffer.remaining() < digits) {
+            throw new BufferOverflowException();
+        }
+        int start = buffer.position();
+        for (int i = start + digits - 1; i >= start; i--) {
+            buffer.put(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        buffer.position(start + digits);
+    }
+
+    /** Fixed-point float with trailing zeros trimmed; NaN and infinities become 0. */
+    static void putFloat(ByteBuffer buffer, float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            buffer.put((byte) '0');
+            return;
+        }
+        long scaled = Math.round(Math.abs((double) value) * FLOAT_SCALE);
+        if (value < 0 && scaled != 0) {
+            buffer.put((byte) '-');
+        }
+        putLong(buffer, scaled / FLOAT_SCALE);
+        long fraction = scaled % FLOAT_SCALE;
+        if (fraction == 0) {
+            return;
+        }
+        int decimals = FLOAT_DECIMALS;
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            decimals--;
+        }
+        buffer.put((byte) '.');
+        for (long divisor = pow10(decimals - 1); divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + (fraction / divisor) % 10));
+        }
+    }
+
+    private static long pow10(int exponent) {
+        long result = 1;
+        for (int i = 0; i < exponent; i++) {
+            result *= 10;
+        }
+        return result;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,268 @@
+package com.example.temistream;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Rolling in-memory window of the most recent encoded video frames, for incident clips.
+ *
+ * Frames are copied as they leave the encoder into one preallocated byte ring, with their
+ * metadata in parallel arrays, so steady-state recording allocates nothing. Eviction always
+ * drops whole groups of pictures from the front, so the oldest retained frame is a keyframe
+ * and a {@link #snapshot} is decodable from its first frame. WebRTC encoders only emit
+ * keyframes on request, so {@link #needsKeyFrame} asks for one whenever the last keyframe is a
+ * full window old; the ring therefore holds between one and two windows of video.
+ */
+final class PreEventBuffer {
+
+    static final int DEFAULT_CAPACITY_BYTES = 12 * 1024 * 1024;
+    static final int DEFAULT_MAX_FRAMES = 1024;
+    static final long DEFAULT_WINDOW_US = 15_000_000L;
+
+    /** An immutable copy of the ring, starting at a keyframe. */
+    static final class Clip {
+        final String codec;
+        final int width;
+        final int height;
+        final int rotation;
+        final byte[] data;
+        final int[] offsets;
+        final int[] sizes;
+        final long[] timesUs;
+        final boolean[] keyFrames;
+
+        Clip(String codec, int width, int height, int rotation, byte[] data, int[] offsets, int[] sizes,
+             long[] timesUs, boolean[] keyFrames) {
+            this.codec = codec;
+            this.width = width;
+            this.height = height;
+            this.rotation = rotation;
+            this.data = data;
+            this.offsets = offsets;
+            this.sizes = sizes;
+            this.timesUs = timesUs;
+            this.keyFrames = keyFrames;
+        }
+
+        int getFrameCount() {
+            return sizes.length;
+        }
+
+        long getDurationUs() {
+            return sizes.length > 1 ? timesUs[sizes.length - 1] - timesUs[0] : 0;
+        }
+    }
+
+    private final byte[] data;
+    private final int maxFrames;
+    private final long windowUs;
+
+    // Frame metadata, indexed by sequence % maxFrames
+    private final int[] offsets;
+    private final int[] sizes;
+    private final long[] timesUs;
+    private final boolean[] keyFrames;
+    private long headSequence;
+    private long nextSequence;
+    private int dataStart;
+    private int dataEnd;
+
+    private String codec;
+    private int width;
+    private int height;
+    private int rotation;
+    private long lastKeyFrameUs = -1;
+    private long droppedFrames;
+    private boolean keyFrameRequested;
+
+    PreEventBuffer(int capacityBytes, int maxFrames, long windowUs) {
+        this.data = new byte[capacityBytes];
+        this.maxFrames = maxFrames;
+        this.windowUs = windowUs;
+        this.offsets = new int[maxFrames];
+        this.sizes = new int[maxFrames];
+        this.timesUs = new long[maxFrames];
+        this.keyFrames = new boolean[maxFrames];
+    }
+
+    /**
+     * Copies one encoded frame into the ring. Called on the encoder thread; {@code frame} is
+     * only read between its position and limit and is not retained.
+     */
+    synchronized void onEncodedFrame(String codec, ByteBuffer frame, long timeUs, boolean keyFrame,
+                                     int width, int height, int rotation) {
+        int size = frame.remaining();
+        if (keyFrame) {
+            if (!codec.equals(this.codec) || (width > 0 && (width != this.width || height != this.height))) {
+                // A clip has one track format, so start over on codec or resolution changes
+                clearLocked();
+                this.codec = codec;
+                this.width = width;
+                this.height = height;
+            }
+            this.rotation = rotation;
+            keyFrameRequested = false;
+        }
+        if (count() == 0 && !keyFrame) {
+            // Nothing to decode this frame against
+            droppedFrames++;
+            return;
+        }
+        if (size == 0 || size > data.length / 4) {
+            droppedFrames++;
+            return;
+        }
+
+        int offset = reserveLocked(size);
+        if (offset < 0 && keyFrame) {
+            // The previous group alone fills the ring; start over from this keyframe
+            clearLocked();
+            offset = reserveLocked(size);
+        }
+        if (offset < 0) {
+            // The current group of pictures alone does not fit; wait for the next keyframe
+            clearLocked();
+            droppedFrames++;
+            return;
+        }
+
+        frame.duplicate().get(data, offset, size);
+        int slot = (int) (nextSequence % maxFrames);
+        offsets[slot] = offset;
+        sizes[slot] = size;
+        timesUs[slot] = timeUs;
+        keyFrames[slot] = keyFrame;
+        nextSequence++;
+        dataEnd = offset + size;
+        if (keyFrame) {
+            lastKeyFrameUs = timeUs;
+        }
+
+        // Drop the oldest group once the next one already covers the whole window
+        long windowStartUs = timeUs - windowUs;
+        long secondKey;
+        while ((secondKey = nextKeyFrameLocked(headSequence + 1)) >= 0
+                && timesUs[(int) (secondKey % maxFrames)] <= windowStartUs) {
+            evictUntilLocked(secondKey);
+        }
+    }
+
+    /**
+     * Whether the encoder should produce a keyframe now so the window stays decodable.
+     * Returns true once per request until a keyframe arrives.
+     */
+    synchronized boolean needsKeyFrame(long nowUs) {
+        if (keyFrameRequested) {
+            return false;
+        }
+        if (lastKeyFrameUs < 0 || nowUs - lastKeyFrameUs >= windowUs) {
+            keyFrameRequested = true;
+            return true;
+        }
+        return false;
+    }
+
+    /** Copies the retained frames, or returns null if there is nothing decodable yet. */
+    synchronized Clip snapshot() {
+        int count = count();
+        if (count == 0) {
+            return null;
+        }
+        int[] clipOffsets = new int[count];
+        int[] clipSizes = new int[count];
+        long[] clipTimes = new long[count];
+        boolean[] clipKeys = new boolean[count];
+        int total = 0;
+        for (int i = 0; i < count; i++) {
+            total += sizes[(int) ((headSequence + i) % maxFrames)];
+        }
+        byte[] clipData = new byte[total];
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            int slot = (int) ((headSequence + i) % maxFrames);
+            System.arraycopy(data, offsets[slot], clipData, position, sizes[slot]);
+            clipOffsets[i] = position;
+            clipSizes[i] = sizes[slot];
+            clipTimes[i] = timesUs[slot];
+            clipKeys[i] = keyFrames[slot];
+            position += sizes[slot];
+        }
+        return new Clip(codec, width, height, rotation, clipData, clipOffsets, clipSizes, clipTimes, clipKeys);
+    }
+
+    synchronized void clear() {
+        clearLocked();
+    }
+
+    synchronized int getFrameCount() {
+        return count();
+    }
+
+    synchronized long getRetainedDurationUs() {
+        int count = count();
+        if (count < 2) {
+            return 0;
+        }
+        return timesUs[(int) ((nextSequence - 1) % maxFrames)] - timesUs[(int) (headSequence % maxFrames)];
+    }
+
+    synchronized long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    private int count() {
+        return (int) (nextSequence - headSequence);
+    }
+
+    /** Finds room for {@code size} bytes after the newest frame, evicting old groups as needed. */
+    private int reserveLocked(int size) {
+        while (true) {
+            int offset = freeOffsetLocked(size);
+            if (offset >= 0 && count() < maxFrames) {
+                return offset;
+            }
+            long secondKey = nextKeyFrameLocked(headSequence + 1);
+            if (secondKey < 0) {
+                return -1;
+            }
+            evictUntilLocked(secondKey);
+        }
+    }
+
+    private int freeOffsetLocked(int size) {
+        if (count() == 0) {
+            dataStart = 0;
+            dataEnd = 0;
+            return size <= data.length ? 0 : -1;
+        }
+        if (dataEnd > dataStart) {
+            if (dataEnd + size <= data.length) {
+                return dataEnd;
+            }
+            // Wrap; the unused tail is skipped
+            return size < dataStart ? 0 : -1;
+        }
+        return dataEnd + size < dataStart ? dataEnd : -1;
+    }
+
+    private long nextKeyFrameLocked(long fromSequence) {
+        for (long sequence = fromSequence; sequence < nextSequence; sequence++) {
+            if (keyFrames[(int) (sequence % maxFrames)]) {
+                return sequence;
+            }
+        }
+        return -1;
+    }
+
+    private void evictUntilLocked(long sequence) {
+        headSequence = sequence;
+        dataStart = offsets[(int) (sequence % maxFrames)];
+    }
+
+    private void clearLocked() {
+        headSequence = nextSequence;
+        dataStart = 0;
+        dataEnd = 0;
+        lastKeyFrameUs = -1;
+        keyFrameRequested = false;
+    }
+}
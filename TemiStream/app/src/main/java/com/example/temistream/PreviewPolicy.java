@@ -0,0 +1,270 @@
+package com.example.temistream;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.VideoFrame;
+import org.webrtc.VideoSink;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides which captured frames reach the on-screen preview.
+ *
+ * The local preview used to render every captured frame, mirrored, at full size, although
+ * nobody on site is usually watching it; on the Temi tablet that GPU work competes with the
+ * hardware encoder. This sink sits between the video track and the renderer and drops frames
+ * above the chosen rate: {@link Mode#REDUCED_FPS} keeps the full-size view at a lower rate,
+ * {@link Mode#THUMBNAIL} shrinks the view as well, {@link Mode#OFF} renders nothing. The
+ * preview starts in {@link Mode#FULL}, as before; the viewer picks a cheaper mode.
+ *
+ * The preview switches off by itself while the activity is in the background, while the
+ * screen is off, and once nobody has touched the screen for the device's screen-off timeout
+ * (see {@link #setIdleTimeoutMs}), which is when the system blanks it anyway. The encoder's
+ * frame rate is averaged per effective mode, so the gain of each mode over {@link Mode#FULL}
+ * can be read from {@link #getStats}.
+ */
+final class PreviewPolicy implements VideoSink {
+
+    /** Called when the effective mode changes, on the thread that caused the change. */
+    interface Listener {
+        void onModeChanged(Mode mode);
+    }
+
+    enum Mode {
+        OFF("off"),
+        THUMBNAIL("thumbnail"),
+        REDUCED_FPS("reduced_fps"),
+        FULL("full");
+
+        final String key;
+
+        Mode(String key) {
+            this.key = key;
+        }
+
+        static Mode fromKey(String key) {
+            for (Mode mode : values()) {
+                if (mode.key.equals(key)) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("Unknown preview mode: " + key);
+        }
+    }
+
+    // Until the device's own screen-off timeout is known
+    static final long DEFAULT_IDLE_TIMEOUT_MS = 60_000;
+    static final int DEFAULT_REDUCED_FPS = 10;
+    static final int THUMBNAIL_FPS = 10;
+    static final int MAX_FPS = 30;
+
+    private static final class EncoderTotals {
+        long frames;
+        long nanos;
+    }
+
+    private final VideoSink renderer;
+    private final Listener listener;
+    private final LongSupplier clockNanos;
+
+    private Mode mode = Mode.FULL;
+    private int reducedFps = DEFAULT_REDUCED_FPS;
+    private boolean foreground = true;
+    private boolean screenOn = true;
+    private boolean idle;
+    private long idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+    private long lastInteractionNanos;
+    private Mode effective = Mode.FULL;
+
+    private long intervalNanos;
+    private long nextDueNanos;
+    private boolean scheduled;
+    private long renderedFrames;
+    private long droppedFrames;
+
+    private final Map<Mode, EncoderTotals> encoderTotals = new EnumMap<>(Mode.class);
+    private long lastFramesEncoded = -1;
+    private long lastEncoderSampleNanos;
+    private boolean modeChangedSinceSample;
+
+    PreviewPolicy(VideoSink renderer, Listener listener) {
+        this(renderer, listener, System::nanoTime);
+    }
+
+    PreviewPolicy(VideoSink renderer, Listener listener, LongSupplier clockNanos) {
+        this.renderer = renderer;
+        this.listener = listener;
+        this.clockNanos = clockNanos;
+        this.lastInteractionNanos = clockNanos.getAsLong();
+        for (Mode m : Mode.values()) {
+            encoderTotals.put(m, new EncoderTotals());
+        }
+        intervalNanos = intervalFor(effective);
+    }
+
+    @Override
+    public void onFrame(VideoFrame frame) {
+        synchronized (this) {
+            if (effective == Mode.OFF) {
+                droppedFrames++;
+                return;
+            }
+            long now = clockNanos.getAsLong();
+            // A quarter interval of slack, so 30 fps camera frames that arrive a little early
+            // still count for a 10 fps slot instead of waiting for the next frame
+            if (scheduled && now < nextDueNanos - intervalNanos / 4) {
+                droppedFrames++;
+                return;
+            }
+            // Keep to the grid unless the renderer fell more than a slot behind
+            nextDueNanos = !scheduled || now - nextDueNanos > intervalNanos
+                    ? now + intervalNanos : nextDueNanos + intervalNanos;
+            scheduled = true;
+            renderedFrames++;
+        }
+        renderer.onFrame(frame);
+    }
+
+    /** @param fps the rate for {@link Mode#REDUCED_FPS}, ignored by the other modes */
+    void setMode(Mode mode, int fps) {
+        synchronized (this) {
+            this.mode = mode;
+            reducedFps = Math.max(1, Math.min(MAX_FPS, fps));
+        }
+        update();
+    }
+
+    void setForeground(boolean foreground) {
+        synchronized (this) {
+            this.foreground = foreground;
+        }
+        update();
+    }
+
+    void setScreenOn(boolean screenOn) {
+        synchronized (this) {
+            this.screenOn = screenOn;
+        }
+        update();
+    }
+
+    /** The screen was touched: the preview comes back if it was off for being idle. */
+    void onUserInteraction() {
+        synchronized (this) {
+            lastInteractionNanos = clockNanos.getAsLong();
+            idle = false;
+        }
+        update();
+    }
+
+    /**
+     * How long the screen may go untouched before the preview goes off; meant to be the
+     * system's screen-off timeout. Zero or less means the screen never times out.
+     */
+    void setIdleTimeoutMs(long timeoutMs) {
+        synchronized (this) {
+            idleTimeoutMs = timeoutMs;
+        }
+        checkIdle();
+    }
+
+    /** Called periodically; switches the preview off once the screen has been idle long enough. */
+    void checkIdle() {
+        synchronized (this) {
+            idle = idleTimeoutMs > 0
+                    && clockNanos.getAsLong() - lastInteractionNanos >= idleTimeoutMs * 1_000_000;
+        }
+        update();
+    }
+
+    synchronized Mode getEffectiveMode() {
+        return effective;
+    }
+
+    /**
+     * Feeds the encoder's cumulative frame count, e.g. {@code framesEncoded} of the video
+     * outbound-rtp stats. Intervals during which the effective mode changed are not counted.
+     */
+    synchronized void onFramesEncoded(long framesEncoded) {
+        long now = clockNanos.getAsLong();
+        if (lastFramesEncoded >= 0 && framesEncoded >= lastFramesEncoded && !modeChangedSinceSample) {
+            EncoderTotals totals = encoderTotals.get(effective);
+            totals.frames += framesEncoded - lastFramesEncoded;
+            totals.nanos += now - lastEncoderSampleNanos;
+        }
+        lastFramesEncoded = framesEncoded;
+        lastEncoderSampleNanos = now;
+        modeChangedSinceSample = false;
+    }
+
+    /** Forgets the last frame count, e.g. when a new encoder starts counting from zero. */
+    synchronized void resetEncoderSample() {
+        lastFramesEncoded = -1;
+    }
+
+    synchronized JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("mode", mode.key);
+        stats.put("effectiveMode", effective.key);
+        if (effective == Mode.OFF && mode != Mode.OFF) {
+            stats.put("offReason", !foreground ? "background" : !screenOn ? "screen_off" : "idle");
+        }
+        stats.put("reducedFps", reducedFps);
+        stats.put("renderedFrames", renderedFrames);
+        stats.put("droppedFrames", droppedFrames);
+
+        JSONObject encoderFps = new JSONObject();
+        double fullFps = averageFps(encoderTotals.get(Mode.FULL));
+        for (Mode m : Mode.values()) {
+            double fps = averageFps(encoderTotals.get(m));
+            if (fps > 0) {
+                JSONObject entry = new JSONObject();
+                entry.put("fps", Math.round(fps * 10) / 10.0);
+                entry.put("seconds", encoderTotals.get(m).nanos / 1_000_000_000);
+                if (fullFps > 0 && m != Mode.FULL) {
+                    entry.put("gainPercent", Math.round((fps - fullFps) * 1000 / fullFps) / 10.0);
+                }
+                encoderFps.put(m.key, entry);
+            }
+        }
+        stats.put("encoderFps", encoderFps);
+        return stats;
+    }
+
+    private void update() {
+        Mode changed = null;
+        synchronized (this) {
+            Mode next = !foreground || !screenOn || idle ? Mode.OFF : mode;
+            long nextInterval = intervalFor(next);
+            if (next != effective || nextInterval != intervalNanos) {
+                if (next != effective) {
+                    changed = next;
+                    modeChangedSinceSample = true;
+                }
+                effective = next;
+                intervalNanos = nextInterval;
+                scheduled = false;
+            }
+        }
+        if (changed != null) {
+            listener.onModeChanged(changed);
+        }
+    }
+
+    private long intervalFor(Mode mode) {
+        switch (mode) {
+            case THUMBNAIL:
+                return 1_000_000_000L / THUMBNAIL_FPS;
+            case REDUCED_FPS:
+                return 1_000_000_000L / reducedFps;
+            default:
+                return 0;
+        }
+    }
+
+    private static double averageFps(EncoderTotals totals) {
+        return totals.nanos > 0 ? totals.frames * 1e9 / totals.nanos : 0;
+    }
+}
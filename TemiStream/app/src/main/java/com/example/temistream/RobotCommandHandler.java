@@ -0,0 +1,910 @@
+package com.example.temistream;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.LongSupplier;
+
+/**
+ * The robot command pipeline: parses viewer messages, runs them through admission control,
+ * executes them against a {@link RobotGateway} and reports results and robot state back over
+ * a {@link MessageChannel}.
+ *
+ * Nothing here touches Android UI or WebRTC objects, so the whole pipeline runs on a plain JVM
+ * against a simulated robot.
+ */
+final class RobotCommandHandler implements RobotGateway.Callbacks {
+
+    interface Listener {
+        void onRobotStatus(String status);
+
+        void onRobotReadyChanged(boolean ready);
+
+        /**
+         * Executes a command this pipeline does not know about, e.g. one that needs the camera
+         * or the filesystem. Returns null if the command is unknown there too.
+         */
+        CommandResult onExtraCommand(String command, JSONObject params) throws Exception;
+
+        /** Called after an emergency stop has been issued to the robot. */
+        void onEmergencyStop();
+
+        /** Receives viewer messages that are not commands, e.g. periodic receive statistics. */
+        void onViewerReport(String type, JSONObject message);
+    }
+
+    private static final String TAG = "TemiStream";
+
+    // Tilt angle constants
+    static final int MIN_TILT_ANGLE = -25;  // Maximum down
+    static final int MAX_TILT_ANGLE = 55;   // Maximum up
+    private static final int DEFAULT_TILT_STEP = 10; // Default step for tilt adjustments
+
+    // Upper bound on sub-commands carried by a single batch command
+    static final int MAX_BATCH_SIZE = 16;
+
+    /** A position report from the SDK; x, y and yaw always belong to the same update. */
+    private static final class Pose {
+        final float x;
+        final float y;
+        final float yaw;
+
+        Pose(float x, float y, float yaw) {
+            this.x = x;
+            this.y = y;
+            this.yaw = yaw;
+        }
+    }
+
+    private final RobotGateway robot;
+    private final FlightRecorder flightRecorder;
+    private final Listener listener;
+
+    private final CommandAdmissionController admissionController;
+    private final HeadTiltController headTiltController;
+    private final SpeechScheduler speechScheduler;
+    private final OutboundEncoder encoder = new OutboundEncoder();
+    private final TelemetryPublisher telemetry;
+
+    private volatile MessageChannel channel;
+
+    // Robot state
+    private volatile boolean robotReady = false;
+    private volatile List<String> savedLocations = new ArrayList<>();
+    private volatile boolean isMoving = false;
+    // Turns, tilts and navigation as reported by the SDK, for isRobotMoving()
+    private volatile boolean movementActive = false;
+    private volatile boolean navigating = false;
+    // Last reported pose, replaced as a whole so readers never mix two updates; null until the first
+    private volatile Pose pose;
+    private volatile RobotGateway.BatteryStatus battery;
+
+    // Last tilt values published, so the poller only sends changes
+    private volatile int publishedTiltAngle = Integer.MIN_VALUE;
+    private volatile int publishedTiltTarget = Integer.MIN_VALUE;
+
+    /**
+     * @param commandExecutor runs admitted commands; the app uses its session loop
+     * @param scheduler       drives admission, tilt and speech timers
+     * @param clock           monotonic nanosecond clock shared by those timers
+     */
+    RobotCommandHandler(RobotGateway robot, Executor commandExecutor, ScheduledExecutorService scheduler,
+                        LongSupplier clock, FlightRecorder flightRecorder, Listener listener) {
+        this.robot = robot;
+        this.flightRecorder = flightRecorder;
+        this.listener = listener;
+
+        admissionController = new CommandAdmissionController(new CommandAdmissionController.Dispatcher() {
+            @Override
+            public void dispatch(String command, JSONObject params, String commandId) {
+                commandExecutor.execute(() -> handleRobotCommand(command, params, commandId));
+            }
+
+            @Override
+            public void reject(String command, String commandId, String reason) {
+                Log.w(TAG, "Command rejected: " + command + " - " + reason);
+                sendCommandResponse(command, commandId, false, reason);
+            }
+        }, scheduler, clock);
+
+        // Tilt commands only move the target; the controller paces the actual SDK calls
+        headTiltController = new HeadTiltController(robot::tiltAngle, scheduler,
+                MIN_TILT_ANGLE, MAX_TILT_ANGLE, clock);
+
+        // All speech goes through one queue so repeats merge and emergencies jump ahead
+        speechScheduler = new SpeechScheduler(new SpeechScheduler.Speaker() {
+            @Override
+            public RobotGateway.SpeechRequest create(String text, boolean showOnConversationLayer) {
+                return robot.createSpeech(text, showOnConversationLayer);
+            }
+
+            @Override
+            public void speak(RobotGateway.SpeechRequest request) {
+                robot.speak(request);
+            }
+
+            @Override
+            public void cancelAll() {
+                robot.cancelAllTtsRequests();
+            }
+        }, this::sendSpeechStatus, scheduler, clock);
+
+        telemetry = new TelemetryPublisher(new TelemetryPublisher.Sink() {
+            @Override
+            public boolean isOpen() {
+                MessageChannel channel = RobotCommandHandler.this.channel;
+                return channel != null && channel.isOpen();
+            }
+
+            @Override
+            public void send(ByteBuffer message) {
+                MessageChannel channel = RobotCommandHandler.this.channel;
+                if (channel != null) {
+                    sendEncoded(channel, message);
+                } else {
+                    encoder.release(message);
+                }
+            }
+        }, scheduler, clock);
+        telemetry.setPoller(TelemetryPublisher.Topic.TILT, this::pollTilt);
+        telemetry.setSubscribeHook(TelemetryPublisher.Topic.TILT, () -> publishedTiltAngle = Integer.MIN_VALUE);
+        telemetry.setSubscribeHook(TelemetryPublisher.Topic.BATTERY, this::publishCurrentBattery);
+
+        robot.setCallbacks(this);
+    }
+
+    /** Attaches the control channel of a new session, or detaches it with null. */
+    void setChannel(MessageChannel channel) {
+        this.channel = channel;
+        if (channel != null) {
+            telemetry.reset();
+        } else {
+            telemetry.clear();
+        }
+    }
+
+    /** Called once the control channel is open; pushes the initial location list. */
+    void onChannelOpen() {
+        loadSavedLocations();
+    }
+
+    /** Ends a session: drops queued commands and stops the robot if it is moving. */
+    void stop() {
+        admissionController.clear();
+        if (isMoving) {
+            robot.stopMovement();
+            isMoving = false;
+        }
+    }
+
+    boolean isRobotReady() {
+        return robotReady;
+    }
+
+    /** Whether the base or head is moving, so the camera view is changing; any thread. */
+    boolean isRobotMoving() {
+        return isMoving || movementActive || navigating
+                || headTiltController.getEstimatedAngle() != headTiltController.getTargetAngle();
+    }
+
+    private static boolean isFinalStatus(String status) {
+        return status.equals("complete") || status.equals("abort") || status.equals("idle");
+    }
+
+    CommandAdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    HeadTiltController getHeadTiltController() {
+        return headTiltController;
+    }
+
+    SpeechScheduler getSpeechScheduler() {
+        return speechScheduler;
+    }
+
+    TelemetryPublisher getTelemetry() {
+        return telemetry;
+    }
+
+    /** Offers a JSON message on a telemetry topic; it is only serialized if it gets sent. */
+    void publishTelemetry(TelemetryPublisher.Topic topic, JSONObject message) {
+        telemetry.publish(topic, () -> encoder.raw(message.toString()));
+    }
+
+    /** Records one sample of pipeline health in the flight recorder. */
+    void sampleStats() {
+        MessageChannel channel = this.channel;
+        if (channel != null) {
+            flightRecorder.recordStat("dc_buffered_bytes", (int) channel.bufferedAmount(), 0f);
+        }
+        int pending = admissionController.getPendingCount();
+        flightRecorder.recordStat("admission_pending", pending, 0f);
+        Tracing.counter("admission_pending", pending);
+        flightRecorder.recordStat("speech_queue_depth", speechScheduler.getQueueDepth(), 0f);
+        flightRecorder.recordStat("tilt_angle", headTiltController.getEstimatedAngle(),
+                headTiltController.getTargetAngle());
+    }
+
+    private void loadSavedLocations() {
+        try {
+            if (robotReady) {
+                // Get all saved locations from the robot
+                savedLocations = robot.getLocations();
+                Log.d(TAG, "Loaded " + savedLocations.size() + " saved locations");
+
+                // Send updated location list to viewer
+                sendLocationList();
+                updateRobotStatus("Loaded " + savedLocations.size() + " locations");
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error loading saved locations", e);
+        }
+    }
+
+    void sendLocationList() {
+        MessageChannel channel = this.channel;
+        if (channel != null && channel.isOpen()) {
+            // Also include current position if available
+            Pose pose = this.pose;
+            sendEncoded(channel, encoder.locationUpdate(savedLocations, pose != null,
+                    pose != null ? pose.x : 0f, pose != null ? pose.y : 0f, pose != null ? pose.yaw : 0f,
+                    headTiltController.getEstimatedAngle()));
+            Log.d(TAG, "Sent location list to viewer");
+        }
+    }
+
+    /** Entry point for every message the viewer sends over the control channel. */
+    void onMessage(ByteBuffer buffer) {
+        Tracing.beginSection("dc.receive");
+        try {
+            Tracing.beginSection("parse");
+            JSONObject message;
+            try {
+                byte[] data = new byte[buffer.remaining()];
+                buffer.get(data);
+                message = new JSONObject(new String(data, StandardCharsets.UTF_8));
+            } finally {
+                Tracing.endSection();
+            }
+
+            if (Tracing.debug()) {
+                Log.d(TAG, "Received robot command: " + message);
+            }
+
+            String type = message.optString("type");
+            if (!type.equals("robot_command")) {
+                if (!type.isEmpty()) {
+                    listener.onViewerReport(type, message);
+                }
+                return;
+            }
+
+            String command = message.getString("command");
+            JSONObject params = message.optJSONObject("params");
+            String commandId = message.optString("commandId", "");
+            flightRecorder.recordCommand(command, commandId);
+
+            // Ends when the response is sent, whichever thread that happens on
+            Tracing.beginCommand(command, commandId);
+            Tracing.beginSection("admit");
+            try {
+                admissionController.submit(command, params, commandId);
+            } finally {
+                Tracing.endSection();
+            }
+
+        } catch (Exception e) {
+            Log.e(TAG, "Error handling data channel message", e);
+        } finally {
+            Tracing.endSection();
+        }
+    }
+
+    private void handleRobotCommand(String command, JSONObject params, String commandId) {
+        Tracing.beginSection("dispatch ", command);
+        try {
+            dispatchRobotCommand(command, params, commandId);
+        } finally {
+            Tracing.endSection();
+        }
+    }
+
+    private void dispatchRobotCommand(String command, JSONObject params, String commandId) {
+        if (!robotReady) {
+            Log.w(TAG, "Robot not ready for command: " + command);
+            sendCommandResponse(command, commandId, false, "Robot not ready");
+            return;
+        }
+
+        if (command.equals("batch")) {
+            handleBatchCommand(params, commandId);
+            return;
+        }
+
+        CommandResult result = executeRobotCommand(command, params);
+        sendCommandResponse(command, commandId, result.success, result.message);
+    }
+
+    private void handleBatchCommand(JSONObject params, String commandId) {
+        JSONArray commands = params != null ? params.optJSONArray("commands") : null;
+        if (commands == null || commands.length() == 0) {
+            sendCommandResponse("batch", commandId, false, "Commands parameter required");
+            return;
+        }
+        if (commands.length() > MAX_BATCH_SIZE) {
+            sendCommandResponse("batch", commandId, false, "Batch too large (max " + MAX_BATCH_SIZE + " commands)");
+            return;
+        }
+
+        // Stop at the first failing sub-command unless the viewer asks to continue
+        boolean stopOnError = params.optBoolean("stopOnError", true);
+        JSONArray results = new JSONArray();
+        int executed = 0;
+        int failed = 0;
+
+        try {
+            for (int i = 0; i < commands.length(); i++) {
+                JSONObject entry = commands.optJSONObject(i);
+                String subCommand = entry != null ? entry.optString("command", "") : "";
+
+                JSONObject subResult = new JSONObject();
+                subResult.put("index", i);
+                subResult.put("command", subCommand);
+
+                if (failed > 0 && stopOnError) {
+                    subResult.put("success", false);
+                    subResult.put("skipped", true);
+                    subResult.put("message", "Skipped after earlier failure");
+                    results.put(subResult);
+                    continue;
+                }
+
+                CommandResult result;
+                if (subCommand.isEmpty()) {
+                    result = new CommandResult(false, "Command name required");
+                } else if (subCommand.equals("batch")) {
+                    result = new CommandResult(false, "Nested batch commands are not supported");
+                } else if (CommandAdmissionController.classify(subCommand)
+                        == CommandAdmissionController.CommandClass.EMERGENCY) {
+                    // Inside a batch it would wait its turn; sent alone it takes the fast lane
+                    result = new CommandResult(false, subCommand + " must be sent on its own, not in a batch");
+                } else if (!admissionController.tryAdmitNow(subCommand)) {
+                    result = new CommandResult(false, "Rate limited: no tokens left for " + subCommand);
+                } else {
+                    result = executeRobotCommand(subCommand, entry.optJSONObject("params"));
+                }
+
+                executed++;
+                if (!result.success) {
+                    failed++;
+                }
+                subResult.put("success", result.success);
+                subResult.put("message", result.message);
+                results.put(subResult);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Error building batch results", e);
+        }
+
+        String summary = "Batch executed " + executed + "/" + commands.length() + " commands";
+        if (failed > 0) {
+            summary += " (" + failed + " failed)";
+        }
+        sendCommandResponse("batch", commandId, failed == 0, summary, results);
+    }
+
+    private CommandResult executeRobotCommand(String command, JSONObject params) {
+        boolean success = true;
+        String responseMessage = "Command executed";
+
+        Tracing.beginSection("sdk ", command);
+        try {
+            if (Tracing.debug()) {
+                Log.d(TAG, "Executing robot command: " + command);
+            }
+
+            switch (command) {
+                case "move":
+                    if (params != null && params.has("direction")) {
+                        String direction = params.getString("direction");
+                        handleMovement(direction);
+                        responseMessage = "Moving " + direction;
+                    } else {
+                        success = false;
+                        responseMessage = "Direction parameter required";
+                    }
+                    break;
+
+                case "stop":
+                    robot.stopMovement();
+                    isMoving = false;
+                    updateRobotStatus("Movement stopped");
+                    responseMessage = "Movement stopped";
+                    break;
+
+                case "speak":
+                    if (params != null && params.has("text")) {
+                        String text = params.getString("text");
+                        SpeechScheduler.Priority priority =
+                                SpeechScheduler.parsePriority(params.optString("priority", ""));
+                        SpeechScheduler.Outcome outcome = speechScheduler.enqueue(text, priority, false);
+                        if (outcome == SpeechScheduler.Outcome.REJECTED) {
+                            success = false;
+                            responseMessage = "Speech queue full";
+                        } else if (outcome == SpeechScheduler.Outcome.MERGED) {
+                            responseMessage = "Already speaking or queued: " + text;
+                        } else {
+                            responseMessage = "Speech queued: " + text;
+                        }
+                    } else {
+                        success = false;
+                        responseMessage = "Text parameter required";
+                    }
+                    break;
+
+                case "go_to_location":
+                    if (params != null && params.has("location")) {
+                        String location = params.getString("location");
+                        if (savedLocations.contains(location)) {
+                            robot.goTo(location);
+                            updateRobotStatus("Going to: " + location);
+                            responseMessage = "Navigating to " + location;
+                        } else {
+                            success = false;
+                            responseMessage = "Location '" + location + "' not found";
+                        }
+                    } else {
+                        success = false;
+                        responseMessage = "Location parameter required";
+                    }
+                    break;
+
+                case "save_location":
+                    String locationName = "custom_location_" + System.currentTimeMillis();
+                    if (params != null && params.has("name")) {
+                        locationName = params.getString("name");
+                    }
+
+                    boolean saved = robot.saveLocation(locationName);
+                    if (saved) {
+                        // Refresh locations list
+                        loadSavedLocations();
+                        updateRobotStatus("Location saved: " + locationName);
+                        responseMessage = "Location saved: " + locationName;
+                    } else {
+                        success = false;
+                        responseMessage = "Failed to save location";
+                    }
+                    break;
+
+                case "delete_location":
+                    if (params != null && params.has("location")) {
+                        String location = params.getString("location");
+                        boolean deleted = robot.deleteLocation(location);
+                        if (deleted) {
+                            // Refresh locations list
+                            loadSavedLocations();
+                            updateRobotStatus("Location deleted: " + location);
+                            responseMessage = "Location deleted: " + location;
+                        } else {
+                            success = false;
+                            responseMessage = "Failed to delete location";
+                        }
+                    } else {
+                        success = false;
+                        responseMessage = "Location parameter required";
+                    }
+                    break;
+
+                case "get_locations":
+                    loadSavedLocations();
+                    responseMessage = "Location list updated (" + savedLocations.size() + " locations)";
+                    break;
+
+                case "follow_me":
+                    // Follow me is not available in current SDK, use alternative
+                    speechScheduler.enqueue("Follow me mode not available in current SDK",
+                            SpeechScheduler.Priority.LOW, false);
+                    updateRobotStatus("Follow me mode not available");
+                    responseMessage = "Follow me mode not available in current SDK";
+                    success = false;
+                    break;
+
+                case "stop_follow":
+                    robot.stopMovement();
+                    updateRobotStatus("Movement stopped");
+                    responseMessage = "Movement stopped";
+                    break;
+
+                case "tilt_up":
+                    int upAngle = DEFAULT_TILT_STEP;
+                    if (params != null && params.has("angle")) {
+                        upAngle = params.getInt("angle");
+                    }
+                    int newUpAngle = headTiltController.stepTarget(upAngle);
+                    updateRobotStatus("Head tilted up to " + newUpAngle + "°");
+                    responseMessage = "Head tilted to " + newUpAngle + "°";
+                    break;
+
+                case "tilt_down":
+                    int downAngle = DEFAULT_TILT_STEP;
+                    if (params != null && params.has("angle")) {
+                        downAngle = params.getInt("angle");
+                    }
+                    int newDownAngle = headTiltController.stepTarget(-downAngle);
+                    updateRobotStatus("Head tilted down to " + newDownAngle + "°");
+                    responseMessage = "Head tilted to " + newDownAngle + "°";
+                    break;
+
+                case "tilt_to_angle":
+                    if (params != null && params.has("angle")) {
+                        int targetAngle = headTiltController.setTarget(params.getInt("angle"));
+                        updateRobotStatus("Head tilted to " + targetAngle + "°");
+                        responseMessage = "Head tilted to " + targetAngle + "°";
+                    } else {
+                        success = false;
+                        responseMessage = "Angle parameter required";
+                    }
+                    break;
+
+                case "reset_tilt":
+                    headTiltController.setTarget(0);
+                    updateRobotStatus("Head tilt reset to center");
+                    responseMessage = "Head tilt reset to center";
+                    break;
+
+                case "emergency_stop":
+                    robot.stopMovement();
+                    listener.onEmergencyStop();
+                    speechScheduler.enqueue("Emergency stop activated", SpeechScheduler.Priority.EMERGENCY, true);
+                    updateRobotStatus("EMERGENCY STOP ACTIVATED");
+                    responseMessage = "Emergency stop activated";
+                    break;
+
+                case "turn_around":
+                    robot.turnBy(180);
+                    updateRobotStatus("Turning around 180°");
+                    responseMessage = "Turning around";
+                    break;
+
+                case "turn_by":
+                    if (params != null && params.has("degrees")) {
+                        int degrees = params.getInt("degrees");
+                        robot.turnBy(degrees);
+                        updateRobotStatus("Turning by " + degrees + "°");
+                        responseMessage = "Turning by " + degrees + "°";
+                    } else {
+                        success = false;
+                        responseMessage = "Degrees parameter required";
+                    }
+                    break;
+
+                case "go_home":
+                    if (savedLocations.contains("home base")) {
+                        robot.goTo("home base");
+                        updateRobotStatus("Going home");
+                        responseMessage = "Going home";
+                    } else {
+                        // Try to go to first saved location
+                        if (!savedLocations.isEmpty()) {
+                            String homeLocation = savedLocations.get(0);
+                            robot.goTo(homeLocation);
+                            updateRobotStatus("Going to " + homeLocation);
+                            responseMessage = "Going to " + homeLocation;
+                        } else {
+                            success = false;
+                            responseMessage = "No home location saved";
+                        }
+                    }
+                    break;
+
+                case "get_battery_info":
+                    RobotGateway.BatteryStatus batteryStatus = robot.getBatteryStatus();
+                    if (batteryStatus != null) {
+                        battery = batteryStatus;
+                        responseMessage = "Battery " + batteryStatus.percentage + "%"
+                                + (batteryStatus.charging ? " (charging)" : "");
+                    } else {
+                        success = false;
+                        responseMessage = "Battery status not available";
+                    }
+                    break;
+
+                case "subscribe":
+                    JSONObject topics = params != null ? params.optJSONObject("topics") : null;
+                    if (topics == null) {
+                        success = false;
+                        responseMessage = "Topics parameter required";
+                        break;
+                    }
+                    Map<TelemetryPublisher.Topic, Double> rates = new EnumMap<>(TelemetryPublisher.Topic.class);
+                    for (Iterator<String> keys = topics.keys(); keys.hasNext(); ) {
+                        String key = keys.next();
+                        TelemetryPublisher.Topic topic = TelemetryPublisher.Topic.fromKey(key);
+                        if (topic == null) {
+                            success = false;
+                            responseMessage = "Unknown topic: " + key;
+                            break;
+                        }
+                        rates.put(topic, topics.getDouble(key));
+                    }
+                    if (success) {
+                        if (params.optBoolean("replace", false)) {
+                            telemetry.clear();
+                        }
+                        for (Map.Entry<TelemetryPublisher.Topic, Double> rate : rates.entrySet()) {
+                            telemetry.subscribe(rate.getKey(), rate.getValue());
+                        }
+                        JSONObject subscriptions = telemetry.getSubscriptions();
+                        subscriptions.put("type", "subscriptions");
+                        subscriptions.put("timestamp", System.currentTimeMillis());
+                        sendMessage(subscriptions);
+                        responseMessage = "Subscribed to " + subscriptions.getJSONObject("topics").length() + " topics";
+                    }
+                    break;
+
+                case "get_admission_stats":
+                    JSONObject statsMessage = new JSONObject();
+                    statsMessage.put("type", "admission_stats");
+                    statsMessage.put("stats", admissionController.getStats());
+                    statsMessage.put("timestamp", System.currentTimeMillis());
+                    sendMessage(statsMessage);
+                    responseMessage = "Admission stats sent";
+                    break;
+
+                case "set_volume":
+                    if (params != null && params.has("level")) {
+                        int volume = params.getInt("level");
+                        volume = Math.max(0, Math.min(100, volume)); // Clamp to 0-100
+                        robot.setVolume(volume);
+                        updateRobotStatus("Volume set to " + volume + "%");
+                        responseMessage = "Volume set to " + volume + "%";
+                    } else {
+                        success = false;
+                        responseMessage = "Volume level parameter required";
+                    }
+                    break;
+
+                default:
+                    // Commands that need the Activity, e.g. camera or recorder access
+                    CommandResult extra = listener.onExtraCommand(command, params);
+                    if (extra != null) {
+                        return extra;
+                    }
+                    Log.w(TAG, "Unknown command: " + command);
+                    success = false;
+                    responseMessage = "Unknown command: " + command;
+                    break;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error executing robot command: " + command, e);
+            updateRobotStatus("Command error: " + e.getMessage());
+            success = false;
+            responseMessage = "Error: " + e.getMessage();
+        } finally {
+            Tracing.endSection();
+        }
+
+        return new CommandResult(success, responseMessage);
+    }
+
+    private void sendCommandResponse(String command, String commandId, boolean success, String message) {
+        sendCommandResponse(command, commandId, success, message, null);
+    }
+
+    private void sendCommandResponse(String command, String commandId, boolean success, String message,
+                                     JSONArray results) {
+        Tracing.beginSection("respond");
+        try {
+            flightRecorder.recordResponse(commandId, success);
+            MessageChannel channel = this.channel;
+            if (channel != null && channel.isOpen() && !commandId.isEmpty()) {
+                sendEncoded(channel, encoder.commandResponse(commandId, success, message,
+                        results != null ? results.toString() : null, System.currentTimeMillis()));
+                if (Tracing.debug()) {
+                    Log.d(TAG, "Sent command response: " + success + " - " + message);
+                }
+            }
+        } finally {
+            Tracing.endSection();
+            Tracing.endCommand(command, commandId);
+        }
+    }
+
+    /** Sends a JSON message to the viewer if the control channel is open. */
+    void sendMessage(JSONObject message) {
+        MessageChannel channel = this.channel;
+        if (channel != null && channel.isOpen()) {
+            sendEncoded(channel, encoder.raw(message.toString()));
+        }
+    }
+
+    // The channel copies the bytes before send() returns, so the buffer goes straight back
+    private void sendEncoded(MessageChannel channel, ByteBuffer buffer) {
+        try {
+            channel.send(buffer, false);
+        } finally {
+            encoder.release(buffer);
+        }
+    }
+
+    private void sendSpeechStatus(String event, String text, SpeechScheduler.Priority priority,
+                                  int queueDepth, long timeToSpeakMs) {
+        if (event.equals("started")) {
+            updateRobotStatus("Speaking: " + text);
+        }
+
+        try {
+            JSONObject status = new JSONObject();
+            status.put("type", "speech_status");
+            status.put("event", event);
+            status.put("text", text);
+            status.put("priority", priority.name().toLowerCase());
+            status.put("queueDepth", queueDepth);
+            if (timeToSpeakMs >= 0) {
+                status.put("timeToSpeakMs", timeToSpeakMs);
+            }
+            status.put("timestamp", System.currentTimeMillis());
+            sendMessage(status);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error sending speech status", e);
+        }
+    }
+
+    private void handleMovement(String direction) {
+        float speed = 0.5f; // Moderate speed
+
+        switch (direction) {
+            case "forward":
+                robot.skidJoy(speed, 0.0f);
+                break;
+            case "backward":
+                robot.skidJoy(-speed, 0.0f);
+                break;
+            case "left":
+                robot.skidJoy(0.0f, speed);
+                break;
+            case "right":
+                robot.skidJoy(0.0f, -speed);
+                break;
+            case "turn_left":
+                robot.turnBy(-45); // Smaller turn increments for better control
+                return; // Don't set isMoving for turns
+            case "turn_right":
+                robot.turnBy(45); // Smaller turn increments for better control
+                return; // Don't set isMoving for turns
+        }
+
+        isMoving = true;
+        updateRobotStatus("Moving " + direction);
+    }
+
+    private void updateRobotStatus(String status) {
+        listener.onRobotStatus(status);
+    }
+
+    // Robot callbacks
+    @Override
+    public void onRobotReady(boolean isReady) {
+        robotReady = isReady;
+        if (isReady) {
+            updateRobotStatus("Robot ready - loading locations...");
+
+            // Load saved locations when robot becomes ready
+            loadSavedLocations();
+
+            // Get current tilt angle - use a safe default if not available
+            // Note: getTiltAngle() may not be available in all SDK versions
+            headTiltController.resetTo(0);
+            Log.d(TAG, "Current tilt angle set to default: 0");
+        } else {
+            updateRobotStatus("Robot not ready");
+        }
+        listener.onRobotReadyChanged(isReady);
+        Log.d(TAG, "Robot ready: " + isReady);
+    }
+
+    @Override
+    public void onGoToLocationStatusChanged(String location, String status, String description) {
+        navigating = !isFinalStatus(status);
+        updateRobotStatus("Navigation: " + status + " to " + location);
+        if (Tracing.debug()) {
+            Log.d(TAG, "Navigation status: " + status + " to " + location + " - " + description);
+        }
+
+        long timestamp = System.currentTimeMillis();
+        telemetry.publish(TelemetryPublisher.Topic.NAVIGATION,
+                () -> encoder.navigationStatus(location, status, description, timestamp));
+    }
+
+    @Override
+    public void onMovementStatusChanged(String type, String status) {
+        if (status.equals("idle")) {
+            isMoving = false;
+        }
+        movementActive = !isFinalStatus(status);
+        updateRobotStatus("Movement: " + type + " - " + status);
+        if (Tracing.debug()) {
+            Log.d(TAG, "Movement status: " + type + " - " + status);
+        }
+        long timestamp = System.currentTimeMillis();
+        telemetry.publish(TelemetryPublisher.Topic.MOVEMENT,
+                () -> encoder.movementStatus(type, status, timestamp));
+    }
+
+    @Override
+    public void onPositionChanged(float x, float y, float yaw) {
+        pose = new Pose(x, y, yaw);
+        flightRecorder.recordPose(x, y, yaw, headTiltController.getEstimatedAngle());
+        if (Tracing.debug()) {
+            Log.d(TAG, "Position changed: x=" + x + ", y=" + y + ", yaw=" + yaw);
+        }
+
+        int tiltAngle = headTiltController.getEstimatedAngle();
+        int tiltTarget = headTiltController.getTargetAngle();
+        long timestamp = System.currentTimeMillis();
+        telemetry.publish(TelemetryPublisher.Topic.POSE,
+                () -> encoder.positionUpdate(x, y, yaw, tiltAngle, tiltTarget, timestamp));
+    }
+
+    @Override
+    public void onBatteryStatusChanged(RobotGateway.BatteryStatus status) {
+        battery = status;
+        publishBattery(status);
+    }
+
+    private void publishBattery(RobotGateway.BatteryStatus status) {
+        long timestamp = System.currentTimeMillis();
+        telemetry.publish(TelemetryPublisher.Topic.BATTERY,
+                () -> encoder.batteryStatus(status.percentage, status.charging, timestamp));
+    }
+
+    /** Sends the current reading to a new battery subscriber instead of waiting for a change. */
+    private void publishCurrentBattery() {
+        RobotGateway.BatteryStatus status = battery;
+        if (status == null) {
+            status = robot.getBatteryStatus();
+            battery = status;
+        }
+        if (status != null) {
+            publishBattery(status);
+        }
+    }
+
+    private void pollTilt() {
+        int tiltAngle = headTiltController.getEstimatedAngle();
+        int tiltTarget = headTiltController.getTargetAngle();
+        if (tiltAngle == publishedTiltAngle && tiltTarget == publishedTiltTarget) {
+            return;
+        }
+        publishedTiltAngle = tiltAngle;
+        publishedTiltTarget = tiltTarget;
+        long timestamp = System.currentTimeMillis();
+        telemetry.publish(TelemetryPublisher.Topic.TILT,
+                () -> encoder.tiltStatus(tiltAngle, tiltTarget, timestamp));
+    }
+
+    @Override
+    public void onSpeechStarted(UUID requestId) {
+        speechScheduler.onSpeechStarted(requestId);
+    }
+
+    @Override
+    public void onSpeechFinished(UUID requestId) {
+        speechScheduler.onSpeechFinished(requestId);
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.temistream;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The robot-facing calls the command pipeline depends on. {@link TemiRobotGateway} forwards
+ * them to the Temi SDK; tests plug in a simulated robot instead.
+ */
+interface RobotGateway {
+
+    final class BatteryStatus {
+        final int percentage;
+        final boolean charging;
+
+        BatteryStatus(int percentage, boolean charging) {
+            this.percentage = percentage;
+            this.charging = charging;
+        }
+    }
+
+    /** A saved location and the pose the robot drives to, in map coordinates. */
+    final class LocationPose {
+        final String name;
+        final float x;
+        final float y;
+        final float yaw;
+
+        LocationPose(String name, float x, float y, float yaw) {
+            this.name = name;
+            this.x = x;
+            this.y = y;
+            this.yaw = yaw;
+        }
+    }
+
+    /**
+     * The robot's occupancy map. Cell {@code (col, row)} is {@code cells[row * width + col]}:
+     * -1 for unknown, otherwise 0 (free) to 100 (occupied). Cell (0, 0) is at
+     * ({@code originX}, {@code originY}) metres and rows go towards increasing y.
+     */
+    final class MapData {
+        final String mapId;
+        final int width;
+        final int height;
+        final float resolution;
+        final float originX;
+        final float originY;
+        final byte[] cells;
+        final List<LocationPose> locations;
+
+        MapData(String mapId, int width, int height, float resolution, float originX, float originY,
+                byte[] cells, List<LocationPose> locations) {
+            this.mapId = mapId;
+            this.width = width;
+            this.height = height;
+            this.resolution = resolution;
+            this.originX = originX;
+            this.originY = originY;
+            this.cells = cells;
+            this.locations = locations;
+        }
+    }
+
+    /** One utterance for the TTS engine; its id is known before it is spoken. */
+    interface SpeechRequest {
+        UUID getId();
+    }
+
+    /** Robot events, delivered on whatever thread the implementation uses. */
+    interface Callbacks {
+        void onRobotReady(boolean ready);
+
+        void onGoToLocationStatusChanged(String location, String status, String description);
+
+        void onMovementStatusChanged(String type, String status);
+
+        void onPositionChanged(float x, float y, float yaw);
+
+        void onSpeechStarted(UUID requestId);
+
+        /** Any terminal TTS status: completed, cancelled, error or not allowed. */
+        void onSpeechFinished(UUID requestId);
+
+        void onBatteryStatusChanged(BatteryStatus status);
+    }
+
+    void setCallbacks(Callbacks callbacks);
+
+    void skidJoy(float x, float y);
+
+    void turnBy(int degrees);
+
+    void tiltAngle(int degrees);
+
+    void goTo(String location);
+
+    void stopMovement();
+
+    /** Creates a request without speaking it; speech callbacks carry its id. */
+    SpeechRequest createSpeech(String text, boolean showOnConversationLayer);
+
+    /** Starts speaking; the status callbacks may arrive before this returns. */
+    void speak(SpeechRequest request);
+
+    void cancelAllTtsRequests();
+
+    List<String> getLocations();
+
+    boolean saveLocation(String name);
+
+    boolean deleteLocation(String name);
+
+    void setVolume(int volume);
+
+    /** The last battery reading, or null if the robot has not reported one. */
+    BatteryStatus getBatteryStatus();
+
+    /**
+     * Reads the current map; blocks for the SDK round trip, so keep it off the UI thread.
+     * Returns null if there is no map or the app may not read it yet.
+     */
+    MapData getMapData();
+
+    /** Unregisters from the underlying robot; no callbacks are delivered afterwards. */
+    void release();
+}
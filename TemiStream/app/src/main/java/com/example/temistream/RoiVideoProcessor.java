@@ -0,0 +1,160 @@
+package com.example.temistream;
+
+import org.webrtc.CapturerObserver;
+import org.webrtc.VideoFrame;
+import org.webrtc.VideoProcessor;
+import org.webrtc.VideoSink;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Crops captured frames to a viewer-selected region of interest and scales it back up to the
+ * capture size, so the encoder spends its bits on that region.
+ *
+ * Installed with {@code VideoSource.setVideoProcessor}, it sits between the camera capturer
+ * and the source. Camera frames are OES textures, for which {@code cropAndScale} only changes
+ * the texture transform; the pixels are sampled once, by the encoder's own GPU pass, so
+ * zooming costs no readback. The output keeps the capture resolution and aspect ratio, so
+ * the encoder never has to reconfigure when the region changes.
+ *
+ * Regions are given in normalized coordinates of the picture as the viewer sees it, i.e.
+ * after applying the frame's rotation.
+ *
+ * Frame filters run first and can drop a frame before it reaches the encoder.
+ */
+final class RoiVideoProcessor implements VideoProcessor {
+
+    static final float MAX_ZOOM = 4f;
+
+    /** Called on the capture thread for every frame; returning false drops the frame. */
+    interface FrameFilter {
+        boolean accept(VideoFrame frame);
+    }
+
+    /** An immutable crop window: center in normalized display coordinates, plus zoom factor. */
+    static final class Roi {
+        static final Roi FULL = new Roi(0.5f, 0.5f, 1f);
+
+        final float centerX;
+        final float centerY;
+        final float zoom;
+
+        Roi(float centerX, float centerY, float zoom) {
+            this.zoom = Math.max(1f, Math.min(MAX_ZOOM, zoom));
+            // Keep the window inside the picture
+            float half = 0.5f / this.zoom;
+            this.centerX = Math.max(half, Math.min(1f - half, centerX));
+            this.centerY = Math.max(half, Math.min(1f - half, centerY));
+        }
+
+        /** The smallest window with the picture's aspect ratio that covers the given rectangle. */
+        static Roi covering(float x, float y, float width, float height) {
+            float zoom = Math.min(1f / Math.max(width, 1e-3f), 1f / Math.max(height, 1e-3f));
+            return new Roi(x + width / 2, y + height / 2, zoom);
+        }
+
+        boolean isFull() {
+            return zoom <= 1f;
+        }
+    }
+
+    private final Object sinkLock = new Object();
+    private VideoSink sink;
+    private volatile Roi roi = Roi.FULL;
+    private final List<FrameFilter> filters = new CopyOnWriteArrayList<>();
+
+    void addFrameFilter(FrameFilter filter) {
+        filters.add(filter);
+    }
+
+    void removeFrameFilter(FrameFilter filter) {
+        filters.remove(filter);
+    }
+
+    void setRoi(Roi roi) {
+        this.roi = roi;
+    }
+
+    Roi getRoi() {
+        return roi;
+    }
+
+    @Override
+    public void setSink(VideoSink sink) {
+        synchronized (sinkLock) {
+            this.sink = sink;
+        }
+    }
+
+    @Override
+    public void onCapturerStarted(boolean success) {
+    }
+
+    @Override
+    public void onCapturerStopped() {
+    }
+
+    @Override
+    public void onFrameCaptured(VideoFrame frame) {
+        synchronized (sinkLock) {
+            if (sink == null) {
+                return;
+            }
+            for (FrameFilter filter : filters) {
+                if (!filter.accept(frame)) {
+                    return;
+                }
+            }
+            Roi current = roi;
+            if (current.isFull()) {
+                sink.onFrame(frame);
+                return;
+            }
+            VideoFrame.Buffer buffer = frame.getBuffer();
+            int width = buffer.getWidth();
+            int height = buffer.getHeight();
+            int[] crop = cropRect(current, width, height, frame.getRotation());
+            VideoFrame.Buffer cropped = buffer.cropAndScale(crop[0], crop[1], crop[2], crop[3], width, height);
+            VideoFrame zoomed = new VideoFrame(cropped, frame.getRotation(), frame.getTimestampNs());
+            sink.onFrame(zoomed);
+            zoomed.release();
+        }
+    }
+
+    /**
+     * Maps {@code roi} from display coordinates to an even-aligned {x, y, width, height}
+     * rectangle in the unrotated buffer.
+     */
+    static int[] cropRect(Roi roi, int width, int height, int rotation) {
+        float size = 1f / roi.zoom;
+        float left = roi.centerX - size / 2;
+        float top = roi.centerY - size / 2;
+        float x;
+        float y;
+        switch (rotation) {
+            case 90:
+                // Display x runs along the buffer's -y axis, display y along its +x axis
+                x = top;
+                y = 1f - left - size;
+                break;
+            case 180:
+                x = 1f - left - size;
+                y = 1f - top - size;
+                break;
+            case 270:
+                x = 1f - top - size;
+                y = left;
+                break;
+            default:
+                x = left;
+                y = top;
+                break;
+        }
+        int cropWidth = Math.max(2, Math.round(width * size) & ~1);
+        int cropHeight = Math.max(2, Math.round(height * size) & ~1);
+        int cropX = Math.min(width - cropWidth, Math.round(width * x) & ~1);
+        int cropY = Math.min(height - cropHeight, Math.round(height * y) & ~1);
+        return new int[]{Math.max(0, cropX), Math.max(0, cropY), cropWidth, cropHeight};
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.temistream;
+
+import android.util.Log;
+
+import org.webrtc.PeerConnection;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * The one thread that owns the streaming session.
+ *
+ * The peer connection, the control channel and the signaling flags used to be plain fields
+ * written from the UI thread, OkHttp's WebSocket thread, WebRTC's callbacks and the robot
+ * SDK's threads. Now only tasks on this loop change them: every other thread hands its work
+ * to {@link #execute}, and each change publishes a new immutable {@link State}. Any thread may
+ * read the current one with {@link #state} without taking a lock; what it gets is consistent,
+ * if possibly a step behind.
+ *
+ * Each started or stopped session bumps {@link State#generation}. Callbacks of a peer
+ * connection or data channel go through {@link #executeFor}, which drops them once their
+ * session is gone instead of letting them act on the next one.
+ */
+final class SessionLoop implements Executor {
+
+    private static final String TAG = "TemiStream";
+
+    /** An immutable view of the session. */
+    static final class State {
+        static final State IDLE = new State(0, false, false, null, null);
+
+        final int generation;
+        final boolean viewerReady;
+        final boolean streaming;
+        /** Null while not streaming. */
+        final PeerConnection peerConnection;
+        /** Null while not streaming. */
+        final MessageChannel channel;
+
+        private State(int generation, boolean viewerReady, boolean streaming, PeerConnection peerConnection,
+                      MessageChannel channel) {
+            this.generation = generation;
+            this.viewerReady = viewerReady;
+            this.streaming = streaming;
+            this.peerConnection = peerConnection;
+            this.channel = channel;
+        }
+
+        State withViewerReady(boolean ready) {
+            return new State(generation, ready, streaming, peerConnection, channel);
+        }
+
+        /** A new session with the given connection and control channel. */
+        State started(PeerConnection peerConnection, MessageChannel channel) {
+            return new State(generation + 1, viewerReady, true, peerConnection, channel);
+        }
+
+        State stopped() {
+            return new State(generation + 1, viewerReady, false, null, null);
+        }
+    }
+
+    private final ExecutorService executor;
+    private final AtomicReference<State> state = new AtomicReference<>(State.IDLE);
+    private volatile Thread loopThread;
+
+    SessionLoop() {
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Session");
+            loopThread = thread;
+            return thread;
+        });
+    }
+
+    /** The latest published state; any thread, lock-free. */
+    State state() {
+        return state.get();
+    }
+
+    /** Publishes the state that {@code change} derives from the current one; loop thread only. */
+    State update(UnaryOperator<State> change) {
+        if (!isLoopThread()) {
+            throw new IllegalStateException("Session state changed off the session loop");
+        }
+        State next = change.apply(state.get());
+        state.set(next);
+        return next;
+    }
+
+    boolean isLoopThread() {
+        return Thread.currentThread() == loopThread;
+    }
+
+    /**
+     * Queues a task on the loop. A task that throws is logged and the loop goes on; tasks
+     * handed in after {@link #shutdown} are dropped.
+     */
+    @Override
+    public void execute(Runnable task) {
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Session task failed", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Session loop shut down, dropping task");
+        }
+    }
+
+    /** Queues a callback of the given session; it is dropped if that session has ended by then. */
+    void executeFor(int generation, Runnable task) {
+        execute(() -> {
+            if (state.get().generation == generation) {
+                task.run();
+            }
+        });
+    }
+
+    /** Runs the tasks already queued, then stops the loop; returns without waiting. */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /** Like {@link #shutdown()}, but waits up to {@code timeoutMs} for the queued tasks. */
+    void shutdown(long timeoutMs) {
+        shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Session loop still busy after " + timeoutMs + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.temistream;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.util.Log;
+
+import org.webrtc.VideoFrame;
+import org.webrtc.VideoSink;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Captures single full-resolution frames from the local video track as JPEG.
+ *
+ * Attached to the track next to the preview, it sees frames as the camera delivers them,
+ * before the encoder scales or compresses them. {@link #onFrame} only retains the requested
+ * frame; the texture readback, YUV conversion and JPEG compression run on the encode executor,
+ * so the capture thread keeps its pace. The NV21 and JPEG buffers are reused between
+ * snapshots, which is why only one snapshot can be in flight: the caller must call
+ * {@link #release} once it is done with the JPEG bytes.
+ */
+final class SnapshotSink implements VideoSink {
+
+    interface Callback {
+        /** {@code jpeg[0, length)} stays valid until {@link #release} is called. */
+        void onSnapshot(byte[] jpeg, int length, int width, int height, int rotation, long encodeMs,
+                        float liveFps);
+
+        void onSnapshotFailed(String error);
+    }
+
+    private static final String TAG = "TemiStream";
+
+    private static final class Request {
+        final int quality;
+        final Callback callback;
+
+        Request(int quality, Callback callback) {
+            this.quality = quality;
+            this.callback = callback;
+        }
+    }
+
+    /** Exposes its buffer so the JPEG can be sent without another copy. */
+    private static final class ReusableOutputStream extends ByteArrayOutputStream {
+        ReusableOutputStream(int size) {
+            super(size);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    private final Executor encodeExecutor;
+    private final AtomicReference<Request> pending = new AtomicReference<>();
+    private final ReusableOutputStream jpegStream = new ReusableOutputStream(512 * 1024);
+    private byte[] nv21 = new byte[0];
+    private volatile boolean busy;
+
+    // Frame rate seen by this sink, i.e. of the live capture, over the last snapshot
+    private volatile long frameCount;
+    private long requestFrameCount;
+    private long requestNanos;
+
+    SnapshotSink(Executor encodeExecutor) {
+        this.encodeExecutor = encodeExecutor;
+    }
+
+    /** Asks for the next frame; returns false if a snapshot is still in flight. */
+    synchronized boolean request(int quality, Callback callback) {
+        if (busy) {
+            return false;
+        }
+        busy = true;
+        requestFrameCount = frameCount;
+        requestNanos = System.nanoTime();
+        pending.set(new Request(Math.max(1, Math.min(100, quality)), callback));
+        return true;
+    }
+
+    /** Returns the pooled buffers after the previous snapshot has been sent. */
+    synchronized void release() {
+        busy = false;
+    }
+
+    @Override
+    public void onFrame(VideoFrame frame) {
+        frameCount++;
+        Request request = pending.getAndSet(null);
+        if (request == null) {
+            return;
+        }
+        frame.retain();
+        encodeExecutor.execute(() -> encode(frame, request));
+    }
+
+    private void encode(VideoFrame frame, Request request) {
+        long start = System.nanoTime();
+        int rotation = frame.getRotation();
+        VideoFrame.I420Buffer i420;
+        try {
+            // For texture frames this is a GPU readback on the capture thread's EGL context
+            i420 = frame.getBuffer().toI420();
+        } finally {
+            frame.release();
+        }
+        if (i420 == null) {
+            release();
+            request.callback.onSnapshotFailed("Frame conversion failed");
+            return;
+        }
+
+        int width = i420.getWidth();
+        int height = i420.getHeight();
+        try {
+            toNv21(i420, width, height);
+        } finally {
+            i420.release();
+        }
+
+        jpegStream.reset();
+        YuvImage image = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
+        if (!image.compressToJpeg(new Rect(0, 0, width, height), request.quality, jpegStream)) {
+            release();
+            request.callback.onSnapshotFailed("JPEG compression failed");
+            return;
+        }
+
+        long now = System.nanoTime();
+        long encodeMs = TimeUnit.NANOSECONDS.toMillis(now - start);
+        float elapsedSeconds = (now - requestNanos) / 1e9f;
+        float liveFps = elapsedSeconds > 0 ? (frameCount - requestFrameCount) / elapsedSeconds : 0f;
+        Log.d(TAG, "Snapshot " + width + "x" + height + " " + jpegStream.size() + " bytes in " + encodeMs + "ms");
+        request.callback.onSnapshot(jpegStream.buffer(), jpegStream.size(), width, height,
+                rotation, encodeMs, liveFps);
+    }
+
+    private void toNv21(VideoFrame.I420Buffer i420, int width, int height) {
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        int size = width * height + 2 * chromaWidth * chromaHeight;
+        if (nv21.length < size) {
+            nv21 = new byte[size];
+        }
+
+        ByteBuffer y = i420.getDataY();
+        int strideY = i420.getStrideY();
+        for (int row = 0; row < height; row++) {
+            y.position(row * strideY);
+            y.get(nv21, row * width, width);
+        }
+
+        // NV21 interleaves V and U after the luma plane
+        ByteBuffer u = i420.getDataU();
+        ByteBuffer v = i420.getDataV();
+        int strideU = i420.getStrideU();
+        int strideV = i420.getStrideV();
+        int out = width * height;
+        for (int row = 0; row < chromaHeight; row++) {
+            for (int col = 0; col < chromaWidth; col++) {
+                nv21[out++] = v.get(row * strideV + col);
+                nv21[out++] = u.get(row * strideU + col);
+            }
+        }
+    }
+}
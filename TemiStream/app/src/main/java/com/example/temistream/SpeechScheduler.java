@@ -0,0 +1,326 @@
+package com.example.temistream;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Owns everything the robot says.
+ *
+ * Only one utterance is handed to the SDK at a time; the rest wait in a bounded priority
+ * queue. Text identical to something already pending or being spoken is merged instead of
+ * queued again, and an {@link Priority#EMERGENCY} utterance cancels the current speech and
+ * clears the queue so it is heard immediately.
+ *
+ * The request id is recorded and the watchdog armed before the request reaches the SDK, so
+ * status callbacks that beat {@link Speaker#speak} back are still matched. A hand-over that
+ * throws frees the slot for the next utterance instead of wedging the queue. While a
+ * preemption is cancelling the engine nothing new is handed over, or the cancel could land on
+ * the emergency utterance itself.
+ */
+final class SpeechScheduler {
+
+    enum Priority {
+        LOW, NORMAL, HIGH, EMERGENCY
+    }
+
+    enum Outcome {
+        QUEUED, MERGED, PREEMPTED, REJECTED
+    }
+
+    interface Speaker {
+        /** Creates the TTS request for one utterance; its status callbacks carry its id. */
+        RobotGateway.SpeechRequest create(String text, boolean showOnConversationLayer);
+
+        /** Hands a created request to the engine; callbacks may arrive before this returns. */
+        void speak(RobotGateway.SpeechRequest request);
+
+        void cancelAll();
+    }
+
+    interface Listener {
+        /**
+         * @param timeToSpeakMs time from enqueue to the engine starting to speak, or -1 if the
+         *                      event is not a start
+         */
+        void onSpeechEvent(String event, String text, Priority priority, int queueDepth, long timeToSpeakMs);
+    }
+
+    static final int MAX_QUEUE_LENGTH = 8;
+    // Give up waiting for a completion callback after this long, plus time per character
+    private static final long WATCHDOG_BASE_MS = 5000;
+    private static final long WATCHDOG_PER_CHAR_MS = 120;
+
+    private static final class Utterance {
+        final String text;
+        final boolean showOnConversationLayer;
+        final long sequence;
+        final long enqueuedAtNanos;
+        Priority priority;
+        UUID requestId;
+        boolean started;
+
+        Utterance(String text, Priority priority, boolean showOnConversationLayer,
+                  long sequence, long enqueuedAtNanos) {
+            this.text = text;
+            this.priority = priority;
+            this.showOnConversationLayer = showOnConversationLayer;
+            this.sequence = sequence;
+            this.enqueuedAtNanos = enqueuedAtNanos;
+        }
+    }
+
+    private final Speaker speaker;
+    private final Listener listener;
+    private final ScheduledExecutorService scheduler;
+    private final LongSupplier clock;
+
+    // Highest priority first, FIFO within a priority
+    private final PriorityQueue<Utterance> queue = new PriorityQueue<>((a, b) -> {
+        int byPriority = b.priority.compareTo(a.priority);
+        return byPriority != 0 ? byPriority : Long.compare(a.sequence, b.sequence);
+    });
+    private Utterance speaking;
+    private ScheduledFuture<?> watchdog;
+    private long nextSequence = 0;
+    // Cancels in progress; startNext holds off until they have all returned
+    private int cancelling = 0;
+
+    SpeechScheduler(Speaker speaker, Listener listener, ScheduledExecutorService scheduler) {
+        this(speaker, listener, scheduler, System::nanoTime);
+    }
+
+    SpeechScheduler(Speaker speaker, Listener listener, ScheduledExecutorService scheduler, LongSupplier clock) {
+        this.speaker = speaker;
+        this.listener = listener;
+        this.scheduler = scheduler;
+        this.clock = clock;
+    }
+
+    static Priority parsePriority(String value) {
+        if (value == null || value.isEmpty()) {
+            return Priority.NORMAL;
+        }
+        try {
+            return Priority.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Priority.NORMAL;
+        }
+    }
+
+    Outcome enqueue(String text, Priority priority, boolean showOnConversationLayer) {
+        List<Utterance> dropped = new ArrayList<>();
+        Outcome outcome;
+        int depth;
+        synchronized (this) {
+            if (priority == Priority.EMERGENCY) {
+                dropped.addAll(queue);
+                queue.clear();
+                if (speaking != null) {
+                    dropped.add(speaking);
+                    speaking = null;
+                    cancelWatchdogLocked();
+                }
+                cancelling++;
+                outcome = Outcome.PREEMPTED;
+            } else {
+                Utterance duplicate = findDuplicateLocked(text);
+                if (duplicate != null) {
+                    if (!duplicate.started && priority.compareTo(duplicate.priority) > 0) {
+                        // Re-insert so the queue reorders around the raised priority
+                        queue.remove(duplicate);
+                        duplicate.priority = priority;
+                        queue.add(duplicate);
+                    }
+                    depth = queue.size();
+                    notifyListener("merged", text, priority, depth, -1);
+                    return Outcome.MERGED;
+                }
+
+                if (queue.size() >= MAX_QUEUE_LENGTH) {
+                    Utterance lowest = lowestPriorityLocked();
+                    if (lowest == null || lowest.priority.compareTo(priority) >= 0) {
+                        depth = queue.size();
+                        notifyListener("rejected", text, priority, depth, -1);
+                        return Outcome.REJECTED;
+                    }
+                    queue.remove(lowest);
+                    dropped.add(lowest);
+                }
+                outcome = Outcome.QUEUED;
+            }
+
+            queue.add(new Utterance(text, priority, showOnConversationLayer,
+                    nextSequence++, clock.getAsLong()));
+            depth = queue.size();
+        }
+
+        if (outcome == Outcome.PREEMPTED) {
+            cancelSpeaker();
+        }
+        for (Utterance utterance : dropped) {
+            notifyListener("dropped", utterance.text, utterance.priority, depth, -1);
+        }
+        notifyListener("queued", text, priority, depth, -1);
+        startNext();
+        return outcome;
+    }
+
+    /** Clears the queue and stops the current utterance. */
+    void cancelAll() {
+        synchronized (this) {
+            queue.clear();
+            speaking = null;
+            cancelWatchdogLocked();
+            cancelling++;
+        }
+        cancelSpeaker();
+        startNext();
+    }
+
+    void onSpeechStarted(UUID requestId) {
+        Utterance utterance;
+        int depth;
+        synchronized (this) {
+            if (speaking == null || !requestId.equals(speaking.requestId) || speaking.started) {
+                return;
+            }
+            speaking.started = true;
+            utterance = speaking;
+            depth = queue.size();
+        }
+        long timeToSpeakMs = TimeUnit.NANOSECONDS.toMillis(clock.getAsLong() - utterance.enqueuedAtNanos);
+        notifyListener("started", utterance.text, utterance.priority, depth, timeToSpeakMs);
+    }
+
+    /** Called for any terminal TTS status: completed, cancelled, error or not allowed. */
+    void onSpeechFinished(UUID requestId) {
+        Utterance utterance;
+        int depth;
+        synchronized (this) {
+            if (speaking == null || !requestId.equals(speaking.requestId)) {
+                return;
+            }
+            utterance = speaking;
+            speaking = null;
+            cancelWatchdogLocked();
+            depth = queue.size();
+        }
+        notifyListener("finished", utterance.text, utterance.priority, depth, -1);
+        startNext();
+    }
+
+    synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /** Cancels the engine; pairs with the {@code cancelling++} made under the lock. */
+    private void cancelSpeaker() {
+        try {
+            speaker.cancelAll();
+        } finally {
+            synchronized (this) {
+                cancelling--;
+            }
+        }
+    }
+
+    private void startNext() {
+        Utterance next;
+        synchronized (this) {
+            if (speaking != null || queue.isEmpty() || cancelling > 0) {
+                return;
+            }
+            next = queue.poll();
+            speaking = next;
+        }
+
+        RobotGateway.SpeechRequest request;
+        try {
+            request = speaker.create(next.text, next.showOnConversationLayer);
+            synchronized (this) {
+                if (speaking != next) {
+                    // Preempted while the request was being created
+                    return;
+                }
+                next.requestId = request.getId();
+                long timeoutMs = WATCHDOG_BASE_MS + next.text.length() * WATCHDOG_PER_CHAR_MS;
+                watchdog = scheduler.schedule(() -> onWatchdog(next), timeoutMs, TimeUnit.MILLISECONDS);
+            }
+            speaker.speak(request);
+        } catch (RuntimeException e) {
+            onHandOverFailed(next);
+        }
+    }
+
+    private void onHandOverFailed(Utterance utterance) {
+        int depth;
+        synchronized (this) {
+            if (speaking != utterance) {
+                return;
+            }
+            speaking = null;
+            cancelWatchdogLocked();
+            depth = queue.size();
+        }
+        notifyListener("failed", utterance.text, utterance.priority, depth, -1);
+        startNext();
+    }
+
+    private void onWatchdog(Utterance utterance) {
+        synchronized (this) {
+            if (speaking != utterance) {
+                return;
+            }
+            speaking = null;
+            watchdog = null;
+        }
+        notifyListener("timeout", utterance.text, utterance.priority, getQueueDepth(), -1);
+        startNext();
+    }
+
+    private Utterance findDuplicateLocked(String text) {
+        if (speaking != null && speaking.text.equals(text)) {
+            return speaking;
+        }
+        for (Utterance utterance : queue) {
+            if (utterance.text.equals(text)) {
+                return utterance;
+            }
+        }
+        return null;
+    }
+
+    private Utterance lowestPriorityLocked() {
+        Utterance lowest = null;
+        Iterator<Utterance> it = queue.iterator();
+        while (it.hasNext()) {
+            Utterance candidate = it.next();
+            // Among equals, drop the newest so older requests keep their place
+            if (lowest == null || candidate.priority.compareTo(lowest.priority) < 0
+                    || (candidate.priority == lowest.priority && candidate.sequence > lowest.sequence)) {
+                lowest = candidate;
+            }
+        }
+        return lowest;
+    }
+
+    private void cancelWatchdogLocked() {
+        if (watchdog != null) {
+            watchdog.cancel(false);
+            watchdog = null;
+        }
+    }
+
+    private void notifyListener(String event, String text, Priority priority, int queueDepth, long timeToSpeakMs) {
+        if (listener != null) {
+            listener.onSpeechEvent(event, text, priority, queueDepth, timeToSpeakMs);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.temistream;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.LongSupplier;
+
+/**
+ * Runs the app's cold-start phases as a dependency graph, each phase on its own executor,
+ * and records how long each one waited and ran.
+ *
+ * A phase starts as soon as the last of its dependencies has finished, so independent
+ * phases overlap. Completion of a dependency happens-before its dependents start, which lets
+ * a phase use fields its dependencies wrote without further synchronization. If a phase
+ * fails, everything that depends on it is skipped; unrelated phases still run.
+ */
+final class StartupOrchestrator {
+
+    interface Phase {
+        void run() throws Exception;
+    }
+
+    interface Listener {
+        void onPhaseFailed(String name, Exception error);
+
+        /** Called once every phase has finished, failed or been skipped. */
+        void onStartupComplete(StartupOrchestrator orchestrator, boolean success);
+    }
+
+    private enum State { WAITING, RUNNING, DONE, FAILED, SKIPPED }
+
+    private static final class Step {
+        final String name;
+        final Executor executor;
+        final Phase phase;
+        final String[] dependencies;
+        final List<Step> dependents = new ArrayList<>();
+        int remainingDependencies;
+        State state = State.WAITING;
+        long readyNanos;
+        long startNanos;
+        long endNanos;
+        String thread;
+
+        Step(String name, Executor executor, Phase phase, String[] dependencies) {
+            this.name = name;
+            this.executor = executor;
+            this.phase = phase;
+            this.dependencies = dependencies;
+        }
+    }
+
+    private final Listener listener;
+    private final LongSupplier clockNanos;
+    private final Map<String, Step> steps = new LinkedHashMap<>();
+    private boolean started;
+    private long startNanos;
+    private long endNanos;
+    private int unfinished;
+
+    StartupOrchestrator(Listener listener) {
+        this(listener, System::nanoTime);
+    }
+
+    StartupOrchestrator(Listener listener, LongSupplier clockNanos) {
+        this.listener = listener;
+        this.clockNanos = clockNanos;
+    }
+
+    /** Adds a phase; dependencies must have been added before it. */
+    synchronized StartupOrchestrator add(String name, Executor executor, Phase phase, String... dependsOn) {
+        if (started) {
+            throw new IllegalStateException("Startup already running");
+        }
+        if (steps.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate phase " + name);
+        }
+        Step step = new Step(name, executor, phase, dependsOn);
+        for (String dependency : dependsOn) {
+            Step parent = steps.get(dependency);
+            if (parent == null) {
+                throw new IllegalArgumentException(name + " depends on unknown phase " + dependency);
+            }
+            parent.dependents.add(step);
+        }
+        step.remainingDependencies = dependsOn.length;
+        steps.put(name, step);
+        return this;
+    }
+
+    void start() {
+        List<Step> ready = new ArrayList<>();
+        synchronized (this) {
+            if (started) {
+                throw new IllegalStateException("Startup already running");
+            }
+            started = true;
+            startNanos = clockNanos.getAsLong();
+            unfinished = steps.size();
+            for (Step step : steps.values()) {
+                if (step.remainingDependencies == 0) {
+                    step.readyNanos = startNanos;
+                    ready.add(step);
+                }
+            }
+        }
+        if (ready.isEmpty()) {
+            synchronized (this) {
+                endNanos = startNanos;
+            }
+            listener.onStartupComplete(this, true);
+        }
+        submitAll(ready);
+    }
+
+    private void submitAll(List<Step> ready) {
+        for (Step step : ready) {
+            step.executor.execute(() -> runStep(step));
+        }
+    }
+
+    private void runStep(Step step) {
+        synchronized (this) {
+            step.state = State.RUNNING;
+            step.startNanos = clockNanos.getAsLong();
+            step.thread = Thread.currentThread().getName();
+        }
+        Exception error = null;
+        try {
+            step.phase.run();
+        } catch (Exception e) {
+            error = e;
+        }
+
+        List<Step> ready = new ArrayList<>();
+        boolean complete;
+        boolean success;
+        synchronized (this) {
+            step.endNanos = clockNanos.getAsLong();
+            step.state = error == null ? State.DONE : State.FAILED;
+            unfinished--;
+            if (error == null) {
+                for (Step dependent : step.dependents) {
+                    if (--dependent.remainingDependencies == 0 && dependent.state == State.WAITING) {
+                        dependent.readyNanos = step.endNanos;
+                        ready.add(dependent);
+                    }
+                }
+            } else {
+                skipDependentsLocked(step);
+            }
+            complete = unfinished == 0;
+            if (complete) {
+                endNanos = step.endNanos;
+            }
+            success = complete && allDoneLocked();
+        }
+        if (error != null) {
+            listener.onPhaseFailed(step.name, error);
+        }
+        submitAll(ready);
+        if (complete) {
+            listener.onStartupComplete(this, success);
+        }
+    }
+
+    private void skipDependentsLocked(Step failed) {
+        for (Step dependent : failed.dependents) {
+            if (dependent.state == State.WAITING) {
+                dependent.state = State.SKIPPED;
+                unfinished--;
+                skipDependentsLocked(dependent);
+            }
+        }
+    }
+
+    private boolean allDoneLocked() {
+        for (Step step : steps.values()) {
+            if (step.state != State.DONE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    synchronized boolean isDone(String name) {
+        Step step = steps.get(name);
+        return step != null && step.state == State.DONE;
+    }
+
+    /** Run time of a finished phase in ms, or -1. */
+    synchronized long getDurationMs(String name) {
+        Step step = steps.get(name);
+        return step == null || !hasFinished(step) ? -1 : (step.endNanos - step.startNanos) / 1_000_000;
+    }
+
+    synchronized long getTotalMs() {
+        return !started || unfinished > 0 ? -1 : (endNanos - startNanos) / 1_000_000;
+    }
+
+    private static boolean hasStarted(Step step) {
+        return step.state != State.WAITING && step.state != State.SKIPPED;
+    }
+
+    private static boolean hasFinished(Step step) {
+        return step.state == State.DONE || step.state == State.FAILED;
+    }
+
+    /**
+     * Per phase: dependencies, start offset from the beginning of startup, time spent queued
+     * behind its executor after becoming ready, run time, thread and outcome.
+     */
+    synchronized JSONObject getTimings() throws JSONException {
+        JSONArray phases = new JSONArray();
+        for (Step step : steps.values()) {
+            JSONObject phase = new JSONObject();
+            phase.put("name", step.name);
+            phase.put("state", step.state.name().toLowerCase());
+            JSONArray dependsOn = new JSONArray();
+            for (String dependency : step.dependencies) {
+                dependsOn.put(dependency);
+            }
+            phase.put("dependsOn", dependsOn);
+            if (hasStarted(step)) {
+                phase.put("startMs", (step.startNanos - startNanos) / 1_000_000.0);
+                phase.put("queuedMs", (step.startNanos - step.readyNanos) / 1_000_000.0);
+                phase.put("thread", step.thread);
+            }
+            if (hasFinished(step)) {
+                phase.put("durationMs", (step.endNanos - step.startNanos) / 1_000_000.0);
+            }
+            phases.put(phase);
+        }
+        JSONObject timings = new JSONObject();
+        timings.put("phases", phases);
+        timings.put("totalMs", getTotalMs());
+        return timings;
+    }
+}
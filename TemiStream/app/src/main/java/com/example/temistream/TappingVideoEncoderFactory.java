@@ -0,0 +1,139 @@
+package com.example.temistream;
+
+import android.util.Log;
+
+import org.webrtc.EglBase;
+import org.webrtc.EncodedImage;
+import org.webrtc.HardwareVideoEncoderFactory;
+import org.webrtc.SoftwareVideoEncoderFactory;
+import org.webrtc.VideoCodecInfo;
+import org.webrtc.VideoCodecStatus;
+import org.webrtc.VideoEncoder;
+import org.webrtc.VideoEncoderFactory;
+import org.webrtc.VideoEncoderFallback;
+import org.webrtc.VideoFrame;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+/**
+ * Drop-in replacement for {@code DefaultVideoEncoderFactory} that also copies every frame
+ * the hardware encoder produces into a {@link PreEventBuffer}, reusing the stream's own
+ * encode instead of running a second one. The same wrapper forces keyframes for the buffer
+ * and for {@link VideoRecoveryMonitor}.
+ *
+ * Only the Java hardware encoders can be observed; the software encoders live entirely in
+ * native code, so a session that ends up on a software codec streams normally but has no
+ * clip buffer. Hardware encoders keep the usual software fallback.
+ */
+final class TappingVideoEncoderFactory implements VideoEncoderFactory {
+
+    private static final String TAG = "TemiStream";
+
+    private final VideoEncoderFactory hardwareFactory;
+    private final VideoEncoderFactory softwareFactory = new SoftwareVideoEncoderFactory();
+    private final PreEventBuffer preEventBuffer;
+    private final VideoRecoveryMonitor recoveryMonitor;
+
+    TappingVideoEncoderFactory(EglBase.Context eglContext, boolean enableIntelVp8Encoder,
+                               boolean enableH264HighProfile, PreEventBuffer preEventBuffer,
+                               VideoRecoveryMonitor recoveryMonitor) {
+        this.hardwareFactory = new HardwareVideoEncoderFactory(eglContext, enableIntelVp8Encoder,
+                enableH264HighProfile);
+        this.preEventBuffer = preEventBuffer;
+        this.recoveryMonitor = recoveryMonitor;
+    }
+
+    @Override
+    public VideoEncoder createEncoder(VideoCodecInfo info) {
+        VideoEncoder software = softwareFactory.createEncoder(info);
+        VideoEncoder hardware = hardwareFactory.createEncoder(info);
+        if (hardware == null) {
+            Log.w(TAG, "No hardware " + info.name + " encoder, incident clips and forced keyframes disabled"
+                    + " for this session");
+            return software;
+        }
+        VideoEncoder tapped = new TappingEncoder(hardware, info.name);
+        return software != null ? new VideoEncoderFallback(software, tapped) : tapped;
+    }
+
+    @Override
+    public VideoCodecInfo[] getSupportedCodecs() {
+        LinkedHashSet<VideoCodecInfo> codecs = new LinkedHashSet<>();
+        codecs.addAll(Arrays.asList(softwareFactory.getSupportedCodecs()));
+        codecs.addAll(Arrays.asList(hardwareFactory.getSupportedCodecs()));
+        return codecs.toArray(new VideoCodecInfo[0]);
+    }
+
+    private final class TappingEncoder implements VideoEncoder {
+        private final VideoEncoder delegate;
+        private final String codec;
+
+        TappingEncoder(VideoEncoder delegate, String codec) {
+            this.delegate = delegate;
+            this.codec = codec;
+        }
+
+        @Override
+        public VideoCodecStatus initEncode(Settings settings, Callback callback) {
+            return delegate.initEncode(settings, (frame, codecSpecificInfo) -> {
+                // The frame's buffer is only valid inside this callback
+                preEventBuffer.onEncodedFrame(codec, frame.buffer, frame.captureTimeNs / 1000,
+                        frame.frameType == EncodedImage.FrameType.VideoFrameKey,
+                        frame.encodedWidth, frame.encodedHeight, frame.rotation);
+                callback.onEncodedFrame(frame, codecSpecificInfo);
+            });
+        }
+
+        @Override
+        public VideoCodecStatus encode(VideoFrame frame, EncodeInfo info) {
+            if (recoveryMonitor.consumeKeyFrameRequest()
+                    || preEventBuffer.needsKeyFrame(frame.getTimestampNs() / 1000)) {
+                EncodedImage.FrameType[] types = new EncodedImage.FrameType[Math.max(1, info.frameTypes.length)];
+                Arrays.fill(types, EncodedImage.FrameType.VideoFrameKey);
+                info = new EncodeInfo(types);
+            }
+            return delegate.encode(frame, info);
+        }
+
+        @Override
+        public VideoCodecStatus release() {
+            return delegate.release();
+        }
+
+        @Override
+        public VideoCodecStatus setRateAllocation(BitrateAllocation allocation, int framerate) {
+            return delegate.setRateAllocation(allocation, framerate);
+        }
+
+        @Override
+        public VideoCodecStatus setRates(RateControlParameters parameters) {
+            return delegate.setRates(parameters);
+        }
+
+        @Override
+        public ScalingSettings getScalingSettings() {
+            return delegate.getScalingSettings();
+        }
+
+        @Override
+        public ResolutionBitrateLimits[] getResolutionBitrateLimits() {
+            return delegate.getResolutionBitrateLimits();
+        }
+
+        @Override
+        public String getImplementationName() {
+            return delegate.getImplementationName();
+        }
+
+        @Override
+        public EncoderInfo getEncoderInfo() {
+            return delegate.getEncoderInfo();
+        }
+
+        @Override
+        public boolean isHardwareEncoder() {
+            return delegate.isHardwareEncoder();
+        }
+    }
+}
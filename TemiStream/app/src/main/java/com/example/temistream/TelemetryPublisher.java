@@ -0,0 +1,216 @@
+package com.example.temistream;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Sends robot telemetry to the viewer by topic, only for the topics it subscribed to and no
+ * faster than the rate it asked for.
+ *
+ * Event-driven topics are coalesced: an update that arrives sooner than the topic's interval
+ * after the last one sent replaces any update still waiting, and the newest is sent once the
+ * interval has passed. Intermediate values are dropped, the latest is never lost. Polled
+ * topics (tilt, stream statistics) have a poller that runs at the subscribed rate, and only
+ * while subscribed. Messages are encoded when sent, so a superseded update is never encoded.
+ *
+ * Each new session starts with the topics the viewer always received before subscriptions
+ * existed, pose and navigation, so older viewers keep working.
+ */
+final class TelemetryPublisher {
+
+    enum Topic {
+        POSE("pose"),
+        MOVEMENT("movement"),
+        NAVIGATION("navigation"),
+        BATTERY("battery"),
+        TILT("tilt"),
+        STREAM_STATS("stream_stats");
+
+        final String key;
+
+        Topic(String key) {
+            this.key = key;
+        }
+
+        static Topic fromKey(String key) {
+            for (Topic topic : values()) {
+                if (topic.key.equals(key)) {
+                    return topic;
+                }
+            }
+            return null;
+        }
+    }
+
+    interface Sink {
+        boolean isOpen();
+
+        void send(ByteBuffer message);
+    }
+
+    static final double MAX_RATE_HZ = 30;
+    static final double DEFAULT_RATE_HZ = 10;
+
+    private static final class Subscription {
+        final long intervalNanos;
+        long lastSentNanos;
+        boolean sentAny;
+        Supplier<ByteBuffer> pending;
+        ScheduledFuture<?> flush;
+        ScheduledFuture<?> poller;
+
+        Subscription(long intervalNanos) {
+            this.intervalNanos = intervalNanos;
+        }
+    }
+
+    private final Sink sink;
+    private final ScheduledExecutorService scheduler;
+    private final LongSupplier clock;
+    private final Map<Topic, Subscription> subscriptions = new EnumMap<>(Topic.class);
+    private final Map<Topic, Runnable> pollers = new EnumMap<>(Topic.class);
+    private final Map<Topic, Runnable> subscribeHooks = new EnumMap<>(Topic.class);
+    private long sentCount;
+    private long coalescedCount;
+
+    TelemetryPublisher(Sink sink, ScheduledExecutorService scheduler, LongSupplier clock) {
+        this.sink = sink;
+        this.scheduler = scheduler;
+        this.clock = clock;
+    }
+
+    /** Registers the sampler of a polled topic; it should call {@link #publish} itself. */
+    synchronized void setPoller(Topic topic, Runnable poller) {
+        pollers.put(topic, poller);
+        Subscription subscription = subscriptions.get(topic);
+        if (subscription != null && subscription.poller == null) {
+            startPollerLocked(topic, subscription);
+        }
+    }
+
+    /** Runs {@code hook} whenever {@code topic} gets subscribed, e.g. to send the current value. */
+    synchronized void setSubscribeHook(Topic topic, Runnable hook) {
+        subscribeHooks.put(topic, hook);
+    }
+
+    /** Drops all subscriptions and restores the defaults; called for every new session. */
+    void reset() {
+        clear();
+        subscribe(Topic.POSE, DEFAULT_RATE_HZ);
+        subscribe(Topic.NAVIGATION, DEFAULT_RATE_HZ);
+    }
+
+    synchronized void clear() {
+        for (Topic topic : Topic.values()) {
+            unsubscribeLocked(topic);
+        }
+    }
+
+    /** Subscribes at up to {@code maxRateHz} messages a second; zero or less unsubscribes. */
+    void subscribe(Topic topic, double maxRateHz) {
+        Runnable hook;
+        synchronized (this) {
+            unsubscribeLocked(topic);
+            if (!(maxRateHz > 0)) {
+                return;
+            }
+            double rate = Math.min(MAX_RATE_HZ, maxRateHz);
+            Subscription subscription = new Subscription((long) (1_000_000_000L / rate));
+            subscriptions.put(topic, subscription);
+            if (pollers.containsKey(topic)) {
+                startPollerLocked(topic, subscription);
+            }
+            hook = subscribeHooks.get(topic);
+        }
+        if (hook != null) {
+            hook.run();
+        }
+    }
+
+    synchronized boolean isSubscribed(Topic topic) {
+        return subscriptions.containsKey(topic);
+    }
+
+    /**
+     * Offers an update for {@code topic}. It is sent now, sent later in place of older
+     * waiting updates, or dropped if nobody is subscribed.
+     */
+    synchronized void publish(Topic topic, Supplier<ByteBuffer> message) {
+        Subscription subscription = subscriptions.get(topic);
+        if (subscription == null || !sink.isOpen()) {
+            return;
+        }
+        long now = clock.getAsLong();
+        long wait = subscription.lastSentNanos + subscription.intervalNanos - now;
+        if (!subscription.sentAny || wait <= 0) {
+            sendLocked(subscription, message, now);
+            return;
+        }
+        if (subscription.pending != null) {
+            coalescedCount++;
+        }
+        subscription.pending = message;
+        if (subscription.flush == null) {
+            subscription.flush = scheduler.schedule(() -> flush(topic, subscription), wait, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    synchronized JSONObject getSubscriptions() throws JSONException {
+        JSONObject topics = new JSONObject();
+        for (Map.Entry<Topic, Subscription> entry : subscriptions.entrySet()) {
+            topics.put(entry.getKey().key, Math.round(1e10 / entry.getValue().intervalNanos) / 10.0);
+        }
+        JSONObject stats = new JSONObject();
+        stats.put("topics", topics);
+        stats.put("sent", sentCount);
+        stats.put("coalesced", coalescedCount);
+        return stats;
+    }
+
+    private synchronized void flush(Topic topic, Subscription subscription) {
+        if (subscriptions.get(topic) != subscription) {
+            return;
+        }
+        subscription.flush = null;
+        Supplier<ByteBuffer> message = subscription.pending;
+        subscription.pending = null;
+        if (message != null && sink.isOpen()) {
+            sendLocked(subscription, message, clock.getAsLong());
+        }
+    }
+
+    private void sendLocked(Subscription subscription, Supplier<ByteBuffer> message, long now) {
+        subscription.lastSentNanos = now;
+        subscription.sentAny = true;
+        sentCount++;
+        sink.send(message.get());
+    }
+
+    private void startPollerLocked(Topic topic, Subscription subscription) {
+        Runnable poller = pollers.get(topic);
+        subscription.poller = scheduler.scheduleAtFixedRate(poller, 0, subscription.intervalNanos,
+                TimeUnit.NANOSECONDS);
+    }
+
+    private void unsubscribeLocked(Topic topic) {
+        Subscription subscription = subscriptions.remove(topic);
+        if (subscription == null) {
+            return;
+        }
+        if (subscription.flush != null) {
+            subscription.flush.cancel(false);
+        }
+        if (subscription.poller != null) {
+            subscription.poller.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.temistream;
+
+import com.robotemi.sdk.BatteryData;
+import com.robotemi.sdk.Robot;
+import com.robotemi.sdk.TtsRequest;
+import com.robotemi.sdk.listeners.OnBatteryStatusChangedListener;
+import com.robotemi.sdk.listeners.OnGoToLocationStatusChangedListener;
+import com.robotemi.sdk.listeners.OnMovementStatusChangedListener;
+import com.robotemi.sdk.listeners.OnRobotReadyListener;
+import com.robotemi.sdk.map.Layer;
+import com.robotemi.sdk.map.LayerPose;
+import com.robotemi.sdk.map.MapDataModel;
+import com.robotemi.sdk.map.MapImage;
+import com.robotemi.sdk.map.MapInfo;
+import com.robotemi.sdk.navigation.listener.OnCurrentPositionChangedListener;
+import com.robotemi.sdk.navigation.model.Position;
+import com.robotemi.sdk.permission.Permission;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * {@link RobotGateway} backed by the Temi SDK {@link Robot} singleton.
+ */
+final class TemiRobotGateway implements RobotGateway,
+        OnRobotReadyListener,
+        OnGoToLocationStatusChangedListener,
+        OnMovementStatusChangedListener,
+        OnCurrentPositionChangedListener,
+        OnBatteryStatusChangedListener,
+        Robot.TtsListener {
+
+    private static final int MAP_PERMISSION_REQUEST = 1043;
+
+    private static final class TemiSpeech implements SpeechRequest {
+        final TtsRequest ttsRequest;
+
+        TemiSpeech(TtsRequest ttsRequest) {
+            this.ttsRequest = ttsRequest;
+        }
+
+        @Override
+        public UUID getId() {
+            return ttsRequest.getId();
+        }
+    }
+
+    private final Robot robot;
+    private volatile Callbacks callbacks;
+
+    TemiRobotGateway(Robot robot) {
+        this.robot = robot;
+
+        // Add the supported listeners
+        robot.addOnRobotReadyListener(this);
+        robot.addOnGoToLocationStatusChangedListener(this);
+        robot.addOnMovementStatusChangedListener(this);
+        robot.addOnCurrentPositionChangedListener(this);
+        robot.addOnBatteryStatusChangedListener(this);
+        robot.addTtsListener(this);
+    }
+
+    @Override
+    public void setCallbacks(Callbacks callbacks) {
+        this.callbacks = callbacks;
+    }
+
+    @Override
+    public void skidJoy(float x, float y) {
+        robot.skidJoy(x, y);
+    }
+
+    @Override
+    public void turnBy(int degrees) {
+        robot.turnBy(degrees);
+    }
+
+    @Override
+    public void tiltAngle(int degrees) {
+        robot.tiltAngle(degrees);
+    }
+
+    @Override
+    public void goTo(String location) {
+        robot.goTo(location);
+    }
+
+    @Override
+    public void stopMovement() {
+        robot.stopMovement();
+    }
+
+    @Override
+    public SpeechRequest createSpeech(String text, boolean showOnConversationLayer) {
+        return new TemiSpeech(TtsRequest.create(text, showOnConversationLayer));
+    }
+
+    @Override
+    public void speak(SpeechRequest request) {
+        robot.speak(((TemiSpeech) request).ttsRequest);
+    }
+
+    @Override
+    public void cancelAllTtsRequests() {
+        robot.cancelAllTtsRequests();
+    }
+
+    @Override
+    public List<String> getLocations() {
+        return robot.getLocations();
+    }
+
+    @Override
+    public boolean saveLocation(String name) {
+        return robot.saveLocation(name);
+    }
+
+    @Override
+    public boolean deleteLocation(String name) {
+        return robot.deleteLocation(name);
+    }
+
+    @Override
+    public void setVolume(int volume) {
+        robot.setVolume(volume);
+    }
+
+    @Override
+    public BatteryStatus getBatteryStatus() {
+        return toStatus(robot.getBatteryData());
+    }
+
+    @Override
+    public void release() {
+        callbacks = null;
+        robot.removeOnRobotReadyListener(this);
+        robot.removeOnGoToLocationStatusChangedListener(this);
+        robot.removeOnMovementStatusChangedListener(this);
+        robot.removeOnCurrentPositionChangedListener(this);
+        robot.removeOnBatteryStatusChangedListener(this);
+        robot.removeTtsListener(this);
+    }
+
+    @Override
+    public MapData getMapData() {
+        if (robot.checkSelfPermission(Permission.MAP) != Permission.GRANTED) {
+            // Temi asks the user; the next export succeeds once they allow it
+            robot.requestPermissions(Collections.singletonList(Permission.MAP), MAP_PERMISSION_REQUEST);
+            return null;
+        }
+        MapDataModel model = robot.getMapData();
+        if (model == null) {
+            return null;
+        }
+        MapImage image = model.getMapImage();
+        MapInfo info = model.getMapInfo();
+        List<Integer> data = image.getData();
+        byte[] cells = new byte[image.getCols() * image.getRows()];
+        for (int i = 0; i < cells.length && i < data.size(); i++) {
+            int value = data.get(i);
+            cells[i] = (byte) (value < 0 ? -1 : Math.min(100, value));
+        }
+        List<LocationPose> locations = new ArrayList<>();
+        for (Layer layer : model.getLocations()) {
+            List<LayerPose> poses = layer.getLayerPoses();
+            if (poses != null && !poses.isEmpty()) {
+                LayerPose pose = poses.get(0);
+                locations.add(new LocationPose(layer.getLayerId(), pose.getX(), pose.getY(), pose.getTheta()));
+            }
+        }
+        return new MapData(model.getMapId(), image.getCols(), image.getRows(), info.getResolution(),
+                info.getOriginX(), info.getOriginY(), cells, locations);
+    }
+
+    @Override
+    public void onRobotReady(boolean isReady) {
+        Callbacks target = callbacks;
+        if (target != null) {
+            target.onRobotReady(isReady);
+        }
+    }
+
+    @Override
+    public void onGoToLocationStatusChanged(String location, String status, int descriptionId, String description) {
+        Callbacks target = callbacks;
+        if (target != null) {
+            target.onGoToLocationStatusChanged(location, status, description);
+        }
+    }
+
+    @Override
+    public void onMovementStatusChanged(String type, String status) {
+        Callbacks target = callbacks;
+        if (target != null) {
+            target.onMovementStatusChanged(type, status);
+        }
+    }
+
+    @Override
+    public void onCurrentPositionChanged(Position position) {
+        Callbacks target = callbacks;
+        if (target != null) {
+            target.onPositionChanged(position.getX(), position.getY(), position.getYaw());
+        }
+    }
+
+    @Override
+    public void onBatteryStatusChanged(BatteryData batteryData) {
+        Callbacks target = callbacks;
+        BatteryStatus status = toStatus(batteryData);
+        if (target != null && status != null) {
+            target.onBatteryStatusChanged(status);
+        }
+    }
+
+    private static BatteryStatus toStatus(BatteryData batteryData) {
+        return batteryData == null ? null
+                : new BatteryStatus(batteryData.getBatteryPercentage(), batteryData.isCharging());
+    }
+
+    @Override
+    public void onTtsStatusChanged(TtsRequest ttsRequest) {
+        Callbacks target = callbacks;
+        if (target == null) {
+            return;
+        }
+        switch (ttsRequest.getStatus()) {
+            case STARTED:
+                target.onSpeechStarted(ttsRequest.getId());
+                break;
+            case COMPLETED:
+            case CANCELED:
+            case ERROR:
+            case NOT_ALLOWED:
+                target.onSpeechFinished(ttsRequest.getId());
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.temistream;
+
+/**
+ * Classic token bucket: holds up to {@code capacity} tokens and refills continuously at
+ * {@code refillPerSecond}. Not thread-safe; callers synchronize externally.
+ */
+final class TokenBucket {
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final double capacity;
+    private final double refillPerNano;
+    private double tokens;
+    private long lastRefillNanos;
+
+    TokenBucket(int capacity, double refillPerSecond, long nowNanos) {
+        this.capacity = capacity;
+        this.refillPerNano = refillPerSecond / NANOS_PER_SECOND;
+        this.tokens = capacity;
+        this.lastRefillNanos = nowNanos;
+    }
+
+    boolean tryAcquire(long nowNanos) {
+        refill(nowNanos);
+        if (tokens >= 1.0) {
+            tokens -= 1.0;
+            return true;
+        }
+        return false;
+    }
+
+    /** Nanoseconds until one token will be available, or 0 if one is available now. */
+    long nanosUntilAvailable(long nowNanos) {
+        refill(nowNanos);
+        if (tokens >= 1.0) {
+            return 0;
+        }
+        return (long) Math.ceil((1.0 - tokens) / refillPerNano);
+    }
+
+    private void refill(long nowNanos) {
+        long elapsed = nowNanos - lastRefillNanos;
+        if (elapsed > 0) {
+            tokens = Math.min(capacity, tokens + elapsed * refillPerNano);
+            lastRefillNanos = nowNanos;
+        }
+    }
+}
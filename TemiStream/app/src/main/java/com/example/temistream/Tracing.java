@@ -0,0 +1,62 @@
+package com.example.temistream;
+
+import android.os.Trace;
+import android.util.Log;
+
+/**
+ * Perfetto/systrace instrumentation and debug-log gating for the hot paths.
+ *
+ * Sections cost a single check while no trace is being recorded; names that need
+ * concatenating are only built while one is. A command is an async slice named after the
+ * command and keyed by its commandId, running from the moment its message arrives until its
+ * response is sent, so one capture shows receive, parse, admission, dispatch, the SDK call
+ * and the response for each command on their threads.
+ *
+ * Debug logging is off unless enabled with {@code adb shell setprop log.tag.TemiStream DEBUG};
+ * callers check {@link #debug()} before building the message.
+ */
+final class Tracing {
+
+    static final String LOG_TAG = "TemiStream";
+
+    private static final String COMMAND_PREFIX = "cmd ";
+
+    private Tracing() {
+    }
+
+    /** True if debug messages should be built and logged. */
+    static boolean debug() {
+        return Log.isLoggable(LOG_TAG, Log.DEBUG);
+    }
+
+    static void beginSection(String name) {
+        Trace.beginSection(name);
+    }
+
+    /** Begins a section named {@code prefix + detail}, or just {@code prefix} when not tracing. */
+    static void beginSection(String prefix, String detail) {
+        Trace.beginSection(Trace.isEnabled() ? prefix + detail : prefix);
+    }
+
+    static void endSection() {
+        Trace.endSection();
+    }
+
+    static void beginCommand(String command, String commandId) {
+        if (Trace.isEnabled()) {
+            Trace.beginAsyncSection(COMMAND_PREFIX + command, commandId.hashCode());
+        }
+    }
+
+    static void endCommand(String command, String commandId) {
+        if (Trace.isEnabled()) {
+            Trace.endAsyncSection(COMMAND_PREFIX + command, commandId.hashCode());
+        }
+    }
+
+    static void counter(String name, long value) {
+        if (Trace.isEnabled()) {
+            Trace.setCounter(name, value);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.temistream;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.RTCStats;
+import org.webrtc.RTCStatsReport;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides when the video encoder should send an unscheduled keyframe, and keeps the freeze
+ * statistics the decisions are based on.
+ *
+ * Requests come from the viewer ({@code request_keyframe}), from the viewer's once-a-second
+ * receive report (packets arriving but nothing decoding, bursts of dropped frames) and from
+ * our own send statistics (NACK and loss bursts). Whatever the source, keyframes are at least
+ * {@code minIntervalMs} apart: a keyframe is several times the size of a delta frame, and
+ * on a link that is already losing packets a string of them only deepens the loss.
+ * Freezes are counted the way the browser does and exported with their durations.
+ */
+final class VideoRecoveryMonitor {
+
+    static final long DEFAULT_MIN_INTERVAL_MS = 1000;
+    // Per one-second stats interval
+    static final long NACK_BURST = 20;
+    static final long LOSS_BURST = 10;
+    static final long DROP_BURST = 5;
+    static final int MAX_RECORDED_FREEZES = 64;
+
+    private final FlightRecorder flightRecorder;
+    private final long minIntervalMs;
+    private final LongSupplier clockMillis;
+    private final AtomicBoolean keyFramePending = new AtomicBoolean();
+
+    private long lastRequestMs = Long.MIN_VALUE / 2;
+    private final Map<String, Long> requestsByReason = new LinkedHashMap<>();
+    private long suppressedRequests;
+
+    // Previous cumulative counters; -1 until the first report
+    private long lastNackCount = -1;
+    private long lastPliCount;
+    private long lastRemoteLost;
+    private long viewerPliCount;
+    private long lastFramesDecoded = -1;
+    private long lastFramesDropped;
+    private long lastFreezeCount;
+    private double lastFreezesDuration;
+    private long lastPacketsReceived;
+
+    // Most recent freeze durations, oldest first once the ring wraps
+    private final long[] freezeDurationsMs = new long[MAX_RECORDED_FREEZES];
+    private long freezeCount;
+    private long freezeTotalMs;
+    private long freezeMaxMs;
+
+    VideoRecoveryMonitor(FlightRecorder flightRecorder) {
+        this(flightRecorder, DEFAULT_MIN_INTERVAL_MS, System::currentTimeMillis);
+    }
+
+    VideoRecoveryMonitor(FlightRecorder flightRecorder, long minIntervalMs, LongSupplier clockMillis) {
+        this.flightRecorder = flightRecorder;
+        this.minIntervalMs = minIntervalMs;
+        this.clockMillis = clockMillis;
+    }
+
+    /** Asks for a keyframe; returns false if one was requested less than the minimum interval ago. */
+    synchronized boolean requestKeyFrame(String reason) {
+        long now = clockMillis.getAsLong();
+        if (now - lastRequestMs < minIntervalMs) {
+            suppressedRequests++;
+            return false;
+        }
+        lastRequestMs = now;
+        requestsByReason.merge(reason, 1L, Long::sum);
+        keyFramePending.set(true);
+        flightRecorder.recordEvent("keyframe_" + reason);
+        return true;
+    }
+
+    /** Polled by the encoder for every frame; true at most once per granted request. */
+    boolean consumeKeyFrameRequest() {
+        return keyFramePending.compareAndSet(true, false);
+    }
+
+    /** Reads our outbound video and the viewer's matching remote-inbound entries. */
+    void onSenderReport(RTCStatsReport report) {
+        long nackCount = -1;
+        long pliCount = 0;
+        long remoteLost = 0;
+        for (RTCStats stats : report.getStatsMap().values()) {
+            Map<String, Object> members = stats.getMembers();
+            if (!"video".equals(members.get("kind"))) {
+                continue;
+            }
+            if ("outbound-rtp".equals(stats.getType())) {
+                nackCount = Math.max(0, nackCount) + asLong(members.get("nackCount"));
+                pliCount += asLong(members.get("pliCount"));
+            } else if ("remote-inbound-rtp".equals(stats.getType())) {
+                remoteLost += asLong(members.get("packetsLost"));
+            }
+        }
+        if (nackCount >= 0) {
+            onSenderStats(nackCount, pliCount, remoteLost);
+        }
+    }
+
+    /** Takes cumulative NACK and PLI counts received from the viewer, and its reported loss. */
+    synchronized void onSenderStats(long nackCount, long pliCount, long remoteLost) {
+        if (lastNackCount >= 0) {
+            viewerPliCount += Math.max(0, pliCount - lastPliCount);
+            long nacks = nackCount - lastNackCount;
+            long lost = remoteLost - lastRemoteLost;
+            if (nacks >= NACK_BURST || lost >= LOSS_BURST) {
+                requestKeyFrame("loss");
+            }
+        }
+        lastNackCount = nackCount;
+        lastPliCount = pliCount;
+        lastRemoteLost = remoteLost;
+    }
+
+    /** Handles the viewer's {@code video_stats} report, built from its inbound-rtp entry. */
+    void onViewerReport(JSONObject report) {
+        onViewerStats(report.optLong("framesDecoded"), report.optLong("framesDropped"),
+                report.optLong("freezeCount"), report.optDouble("totalFreezesDuration", 0),
+                report.optLong("packetsReceived"));
+    }
+
+    /** Takes the viewer's cumulative counters; {@code totalFreezesDuration} is in seconds. */
+    synchronized void onViewerStats(long framesDecoded, long framesDropped, long freezes,
+                                    double totalFreezesDuration, long packetsReceived) {
+        if (lastFramesDecoded >= 0 && framesDecoded >= lastFramesDecoded) {
+            long newFreezes = freezes - lastFreezeCount;
+            if (newFreezes > 0) {
+                // The browser counts a freeze when it ends, adding its whole duration
+                long averageMs = Math.round((totalFreezesDuration - lastFreezesDuration) * 1000 / newFreezes);
+                for (long i = 0; i < newFreezes; i++) {
+                    recordFreezeLocked(averageMs);
+                }
+            }
+            if (framesDecoded == lastFramesDecoded && packetsReceived > lastPacketsReceived) {
+                // Data is arriving but nothing decodes: the decoder is waiting for a keyframe
+                requestKeyFrame("stall");
+            } else if (framesDropped - lastFramesDropped >= DROP_BURST) {
+                requestKeyFrame("drops");
+            }
+        }
+        // A reload of the viewer restarts its counters
+        lastFramesDecoded = framesDecoded;
+        lastFramesDropped = framesDropped;
+        lastFreezeCount = freezes;
+        lastFreezesDuration = totalFreezesDuration;
+        lastPacketsReceived = packetsReceived;
+    }
+
+    /** Forgets the previous session's counters; freeze history and totals are kept. */
+    synchronized void resetCounters() {
+        lastNackCount = -1;
+        lastFramesDecoded = -1;
+        keyFramePending.set(false);
+    }
+
+    synchronized long getFreezeCount() {
+        return freezeCount;
+    }
+
+    synchronized JSONObject getStats() throws JSONException {
+        int recorded = (int) Math.min(freezeCount, MAX_RECORDED_FREEZES);
+        long[] recent = new long[recorded];
+        for (int i = 0; i < recorded; i++) {
+            recent[i] = freezeDurationsMs[(int) ((freezeCount - recorded + i) % MAX_RECORDED_FREEZES)];
+        }
+        JSONArray durations = new JSONArray();
+        for (long duration : recent) {
+            durations.put(duration);
+        }
+        long[] sorted = recent.clone();
+        Arrays.sort(sorted);
+
+        JSONObject freezes = new JSONObject();
+        freezes.put("count", freezeCount);
+        freezes.put("totalMs", freezeTotalMs);
+        freezes.put("maxMs", freezeMaxMs);
+        freezes.put("p50Ms", percentile(sorted, 0.5));
+        freezes.put("p95Ms", percentile(sorted, 0.95));
+        freezes.put("recentMs", durations);
+
+        JSONObject stats = new JSONObject();
+        stats.put("freezes", freezes);
+        stats.put("keyFrameRequests", new JSONObject(requestsByReason));
+        stats.put("suppressedRequests", suppressedRequests);
+        stats.put("viewerPliCount", viewerPliCount);
+        stats.put("minIntervalMs", minIntervalMs);
+        return stats;
+    }
+
+    private void recordFreezeLocked(long durationMs) {
+        freezeDurationsMs[(int) (freezeCount % MAX_RECORDED_FREEZES)] = durationMs;
+        freezeCount++;
+        freezeTotalMs += durationMs;
+        freezeMaxMs = Math.max(freezeMaxMs, durationMs);
+        flightRecorder.recordStat("video_freeze_ms", (int) durationMs, 0f);
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    private static long asLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+}
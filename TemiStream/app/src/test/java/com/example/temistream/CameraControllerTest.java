@@ -0,0 +1,155 @@
+package com.example.temistream;
+
+import org.junit.Test;
+import org.webrtc.CameraEnumerationAndroid.CaptureFormat;
+import org.webrtc.CameraEnumerator;
+import org.webrtc.CameraVideoCapturer;
+import org.webrtc.CapturerObserver;
+import org.webrtc.SurfaceTextureHelper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CameraControllerTest {
+
+    private static final List<CaptureFormat> BACK_FORMATS = Arrays.asList(
+            new CaptureFormat(640, 480, 15000, 30000),
+            new CaptureFormat(1920, 1080, 15000, 30000),
+            new CaptureFormat(1280, 720, 15000, 15000),
+            new CaptureFormat(1280, 960, 15000, 30000));
+
+    private static final class FakeCapturer implements CameraVideoCapturer {
+        CameraSwitchHandler switchHandler;
+        String switchTarget;
+        int[] format;
+
+        @Override
+        public void switchCamera(CameraSwitchHandler handler) {
+            switchCamera(handler, null);
+        }
+
+        @Override
+        public void switchCamera(CameraSwitchHandler handler, String cameraName) {
+            switchHandler = handler;
+            switchTarget = cameraName;
+        }
+
+        @Override
+        public void initialize(SurfaceTextureHelper helper, android.content.Context context, CapturerObserver observer) {
+        }
+
+        @Override
+        public void startCapture(int width, int height, int framerate) {
+            format = new int[]{width, height, framerate};
+        }
+
+        @Override
+        public void stopCapture() {
+        }
+
+        @Override
+        public void changeCaptureFormat(int width, int height, int framerate) {
+            format = new int[]{width, height, framerate};
+        }
+
+        @Override
+        public void dispose() {
+        }
+
+        @Override
+        public boolean isScreencast() {
+            return false;
+        }
+    }
+
+    private static final class FakeEnumerator implements CameraEnumerator {
+        final FakeCapturer capturer = new FakeCapturer();
+        CameraVideoCapturer.CameraEventsHandler events;
+
+        @Override
+        public String[] getDeviceNames() {
+            return new String[]{"0", "1"};
+        }
+
+        @Override
+        public boolean isFrontFacing(String name) {
+            return name.equals("1");
+        }
+
+        @Override
+        public boolean isBackFacing(String name) {
+            return name.equals("0");
+        }
+
+        @Override
+        public List<CaptureFormat> getSupportedFormats(String name) {
+            return name.equals("0") ? BACK_FORMATS
+                    : Arrays.asList(new CaptureFormat(1280, 720, 15000, 30000));
+        }
+
+        @Override
+        public CameraVideoCapturer createCapturer(String name, CameraVideoCapturer.CameraEventsHandler handler) {
+            events = handler;
+            return capturer;
+        }
+    }
+
+    @Test
+    public void selectsSmallestCoveringFormatThatReachesFrameRate() {
+        // 1280x720 only reaches 15 fps, so the next covering size wins
+        CaptureFormat selected = CameraController.selectFormat(BACK_FORMATS, 1280, 720, 30);
+        assertEquals("1280x960@30", CameraController.describe(selected));
+        assertEquals("1280x720@15", CameraController.describe(CameraController.selectFormat(BACK_FORMATS, 1280, 720, 15)));
+        // Nothing covers 4K: take the largest
+        assertEquals("1920x1080@30", CameraController.describe(CameraController.selectFormat(BACK_FORMATS, 3840, 2160, 30)));
+    }
+
+    @Test
+    public void switchIsTimedToFirstFrameOfNewCamera() {
+        FakeEnumerator enumerator = new FakeEnumerator();
+        long[] now = {0};
+        List<String> reports = new ArrayList<>();
+        CameraController controller = new CameraController(enumerator, Runnable::run, new CameraController.Listener() {
+            @Override
+            public void onCameraChanged(String deviceName, boolean frontFacing, CaptureFormat format,
+                                        long switchMs, long firstFrameMs) {
+                reports.add(deviceName + " " + frontFacing + " " + CameraController.describe(format)
+                        + " " + switchMs + " " + firstFrameMs);
+            }
+
+            @Override
+            public void onCameraChangeFailed(String error) {
+                reports.add("failed " + error);
+            }
+        }, () -> now[0]);
+
+        assertSame(enumerator.capturer, controller.createCapturer());
+        assertEquals("1", controller.getDeviceName());
+        controller.startCapture();
+        assertArrayEquals(new int[]{1280, 720, 30}, enumerator.capturer.format);
+        // The first frame of the initial session is not a switch
+        enumerator.events.onFirstFrameAvailable();
+        assertTrue(reports.isEmpty());
+
+        assertNull(controller.switchCamera(null));
+        assertEquals("0", enumerator.capturer.switchTarget);
+        assertEquals("Camera switch already in progress", controller.switchCamera(null));
+        now[0] = 180_000_000L;
+        enumerator.capturer.switchHandler.onCameraSwitchDone(false);
+        now[0] = 250_000_000L;
+        enumerator.events.onFirstFrameAvailable();
+        assertEquals(Arrays.asList("0 false 1280x960@30 180 250"), reports);
+
+        now[0] = 1_000_000_000L;
+        assertNull(controller.changeCaptureFormat(640, 480, 30));
+        assertArrayEquals(new int[]{640, 480, 30}, enumerator.capturer.format);
+        now[0] = 1_400_000_000L;
+        enumerator.events.onFirstFrameAvailable();
+        assertEquals("0 false 640x480@30 0 400", reports.get(1));
+
+        assertEquals("Unknown camera 7", controller.switchCamera("7"));
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.temistream;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ChunkedTransferSenderTest {
+
+    /** Channel that drains at a fixed rate of the virtual clock, like a congested link. */
+    private static final class DrainingChannel implements MessageChannel {
+        final VirtualScheduler scheduler;
+        final long bytesPerMs;
+        final List<JSONObject> json = new ArrayList<>();
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        long queued;
+        long lastDrainMs;
+        long maxBuffered;
+        final Map<Integer, Integer> expectedChunks = new HashMap<>();
+
+        DrainingChannel(VirtualScheduler scheduler, long bytesPerMs) {
+            this.scheduler = scheduler;
+            this.bytesPerMs = bytesPerMs;
+        }
+
+        private void drain() {
+            long now = scheduler.nowMillis();
+            queued = Math.max(0, queued - (now - lastDrainMs) * bytesPerMs);
+            lastDrainMs = now;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public boolean send(ByteBuffer data, boolean binary) {
+            drain();
+            int size = data.remaining();
+            if (binary) {
+                int expected = expectedChunks.merge(data.getInt(), 1, Integer::sum) - 1;
+                assertEquals("chunks arrive in order", expected, data.getInt());
+                byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+                payload.write(bytes, 0, bytes.length);
+            } else {
+                byte[] bytes = new byte[size];
+                data.get(bytes);
+                try {
+                    json.add(new JSONObject(new String(bytes, StandardCharsets.UTF_8)));
+                } catch (JSONException e) {
+                    throw new AssertionError(e);
+                }
+            }
+            queued += size;
+            maxBuffered = Math.max(maxBuffered, queued);
+            return true;
+        }
+
+        @Override
+        public long bufferedAmount() {
+            drain();
+            return queued;
+        }
+    }
+
+    @Test
+    public void largeTransferIsReassembledWithoutOverfillingTheChannel() throws Exception {
+        VirtualScheduler scheduler = new VirtualScheduler();
+        DrainingChannel channel = new DrainingChannel(scheduler, 100); // ~100 KB/s
+        ChunkedTransferSender sender = new ChunkedTransferSender(scheduler);
+        sender.setChannel(channel);
+
+        byte[] data = new byte[300_000];
+        new Random(7).nextBytes(data);
+        long[] finished = {-1};
+        int id = sender.send("snapshot", new JSONObject().put("width", 1280), data, 0, data.length,
+                (transferId, completed, durationMs) -> finished[0] = completed ? durationMs : -2);
+
+        // The first call only fills the channel up to the watermark
+        assertEquals(-1, finished[0]);
+        assertTrue(sender.getThrottledCount() > 0);
+
+        scheduler.runFor(10, TimeUnit.SECONDS);
+        assertTrue("transfer completes once the channel drains", finished[0] >= 0);
+        assertEquals(0, sender.getQueuedCount());
+        assertArrayEquals(data, channel.payload.toByteArray());
+        assertTrue("buffer stays near the watermark, was " + channel.maxBuffered,
+                channel.maxBuffered < ChunkedTransferSender.HIGH_WATERMARK_BYTES
+                        + ChunkedTransferSender.CHUNK_HEADER_SIZE + ChunkedTransferSender.CHUNK_SIZE + 1024);
+
+        JSONObject begin = channel.json.get(0);
+        assertEquals("transfer_begin", begin.getString("type"));
+        assertEquals(id, begin.getInt("transferId"));
+        assertEquals(data.length, begin.getInt("size"));
+        assertEquals((data.length + ChunkedTransferSender.CHUNK_SIZE - 1) / ChunkedTransferSender.CHUNK_SIZE,
+                begin.getInt("chunks"));
+        assertEquals(1280, begin.getJSONObject("meta").getInt("width"));
+        assertEquals("transfer_end", channel.json.get(channel.json.size() - 1).getString("type"));
+        assertEquals(begin.getInt("chunks"), sender.getChunksSent());
+    }
+
+    @Test
+    public void normalTransferOvertakesLowPriorityTransfer() throws Exception {
+        VirtualScheduler scheduler = new VirtualScheduler();
+        DrainingChannel channel = new DrainingChannel(scheduler, 100);
+        ChunkedTransferSender sender = new ChunkedTransferSender(scheduler);
+        sender.setChannel(channel);
+
+        byte[] tiles = new byte[500_000];
+        List<String> finished = new ArrayList<>();
+        sender.send("map_tile", null, tiles, 0, tiles.length, ChunkedTransferSender.Priority.LOW,
+                (id, completed, ms) -> finished.add("map_tile"));
+        assertTrue("low priority stops at its own watermark",
+                channel.bufferedAmount() < ChunkedTransferSender.LOW_PRIORITY_WATERMARK_BYTES
+                        + ChunkedTransferSender.CHUNK_HEADER_SIZE + ChunkedTransferSender.CHUNK_SIZE + 1024);
+
+        scheduler.runFor(1, TimeUnit.SECONDS);
+        byte[] snapshot = new byte[100_000];
+        sender.send("snapshot", null, snapshot, 0, snapshot.length, (id, completed, ms) -> finished.add("snapshot"));
+        scheduler.runFor(10, TimeUnit.SECONDS);
+
+        assertEquals(List.of("snapshot", "map_tile"), finished);
+        assertEquals(tiles.length + snapshot.length, channel.payload.size());
+    }
+
+    @Test
+    public void newChannelCancelsPendingTransfers() {
+        VirtualScheduler scheduler = new VirtualScheduler();
+        DrainingChannel stalled = new DrainingChannel(scheduler, 0);
+        ChunkedTransferSender sender = new ChunkedTransferSender(scheduler);
+        sender.setChannel(stalled);
+
+        byte[] data = new byte[1_000_000];
+        boolean[] outcome = new boolean[2];
+        sender.send("map", null, data, 0, data.length, (id, completed, ms) -> outcome[0] = completed);
+        sender.send("map", null, data, 0, 10, (id, completed, ms) -> outcome[1] = completed);
+        scheduler.runFor(1, TimeUnit.SECONDS);
+        assertEquals(2, sender.getQueuedCount());
+
+        sender.setChannel(null);
+        assertEquals(0, sender.getQueuedCount());
+        assertFalse(outcome[0]);
+        assertFalse(outcome[1]);
+    }
+}
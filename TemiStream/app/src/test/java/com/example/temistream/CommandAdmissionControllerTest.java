@@ -0,0 +1,153 @@
+package com.example.temistream;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CommandAdmissionControllerTest {
+
+    private final VirtualScheduler scheduler = new VirtualScheduler();
+    private final List<String> dispatched = new ArrayList<>();
+    private final List<Long> dispatchedAtMs = new ArrayList<>();
+    private final List<String> rejected = new ArrayList<>();
+    private CommandAdmissionController controller;
+
+    @Before
+    public void setUp() {
+        controller = new CommandAdmissionController(new CommandAdmissionController.Dispatcher() {
+            @Override
+            public void dispatch(String command, JSONObject params, String commandId) {
+                dispatched.add(commandId);
+                dispatchedAtMs.add(scheduler.nowMillis());
+            }
+
+            @Override
+            public void reject(String command, String commandId, String reason) {
+                rejected.add(commandId);
+            }
+        }, scheduler, scheduler::nowNanos);
+    }
+
+    @Test
+    public void speechBurstIsQueuedThenRejected() {
+        for (int i = 0; i < 3 + CommandAdmissionController.MAX_PENDING + 5; i++) {
+            controller.submit("speak", null, "s" + i);
+        }
+
+        // Bucket capacity goes straight through, the queue absorbs the rest until full
+        assertEquals(3, dispatched.size());
+        assertEquals(5, rejected.size());
+        assertEquals(CommandAdmissionController.MAX_PENDING, controller.getPendingCount());
+    }
+
+    @Test
+    public void queuedCommandsDrainAtTheRefillRate() throws Exception {
+        // Motion holds ten tokens and refills ten a second
+        for (int i = 0; i < 15; i++) {
+            controller.submit("move", null, "m" + i);
+        }
+        assertEquals(10, dispatched.size());
+        assertEquals(5, controller.getPendingCount());
+
+        scheduler.runFor(1, TimeUnit.SECONDS);
+
+        assertEquals(15, dispatched.size());
+        assertEquals("m14", dispatched.get(14));
+        assertEquals(List.of(100L, 200L, 300L, 400L, 500L), dispatchedAtMs.subList(10, 15));
+        assertTrue(rejected.isEmpty());
+
+        JSONObject stats = controller.getStats();
+        assertEquals(5, stats.getLong("queued"));
+        assertEquals(0, stats.getLong("pending"));
+        assertEquals(15, stats.getJSONObject("admitted").getLong("motion"));
+        assertEquals(300.0, stats.getDouble("queueWaitAvgMs"), 1.0);
+        assertEquals(500.0, stats.getDouble("queueWaitMaxMs"), 1.0);
+    }
+
+    @Test
+    public void commandsWaitingTooLongAreRejected() throws Exception {
+        // Speech holds three tokens and refills one a second
+        for (int i = 0; i < 6; i++) {
+            controller.submit("speak", null, "s" + i);
+        }
+        scheduler.runFor(5, TimeUnit.SECONDS);
+
+        // s3 gets the first new token after exactly the maximum wait; the rest are too old by then
+        assertEquals(List.of("s0", "s1", "s2", "s3"), dispatched);
+        assertEquals(Long.valueOf(CommandAdmissionController.MAX_QUEUE_WAIT_MS), dispatchedAtMs.get(3));
+        assertEquals(List.of("s4", "s5"), rejected);
+        assertEquals(0, controller.getPendingCount());
+
+        JSONObject stats = controller.getStats();
+        assertEquals(3, stats.getLong("queued"));
+        assertEquals(2, stats.getLong("expired"));
+        assertEquals(2, stats.getJSONObject("rejected").getLong("speech"));
+        assertEquals(2, stats.getLong("rejectedTotal"));
+        assertEquals(1000.0, stats.getDouble("queueWaitMaxMs"), 1.0);
+    }
+
+    @Test
+    public void emergencyStopFlushesQueueAndBypassesBuckets() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            controller.submit("speak", null, "s" + i);
+        }
+        controller.submit("emergency_stop", null, "estop");
+
+        assertEquals(7, rejected.size());
+        assertEquals("estop", dispatched.get(dispatched.size() - 1));
+        assertEquals(7, controller.getStats().getLong("flushed"));
+
+        // Nothing flushed comes back once tokens refill
+        scheduler.runFor(5, TimeUnit.SECONDS);
+        assertEquals(4, dispatched.size());
+    }
+
+    @Test
+    public void batchEntriesTakeTokensOfTheirOwnClass() {
+        for (int i = 0; i < 3; i++) {
+            assertTrue(controller.tryAdmitNow("speak"));
+        }
+        assertFalse(controller.tryAdmitNow("speak"));
+        assertTrue(controller.tryAdmitNow("move"));
+        assertFalse(controller.tryAdmitNow("emergency_stop"));
+        assertFalse(controller.tryAdmitNow("batch"));
+
+        // A batch entry does not overtake commands already waiting in its class
+        controller.submit("speak", null, "queued");
+        assertTrue(rejected.isEmpty());
+        assertFalse(controller.tryAdmitNow("speak"));
+    }
+
+    @Test
+    public void expensiveCommandsShareTheMediaBucket() {
+        for (String command : List.of("save_clip", "snapshot", "switch_camera", "set_capture_format", "set_opus", "get_map", "get_map_tiles", "set_ice_policy")) {
+            assertEquals(command, CommandAdmissionController.CommandClass.MEDIA,
+                    CommandAdmissionController.classify(command));
+        }
+        for (int i = 0; i < 4; i++) {
+            controller.submit("save_clip", null, "c" + i);
+        }
+        assertEquals(List.of("c0", "c1"), dispatched);
+
+        // A token every two seconds is longer than a command may wait, so the rest are refused
+        scheduler.runFor(3, TimeUnit.SECONDS);
+        assertEquals(List.of("c0", "c1"), dispatched);
+        assertEquals(List.of("c2", "c3"), rejected);
+    }
+
+    @Test
+    public void classesHaveIndependentBuckets() {
+        for (int i = 0; i < 5; i++) {
+            controller.submit("speak", null, "s" + i);
+        }
+        controller.submit("move", null, "m0");
+
+        assertTrue(dispatched.contains("m0"));
+    }
+}
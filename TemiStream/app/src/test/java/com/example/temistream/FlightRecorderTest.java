@@ -0,0 +1,135 @@
+package com.example.temistream;
+
+import org.json.JSONArray;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class FlightRecorderTest {
+
+    @Test
+    public void recordsRoundTripThroughExporter() throws Exception {
+        File file = File.createTempFile("flight", ".bin");
+        try {
+            FlightRecorder recorder = FlightRecorder.open(file, 16);
+            recorder.recordCommand("tilt_up", "cmd-1");
+            recorder.recordPose(1.5f, -2f, 0.25f, 10);
+            recorder.recordResponse("cmd-1", true);
+
+            List<FlightRecorderExporter.Record> records =
+                    FlightRecorderExporter.read(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+            assertEquals(3, records.size());
+
+            JSONArray json = FlightRecorderExporter.toJson(records);
+            assertEquals("tilt_up", json.getJSONObject(0).getString("command"));
+            assertEquals(1.5, json.getJSONObject(1).getDouble("x"), 1e-6);
+            assertTrue(json.getJSONObject(2).getBoolean("success"));
+            assertTrue(FlightRecorderExporter.toCsv(records).contains("\"cmd-1\""));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void ringKeepsOnlyNewestRecordsAcrossReopen() throws Exception {
+        File file = File.createTempFile("flight", ".bin");
+        try {
+            FlightRecorder recorder = FlightRecorder.open(file, 8);
+            for (int i = 0; i < 6; i++) {
+                recorder.recordStat("sample", i, 0f);
+            }
+            // Reopening continues the sequence instead of starting over
+            recorder = FlightRecorder.open(file, 8);
+            for (int i = 6; i < 12; i++) {
+                recorder.recordStat("sample", i, 0f);
+            }
+
+            List<FlightRecorderExporter.Record> records =
+                    FlightRecorderExporter.read(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+            assertEquals(8, records.size());
+            assertEquals(4, records.get(0).value);
+            assertEquals(11, records.get(7).value);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void reopenAfterConcurrentWritersNeverReusesSequences() throws Exception {
+        File file = File.createTempFile("flight", ".bin");
+        try {
+            int capacity = 256;
+            int threads = 8;
+            int perThread = 5000;
+            FlightRecorder recorder = FlightRecorder.open(file, capacity);
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                writers.add(new Thread(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        recorder.recordEvent("before");
+                    }
+                }));
+            }
+            for (Thread writer : writers) {
+                writer.start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+
+            FlightRecorder reopened = FlightRecorder.open(file, capacity);
+            assertEquals((long) threads * perThread, reopened.getRecordCount());
+            for (int i = 0; i < 100; i++) {
+                reopened.recordEvent("after");
+            }
+
+            List<FlightRecorderExporter.Record> records =
+                    FlightRecorderExporter.read(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+            assertEquals(capacity, records.size());
+            Set<Long> sequences = new HashSet<>();
+            long lastBefore = -1;
+            long firstAfter = Long.MAX_VALUE;
+            for (FlightRecorderExporter.Record record : records) {
+                assertTrue("duplicate sequence " + record.sequence, sequences.add(record.sequence));
+                if (record.text.equals("before")) {
+                    lastBefore = Math.max(lastBefore, record.sequence);
+                } else {
+                    firstAfter = Math.min(firstAfter, record.sequence);
+                }
+            }
+            assertEquals((long) threads * perThread, firstAfter);
+            assertTrue(lastBefore < firstAfter);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void staleHeaderCounterIsIgnoredOnReopen() throws Exception {
+        File file = File.createTempFile("flight", ".bin");
+        try {
+            FlightRecorder recorder = FlightRecorder.open(file, 16);
+            for (int i = 0; i < 10; i++) {
+                recorder.recordStat("sample", i, 0f);
+            }
+            // What a slower writer used to leave behind: a counter below the committed records
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(16);
+                raf.write(new byte[8]);
+            }
+
+            assertEquals(10, FlightRecorder.open(file, 16).getRecordCount());
+        } finally {
+            file.delete();
+        }
+    }
+}
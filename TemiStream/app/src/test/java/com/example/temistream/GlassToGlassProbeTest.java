@@ -0,0 +1,112 @@
+package com.example.temistream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GlassToGlassProbeTest {
+
+    private static final long FRAME_NS = 33_333_333L;
+    // Random per-stream offset chosen by WebRTC, close to wrapping
+    private static final long RTP_OFFSET = 0xFFFF0000L;
+
+    private long nowNs = 5_000_000_000L;
+    private final GlassToGlassProbe probe = new GlassToGlassProbe(() -> nowNs);
+
+    /** Capture times in ms of the frames the probe let through. */
+    private final List<Long> sentCaptureMs = new ArrayList<>();
+
+    private void captureFrames(int count) {
+        for (int i = 0; i < count; i++) {
+            nowNs += FRAME_NS;
+            // Frames reach the processor 5 ms after exposure
+            long captureNs = nowNs - 5_000_000L;
+            if (probe.onFrameCaptured(captureNs)) {
+                sentCaptureMs.add(captureNs / 1_000_000);
+            }
+        }
+    }
+
+    /**
+     * Echoes every sent frame as shown {@code displayDelayMs} after capture, with the batch
+     * taking {@code echoDelayMs} to reach the robot.
+     */
+    private void echo(long displayDelayMs, long echoDelayMs) throws Exception {
+        long sentAtMs = nowNs / 1_000_000 + displayDelayMs;
+        JSONArray frames = new JSONArray();
+        long presented = 0;
+        for (long captureMs : sentCaptureMs) {
+            long rtp = (RTP_OFFSET + captureMs * 90) & 0xFFFFFFFFL;
+            long ageMs = sentAtMs - (captureMs + displayDelayMs);
+            frames.put(new JSONArray().put(rtp).put(++presented).put(ageMs));
+        }
+        sentCaptureMs.clear();
+        nowNs = (sentAtMs + echoDelayMs) * 1_000_000L;
+        probe.onEcho(frames);
+    }
+
+    @Test
+    public void markerDropsTwoFramesInPattern() {
+        probe.setEnabled(true);
+        int kept = 0;
+        for (int i = 0; i < 6; i++) {
+            nowNs += FRAME_NS;
+            if (probe.onFrameCaptured(nowNs)) {
+                kept++;
+            }
+        }
+        assertEquals(4, kept);
+        for (int i = 0; i < GlassToGlassProbe.MARKER_INTERVAL_FRAMES - 1; i++) {
+            nowNs += FRAME_NS;
+            assertTrue(probe.onFrameCaptured(nowNs));
+        }
+    }
+
+    @Test
+    public void disabledProbeKeepsEveryFrame() {
+        for (int i = 0; i < 100; i++) {
+            nowNs += FRAME_NS;
+            assertTrue(probe.onFrameCaptured(nowNs));
+        }
+    }
+
+    @Test
+    public void locksOnMarkerAndMeasuresLatency() throws Exception {
+        probe.setEnabled(true);
+        nowNs += 1_000_000L;
+        double pingTime = probe.pingTime();
+        nowNs += 20_000_000L;
+        probe.onPong(pingTime);
+
+        captureFrames(20);
+        assertFalse(probe.isLocked());
+        // Capture to display is 120 ms; the echo takes 10 ms, half the control RTT
+        echo(120, 10);
+        assertTrue(probe.isLocked());
+
+        captureFrames(20);
+        echo(120, 10);
+        JSONObject stats = probe.getStats();
+        assertTrue(stats.getLong("samples") >= 20);
+        assertEquals(20.0, stats.getDouble("controlRttMs"), 0.01);
+        assertEquals(120, stats.getDouble("p50Ms"), 2);
+        assertEquals(120, stats.getDouble("maxMs"), 2);
+        assertEquals(120, probe.getLatestMs(), 2);
+    }
+
+    @Test
+    public void echoesWithoutMarkerDoNotLock() throws Exception {
+        probe.setEnabled(true);
+        captureFrames(20);
+        // The batch starts after the marker's gaps
+        sentCaptureMs.subList(0, 3).clear();
+        echo(100, 10);
+        assertFalse(probe.isLocked());
+        assertEquals(0, probe.getStats().getLong("samples"));
+    }
+}
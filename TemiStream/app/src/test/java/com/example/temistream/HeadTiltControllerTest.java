@@ -0,0 +1,107 @@
+package com.example.temistream;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HeadTiltControllerTest {
+
+    private final VirtualScheduler scheduler = new VirtualScheduler();
+    private final SimulatedRobot robot = new SimulatedRobot(scheduler, new SimulatedRobot.Config());
+    private final List<Long> issueTimesMs = new ArrayList<>();
+    private final HeadTiltController controller = new HeadTiltController(degrees -> {
+        issueTimesMs.add(scheduler.nowMillis());
+        robot.tiltAngle(degrees);
+    }, scheduler, RobotCommandHandler.MIN_TILT_ANGLE, RobotCommandHandler.MAX_TILT_ANGLE, scheduler::nowNanos);
+
+    @Test
+    public void heldKeyCollapsesIntoFewSpacedCalls() {
+        // A tilt key held for 200ms, repeating every 10ms
+        for (int i = 0; i < 20; i++) {
+            controller.stepTarget(1);
+            scheduler.runFor(10, TimeUnit.MILLISECONDS);
+        }
+        scheduler.runFor(500, TimeUnit.MILLISECONDS);
+
+        List<Integer> calls = robot.getTiltCalls();
+        assertTrue("calls: " + calls, calls.size() <= 3);
+        assertEquals(Integer.valueOf(20), calls.get(calls.size() - 1));
+        assertEquals(calls.size(), controller.getIssuedCount());
+        assertTrue(controller.getCoalescedCount() > 0);
+        for (int i = 1; i < issueTimesMs.size(); i++) {
+            assertTrue("spacing " + issueTimesMs, issueTimesMs.get(i) - issueTimesMs.get(i - 1)
+                    >= HeadTiltController.MIN_ISSUE_INTERVAL_MS);
+        }
+    }
+
+    @Test
+    public void firstTargetIsSentRightAway() {
+        controller.setTarget(30);
+        scheduler.runFor(1, TimeUnit.MILLISECONDS);
+        assertEquals(1, robot.getTiltCalls().size());
+        assertEquals(Long.valueOf(0), issueTimesMs.get(0));
+    }
+
+    @Test
+    public void targetsAreClampedToTheHeadRange() {
+        assertEquals(RobotCommandHandler.MAX_TILT_ANGLE, controller.setTarget(100));
+        assertEquals(RobotCommandHandler.MIN_TILT_ANGLE, controller.stepTarget(-200));
+        assertEquals(RobotCommandHandler.MIN_TILT_ANGLE, controller.stepTarget(-10));
+        scheduler.runFor(1, TimeUnit.SECONDS);
+
+        for (int degrees : robot.getTiltCalls()) {
+            assertTrue(degrees >= RobotCommandHandler.MIN_TILT_ANGLE
+                    && degrees <= RobotCommandHandler.MAX_TILT_ANGLE);
+        }
+        assertEquals(Integer.valueOf(RobotCommandHandler.MIN_TILT_ANGLE),
+                robot.getTiltCalls().get(robot.getTiltCalls().size() - 1));
+    }
+
+    @Test
+    public void unchangedTargetIsNotSentAgain() {
+        controller.setTarget(10);
+        scheduler.runFor(200, TimeUnit.MILLISECONDS);
+        controller.setTarget(10);
+        controller.stepTarget(0);
+        scheduler.runFor(1, TimeUnit.SECONDS);
+        assertEquals(1, robot.getTiltCalls().size());
+        assertEquals(0, controller.getCoalescedCount());
+    }
+
+    @Test
+    public void estimateSlewsTowardsTheTargetAndSettles() {
+        VirtualScheduler bare = new VirtualScheduler();
+        List<Integer> calls = new ArrayList<>();
+        HeadTiltController head = new HeadTiltController(calls::add, bare,
+                RobotCommandHandler.MIN_TILT_ANGLE, RobotCommandHandler.MAX_TILT_ANGLE, bare::nowNanos);
+
+        head.setTarget(45);
+        bare.runFor(250, TimeUnit.MILLISECONDS);
+        // 90 degrees a second from the moment the call went out
+        assertEquals(22, head.getEstimatedAngle(), 1);
+
+        bare.runFor(500, TimeUnit.MILLISECONDS);
+        assertEquals(45, head.getEstimatedAngle());
+
+        // Once settled the model stops ticking
+        long executed = bare.getExecutedCount();
+        bare.runFor(5, TimeUnit.SECONDS);
+        assertEquals(executed, bare.getExecutedCount());
+        assertEquals(1, calls.size());
+    }
+
+    @Test
+    public void resetMovesTheModelWithoutMovingTheHead() {
+        controller.resetTo(20);
+        scheduler.runFor(1, TimeUnit.SECONDS);
+        assertEquals(20, controller.getEstimatedAngle());
+        assertEquals(20, controller.getTargetAngle());
+        assertTrue(robot.getTiltCalls().isEmpty());
+
+        assertEquals(25, controller.stepTarget(5));
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.temistream;
+
+import org.junit.Test;
+import org.webrtc.PeerConnection.IceConnectionState;
+import org.webrtc.RTCStats;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class IcePathMonitorTest {
+
+    private final VirtualScheduler scheduler = new VirtualScheduler();
+    private final List<String> fallbacks = new ArrayList<>();
+    private final List<Integer> fallbackGenerations = new ArrayList<>();
+    private final List<IcePathMonitor.Path> paths = new ArrayList<>();
+    private final IcePathMonitor monitor = new IcePathMonitor(scheduler, new IcePathMonitor.Listener() {
+        @Override
+        public void onRelayFallback(String reason, int generation) {
+            fallbacks.add(reason);
+            fallbackGenerations.add(generation);
+        }
+
+        @Override
+        public void onPathChanged(IcePathMonitor.Path path) {
+            paths.add(path);
+        }
+    });
+
+    @Test
+    public void fallsBackWhenNotConnectedInTime() {
+        monitor.onSessionStart(true, 1);
+        monitor.onIceConnectionChange(IceConnectionState.CHECKING);
+        scheduler.runFor(IcePathMonitor.DIRECT_TIMEOUT_MS - 1, TimeUnit.MILLISECONDS);
+        assertTrue(fallbacks.isEmpty());
+
+        scheduler.runFor(1, TimeUnit.MILLISECONDS);
+        assertEquals(List.of("direct_timeout"), fallbacks);
+        assertTrue(monitor.isRelayNeeded());
+
+        // Checks after the restart do not fall back again
+        monitor.onIceConnectionChange(IceConnectionState.CHECKING);
+        monitor.onIceConnectionChange(IceConnectionState.FAILED);
+        scheduler.runFor(10, TimeUnit.SECONDS);
+        assertEquals(1, fallbacks.size());
+    }
+
+    @Test
+    public void directConnectionCancelsTheTimeout() {
+        monitor.onSessionStart(true, 1);
+        monitor.onIceConnectionChange(IceConnectionState.CHECKING);
+        scheduler.runFor(2, TimeUnit.SECONDS);
+        monitor.onIceConnectionChange(IceConnectionState.CONNECTED);
+        scheduler.runFor(10, TimeUnit.SECONDS);
+
+        assertTrue(fallbacks.isEmpty());
+        assertFalse(monitor.isRelayNeeded());
+    }
+
+    @Test
+    public void failureFallsBackImmediately() {
+        monitor.onSessionStart(true, 1);
+        monitor.onIceConnectionChange(IceConnectionState.CHECKING);
+        monitor.onIceConnectionChange(IceConnectionState.FAILED);
+        assertEquals(List.of("ice_failed"), fallbacks);
+
+        scheduler.runFor(10, TimeUnit.SECONDS);
+        assertEquals(1, fallbacks.size());
+    }
+
+    @Test
+    public void fallbackCarriesTheSessionItWasArmedFor() {
+        monitor.onSessionStart(true, 3);
+        monitor.onIceConnectionChange(IceConnectionState.CHECKING);
+        scheduler.runFor(IcePathMonitor.DIRECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertEquals(List.of(3), fallbackGenerations);
+
+        // A later session with TURN held back again reports as itself
+        monitor.onSessionStart(true, 4);
+        monitor.onIceConnectionChange(IceConnectionState.FAILED);
+        assertEquals(List.of(3, 4), fallbackGenerations);
+    }
+
+    @Test
+    public void sessionWithTurnNeverFallsBack() {
+        monitor.onSessionStart(false, 1);
+        monitor.onIceConnectionChange(IceConnectionState.CHECKING);
+        monitor.onIceConnectionChange(IceConnectionState.FAILED);
+        scheduler.runFor(10, TimeUnit.SECONDS);
+        assertTrue(fallbacks.isEmpty());
+    }
+
+    @Test
+    public void reportsSelectedPairOnlyWhenItChanges() {
+        Map<String, RTCStats> report = report("L1", "srflx", null, "R1", "host", 0.042);
+        monitor.onStats(report);
+        monitor.onStats(report("L1", "srflx", null, "R1", "host", 0.050));
+        assertEquals(1, paths.size());
+        IcePathMonitor.Path path = paths.get(0);
+        assertEquals("srflx", path.localType);
+        assertEquals("host", path.remoteType);
+        assertEquals(42, path.rttMs);
+        assertFalse(path.isRelay());
+
+        monitor.onStats(report("L2", "relay", "tls", "R1", "host", 0.090));
+        assertEquals(2, paths.size());
+        assertTrue(paths.get(1).isRelay());
+        assertEquals("relay/host udp via tls relay", paths.get(1).describe());
+    }
+
+    private static Map<String, RTCStats> report(String localId, String localType, String relayProtocol,
+                                                String remoteId, String remoteType, double rttSeconds) {
+        Map<String, RTCStats> report = new HashMap<>();
+        Map<String, Object> local = new HashMap<>();
+        local.put("candidateType", localType);
+        local.put("protocol", "udp");
+        if (relayProtocol != null) {
+            local.put("relayProtocol", relayProtocol);
+        }
+        report.put(localId, new RTCStats(0, "local-candidate", localId, local));
+        report.put(remoteId, new RTCStats(0, "remote-candidate", remoteId,
+                new HashMap<>(Map.of("candidateType", remoteType, "protocol", "udp"))));
+        Map<String, Object> pair = new HashMap<>();
+        pair.put("localCandidateId", localId);
+        pair.put("remoteCandidateId", remoteId);
+        pair.put("currentRoundTripTime", rttSeconds);
+        report.put("CP1", new RTCStats(0, "candidate-pair", "CP1", pair));
+        report.put("T1", new RTCStats(0, "transport", "T1",
+                new HashMap<>(Map.of("selectedCandidatePairId", "CP1"))));
+        return report;
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.temistream;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class IceServerConfigTest {
+
+    private static IceServerConfig parse(String json) throws Exception {
+        return IceServerConfig.parse(new JSONObject(json), "test");
+    }
+
+    @Test
+    public void splitsStunAndTurnUrlsOfOneEntry() throws Exception {
+        IceServerConfig config = parse("{\"iceServers\": [{\"urls\": [\"stun:turn.example.com:3478\","
+                + " \"turn:turn.example.com:3478?transport=udp\", \"turns:turn.example.com:5349\"],"
+                + " \"username\": \"u\", \"credential\": \"p\"}]}");
+
+        assertEquals(2, config.servers.size());
+        assertFalse(config.servers.get(0).isTurn());
+        assertNull(config.servers.get(0).username);
+        assertTrue(config.servers.get(1).isTurn());
+        assertEquals(2, config.servers.get(1).urls.size());
+        assertEquals(IceServerConfig.Policy.PREFER_DIRECT, config.policy);
+        assertTrue(config.startsDirect());
+        assertEquals(1, config.toIceServers(false).size());
+        assertEquals(2, config.toIceServers(true).size());
+    }
+
+    @Test
+    public void upperCaseTurnUrlsAreLeftOutOfTheDirectStage() throws Exception {
+        IceServerConfig config = parse("{\"iceServers\": [{\"urls\": [\"STUN:turn.example.com:3478\","
+                + " \"TURN:turn.example.com:3478\", \"Turns:turn.example.com:5349\"],"
+                + " \"username\": \"u\", \"credential\": \"p\"}]}");
+
+        assertEquals(2, config.servers.size());
+        assertFalse(config.servers.get(0).isTurn());
+        assertTrue(config.servers.get(1).isTurn());
+        assertTrue(config.startsDirect());
+        assertEquals(1, config.toIceServers(false).size());
+        assertEquals(2, config.toIceServers(true).size());
+    }
+
+    @Test
+    public void singleUrlStringAndPolicy() throws Exception {
+        IceServerConfig config = parse("{\"iceServers\": [{\"urls\": \"stun:stun.example.com\"}],"
+                + " \"icePolicy\": \"all\"}");
+        assertEquals(1, config.servers.size());
+        assertEquals(IceServerConfig.Policy.ALL, config.policy);
+        assertFalse(config.startsDirect());
+    }
+
+    @Test
+    public void stunOnlyConfigurationDoesNotStageAnything() {
+        assertFalse(IceServerConfig.DEFAULT.hasTurn());
+        assertFalse(IceServerConfig.DEFAULT.startsDirect());
+    }
+
+    @Test
+    public void rejectsInvalidEntries() throws Exception {
+        assertInvalid("{\"iceServers\": [{\"urls\": \"turn:turn.example.com\"}]}");
+        assertInvalid("{\"iceServers\": [{\"urls\": \"http://example.com\"}]}");
+        assertInvalid("{\"iceServers\": []}");
+        assertInvalid("{\"iceServers\": [{\"urls\": \"stun:s\"}], \"icePolicy\": \"sometimes\"}");
+    }
+
+    @Test
+    public void descriptionHasNoCredentials() throws Exception {
+        IceServerConfig config = parse("{\"iceServers\": [{\"urls\": \"turn:t.example.com\","
+                + " \"username\": \"user\", \"credential\": \"secret\"}], \"icePolicy\": \"relay\"}");
+        String description = config.describe().toString();
+        assertTrue(description.contains("turn:t.example.com"));
+        assertTrue(description.contains("\"policy\":\"relay\""));
+        assertFalse(description.contains("secret"));
+        assertFalse(description.contains("user"));
+    }
+
+    private static void assertInvalid(String json) throws Exception {
+        try {
+            parse(json);
+            fail("Accepted " + json);
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+}
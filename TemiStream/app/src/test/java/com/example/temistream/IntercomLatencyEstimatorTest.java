@@ -0,0 +1,34 @@
+package com.example.temistream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class IntercomLatencyEstimatorTest {
+
+    @Test
+    public void jitterBufferIsAveragedOverEachIntervalAndHeldThroughSilence() {
+        IntercomLatencyEstimator estimator = new IntercomLatencyEstimator();
+        estimator.update(-1, -1, 0.08, 20);
+        assertEquals("nothing received yet", -1, estimator.getEstimateMs());
+
+        // 48000 samples that each waited 60 ms on average
+        estimator.update(2880.0, 48000, 0.08, 20);
+        assertEquals(60, estimator.getJitterBufferMs());
+        int fixed = IntercomLatencyEstimator.CAPTURE_BUFFER_MS + 20 + IntercomLatencyEstimator.PLAYOUT_BUFFER_MS;
+        assertEquals(fixed + 40 + 60, estimator.getEstimateMs());
+
+        // The next 96000 samples waited 100 ms: the interval counts, not the lifetime average
+        estimator.update(2880.0 + 9600.0, 144000, 0.12, 20);
+        assertEquals(100, estimator.getJitterBufferMs());
+        assertEquals(fixed + 60 + 100, estimator.getEstimateMs());
+
+        // DTX silence: nothing emitted, estimate unchanged apart from the network
+        estimator.update(2880.0 + 9600.0, 144000, 0.2, 20);
+        assertEquals(100, estimator.getJitterBufferMs());
+        assertEquals(fixed + 100 + 100, estimator.getEstimateMs());
+
+        estimator.reset();
+        assertEquals(-1, estimator.getEstimateMs());
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.temistream;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a command trace against a {@link RobotCommandHandler} in virtual time and measures
+ * how long each command takes to be answered.
+ *
+ * Commands are injected through {@link RobotCommandHandler#onMessage} exactly as the viewer
+ * would send them, and answers are captured by an in-memory {@link MessageChannel}. Latency is
+ * virtual time from injection to the matching {@code robot_response}, so it reflects admission
+ * queueing and simulated SDK call cost but not JVM speed; {@link Result#wallNanos} gives the
+ * real CPU cost of the replay.
+ */
+final class LoadGenerator {
+
+    static final class TraceEntry {
+        final long atMs;
+        final String command;
+        final JSONObject params;
+
+        TraceEntry(long atMs, String command, JSONObject params) {
+            this.atMs = atMs;
+            this.command = command;
+            this.params = params;
+        }
+    }
+
+    static final class Result {
+        final int sent;
+        final int answered;
+        final int succeeded;
+        final long virtualDurationMs;
+        final long wallNanos;
+        final long[] latenciesMs;
+        final Map<String, Long> maxLatencyByCommandMs;
+
+        Result(int sent, int answered, int succeeded, long virtualDurationMs, long wallNanos,
+               long[] latenciesMs, Map<String, Long> maxLatencyByCommandMs) {
+            this.sent = sent;
+            this.answered = answered;
+            this.succeeded = succeeded;
+            this.virtualDurationMs = virtualDurationMs;
+            this.wallNanos = wallNanos;
+            this.latenciesMs = latenciesMs;
+            this.maxLatencyByCommandMs = maxLatencyByCommandMs;
+        }
+
+        /** Nearest-rank percentile of answered commands, e.g. 0.99 for p99. */
+        long percentileMs(double fraction) {
+            if (latenciesMs.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(fraction * latenciesMs.length);
+            return latenciesMs[Math.max(0, Math.min(latenciesMs.length, rank) - 1)];
+        }
+
+        double commandsPerSecond() {
+            return virtualDurationMs > 0 ? answered * 1000.0 / virtualDurationMs : 0;
+        }
+
+        long wallNanosPerCommand() {
+            return sent > 0 ? wallNanos / sent : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("sent=%d answered=%d ok=%d throughput=%.1f cmd/s p50=%dms p99=%dms max=%dms wall=%dns/cmd",
+                    sent, answered, succeeded, commandsPerSecond(), percentileMs(0.5), percentileMs(0.99),
+                    percentileMs(1.0), wallNanosPerCommand());
+        }
+    }
+
+    private final VirtualScheduler scheduler;
+    private final RobotCommandHandler handler;
+    private final List<JSONObject> sentMessages = new ArrayList<>();
+    private final Map<String, Long> sentAtNanos = new HashMap<>();
+    private final Map<String, String> commandById = new HashMap<>();
+    private final List<Long> latencies = new ArrayList<>();
+    private final Map<String, Long> maxLatencyByCommand = new HashMap<>();
+    private int answered;
+    private int succeeded;
+
+    LoadGenerator(VirtualScheduler scheduler, RobotCommandHandler handler) {
+        this.scheduler = scheduler;
+        this.handler = handler;
+        handler.setChannel(new MessageChannel() {
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public boolean send(ByteBuffer data, boolean binary) {
+                byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+                onSent(new String(bytes, StandardCharsets.UTF_8));
+                return true;
+            }
+
+            @Override
+            public long bufferedAmount() {
+                return 0;
+            }
+        });
+    }
+
+    static TraceEntry at(long atMs, String command, JSONObject params) {
+        return new TraceEntry(atMs, command, params);
+    }
+
+    static JSONObject params(Object... keysAndValues) {
+        JSONObject params = new JSONObject();
+        try {
+            for (int i = 0; i < keysAndValues.length; i += 2) {
+                params.put((String) keysAndValues[i], keysAndValues[i + 1]);
+            }
+        } catch (JSONException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return params;
+    }
+
+    /** Parses a trace with one {@code {"atMs":..,"command":..,"params":{..}}} object per line. */
+    static List<TraceEntry> parseTrace(String lines) throws JSONException {
+        List<TraceEntry> trace = new ArrayList<>();
+        for (String line : lines.split("\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            JSONObject entry = new JSONObject(line);
+            trace.add(at(entry.getLong("atMs"), entry.getString("command"), entry.optJSONObject("params")));
+        }
+        return trace;
+    }
+
+    /**
+     * A teleoperation session: a driver holding arrow keys (one move every 200 ms, as the
+     * viewer repeats them), bursts of tilt clicks, occasional speech and location requests,
+     * ending in an emergency stop.
+     */
+    static List<TraceEntry> teleopSession(int seconds) {
+        List<TraceEntry> trace = new ArrayList<>();
+        String[] directions = {"forward", "left", "forward", "right", "backward"};
+        long endMs = seconds * 1000L;
+        for (long t = 0; t < endMs; t += 200) {
+            String direction = directions[(int) (t / 3000) % directions.length];
+            trace.add(at(t, "move", params("direction", direction)));
+        }
+        for (long t = 500; t < endMs; t += 4000) {
+            for (int i = 0; i < 12; i++) {
+                trace.add(at(t + i * 15, i % 2 == 0 ? "tilt_up" : "tilt_down", params("angle", 5)));
+            }
+        }
+        for (long t = 1000; t < endMs; t += 2500) {
+            trace.add(at(t, "speak", params("text", "Hello at " + t)));
+        }
+        for (long t = 1500; t < endMs; t += 5000) {
+            trace.add(at(t, "go_to_location", params("location", "kitchen")));
+            trace.add(at(t + 100, "get_locations", null));
+        }
+        trace.add(at(endMs, "emergency_stop", null));
+        trace.sort((a, b) -> Long.compare(a.atMs, b.atMs));
+        return trace;
+    }
+
+    /**
+     * Schedules every trace entry relative to now, runs the simulation until
+     * {@code drainMs} after the last entry and returns the measurements.
+     */
+    Result run(List<TraceEntry> trace, long drainMs) {
+        long startNanos = scheduler.nowNanos();
+        long lastAtMs = 0;
+        int index = 0;
+        for (TraceEntry entry : trace) {
+            String commandId = entry.command + "-" + index++;
+            scheduler.schedule(() -> inject(entry, commandId), entry.atMs, TimeUnit.MILLISECONDS);
+            lastAtMs = Math.max(lastAtMs, entry.atMs);
+        }
+
+        long wallStart = System.nanoTime();
+        scheduler.runUntil(startNanos + TimeUnit.MILLISECONDS.toNanos(lastAtMs + drainMs));
+        long wallNanos = System.nanoTime() - wallStart;
+
+        long[] sorted = new long[latencies.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+        return new Result(trace.size(), answered, succeeded, lastAtMs, wallNanos, sorted,
+                new HashMap<>(maxLatencyByCommand));
+    }
+
+    /** Every message the handler sent, in order. */
+    List<JSONObject> getSentMessages() {
+        return sentMessages;
+    }
+
+    private void inject(TraceEntry entry, String commandId) {
+        try {
+            JSONObject message = new JSONObject();
+            message.put("type", "robot_command");
+            message.put("command", entry.command);
+            if (entry.params != null) {
+                message.put("params", entry.params);
+            }
+            message.put("commandId", commandId);
+            sentAtNanos.put(commandId, scheduler.nowNanos());
+            commandById.put(commandId, entry.command);
+            handler.onMessage(ByteBuffer.wrap(message.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void onSent(String text) {
+        JSONObject message;
+        try {
+            message = new JSONObject(text);
+        } catch (JSONException e) {
+            throw new AssertionError("Handler sent invalid JSON: " + text, e);
+        }
+        sentMessages.add(message);
+        if (!message.optString("type").equals("robot_response")) {
+            return;
+        }
+        Long sentAt = sentAtNanos.remove(message.optString("commandId"));
+        if (sentAt == null) {
+            return;
+        }
+        long latencyMs = TimeUnit.NANOSECONDS.toMillis(scheduler.nowNanos() - sentAt);
+        latencies.add(latencyMs);
+        maxLatencyByCommand.merge(commandById.get(message.optString("commandId")), latencyMs, Math::max);
+        answered++;
+        if (message.optBoolean("success")) {
+            succeeded++;
+        }
+    }
+}
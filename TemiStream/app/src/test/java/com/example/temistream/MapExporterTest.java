@@ -0,0 +1,198 @@
+package com.example.temistream;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.*;
+
+public class MapExporterTest {
+
+    /** Channel with unlimited capacity that reassembles every transfer it carries. */
+    private static final class RecordingChannel implements MessageChannel {
+        final List<JSONObject> json = new ArrayList<>();
+        final Map<Integer, ByteArrayOutputStream> payloads = new HashMap<>();
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public boolean send(ByteBuffer data, boolean binary) {
+            if (binary) {
+                int id = data.getInt();
+                data.getInt();
+                byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+                payloads.computeIfAbsent(id, key -> new ByteArrayOutputStream()).write(bytes, 0, bytes.length);
+            } else {
+                byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+                try {
+                    json.add(new JSONObject(new String(bytes, StandardCharsets.UTF_8)));
+                } catch (JSONException e) {
+                    throw new AssertionError(e);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public long bufferedAmount() {
+            return 0;
+        }
+    }
+
+    private final VirtualScheduler scheduler = new VirtualScheduler();
+    private final RecordingChannel channel = new RecordingChannel();
+    private final ChunkedTransferSender sender = new ChunkedTransferSender(scheduler);
+    private final List<JSONObject> manifests = new ArrayList<>();
+    private final List<String> errors = new ArrayList<>();
+    private RobotGateway.MapData map;
+    private int mapReads;
+
+    private final MapExporter exporter = new MapExporter(() -> {
+        mapReads++;
+        return map;
+    }, sender, Runnable::run, new MapExporter.Listener() {
+        @Override
+        public void onManifest(JSONObject manifest) {
+            manifests.add(manifest);
+        }
+
+        @Override
+        public void onExportFailed(String error) {
+            errors.add(error);
+        }
+    }, scheduler::nowNanos);
+
+    /** A 520x384 map: unknown everywhere except a walled room near one corner. */
+    private static RobotGateway.MapData roomMap() {
+        int width = 520;
+        int height = 384;
+        byte[] cells = new byte[width * height];
+        Arrays.fill(cells, (byte) -1);
+        for (int y = 40; y < 160; y++) {
+            for (int x = 100; x < 220; x++) {
+                boolean wall = y == 40 || y == 159 || x == 100 || x == 219;
+                cells[y * width + x] = (byte) (wall ? 100 : 0);
+            }
+        }
+        return new RobotGateway.MapData("map-1", width, height, 0.05f, -5f, -3f, cells,
+                List.of(new RobotGateway.LocationPose("kitchen", 1.5f, 2f, 0.5f)));
+    }
+
+    private static byte[] inflate(byte[] compressed, int size) throws Exception {
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        byte[] out = new byte[size];
+        int length = inflater.inflate(out);
+        assertTrue(inflater.finished());
+        inflater.end();
+        assertEquals(size, length);
+        return out;
+    }
+
+    @Test
+    public void manifestCoversMapWithEdgeTilesAndLocations() throws Exception {
+        map = roomMap();
+        exporter.requestManifest(false);
+
+        assertEquals(1, manifests.size());
+        JSONObject manifest = manifests.get(0);
+        assertEquals("map_manifest", manifest.getString("type"));
+        assertEquals(520, manifest.getInt("width"));
+        assertEquals(MapExporter.TILE_SIZE, manifest.getInt("tileSize"));
+        // 5 columns by 3 rows, the last column only 8 cells wide
+        assertEquals(15, manifest.getJSONArray("tiles").length());
+        // Four tiles of the room, one for all-unknown space and one for the unknown edge
+        assertEquals(6, manifest.getInt("uniqueTiles"));
+        JSONObject kitchen = manifest.getJSONArray("locations").getJSONObject(0);
+        assertEquals("kitchen", kitchen.getString("name"));
+        assertEquals(1.5, kitchen.getDouble("x"), 1e-6);
+    }
+
+    @Test
+    public void tilesRoundTripAndIdenticalTilesAreSentOnce() throws Exception {
+        map = roomMap();
+        exporter.requestManifest(false);
+        JSONArray hashes = manifests.get(0).getJSONArray("tiles");
+        sender.setChannel(channel);
+
+        int queued = exporter.sendTiles(hashes);
+        scheduler.runFor(1, TimeUnit.SECONDS);
+        assertEquals("duplicate hashes are sent once", manifests.get(0).getInt("uniqueTiles"), queued);
+        assertTrue(queued < hashes.length());
+
+        // Rebuild the map from what went over the channel
+        Map<String, byte[]> received = new HashMap<>();
+        for (JSONObject message : channel.json) {
+            if (message.getString("type").equals("transfer_begin")) {
+                assertEquals("map_tile", message.getString("kind"));
+                JSONObject meta = message.getJSONObject("meta");
+                byte[] compressed = channel.payloads.get(message.getInt("transferId")).toByteArray();
+                received.put(meta.getString("hash"),
+                        inflate(compressed, meta.getInt("width") * meta.getInt("height")));
+            }
+        }
+        int cols = 5;
+        for (int i = 0; i < hashes.length(); i++) {
+            byte[] tile = received.get(hashes.getString(i));
+            int x0 = (i % cols) * MapExporter.TILE_SIZE;
+            int y0 = (i / cols) * MapExporter.TILE_SIZE;
+            int width = Math.min(MapExporter.TILE_SIZE, map.width - x0);
+            for (int j = 0; j < tile.length; j++) {
+                assertEquals(map.cells[(y0 + j / width) * map.width + x0 + j % width], tile[j]);
+            }
+        }
+    }
+
+    @Test
+    public void onlyRequestedKnownTilesAreSent() throws Exception {
+        map = roomMap();
+        exporter.requestManifest(false);
+        sender.setChannel(channel);
+        JSONArray hashes = manifests.get(0).getJSONArray("tiles");
+
+        JSONArray missing = new JSONArray().put(hashes.getString(4)).put("0123456789abcdef0123456789abcdef");
+        assertEquals(1, exporter.sendTiles(missing));
+        scheduler.runFor(1, TimeUnit.SECONDS);
+        assertEquals(1, exporter.getStats().getLong("tilesSent"));
+    }
+
+    @Test
+    public void exportIsReusedUntilStaleOrRefreshed() {
+        map = roomMap();
+        exporter.requestManifest(false);
+        exporter.requestManifest(false);
+        assertEquals(1, mapReads);
+
+        exporter.requestManifest(true);
+        assertEquals(2, mapReads);
+
+        scheduler.runFor(MapExporter.CACHE_TTL_MS + 1, TimeUnit.MILLISECONDS);
+        exporter.requestManifest(false);
+        assertEquals(3, mapReads);
+        assertEquals(4, manifests.size());
+    }
+
+    @Test
+    public void missingMapIsReported() {
+        exporter.requestManifest(false);
+        assertTrue(manifests.isEmpty());
+        assertEquals(1, errors.size());
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.temistream;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MotionAdaptiveFramerateTest {
+
+    private static final long FRAME_NANOS = 33_333_334;
+
+    private long nowNanos = 5_000_000_000L;
+    private final List<String> changes = new ArrayList<>();
+    private final MotionAdaptiveFramerate adaptive = new MotionAdaptiveFramerate(frame -> false, () -> false,
+            (still, reason) -> changes.add(reason), () -> nowNanos);
+
+    /** Captures {@code frames} frames at 30 fps; returns how many reach the encoder. */
+    private int capture(int frames, boolean moving, boolean scene) {
+        int accepted = 0;
+        for (int i = 0; i < frames; i++) {
+            nowNanos += FRAME_NANOS;
+            if (adaptive.onFrameCaptured(moving, scene)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    @Test
+    public void dropsToStillRateAfterTwoQuietSeconds() {
+        assertEquals(60, capture(60, false, false));
+        assertFalse(adaptive.isStill());
+
+        // Ten seconds at 2 fps, plus the frame that starts the still period
+        assertEquals(21, capture(300, false, false));
+        assertTrue(adaptive.isStill());
+        assertEquals(List.of("still"), changes);
+    }
+
+    @Test
+    public void firstFrameWithMotionRestoresFullRate() {
+        capture(120, false, false);
+        assertTrue(adaptive.isStill());
+
+        nowNanos += FRAME_NANOS;
+        assertTrue(adaptive.onFrameCaptured(false, true));
+        assertFalse(adaptive.isStill());
+        assertEquals(30, capture(30, false, false));
+
+        capture(90, false, false);
+        nowNanos += FRAME_NANOS;
+        assertTrue(adaptive.onFrameCaptured(true, false));
+        assertEquals(List.of("still", "scene", "still", "robot"), changes);
+    }
+
+    @Test
+    public void robotMovementKeepsFullRate() {
+        assertEquals(300, capture(300, true, false));
+        assertFalse(adaptive.isStill());
+    }
+
+    @Test
+    public void reportsSavings() throws Exception {
+        long bytes = 0;
+        adaptive.onBytesSent(bytes);
+        for (int second = 0; second < 10; second++) {
+            capture(30, true, false);
+            adaptive.onBytesSent(bytes += 125_000);
+        }
+        for (int second = 0; second < 12; second++) {
+            capture(30, false, false);
+            adaptive.onBytesSent(bytes += second < 2 ? 125_000 : 12_500);
+        }
+
+        JSONObject stats = adaptive.getStats();
+        assertEquals(1000, stats.getLong("activeKbps"));
+        assertEquals(100, stats.getLong("stillKbps"));
+        // Still from the 60th quiet frame on
+        assertEquals(10, stats.getLong("stillSeconds"));
+        // 900 kbps for those 10 s
+        assertEquals(1125, stats.getLong("savedKBytes"));
+        // 301 still frames, one in 15 encoded
+        assertEquals(301 - 21, stats.getLong("encodesAvoided"));
+    }
+
+    @Test
+    public void detectorIgnoresBrightnessShiftsButSeesMotion() {
+        MotionDetector detector = new MotionDetector();
+        byte[] plane = new byte[MotionDetector.WIDTH * MotionDetector.HEIGHT];
+        for (int i = 0; i < plane.length; i++) {
+            plane[i] = (byte) (60 + i % 50);
+        }
+        assertTrue(detector.compare(ByteBuffer.wrap(plane), MotionDetector.WIDTH));
+        assertFalse(detector.compare(ByteBuffer.wrap(plane), MotionDetector.WIDTH));
+
+        // Auto-exposure brightens everything
+        for (int i = 0; i < plane.length; i++) {
+            plane[i] = (byte) ((plane[i] & 0xFF) + 30);
+        }
+        assertFalse(detector.compare(ByteBuffer.wrap(plane), MotionDetector.WIDTH));
+
+        // Something 8x8 pixels large moves in
+        for (int y = 10; y < 18; y++) {
+            for (int x = 20; x < 28; x++) {
+                plane[y * MotionDetector.WIDTH + x] = (byte) 250;
+            }
+        }
+        assertTrue(detector.compare(ByteBuffer.wrap(plane), MotionDetector.WIDTH));
+    }
+}
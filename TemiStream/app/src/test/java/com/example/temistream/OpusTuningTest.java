@@ -0,0 +1,53 @@
+package com.example.temistream;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OpusTuningTest {
+
+    private static final String OFFER = "v=0\r\n"
+            + "o=- 1 2 IN IP4 127.0.0.1\r\n"
+            + "s=-\r\n"
+            + "m=video 9 UDP/TLS/RTP/SAVPF 96\r\n"
+            + "a=rtpmap:96 VP8/90000\r\n"
+            + "a=fmtp:96 x-google-start-bitrate=800\r\n"
+            + "m=audio 9 UDP/TLS/RTP/SAVPF 111 63\r\n"
+            + "a=rtpmap:111 opus/48000/2\r\n"
+            + "a=fmtp:111 minptime=10;useinbandfec=0\r\n"
+            + "a=rtpmap:63 red/48000/2\r\n"
+            + "a=ptime:60\r\n"
+            + "m=application 9 UDP/DTLS/SCTP webrtc-datachannel\r\n"
+            + "a=sctp-port:5000\r\n";
+
+    @Test
+    public void rewritesOnlyTheOpusSection() {
+        String munged = OpusTuning.VOICE.apply(OFFER);
+
+        assertTrue(munged.contains("a=fmtp:111 minptime=10;useinbandfec=1;usedtx=1;maxaveragebitrate=32000\r\n"));
+        assertTrue(munged.contains("a=fmtp:96 x-google-start-bitrate=800\r\n"));
+        assertFalse(munged.contains("a=ptime:60"));
+        // ptime is written once, at the end of the audio section
+        int ptime = munged.indexOf("a=ptime:20\r\n");
+        assertTrue(ptime > munged.indexOf("m=audio") && ptime < munged.indexOf("m=application"));
+        assertEquals(munged.indexOf("a=ptime:"), munged.lastIndexOf("a=ptime:"));
+        // Applying twice changes nothing
+        assertEquals(munged, OpusTuning.VOICE.apply(munged));
+    }
+
+    @Test
+    public void addsMissingFmtpAndClampsValues() throws Exception {
+        String answer = "v=0\r\nm=audio 9 UDP/TLS/RTP/SAVPF 109\r\na=rtpmap:109 OPUS/48000/2\r\n";
+        OpusTuning tuning = OpusTuning.VOICE.with(new JSONObject()
+                .put("dtx", false).put("ptime", 33).put("bitrate", 1_000_000));
+        assertEquals(40, tuning.ptimeMs);
+        assertEquals(OpusTuning.MAX_BITRATE, tuning.maxAverageBitrate);
+        assertTrue(tuning.fec);
+
+        assertTrue(tuning.apply(answer).endsWith("a=rtpmap:109 OPUS/48000/2\r\n"
+                + "a=fmtp:109 usedtx=0;useinbandfec=1;maxaveragebitrate=128000\r\n"
+                + "a=ptime:40\r\n"));
+        assertEquals("no Opus, no change", "v=0\r\n", tuning.apply("v=0\r\n"));
+    }
+}
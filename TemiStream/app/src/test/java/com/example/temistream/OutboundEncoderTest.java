@@ -0,0 +1,75 @@
+package com.example.temistream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OutboundEncoderTest {
+
+    private final OutboundEncoder encoder = new OutboundEncoder(new ByteBufferPool(2, 256));
+
+    private JSONObject decode(ByteBuffer buffer) throws Exception {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        encoder.release(buffer);
+        return new JSONObject(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void templatesMatchJsonObjectShapes() throws Exception {
+        JSONObject response = decode(encoder.commandResponse("c-1", true, "Moving \"forward\"\n",
+                new JSONArray().put(new JSONObject().put("index", 0)).toString(), 1234L));
+        assertEquals("robot_response", response.getString("type"));
+        assertEquals("c-1", response.getString("commandId"));
+        assertTrue(response.getBoolean("success"));
+        assertEquals("Moving \"forward\"\n", response.getString("message"));
+        assertEquals(0, response.getJSONArray("results").getJSONObject(0).getInt("index"));
+        assertEquals(1234L, response.getLong("timestamp"));
+
+        JSONObject position = decode(encoder.positionUpdate(1.25f, -0.5f, -3.14159f, -25, 55, 99L));
+        assertEquals("position_update", position.getString("type"));
+        assertEquals(1.25, position.getDouble("x"), 1e-9);
+        assertEquals(-0.5, position.getDouble("y"), 1e-9);
+        assertEquals(-3.1416, position.getDouble("yaw"), 1e-9);
+        assertEquals(-25, position.getInt("tiltAngle"));
+        assertEquals(55, position.getInt("tiltTarget"));
+
+        JSONObject navigation = decode(encoder.navigationStatus("Küche", "going", "", 7L));
+        assertEquals("Küche", navigation.getString("location"));
+        assertEquals("going", navigation.getString("status"));
+
+        JSONObject locations = decode(encoder.locationUpdate(Arrays.asList("home base", "厨房 🍳"),
+                true, 0f, 2f, 0.1f, 10));
+        JSONArray names = locations.getJSONArray("locations");
+        assertEquals("厨房 🍳", names.getString(1));
+        assertEquals(2.0, locations.getJSONObject("currentPosition").getDouble("y"), 1e-9);
+        assertFalse(decode(encoder.locationUpdate(new ArrayList<>(), false, 0f, 0f, 0f, 0))
+                .has("currentPosition"));
+    }
+
+    @Test
+    public void pooledBuffersAreReusedAndLargeMessagesGrow() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            decode(encoder.positionUpdate(i, i, i, 0, 0, i));
+        }
+        assertEquals(1, encoder.getPool().getAllocatedCount());
+
+        List<String> many = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            many.add("location_" + i);
+        }
+        JSONObject large = decode(encoder.locationUpdate(many, false, 0f, 0f, 0f, 0));
+        assertEquals(200, large.getJSONArray("locations").length());
+        // The oversized buffer is not pooled; the pooled one is back
+        decode(encoder.commandResponse("c", false, "x", null, 0L));
+        assertEquals(1, encoder.getPool().getAllocatedCount());
+    }
+}
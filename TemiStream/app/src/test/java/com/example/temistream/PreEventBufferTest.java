@@ -0,0 +1,74 @@
+package com.example.temistream;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PreEventBufferTest {
+
+    private static final long FRAME_US = 33_333;
+
+    private static ByteBuffer frame(int index, int size) {
+        byte[] bytes = new byte[size];
+        Arrays.fill(bytes, (byte) index);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    @Test
+    public void windowAlwaysStartsAtKeyframeAndSurvivesWraparound() {
+        PreEventBuffer buffer = new PreEventBuffer(64 * 1024, 256, 1_000_000L);
+        // 10 s at 30 fps with a keyframe every 15 frames, enough to wrap the byte ring many times
+        for (int i = 0; i < 300; i++) {
+            boolean key = i % 15 == 0;
+            buffer.onEncodedFrame("H264", frame(i, key ? 2000 : 400), i * FRAME_US, key, 1280, 720, 0);
+        }
+
+        PreEventBuffer.Clip clip = buffer.snapshot();
+        assertTrue(clip.keyFrames[0]);
+        assertTrue(clip.getDurationUs() >= 1_000_000L - FRAME_US);
+        assertTrue(clip.getDurationUs() < 1_500_000L);
+        assertEquals(299 * FRAME_US, clip.timesUs[clip.getFrameCount() - 1]);
+        for (int i = 0; i < clip.getFrameCount(); i++) {
+            byte expected = (byte) (clip.timesUs[i] / FRAME_US);
+            assertEquals(expected, clip.data[clip.offsets[i]]);
+            assertEquals(expected, clip.data[clip.offsets[i] + clip.sizes[i] - 1]);
+        }
+    }
+
+    @Test
+    public void requestsKeyframesOncePerWindow() {
+        PreEventBuffer buffer = new PreEventBuffer(64 * 1024, 256, 1_000_000L);
+        assertTrue(buffer.needsKeyFrame(0));
+        assertFalse(buffer.needsKeyFrame(FRAME_US));
+
+        // Delta frames before the first keyframe cannot be decoded and are dropped
+        buffer.onEncodedFrame("VP8", frame(0, 100), 0, false, 640, 480, 0);
+        assertEquals(0, buffer.getFrameCount());
+        assertNull(buffer.snapshot());
+
+        buffer.onEncodedFrame("VP8", frame(1, 1000), FRAME_US, true, 640, 480, 0);
+        assertFalse(buffer.needsKeyFrame(500_000L));
+        assertTrue(buffer.needsKeyFrame(FRAME_US + 1_000_000L));
+        assertFalse(buffer.needsKeyFrame(FRAME_US + 1_100_000L));
+    }
+
+    @Test
+    public void oversizedGroupIsDroppedUntilNextKeyframe() {
+        PreEventBuffer buffer = new PreEventBuffer(8 * 1024, 256, 10_000_000L);
+        buffer.onEncodedFrame("H264", frame(0, 2000), 0, true, 1280, 720, 0);
+        for (int i = 1; i < 10; i++) {
+            buffer.onEncodedFrame("H264", frame(i, 1000), i * FRAME_US, false, 1280, 720, 0);
+        }
+        assertEquals(0, buffer.getFrameCount());
+        assertTrue(buffer.needsKeyFrame(10 * FRAME_US));
+
+        // A resolution change also starts a fresh clip
+        buffer.onEncodedFrame("H264", frame(10, 1500), 10 * FRAME_US, true, 640, 360, 0);
+        PreEventBuffer.Clip clip = buffer.snapshot();
+        assertEquals(1, clip.getFrameCount());
+        assertEquals(640, clip.width);
+    }
+}
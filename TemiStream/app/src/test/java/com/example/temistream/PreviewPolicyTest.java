@@ -0,0 +1,132 @@
+package com.example.temistream;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PreviewPolicyTest {
+
+    private static final long FRAME_NANOS = 1_000_000_000L / 30;
+
+    private long nowNanos = 1_000_000_000L;
+    private int rendered;
+    private final List<PreviewPolicy.Mode> changes = new ArrayList<>();
+    private final PreviewPolicy policy = new PreviewPolicy(frame -> rendered++, changes::add, () -> nowNanos);
+
+    /** Feeds {@code frames} camera frames at 30 fps with a little jitter. */
+    private void capture(int frames) {
+        for (int i = 0; i < frames; i++) {
+            nowNanos += FRAME_NANOS + (i % 2 == 0 ? -2_000_000 : 2_000_000);
+            policy.onFrame(null);
+        }
+    }
+
+    @Test
+    public void previewStartsAtFullRate() {
+        assertEquals(PreviewPolicy.Mode.FULL, policy.getEffectiveMode());
+        capture(30);
+        assertEquals(30, rendered);
+    }
+
+    @Test
+    public void reducedFpsKeepsTheRequestedRate() {
+        policy.setMode(PreviewPolicy.Mode.REDUCED_FPS, PreviewPolicy.DEFAULT_REDUCED_FPS);
+        capture(300);
+        assertEquals(100, rendered, 2);
+
+        rendered = 0;
+        policy.setMode(PreviewPolicy.Mode.REDUCED_FPS, 15);
+        capture(300);
+        assertEquals(150, rendered, 2);
+    }
+
+    @Test
+    public void fullRendersEveryFrameAndOffNone() {
+        policy.setMode(PreviewPolicy.Mode.THUMBNAIL, 0);
+        policy.setMode(PreviewPolicy.Mode.FULL, 0);
+        capture(30);
+        assertEquals(30, rendered);
+
+        policy.setMode(PreviewPolicy.Mode.OFF, 0);
+        capture(30);
+        assertEquals(30, rendered);
+        assertEquals(List.of(PreviewPolicy.Mode.THUMBNAIL, PreviewPolicy.Mode.FULL, PreviewPolicy.Mode.OFF),
+                changes);
+    }
+
+    @Test
+    public void backgroundAndScreenOffSwitchThePreviewOff() throws Exception {
+        policy.setMode(PreviewPolicy.Mode.REDUCED_FPS, PreviewPolicy.DEFAULT_REDUCED_FPS);
+        changes.clear();
+        policy.setForeground(false);
+        capture(30);
+        assertEquals(0, rendered);
+        assertEquals("background", policy.getStats().getString("offReason"));
+
+        policy.setForeground(true);
+        policy.setScreenOn(false);
+        assertEquals(PreviewPolicy.Mode.OFF, policy.getEffectiveMode());
+        policy.setScreenOn(true);
+        assertEquals(PreviewPolicy.Mode.REDUCED_FPS, policy.getEffectiveMode());
+        assertEquals(List.of(PreviewPolicy.Mode.OFF, PreviewPolicy.Mode.REDUCED_FPS,
+                PreviewPolicy.Mode.OFF, PreviewPolicy.Mode.REDUCED_FPS), changes);
+    }
+
+    @Test
+    public void idleScreenSwitchesOffUntilTouched() {
+        // The device's screen-off timeout, here ten minutes
+        policy.setIdleTimeoutMs(600_000);
+        nowNanos += TimeUnit.MILLISECONDS.toNanos(600_000 - 1);
+        policy.checkIdle();
+        assertEquals(PreviewPolicy.Mode.FULL, policy.getEffectiveMode());
+
+        nowNanos += TimeUnit.MILLISECONDS.toNanos(1);
+        policy.checkIdle();
+        assertEquals(PreviewPolicy.Mode.OFF, policy.getEffectiveMode());
+
+        policy.onUserInteraction();
+        assertEquals(PreviewPolicy.Mode.FULL, policy.getEffectiveMode());
+    }
+
+    @Test
+    public void screenThatNeverTimesOutKeepsThePreview() {
+        policy.setIdleTimeoutMs(-1);
+        nowNanos += TimeUnit.HOURS.toNanos(5);
+        policy.checkIdle();
+        assertEquals(PreviewPolicy.Mode.FULL, policy.getEffectiveMode());
+
+        // A shorter timeout applies to the time already spent untouched
+        policy.setIdleTimeoutMs(PreviewPolicy.DEFAULT_IDLE_TIMEOUT_MS);
+        assertEquals(PreviewPolicy.Mode.OFF, policy.getEffectiveMode());
+    }
+
+    @Test
+    public void encoderFpsIsAveragedPerModeSkippingSwitches() throws Exception {
+        policy.setMode(PreviewPolicy.Mode.FULL, 0);
+        long frames = 0;
+        policy.onFramesEncoded(frames);
+        for (int i = 0; i < 10; i++) {
+            nowNanos += 1_000_000_000L;
+            policy.onFramesEncoded(frames += 24);
+        }
+        policy.setMode(PreviewPolicy.Mode.OFF, 0);
+        // The second that spans the switch is not counted for either mode
+        nowNanos += 1_000_000_000L;
+        policy.onFramesEncoded(frames += 27);
+        for (int i = 0; i < 10; i++) {
+            nowNanos += 1_000_000_000L;
+            policy.onFramesEncoded(frames += 30);
+        }
+
+        JSONObject encoderFps = policy.getStats().getJSONObject("encoderFps");
+        assertEquals(24.0, encoderFps.getJSONObject("full").getDouble("fps"), 0.01);
+        assertEquals(30.0, encoderFps.getJSONObject("off").getDouble("fps"), 0.01);
+        assertEquals(25.0, encoderFps.getJSONObject("off").getDouble("gainPercent"), 0.01);
+        assertEquals(10, encoderFps.getJSONObject("off").getLong("seconds"));
+    }
+}
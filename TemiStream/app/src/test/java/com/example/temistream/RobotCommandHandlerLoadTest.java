@@ -0,0 +1,139 @@
+package com.example.temistream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RobotCommandHandlerLoadTest {
+
+    private VirtualScheduler scheduler;
+    private SimulatedRobot robot;
+    private LoadGenerator generator;
+
+    @Before
+    public void setUp() {
+        scheduler = new VirtualScheduler();
+        robot = new SimulatedRobot(scheduler, new SimulatedRobot.Config());
+        robot.addLocation("home base", 0f, 0f);
+        robot.addLocation("kitchen", 3f, 1f);
+
+        RobotCommandHandler handler = new RobotCommandHandler(robot, scheduler, scheduler,
+                scheduler::nowNanos, FlightRecorder.disabled(), new RobotCommandHandler.Listener() {
+            @Override
+            public void onRobotStatus(String status) {
+            }
+
+            @Override
+            public void onRobotReadyChanged(boolean ready) {
+            }
+
+            @Override
+            public CommandResult onExtraCommand(String command, JSONObject params) {
+                return null;
+            }
+
+            @Override
+            public void onEmergencyStop() {
+            }
+
+            @Override
+            public void onViewerReport(String type, JSONObject message) {
+            }
+        });
+        generator = new LoadGenerator(scheduler, handler);
+        robot.boot(100);
+        scheduler.runFor(200, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void teleopSessionIsFullyAnsweredWithBoundedLatency() {
+        LoadGenerator.Result result = generator.run(LoadGenerator.teleopSession(60), 3000);
+
+        assertEquals(result.toString(), result.sent, result.answered);
+        // Nothing waits in admission longer than its queue limit plus one SDK call
+        assertTrue(result.toString(),
+                result.percentileMs(0.99) <= CommandAdmissionController.MAX_QUEUE_WAIT_MS + 50);
+        // Held arrow keys are within the motion budget and never queue
+        assertTrue(result.toString(), result.maxLatencyByCommandMs.get("move") <= 10);
+    }
+
+    @Test
+    public void emergencyStopIsAnsweredPromptlyUnderLoad() {
+        List<LoadGenerator.TraceEntry> trace = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            trace.add(LoadGenerator.at(i * 5, "speak", LoadGenerator.params("text", "Message " + i)));
+            trace.add(LoadGenerator.at(i * 5, "tilt_up", LoadGenerator.params("angle", 2)));
+        }
+        trace.add(LoadGenerator.at(60, "move", LoadGenerator.params("direction", "forward")));
+        trace.add(LoadGenerator.at(210, "emergency_stop", null));
+
+        LoadGenerator.Result result = generator.run(trace, 2000);
+
+        assertEquals(result.toString(), result.sent, result.answered);
+        assertTrue(result.toString(), result.maxLatencyByCommandMs.get("emergency_stop") <= 10);
+        assertFalse(robot.isMoving());
+    }
+
+    @Test
+    public void batchEntriesAreChargedToTheirOwnClass() throws Exception {
+        JSONArray commands = new JSONArray();
+        for (int i = 0; i < RobotCommandHandler.MAX_BATCH_SIZE - 1; i++) {
+            commands.put(LoadGenerator.params("command", "speak", "params",
+                    LoadGenerator.params("text", "Message " + i)));
+        }
+        commands.put(LoadGenerator.params("command", "emergency_stop"));
+        generator.run(List.of(LoadGenerator.at(0, "batch",
+                LoadGenerator.params("commands", commands, "stopOnError", false))), 1000);
+
+        JSONArray results = null;
+        for (JSONObject message : generator.getSentMessages()) {
+            if (message.optString("commandId").startsWith("batch")) {
+                results = message.getJSONArray("results");
+            }
+        }
+        assertNotNull(results);
+        int spoken = 0;
+        for (int i = 0; i < results.length() - 1; i++) {
+            if (results.getJSONObject(i).getBoolean("success")) {
+                spoken++;
+            }
+        }
+        // No more than three separate speak commands would get through at once
+        assertEquals(results.toString(), 3, spoken);
+        JSONObject stop = results.getJSONObject(results.length() - 1);
+        assertFalse(stop.getBoolean("success"));
+        assertTrue(stop.getString("message"), stop.getString("message").contains("on its own"));
+    }
+
+    @Test
+    public void replayedNavigationTraceReportsPositionsAndCompletion() throws Exception {
+        String trace = "# drive to the kitchen and back\n"
+                + "{\"atMs\":0,\"command\":\"go_to_location\",\"params\":{\"location\":\"kitchen\"}}\n"
+                + "{\"atMs\":8000,\"command\":\"go_home\"}\n";
+
+        LoadGenerator.Result result = generator.run(LoadGenerator.parseTrace(trace), 8000);
+
+        assertEquals(2, result.succeeded);
+        int positions = 0;
+        List<String> kitchenStatuses = new ArrayList<>();
+        for (JSONObject message : generator.getSentMessages()) {
+            if (message.getString("type").equals("position_update")) {
+                positions++;
+            } else if (message.getString("type").equals("navigation_status")
+                    && message.getString("location").equals("kitchen")) {
+                kitchenStatuses.add(message.getString("status"));
+            }
+        }
+        // About 4.5 s of driving each way at one report per 250 ms
+        assertTrue("positions " + positions, positions >= 25);
+        assertEquals("complete", kitchenStatuses.get(kitchenStatuses.size() - 1));
+        assertEquals(2, robot.getCallCount("goTo"));
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.temistream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RoiVideoProcessorTest {
+
+    @Test
+    public void windowIsClampedInsideThePicture() {
+        RoiVideoProcessor.Roi roi = new RoiVideoProcessor.Roi(0.95f, 0.05f, 2f);
+        assertEquals(0.75f, roi.centerX, 1e-6);
+        assertEquals(0.25f, roi.centerY, 1e-6);
+        assertEquals(RoiVideoProcessor.MAX_ZOOM, new RoiVideoProcessor.Roi(0.5f, 0.5f, 100f).zoom, 1e-6);
+        assertTrue(new RoiVideoProcessor.Roi(0.2f, 0.2f, 0.5f).isFull());
+
+        // A wide rectangle is covered by a window of the picture's own aspect ratio
+        RoiVideoProcessor.Roi covering = RoiVideoProcessor.Roi.covering(0.1f, 0.4f, 0.5f, 0.1f);
+        assertEquals(2f, covering.zoom, 1e-6);
+        assertEquals(0.35f, covering.centerX, 1e-6);
+        assertEquals(0.45f, covering.centerY, 1e-6);
+    }
+
+    @Test
+    public void cropFollowsFrameRotation() {
+        // Top-left quarter of what the viewer sees
+        RoiVideoProcessor.Roi roi = new RoiVideoProcessor.Roi(0.25f, 0.25f, 2f);
+        assertArrayEquals(new int[]{0, 0, 640, 360}, RoiVideoProcessor.cropRect(roi, 1280, 720, 0));
+        assertArrayEquals(new int[]{640, 360, 640, 360}, RoiVideoProcessor.cropRect(roi, 1280, 720, 180));
+        // Rotated 90° clockwise for display, the viewer's top-left is the buffer's bottom-left
+        assertArrayEquals(new int[]{0, 360, 640, 360}, RoiVideoProcessor.cropRect(roi, 1280, 720, 90));
+        assertArrayEquals(new int[]{640, 0, 640, 360}, RoiVideoProcessor.cropRect(roi, 1280, 720, 270));
+
+        // Odd sizes are aligned down to even values for the chroma planes
+        int[] crop = RoiVideoProcessor.cropRect(new RoiVideoProcessor.Roi(0.5f, 0.5f, 3f), 1280, 720, 0);
+        assertEquals(0, crop[2] % 2);
+        assertEquals(0, crop[3] % 2);
+        assertTrue(crop[0] + crop[2] <= 1280 && crop[1] + crop[3] <= 720);
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.temistream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SdpShaperTest {
+
+    // Shortened from a real offer of the Android factory with max-bundle
+    private static final String OFFER = String.join("\r\n",
+            "v=0",
+            "o=- 4611731400430051336 2 IN IP4 127.0.0.1",
+            "s=-",
+            "t=0 0",
+            "a=group:BUNDLE 0 1 2",
+            "a=extmap-allow-mixed",
+            "a=msid-semantic: WMS local_stream",
+            "m=video 9 UDP/TLS/RTP/SAVPF 96 97 98 99 100 101 35 36 102 103 104",
+            "c=IN IP4 0.0.0.0",
+            "a=rtcp:9 IN IP4 0.0.0.0",
+            "a=mid:0",
+            "a=extmap:1 urn:ietf:params:rtp-hdrext:toffset",
+            "a=extmap:2 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time",
+            "a=extmap:3 urn:3gpp:video-orientation",
+            "a=extmap:4 http://www.ietf.org/id/draft-holmer-rmcat-transport-wide-cc-extensions-01",
+            "a=extmap:5 http://www.webrtc.org/experiments/rtp-hdrext/playout-delay",
+            "a=extmap:6 http://www.webrtc.org/experiments/rtp-hdrext/video-content-type",
+            "a=extmap:7 http://www.webrtc.org/experiments/rtp-hdrext/video-timing",
+            "a=extmap:8 http://www.webrtc.org/experiments/rtp-hdrext/color-space",
+            "a=extmap:9 urn:ietf:params:rtp-hdrext:sdes:mid",
+            "a=sendonly",
+            "a=msid:local_stream video_track",
+            "a=rtcp-mux",
+            "a=rtcp-rsize",
+            "a=rtpmap:96 VP8/90000",
+            "a=rtcp-fb:96 goog-remb",
+            "a=rtcp-fb:96 transport-cc",
+            "a=rtcp-fb:96 ccm fir",
+            "a=rtcp-fb:96 nack",
+            "a=rtcp-fb:96 nack pli",
+            "a=rtpmap:97 rtx/90000",
+            "a=fmtp:97 apt=96",
+            "a=rtpmap:98 VP9/90000",
+            "a=rtcp-fb:98 nack pli",
+            "a=fmtp:98 profile-id=0",
+            "a=rtpmap:99 rtx/90000",
+            "a=fmtp:99 apt=98",
+            "a=rtpmap:100 H264/90000",
+            "a=rtcp-fb:100 nack pli",
+            "a=fmtp:100 level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=42e01f",
+            "a=rtpmap:101 rtx/90000",
+            "a=fmtp:101 apt=100",
+            "a=rtpmap:35 AV1/90000",
+            "a=rtcp-fb:35 nack pli",
+            "a=rtpmap:36 rtx/90000",
+            "a=fmtp:36 apt=35",
+            "a=rtpmap:102 red/90000",
+            "a=rtpmap:103 rtx/90000",
+            "a=fmtp:103 apt=102",
+            "a=rtpmap:104 ulpfec/90000",
+            "a=ssrc-group:FID 1111 2222",
+            "a=ssrc:1111 cname:abc",
+            "a=ssrc:2222 cname:abc",
+            "m=audio 9 UDP/TLS/RTP/SAVPF 111 63 9 0 8 13 110 126",
+            "c=IN IP4 0.0.0.0",
+            "a=rtcp:9 IN IP4 0.0.0.0",
+            "a=mid:1",
+            "a=extmap:14 urn:ietf:params:rtp-hdrext:ssrc-audio-level",
+            "a=extmap:2 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time",
+            "a=extmap:4 http://www.ietf.org/id/draft-holmer-rmcat-transport-wide-cc-extensions-01",
+            "a=extmap:9 urn:ietf:params:rtp-hdrext:sdes:mid",
+            "a=sendrecv",
+            "a=rtcp-mux",
+            "a=rtpmap:111 opus/48000/2",
+            "a=rtcp-fb:111 transport-cc",
+            "a=fmtp:111 minptime=10;useinbandfec=1",
+            "a=rtpmap:63 red/48000/2",
+            "a=fmtp:63 111/111",
+            "a=rtpmap:9 G722/8000",
+            "a=rtpmap:0 PCMU/8000",
+            "a=rtpmap:8 PCMA/8000",
+            "a=rtpmap:13 CN/8000",
+            "a=rtpmap:110 telephone-event/48000",
+            "a=rtpmap:126 telephone-event/8000",
+            "a=ssrc:3333 cname:abc",
+            "m=application 9 UDP/DTLS/SCTP webrtc-datachannel",
+            "c=IN IP4 0.0.0.0",
+            "a=mid:2",
+            "a=sctp-port:5000",
+            "a=max-message-size:262144",
+            "");
+
+    @Test
+    public void keepsChosenCodecsWithTheirRtx() {
+        SdpShaper.Result result = SdpShaper.LEAN.apply(OFFER);
+        String sdp = result.sdp;
+
+        assertTrue(sdp.contains("m=video 9 UDP/TLS/RTP/SAVPF 96 97 100 101\r\n"));
+        assertTrue(sdp.contains("a=fmtp:97 apt=96\r\n"));
+        assertTrue(sdp.contains("a=fmtp:100 level-asymmetry-allowed=1"));
+        assertFalse(sdp.contains("VP9"));
+        assertFalse(sdp.contains("AV1"));
+        assertFalse(sdp.contains("ulpfec"));
+        assertFalse(sdp.contains("a=fmtp:99 "));
+
+        assertTrue(sdp.contains("m=audio 9 UDP/TLS/RTP/SAVPF 111\r\n"));
+        assertFalse(sdp.contains("telephone-event"));
+        assertFalse(sdp.contains("a=fmtp:63"));
+        assertEquals(7 + 7, result.removedCodecs);
+    }
+
+    @Test
+    public void keepsOnlyAllowedHeaderExtensions() {
+        String sdp = SdpShaper.LEAN.apply(OFFER).sdp;
+        assertTrue(sdp.contains("a=extmap:9 urn:ietf:params:rtp-hdrext:sdes:mid"));
+        assertTrue(sdp.contains("a=extmap:3 urn:3gpp:video-orientation"));
+        assertTrue(sdp.contains("transport-wide-cc"));
+        assertTrue(sdp.contains("a=extmap:14 urn:ietf:params:rtp-hdrext:ssrc-audio-level"));
+        assertFalse(sdp.contains("abs-send-time"));
+        assertFalse(sdp.contains("toffset"));
+        assertFalse(sdp.contains("color-space"));
+    }
+
+    @Test
+    public void leavesSessionAndDataChannelAlone() {
+        String sdp = SdpShaper.LEAN.apply(OFFER).sdp;
+        assertTrue(sdp.startsWith("v=0\r\n"));
+        assertTrue(sdp.contains("a=group:BUNDLE 0 1 2\r\n"));
+        assertTrue(sdp.contains("a=ssrc-group:FID 1111 2222\r\n"));
+        assertTrue(sdp.endsWith("m=application 9 UDP/DTLS/SCTP webrtc-datachannel\r\nc=IN IP4 0.0.0.0\r\n"
+                + "a=mid:2\r\na=sctp-port:5000\r\na=max-message-size:262144\r\n"));
+        assertTrue(SdpShaper.LEAN.apply(OFFER).sdp.length() < OFFER.length() * 3 / 4);
+    }
+
+    @Test
+    public void sectionWithoutChosenCodecIsKept() {
+        String offer = "v=0\r\nm=video 9 UDP/TLS/RTP/SAVPF 98 99\r\na=rtpmap:98 VP9/90000\r\n"
+                + "a=rtpmap:99 rtx/90000\r\na=fmtp:99 apt=98\r\n";
+        SdpShaper.Result result = SdpShaper.LEAN.apply(offer);
+        assertEquals(offer, result.sdp);
+        assertEquals(0, result.removedCodecs);
+    }
+
+    @Test
+    public void opusTuningStillAppliesAfterShaping() {
+        String sdp = OpusTuning.VOICE.apply(SdpShaper.LEAN.apply(OFFER).sdp);
+        assertTrue(sdp.contains("a=fmtp:111 minptime=10;useinbandfec=1;usedtx=1"));
+        assertTrue(sdp.contains("a=ptime:20\r\nm=application"));
+    }
+}
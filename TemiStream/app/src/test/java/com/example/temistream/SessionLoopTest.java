@@ -0,0 +1,285 @@
+package com.example.temistream;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SessionLoopTest {
+
+    /** Stands in for a DataChannel: counts sends, and any that overlap its release. */
+    private static final class FakeChannel implements MessageChannel {
+        final AtomicInteger sends = new AtomicInteger();
+        final AtomicInteger releases = new AtomicInteger();
+        final AtomicInteger sendsAfterRelease = new AtomicInteger();
+        volatile CountDownLatch holdSend;
+
+        @Override
+        public boolean isOpen() {
+            return releases.get() == 0;
+        }
+
+        @Override
+        public boolean send(ByteBuffer data, boolean binary) {
+            if (releases.get() > 0) {
+                sendsAfterRelease.incrementAndGet();
+            }
+            CountDownLatch hold = holdSend;
+            if (hold != null) {
+                try {
+                    hold.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                // Widens the window in which a premature release would land
+                Thread.yield();
+            }
+            if (releases.get() > 0) {
+                sendsAfterRelease.incrementAndGet();
+            }
+            sends.incrementAndGet();
+            return true;
+        }
+
+        @Override
+        public long bufferedAmount() {
+            return 0;
+        }
+
+        void release() {
+            releases.incrementAndGet();
+        }
+    }
+
+    private final SessionLoop loop = new SessionLoop();
+
+    @After
+    public void tearDown() {
+        loop.shutdown(5000);
+    }
+
+    private void runOnLoop(Runnable task) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        loop.execute(() -> {
+            try {
+                task.run();
+            } finally {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void stateChangesOnlyOnTheLoop() throws Exception {
+        try {
+            loop.update(state -> state.withViewerReady(true));
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            // ok
+        }
+        runOnLoop(() -> loop.update(state -> state.withViewerReady(true)));
+        assertTrue(loop.state().viewerReady);
+        assertFalse(loop.state().streaming);
+    }
+
+    @Test
+    public void callbacksOfAnEndedSessionAreDropped() throws Exception {
+        FakeChannel channel = new FakeChannel();
+        AtomicReference<SessionLoop.State> started = new AtomicReference<>();
+        runOnLoop(() -> started.set(loop.update(state -> state.started(null, channel))));
+        int generation = started.get().generation;
+
+        AtomicInteger ran = new AtomicInteger();
+        loop.executeFor(generation, ran::incrementAndGet);
+        runOnLoop(() -> loop.update(SessionLoop.State::stopped));
+        loop.executeFor(generation, ran::incrementAndGet);
+        runOnLoop(() -> { });
+
+        assertEquals(1, ran.get());
+        assertNull(loop.state().channel);
+    }
+
+    @Test
+    public void aFailingTaskDoesNotStopTheLoop() throws Exception {
+        loop.execute(() -> {
+            throw new IllegalArgumentException("boom");
+        });
+        AtomicBoolean ran = new AtomicBoolean();
+        runOnLoop(() -> ran.set(true));
+        assertTrue(ran.get());
+    }
+
+    @Test
+    public void shutdownRunsQueuedTasksWithoutWaitingForThem() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        AtomicBoolean lastRan = new AtomicBoolean();
+        loop.execute(() -> {
+            try {
+                blocked.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        CountDownLatch last = new CountDownLatch(1);
+        loop.execute(() -> {
+            lastRan.set(true);
+            last.countDown();
+        });
+
+        loop.shutdown();
+        assertFalse(lastRan.get());
+        AtomicBoolean late = new AtomicBoolean();
+        loop.execute(() -> late.set(true));
+
+        blocked.countDown();
+        assertTrue(last.await(5, TimeUnit.SECONDS));
+        assertFalse(late.get());
+    }
+
+    @Test
+    public void closeWaitsForTheSendInFlight() throws Exception {
+        FakeChannel channel = new FakeChannel();
+        GuardedMessageChannel guarded = new GuardedMessageChannel(channel, channel::release);
+        channel.holdSend = new CountDownLatch(1);
+
+        Thread sender = new Thread(() -> guarded.send(ByteBuffer.allocate(4), true));
+        sender.start();
+        while (channel.holdSend != null && sender.getState() != Thread.State.WAITING
+                && sender.getState() != Thread.State.TIMED_WAITING) {
+            Thread.yield();
+        }
+
+        guarded.close();
+        assertTrue(guarded.isClosed());
+        assertEquals("released under a send", 0, channel.releases.get());
+        assertFalse(guarded.send(ByteBuffer.allocate(4), true));
+
+        channel.holdSend.countDown();
+        sender.join(5000);
+        assertEquals(1, channel.releases.get());
+        assertEquals(1, channel.sends.get());
+
+        guarded.close();
+        assertEquals(1, channel.releases.get());
+    }
+
+    @Test
+    public void closeWithNothingInFlightReleasesAtOnce() {
+        FakeChannel channel = new FakeChannel();
+        GuardedMessageChannel guarded = new GuardedMessageChannel(channel, channel::release);
+        assertTrue(guarded.send(ByteBuffer.allocate(4), false));
+        guarded.close();
+        assertEquals(1, channel.releases.get());
+        assertFalse(guarded.isOpen());
+        assertEquals(0, guarded.bufferedAmount());
+    }
+
+    /**
+     * Starts and stops sessions from several threads, the way buttons, signaling, commands and
+     * teardown do, while other threads send on whatever channel the current snapshot holds.
+     */
+    @Test
+    public void concurrentSessionsNeverSendOnAReleasedChannel() throws Exception {
+        int senders = 4;
+        int drivers = 3;
+        int cyclesPerDriver = 300;
+
+        List<FakeChannel> channels = Collections.synchronizedList(new ArrayList<>());
+        AtomicReference<GuardedMessageChannel> open = new AtomicReference<>();
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger inconsistent = new AtomicInteger();
+        AtomicInteger backwards = new AtomicInteger();
+        AtomicInteger guardedSends = new AtomicInteger();
+
+        Runnable start = () -> {
+            if (loop.state().streaming) {
+                return;
+            }
+            FakeChannel channel = new FakeChannel();
+            channels.add(channel);
+            GuardedMessageChannel guarded = new GuardedMessageChannel(channel, channel::release);
+            open.set(guarded);
+            loop.update(state -> state.started(null, guarded));
+        };
+        Runnable stop = () -> {
+            if (!loop.state().streaming) {
+                return;
+            }
+            loop.update(SessionLoop.State::stopped);
+            open.getAndSet(null).close();
+        };
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < senders; i++) {
+            threads.add(new Thread(() -> {
+                int lastGeneration = 0;
+                while (running.get()) {
+                    SessionLoop.State state = loop.state();
+                    if (state.generation < lastGeneration) {
+                        backwards.incrementAndGet();
+                    }
+                    lastGeneration = state.generation;
+                    if (state.streaming != (state.channel != null)) {
+                        inconsistent.incrementAndGet();
+                    }
+                    if (state.channel != null && state.channel.send(ByteBuffer.allocate(8), true)) {
+                        guardedSends.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        CountDownLatch driversDone = new CountDownLatch(drivers);
+        for (int i = 0; i < drivers; i++) {
+            int seed = i;
+            threads.add(new Thread(() -> {
+                for (int cycle = 0; cycle < cyclesPerDriver; cycle++) {
+                    switch ((cycle + seed) % 3) {
+                        case 0:
+                            loop.execute(start);
+                            break;
+                        case 1:
+                            loop.execute(() -> loop.update(state -> state.withViewerReady(!state.viewerReady)));
+                            break;
+                        default:
+                            loop.execute(stop);
+                            break;
+                    }
+                }
+                driversDone.countDown();
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        assertTrue(driversDone.await(10, TimeUnit.SECONDS));
+        runOnLoop(stop);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+
+        assertFalse(loop.state().streaming);
+        assertTrue("no session was started", channels.size() > 1);
+        int sent = 0;
+        for (FakeChannel channel : channels) {
+            assertEquals("released exactly once", 1, channel.releases.get());
+            assertEquals("send after release", 0, channel.sendsAfterRelease.get());
+            sent += channel.sends.get();
+        }
+        assertEquals(guardedSends.get(), sent);
+        assertEquals("snapshot with channel but not streaming, or the reverse", 0, inconsistent.get());
+        assertEquals("generation went backwards", 0, backwards.get());
+    }
+}
@@ -0,0 +1,352 @@
+package com.example.temistream;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deterministic stand-in for the Temi robot, running on a {@link VirtualScheduler}.
+ *
+ * SDK calls block the caller for {@link Config#callLatencyMs}, motion starts after
+ * {@link Config#actuationDelayMs} and is integrated at a fixed tick, and position callbacks
+ * arrive every {@link Config#positionIntervalMs} while the robot moves, roughly as the real
+ * SDK reports them. Speech lasts a fixed time per character. All callbacks are delivered as
+ * scheduler tasks, never from inside the call that caused them.
+ */
+final class SimulatedRobot implements RobotGateway {
+
+    static final class Config {
+        long callLatencyMs = 2;
+        long actuationDelayMs = 80;
+        long positionIntervalMs = 250;
+        long ttsStartDelayMs = 150;
+        long speechMsPerChar = 60;
+        // skidJoy only keeps the robot moving while it is called repeatedly
+        long skidJoyHoldMs = 500;
+        float maxSpeedMetersPerSecond = 0.7f;
+        float turnRateDegreesPerSecond = 90f;
+    }
+
+    private static final long TICK_MS = 50;
+
+    private static final class SimulatedSpeech implements SpeechRequest {
+        final UUID id;
+        final String text;
+
+        SimulatedSpeech(UUID id, String text) {
+            this.id = id;
+            this.text = text;
+        }
+
+        @Override
+        public UUID getId() {
+            return id;
+        }
+    }
+
+    private final VirtualScheduler scheduler;
+    private final Config config;
+    private final Map<String, float[]> locations = new LinkedHashMap<>();
+    private final List<Integer> tiltCalls = new ArrayList<>();
+    private final Map<String, Integer> callCounts = new LinkedHashMap<>();
+    private Callbacks callbacks;
+
+    // Pose and motion state, advanced by tick()
+    private float x;
+    private float y;
+    private float yawDegrees;
+    private float linearVelocity;
+    private float angularVelocity;
+    private long skidJoyUntilNanos;
+    private float remainingTurnDegrees;
+    private String goToTarget;
+    private String movementType;
+    private long lastPositionReportNanos;
+    private int volume;
+    private BatteryStatus battery = new BatteryStatus(80, false);
+    private MapData mapData;
+
+    private long speechSequence;
+    private UUID speakingId;
+    private ScheduledFuture<?> speechFinish;
+
+    SimulatedRobot(VirtualScheduler scheduler, Config config) {
+        this.scheduler = scheduler;
+        this.config = config;
+        scheduler.scheduleAtFixedRate(this::tick, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Reports the robot ready after {@code delayMs}, like the SDK does after binding. */
+    void boot(long delayMs) {
+        scheduler.schedule(() -> callbacks.onRobotReady(true), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    void addLocation(String name, float locationX, float locationY) {
+        locations.put(name, new float[]{locationX, locationY});
+    }
+
+    int getCallCount(String method) {
+        Integer count = callCounts.get(method);
+        return count != null ? count : 0;
+    }
+
+    List<Integer> getTiltCalls() {
+        return tiltCalls;
+    }
+
+    boolean isMoving() {
+        return movementType != null;
+    }
+
+    int getVolume() {
+        return volume;
+    }
+
+    @Override
+    public void setCallbacks(Callbacks callbacks) {
+        this.callbacks = callbacks;
+    }
+
+    @Override
+    public void skidJoy(float linear, float angular) {
+        call("skidJoy");
+        scheduler.schedule(() -> {
+            goToTarget = null;
+            remainingTurnDegrees = 0;
+            linearVelocity = linear * config.maxSpeedMetersPerSecond;
+            angularVelocity = angular * config.turnRateDegreesPerSecond;
+            skidJoyUntilNanos = scheduler.nowNanos() + TimeUnit.MILLISECONDS.toNanos(config.skidJoyHoldMs);
+            startMovement("skidJoy");
+        }, config.actuationDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void turnBy(int degrees) {
+        call("turnBy");
+        scheduler.schedule(() -> {
+            goToTarget = null;
+            linearVelocity = 0;
+            angularVelocity = Math.signum(degrees) * config.turnRateDegreesPerSecond;
+            remainingTurnDegrees = Math.abs(degrees);
+            startMovement("turnBy");
+        }, config.actuationDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void tiltAngle(int degrees) {
+        call("tiltAngle");
+        tiltCalls.add(degrees);
+    }
+
+    @Override
+    public void goTo(String location) {
+        call("goTo");
+        scheduler.schedule(() -> {
+            if (!locations.containsKey(location)) {
+                callbacks.onGoToLocationStatusChanged(location, "abort", "Unknown location");
+                return;
+            }
+            goToTarget = location;
+            remainingTurnDegrees = 0;
+            angularVelocity = 0;
+            linearVelocity = config.maxSpeedMetersPerSecond;
+            callbacks.onGoToLocationStatusChanged(location, "start", "");
+            startMovement("goTo");
+            callbacks.onGoToLocationStatusChanged(location, "going", "");
+        }, config.actuationDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stopMovement() {
+        call("stopMovement");
+        if (goToTarget != null) {
+            String aborted = goToTarget;
+            scheduler.execute(() -> callbacks.onGoToLocationStatusChanged(aborted, "abort", "Stopped"));
+        }
+        finishMovement("abort");
+    }
+
+    @Override
+    public SpeechRequest createSpeech(String text, boolean showOnConversationLayer) {
+        UUID id = new UUID(0L, ++speechSequence);
+        return new SimulatedSpeech(id, text);
+    }
+
+    @Override
+    public void speak(SpeechRequest request) {
+        call("speak");
+        cancelSpeech();
+        UUID id = request.getId();
+        String text = ((SimulatedSpeech) request).text;
+        speakingId = id;
+        scheduler.schedule(() -> {
+            if (id.equals(speakingId)) {
+                callbacks.onSpeechStarted(id);
+            }
+        }, config.ttsStartDelayMs, TimeUnit.MILLISECONDS);
+        speechFinish = scheduler.schedule(() -> {
+            if (id.equals(speakingId)) {
+                speakingId = null;
+                callbacks.onSpeechFinished(id);
+            }
+        }, config.ttsStartDelayMs + text.length() * config.speechMsPerChar, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void cancelAllTtsRequests() {
+        call("cancelAllTtsRequests");
+        cancelSpeech();
+    }
+
+    @Override
+    public List<String> getLocations() {
+        call("getLocations");
+        return new ArrayList<>(locations.keySet());
+    }
+
+    @Override
+    public boolean saveLocation(String name) {
+        call("saveLocation");
+        locations.put(name, new float[]{x, y});
+        return true;
+    }
+
+    @Override
+    public boolean deleteLocation(String name) {
+        call("deleteLocation");
+        return locations.remove(name) != null;
+    }
+
+    @Override
+    public void setVolume(int volume) {
+        call("setVolume");
+        this.volume = volume;
+    }
+
+    @Override
+    public BatteryStatus getBatteryStatus() {
+        call("getBatteryStatus");
+        return battery;
+    }
+
+    /** Reports a new battery reading through the callbacks, as the SDK listener would. */
+    void setBattery(int percentage, boolean charging) {
+        battery = new BatteryStatus(percentage, charging);
+        Callbacks target = callbacks;
+        if (target != null) {
+            target.onBatteryStatusChanged(battery);
+        }
+    }
+
+    @Override
+    public MapData getMapData() {
+        call("getMapData");
+        return mapData;
+    }
+
+    void setMapData(MapData mapData) {
+        this.mapData = mapData;
+    }
+
+    @Override
+    public void release() {
+        callbacks = null;
+    }
+
+    private void call(String method) {
+        callCounts.merge(method, 1, Integer::sum);
+        scheduler.sleep(config.callLatencyMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelSpeech() {
+        if (speakingId == null) {
+            return;
+        }
+        UUID cancelled = speakingId;
+        speakingId = null;
+        if (speechFinish != null) {
+            speechFinish.cancel(false);
+        }
+        scheduler.execute(() -> callbacks.onSpeechFinished(cancelled));
+    }
+
+    private void startMovement(String type) {
+        if (movementType == null) {
+            callbacks.onMovementStatusChanged(type, "start");
+        }
+        movementType = type;
+    }
+
+    private void finishMovement(String status) {
+        linearVelocity = 0;
+        angularVelocity = 0;
+        remainingTurnDegrees = 0;
+        goToTarget = null;
+        if (movementType != null) {
+            String type = movementType;
+            movementType = null;
+            scheduler.execute(() -> callbacks.onMovementStatusChanged(type, status));
+            scheduler.execute(this::reportPosition);
+        }
+    }
+
+    private void tick() {
+        if (callbacks == null || movementType == null) {
+            return;
+        }
+        float dt = TICK_MS / 1000f;
+
+        if (goToTarget != null) {
+            float[] target = locations.get(goToTarget);
+            float dx = target[0] - x;
+            float dy = target[1] - y;
+            float distance = (float) Math.hypot(dx, dy);
+            float step = linearVelocity * dt;
+            if (distance <= step) {
+                x = target[0];
+                y = target[1];
+                String reached = goToTarget;
+                finishMovement("complete");
+                callbacks.onGoToLocationStatusChanged(reached, "complete", "");
+                return;
+            }
+            yawDegrees = (float) Math.toDegrees(Math.atan2(dy, dx));
+            x += dx / distance * step;
+            y += dy / distance * step;
+        } else {
+            float turn = angularVelocity * dt;
+            if (remainingTurnDegrees > 0) {
+                turn = Math.signum(turn) * Math.min(Math.abs(turn), remainingTurnDegrees);
+                remainingTurnDegrees -= Math.abs(turn);
+            }
+            yawDegrees += turn;
+            double heading = Math.toRadians(yawDegrees);
+            x += (float) (Math.cos(heading) * linearVelocity * dt);
+            y += (float) (Math.sin(heading) * linearVelocity * dt);
+
+            boolean turnDone = movementType.equals("turnBy") && remainingTurnDegrees <= 0;
+            boolean joyExpired = movementType.equals("skidJoy") && scheduler.nowNanos() >= skidJoyUntilNanos;
+            if (turnDone || joyExpired) {
+                finishMovement("complete");
+                return;
+            }
+        }
+
+        if (scheduler.nowNanos() - lastPositionReportNanos
+                >= TimeUnit.MILLISECONDS.toNanos(config.positionIntervalMs)) {
+            reportPosition();
+        }
+    }
+
+    private void reportPosition() {
+        if (callbacks == null) {
+            return;
+        }
+        lastPositionReportNanos = scheduler.nowNanos();
+        callbacks.onPositionChanged(x, y, (float) Math.toRadians(yawDegrees));
+    }
+}
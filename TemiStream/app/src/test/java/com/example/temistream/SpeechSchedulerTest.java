@@ -0,0 +1,239 @@
+package com.example.temistream;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+public class SpeechSchedulerTest {
+
+    private static final class FakeRequest implements RobotGateway.SpeechRequest {
+        final UUID id;
+        final String text;
+
+        FakeRequest(UUID id, String text) {
+            this.id = id;
+            this.text = text;
+        }
+
+        @Override
+        public UUID getId() {
+            return id;
+        }
+    }
+
+    /** Records what reaches the engine; hooks stand in for SDK quirks. */
+    private static final class FakeSpeaker implements SpeechScheduler.Speaker {
+        final List<String> spoken = new ArrayList<>();
+        final List<UUID> ids = new ArrayList<>();
+        // Speaks and cancels in the order the engine saw them
+        final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+        int cancels;
+        long nextId;
+        Consumer<RobotGateway.SpeechRequest> onSpeak = request -> { };
+        Runnable onCancel = () -> { };
+        String failCreateFor;
+        String failSpeakFor;
+
+        @Override
+        public RobotGateway.SpeechRequest create(String text, boolean showOnConversationLayer) {
+            if (text.equals(failCreateFor)) {
+                throw new IllegalStateException("create failed");
+            }
+            return new FakeRequest(new UUID(0L, ++nextId), text);
+        }
+
+        @Override
+        public void speak(RobotGateway.SpeechRequest request) {
+            String text = ((FakeRequest) request).text;
+            if (text.equals(failSpeakFor)) {
+                throw new IllegalStateException("speak failed");
+            }
+            spoken.add(text);
+            ids.add(request.getId());
+            calls.add(text);
+            onSpeak.accept(request);
+        }
+
+        @Override
+        public void cancelAll() {
+            cancels++;
+            onCancel.run();
+            calls.add("cancel");
+        }
+
+        UUID lastId() {
+            return ids.get(ids.size() - 1);
+        }
+    }
+
+    private final VirtualScheduler scheduler = new VirtualScheduler();
+    private final FakeSpeaker speaker = new FakeSpeaker();
+    private final List<String> events = new ArrayList<>();
+    private final SpeechScheduler speech = new SpeechScheduler(speaker,
+            (event, text, priority, depth, timeToSpeakMs) -> events.add(event + ":" + text),
+            scheduler, scheduler::nowNanos);
+
+    private void finishCurrent() {
+        speech.onSpeechStarted(speaker.lastId());
+        speech.onSpeechFinished(speaker.lastId());
+    }
+
+    @Test
+    public void utterancesAreSpokenOneAtATime() {
+        speech.enqueue("one", SpeechScheduler.Priority.NORMAL, false);
+        speech.enqueue("two", SpeechScheduler.Priority.NORMAL, false);
+        assertEquals(List.of("one"), speaker.spoken);
+        assertEquals(1, speech.getQueueDepth());
+
+        finishCurrent();
+        assertEquals(List.of("one", "two"), speaker.spoken);
+        assertEquals(0, speech.getQueueDepth());
+    }
+
+    @Test
+    public void callbacksBeforeSpeakReturnsAreMatched() {
+        // The SDK reports start and completion on its own thread before speak() returns
+        speaker.onSpeak = request -> {
+            speech.onSpeechStarted(request.getId());
+            speech.onSpeechFinished(request.getId());
+        };
+        speech.enqueue("one", SpeechScheduler.Priority.NORMAL, false);
+        speech.enqueue("two", SpeechScheduler.Priority.NORMAL, false);
+
+        assertEquals(List.of("one", "two"), speaker.spoken);
+        assertTrue(events.toString(), events.contains("started:one"));
+        assertTrue(events.toString(), events.contains("finished:two"));
+        assertFalse(events.toString(), events.contains("timeout:one"));
+    }
+
+    @Test
+    public void failedHandOverMovesOnToTheNextUtterance() {
+        speaker.failSpeakFor = "broken";
+        speech.enqueue("broken", SpeechScheduler.Priority.NORMAL, false);
+        assertTrue(events.toString(), events.contains("failed:broken"));
+
+        speech.enqueue("fine", SpeechScheduler.Priority.NORMAL, false);
+        assertEquals(List.of("fine"), speaker.spoken);
+
+        // Nothing is left for the watchdog of the failed one
+        finishCurrent();
+        scheduler.runFor(1, TimeUnit.MINUTES);
+        assertFalse(events.toString(), events.stream().anyMatch(e -> e.startsWith("timeout")));
+    }
+
+    @Test
+    public void failedCreateMovesOnToTheNextUtterance() {
+        speech.enqueue("first", SpeechScheduler.Priority.NORMAL, false);
+        speaker.failCreateFor = "broken";
+        speech.enqueue("broken", SpeechScheduler.Priority.NORMAL, false);
+        speech.enqueue("after", SpeechScheduler.Priority.NORMAL, false);
+
+        finishCurrent();
+        assertEquals(List.of("first", "after"), speaker.spoken);
+        assertTrue(events.toString(), events.contains("failed:broken"));
+    }
+
+    @Test
+    public void duplicateTextIsMergedAndRaisesItsPriority() {
+        speech.enqueue("busy", SpeechScheduler.Priority.NORMAL, false);
+        speech.enqueue("low", SpeechScheduler.Priority.LOW, false);
+        speech.enqueue("normal", SpeechScheduler.Priority.NORMAL, false);
+
+        assertEquals(SpeechScheduler.Outcome.MERGED, speech.enqueue("busy", SpeechScheduler.Priority.NORMAL, false));
+        assertEquals(SpeechScheduler.Outcome.MERGED, speech.enqueue("low", SpeechScheduler.Priority.HIGH, false));
+        assertEquals(2, speech.getQueueDepth());
+
+        finishCurrent();
+        finishCurrent();
+        assertEquals(List.of("busy", "low", "normal"), speaker.spoken);
+    }
+
+    @Test
+    public void emergencyCancelsCurrentSpeechAndClearsTheQueue() {
+        speech.enqueue("chatter", SpeechScheduler.Priority.NORMAL, false);
+        speech.enqueue("more", SpeechScheduler.Priority.HIGH, false);
+        UUID chatter = speaker.lastId();
+
+        assertEquals(SpeechScheduler.Outcome.PREEMPTED,
+                speech.enqueue("stop", SpeechScheduler.Priority.EMERGENCY, true));
+        assertEquals(1, speaker.cancels);
+        assertEquals(List.of("chatter", "stop"), speaker.spoken);
+        assertTrue(events.toString(), events.contains("dropped:chatter"));
+        assertTrue(events.toString(), events.contains("dropped:more"));
+
+        // The cancelled utterance's late completion does not end the emergency one
+        speech.onSpeechFinished(chatter);
+        speech.enqueue("next", SpeechScheduler.Priority.NORMAL, false);
+        assertEquals(List.of("chatter", "stop"), speaker.spoken);
+        finishCurrent();
+        assertEquals(List.of("chatter", "stop", "next"), speaker.spoken);
+    }
+
+    @Test
+    public void emergencyIsNotStartedUntilTheCancelHasReturned() throws Exception {
+        speech.enqueue("chatter", SpeechScheduler.Priority.NORMAL, false);
+        CountDownLatch inCancel = new CountDownLatch(1);
+        CountDownLatch releaseCancel = new CountDownLatch(1);
+        speaker.onCancel = () -> {
+            inCancel.countDown();
+            try {
+                releaseCancel.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        Thread preempting = new Thread(() -> speech.enqueue("stop", SpeechScheduler.Priority.EMERGENCY, true));
+        preempting.start();
+        assertTrue(inCancel.await(5, TimeUnit.SECONDS));
+
+        // Another thread tries to start speech while the engine is still being cancelled
+        speech.enqueue("other", SpeechScheduler.Priority.NORMAL, false);
+        assertEquals(List.of("chatter"), speaker.calls);
+
+        releaseCancel.countDown();
+        preempting.join(5000);
+        assertEquals(List.of("chatter", "cancel", "stop"), speaker.calls);
+
+        finishCurrent();
+        assertEquals(List.of("chatter", "cancel", "stop", "other"), speaker.calls);
+    }
+
+    @Test
+    public void fullQueueEvictsTheNewestLowerPriority() {
+        speech.enqueue("speaking", SpeechScheduler.Priority.NORMAL, false);
+        for (int i = 0; i < SpeechScheduler.MAX_QUEUE_LENGTH; i++) {
+            speech.enqueue("low " + i, SpeechScheduler.Priority.LOW, false);
+        }
+        assertEquals(SpeechScheduler.Outcome.REJECTED,
+                speech.enqueue("another low", SpeechScheduler.Priority.LOW, false));
+
+        assertEquals(SpeechScheduler.Outcome.QUEUED, speech.enqueue("urgent", SpeechScheduler.Priority.HIGH, false));
+        assertEquals(SpeechScheduler.MAX_QUEUE_LENGTH, speech.getQueueDepth());
+        int last = SpeechScheduler.MAX_QUEUE_LENGTH - 1;
+        assertTrue(events.toString(), events.contains("dropped:low " + last));
+
+        finishCurrent();
+        assertEquals("urgent", speaker.spoken.get(1));
+        finishCurrent();
+        assertEquals("low 0", speaker.spoken.get(2));
+    }
+
+    @Test
+    public void watchdogFreesTheQueueWhenNoCallbackArrives() {
+        speech.enqueue("silent", SpeechScheduler.Priority.NORMAL, false);
+        speech.enqueue("next", SpeechScheduler.Priority.NORMAL, false);
+        scheduler.runFor(30, TimeUnit.SECONDS);
+
+        assertTrue(events.toString(), events.contains("timeout:silent"));
+        assertEquals(List.of("silent", "next"), speaker.spoken);
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.temistream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StartupOrchestratorTest {
+
+    private long nowNs;
+    private final List<String> failed = new ArrayList<>();
+    private Boolean completedWith;
+
+    private final StartupOrchestrator.Listener listener = new StartupOrchestrator.Listener() {
+        @Override
+        public void onPhaseFailed(String name, Exception error) {
+            failed.add(name);
+        }
+
+        @Override
+        public void onStartupComplete(StartupOrchestrator orchestrator, boolean success) {
+            completedWith = success;
+        }
+    };
+
+    /** Runs submitted tasks only when the test says so. */
+    private final ArrayDeque<Runnable> queued = new ArrayDeque<>();
+
+    private void runQueued() {
+        while (!queued.isEmpty()) {
+            queued.poll().run();
+        }
+    }
+
+    @Test
+    public void phasesStartOnceTheirDependenciesFinish() {
+        StartupOrchestrator startup = new StartupOrchestrator(listener, () -> nowNs)
+                .add("a", queued::add, () -> { })
+                .add("b", queued::add, () -> { })
+                .add("c", queued::add, () -> { }, "a", "b");
+        startup.start();
+        assertEquals("independent phases are submitted together", 2, queued.size());
+
+        queued.poll().run();
+        assertTrue(startup.isDone("a"));
+        assertEquals("c still waits for b", 1, queued.size());
+        queued.poll().run();
+        assertEquals(1, queued.size());
+        assertNull(completedWith);
+        queued.poll().run();
+        assertTrue(startup.isDone("c"));
+        assertEquals(Boolean.TRUE, completedWith);
+    }
+
+    @Test
+    public void recordsTimingsInDependencyOrder() throws Exception {
+        List<String> order = new ArrayList<>();
+        StartupOrchestrator startup = new StartupOrchestrator(listener, () -> nowNs)
+                .add("a", queued::add, () -> { order.add("a"); nowNs += 10_000_000; })
+                .add("b", queued::add, () -> { order.add("b"); nowNs += 20_000_000; })
+                .add("c", queued::add, () -> { order.add("c"); nowNs += 5_000_000; }, "a", "b");
+        startup.start();
+        assertEquals(2, queued.size());
+        runQueued();
+
+        assertEquals(List.of("a", "b", "c"), order);
+        assertEquals(Boolean.TRUE, completedWith);
+        assertEquals(10, startup.getDurationMs("a"));
+        assertEquals(20, startup.getDurationMs("b"));
+        assertEquals(35, startup.getTotalMs());
+
+        JSONArray phases = startup.getTimings().getJSONArray("phases");
+        JSONObject c = phases.getJSONObject(2);
+        assertEquals("c", c.getString("name"));
+        assertEquals("done", c.getString("state"));
+        assertEquals(30.0, c.getDouble("startMs"), 0.001);
+        assertEquals(5.0, c.getDouble("durationMs"), 0.001);
+    }
+
+    @Test
+    public void failureSkipsDependentsOnly() throws Exception {
+        List<String> ran = new ArrayList<>();
+        StartupOrchestrator startup = new StartupOrchestrator(listener, () -> nowNs)
+                .add("egl", queued::add, () -> { throw new IllegalStateException("no EGL"); })
+                .add("robot", queued::add, () -> ran.add("robot"))
+                .add("factory", queued::add, () -> ran.add("factory"), "egl")
+                .add("view", queued::add, () -> ran.add("view"), "factory")
+                .add("signaling", queued::add, () -> ran.add("signaling"), "robot");
+        startup.start();
+        runQueued();
+
+        assertEquals(List.of("robot", "signaling"), ran);
+        assertEquals(List.of("egl"), failed);
+        assertEquals(Boolean.FALSE, completedWith);
+        JSONArray phases = startup.getTimings().getJSONArray("phases");
+        assertEquals("failed", phases.getJSONObject(0).getString("state"));
+        assertEquals("skipped", phases.getJSONObject(3).getString("state"));
+        assertFalse(phases.getJSONObject(3).has("durationMs"));
+    }
+
+    @Test
+    public void unknownDependencyIsRejected() {
+        StartupOrchestrator startup = new StartupOrchestrator(listener);
+        try {
+            startup.add("factory", Runnable::run, () -> { }, "egl");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void runsPhasesInParallelOnPool() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        CountDownLatch bothRunning = new CountDownLatch(2);
+        CountDownLatch done = new CountDownLatch(1);
+        StartupOrchestrator.Phase waitForOther = () -> {
+            bothRunning.countDown();
+            // Fails if the two phases were serialized
+            if (!bothRunning.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("phases did not overlap");
+            }
+        };
+        StartupOrchestrator startup = new StartupOrchestrator(new StartupOrchestrator.Listener() {
+            @Override
+            public void onPhaseFailed(String name, Exception error) {
+                failed.add(name);
+            }
+
+            @Override
+            public void onStartupComplete(StartupOrchestrator orchestrator, boolean success) {
+                completedWith = success;
+                done.countDown();
+            }
+        }).add("a", pool, waitForOther)
+                .add("b", pool, waitForOther)
+                .add("c", pool, () -> { }, "a", "b");
+        startup.start();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        pool.shutdown();
+        assertEquals(Boolean.TRUE, completedWith);
+        assertTrue(failed.isEmpty());
+    }
+}
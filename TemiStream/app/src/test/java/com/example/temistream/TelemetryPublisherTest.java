@@ -0,0 +1,111 @@
+package com.example.temistream;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TelemetryPublisherTest {
+
+    private final VirtualScheduler scheduler = new VirtualScheduler();
+    private final List<String> sent = new ArrayList<>();
+    private boolean open = true;
+    private final TelemetryPublisher telemetry = new TelemetryPublisher(new TelemetryPublisher.Sink() {
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void send(ByteBuffer message) {
+            sent.add(StandardCharsets.UTF_8.decode(message).toString());
+        }
+    }, scheduler, scheduler::nowNanos);
+
+    private void publish(TelemetryPublisher.Topic topic, String message) {
+        telemetry.publish(topic, () -> ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void unsubscribedTopicsAreDropped() {
+        publish(TelemetryPublisher.Topic.BATTERY, "b1");
+        scheduler.runFor(1, TimeUnit.SECONDS);
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    public void resetRestoresLegacyTopics() throws Exception {
+        telemetry.subscribe(TelemetryPublisher.Topic.BATTERY, 1);
+        telemetry.reset();
+        assertTrue(telemetry.isSubscribed(TelemetryPublisher.Topic.POSE));
+        assertTrue(telemetry.isSubscribed(TelemetryPublisher.Topic.NAVIGATION));
+        assertFalse(telemetry.isSubscribed(TelemetryPublisher.Topic.BATTERY));
+        JSONObject topics = telemetry.getSubscriptions().getJSONObject("topics");
+        assertEquals(TelemetryPublisher.DEFAULT_RATE_HZ, topics.getDouble("pose"), 0.01);
+    }
+
+    @Test
+    public void burstIsCoalescedToLatestAtSubscribedRate() throws Exception {
+        telemetry.subscribe(TelemetryPublisher.Topic.POSE, 5);
+        for (int i = 0; i < 10; i++) {
+            publish(TelemetryPublisher.Topic.POSE, "p" + i);
+            scheduler.runFor(10, TimeUnit.MILLISECONDS);
+        }
+        assertEquals("first update goes out immediately", List.of("p0"), sent);
+
+        scheduler.runFor(200, TimeUnit.MILLISECONDS);
+        assertEquals(List.of("p0", "p9"), sent);
+        assertEquals(8, telemetry.getSubscriptions().getLong("coalesced"));
+    }
+
+    @Test
+    public void rateIsCapped() throws Exception {
+        telemetry.subscribe(TelemetryPublisher.Topic.POSE, 1000);
+        JSONObject topics = telemetry.getSubscriptions().getJSONObject("topics");
+        assertEquals(TelemetryPublisher.MAX_RATE_HZ, topics.getDouble("pose"), 0.01);
+    }
+
+    @Test
+    public void pollerRunsOnlyWhileSubscribed() {
+        int[] polls = new int[1];
+        telemetry.setPoller(TelemetryPublisher.Topic.TILT, () -> {
+            polls[0]++;
+            publish(TelemetryPublisher.Topic.TILT, "t" + polls[0]);
+        });
+        scheduler.runFor(1, TimeUnit.SECONDS);
+        assertEquals(0, polls[0]);
+
+        telemetry.subscribe(TelemetryPublisher.Topic.TILT, 2);
+        scheduler.runFor(1900, TimeUnit.MILLISECONDS);
+        assertEquals(4, polls[0]);
+        assertEquals(4, sent.size());
+
+        telemetry.subscribe(TelemetryPublisher.Topic.TILT, 0);
+        scheduler.runFor(2, TimeUnit.SECONDS);
+        assertEquals(4, polls[0]);
+    }
+
+    @Test
+    public void subscribeHookSendsCurrentValue() {
+        telemetry.setSubscribeHook(TelemetryPublisher.Topic.BATTERY,
+                () -> publish(TelemetryPublisher.Topic.BATTERY, "battery 80"));
+        telemetry.subscribe(TelemetryPublisher.Topic.BATTERY, 0.2);
+        assertEquals(List.of("battery 80"), sent);
+    }
+
+    @Test
+    public void pendingUpdateIsDroppedOnClear() {
+        telemetry.subscribe(TelemetryPublisher.Topic.NAVIGATION, 1);
+        publish(TelemetryPublisher.Topic.NAVIGATION, "n1");
+        publish(TelemetryPublisher.Topic.NAVIGATION, "n2");
+        telemetry.clear();
+        scheduler.runFor(2, TimeUnit.SECONDS);
+        assertEquals(List.of("n1"), sent);
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.temistream;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class VideoRecoveryMonitorTest {
+
+    private long nowMs = 10_000;
+
+    private final VideoRecoveryMonitor monitor =
+            new VideoRecoveryMonitor(FlightRecorder.disabled(), 1000, () -> nowMs);
+
+    @Test
+    public void keyframesAreSpacedByMinimumInterval() throws Exception {
+        assertTrue(monitor.requestKeyFrame("viewer"));
+        assertTrue(monitor.consumeKeyFrameRequest());
+        assertFalse("consumed once", monitor.consumeKeyFrameRequest());
+
+        nowMs += 400;
+        assertFalse(monitor.requestKeyFrame("viewer"));
+        assertFalse(monitor.consumeKeyFrameRequest());
+
+        nowMs += 600;
+        assertTrue(monitor.requestKeyFrame("viewer"));
+
+        JSONObject stats = monitor.getStats();
+        assertEquals(2, stats.getJSONObject("keyFrameRequests").getLong("viewer"));
+        assertEquals(1, stats.getLong("suppressedRequests"));
+    }
+
+    @Test
+    public void stallsAndLossBurstsTriggerRecovery() throws Exception {
+        monitor.onViewerStats(300, 0, 0, 0, 1000);
+        monitor.onSenderStats(0, 0, 0);
+        assertFalse("first reports only set the baseline", monitor.consumeKeyFrameRequest());
+
+        // Packets keep arriving but no frame decodes
+        nowMs += 1000;
+        monitor.onViewerStats(300, 0, 0, 0, 1100);
+        assertTrue(monitor.consumeKeyFrameRequest());
+
+        // A NACK burst within the spacing window is suppressed, the next one goes through
+        nowMs += 500;
+        monitor.onSenderStats(VideoRecoveryMonitor.NACK_BURST, 1, 0);
+        assertFalse(monitor.consumeKeyFrameRequest());
+        nowMs += 1000;
+        monitor.onSenderStats(VideoRecoveryMonitor.NACK_BURST, 2, VideoRecoveryMonitor.LOSS_BURST);
+        assertTrue(monitor.consumeKeyFrameRequest());
+
+        // Steady playback asks for nothing
+        nowMs += 1000;
+        monitor.onViewerStats(330, 1, 0, 0, 1200);
+        monitor.onSenderStats(VideoRecoveryMonitor.NACK_BURST + 2, 2, VideoRecoveryMonitor.LOSS_BURST);
+        assertFalse(monitor.consumeKeyFrameRequest());
+
+        JSONObject stats = monitor.getStats();
+        assertEquals(1, stats.getJSONObject("keyFrameRequests").getLong("stall"));
+        assertEquals(1, stats.getJSONObject("keyFrameRequests").getLong("loss"));
+        assertEquals(2, stats.getLong("viewerPliCount"));
+    }
+
+    @Test
+    public void freezeDurationsAreExported() throws Exception {
+        monitor.onViewerStats(100, 0, 0, 0, 500);
+        monitor.onViewerStats(130, 0, 1, 1.2, 600);
+        monitor.onViewerStats(160, 0, 3, 2.0, 700);
+
+        JSONObject freezes = monitor.getStats().getJSONObject("freezes");
+        assertEquals(3, freezes.getLong("count"));
+        assertEquals(2000, freezes.getLong("totalMs"));
+        assertEquals(1200, freezes.getLong("maxMs"));
+        assertEquals(400, freezes.getLong("p50Ms"));
+        assertEquals("[1200,400,400]", freezes.getJSONArray("recentMs").toString());
+
+        // Counters restart when the viewer reloads; the history is kept
+        monitor.resetCounters();
+        monitor.onViewerStats(0, 0, 0, 0, 0);
+        monitor.onViewerStats(30, 0, 0, 0, 100);
+        assertEquals(3, monitor.getFreezeCount());
+    }
+}
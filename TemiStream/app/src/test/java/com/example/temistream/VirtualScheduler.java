@@ -0,0 +1,219 @@
+package com.example.temistream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Single-threaded {@link ScheduledExecutorService} driven by a virtual nanosecond clock.
+ *
+ * Nothing runs until the test calls {@link #runFor} or {@link #runUntil}; tasks then run in
+ * deadline order on the calling thread and the clock jumps from one deadline to the next, so
+ * a simulated minute takes milliseconds and every run is identical. {@link #sleep} models a
+ * blocking call by moving the clock forward without running anything else.
+ */
+final class VirtualScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+
+    private final class Task implements ScheduledFuture<Object> {
+        final Callable<?> body;
+        final long periodNanos;
+        final long sequence;
+        long deadlineNanos;
+        boolean cancelled;
+        boolean done;
+        Object result;
+        Throwable failure;
+
+        Task(Callable<?> body, long deadlineNanos, long periodNanos) {
+            this.body = body;
+            this.deadlineNanos = deadlineNanos;
+            this.periodNanos = periodNanos;
+            this.sequence = nextSequence++;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadlineNanos - nowNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            Task task = (Task) other;
+            int byDeadline = Long.compare(deadlineNanos, task.deadlineNanos);
+            return byDeadline != 0 ? byDeadline : Long.compare(sequence, task.sequence);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (done) {
+                return false;
+            }
+            cancelled = true;
+            done = true;
+            queue.remove(this);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done;
+        }
+
+        @Override
+        public Object get() throws ExecutionException {
+            if (!done) {
+                throw new IllegalStateException("Virtual task has not run yet");
+            }
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return result;
+        }
+
+        @Override
+        public Object get(long timeout, TimeUnit unit) throws ExecutionException, TimeoutException {
+            if (!done) {
+                throw new TimeoutException();
+            }
+            return get();
+        }
+    }
+
+    private final PriorityQueue<Task> queue = new PriorityQueue<>();
+    private long nowNanos;
+    private long nextSequence;
+    private long executedCount;
+    private boolean shutdown;
+
+    long nowNanos() {
+        return nowNanos;
+    }
+
+    long nowMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(nowNanos);
+    }
+
+    long getExecutedCount() {
+        return executedCount;
+    }
+
+    /** Advances the clock without running tasks, as if the current task blocked. */
+    void sleep(long duration, TimeUnit unit) {
+        nowNanos += unit.toNanos(duration);
+    }
+
+    void runFor(long duration, TimeUnit unit) {
+        runUntil(nowNanos + unit.toNanos(duration));
+    }
+
+    /** Runs every task due at or before {@code deadlineNanos}, then parks the clock there. */
+    void runUntil(long deadlineNanos) {
+        while (!queue.isEmpty() && queue.peek().deadlineNanos <= deadlineNanos) {
+            Task task = queue.poll();
+            // A task that slept may have pushed the clock past the next deadline
+            nowNanos = Math.max(nowNanos, task.deadlineNanos);
+            executedCount++;
+            try {
+                task.result = task.body.call();
+            } catch (Throwable t) {
+                task.failure = t;
+                task.done = true;
+                continue;
+            }
+            if (task.periodNanos > 0 && !task.cancelled && !shutdown) {
+                task.deadlineNanos += task.periodNanos;
+                queue.add(task);
+            } else {
+                task.done = true;
+            }
+        }
+        nowNanos = Math.max(nowNanos, deadlineNanos);
+    }
+
+    private Task enqueue(Callable<?> body, long delayNanos, long periodNanos) {
+        if (shutdown) {
+            throw new RejectedExecutionException("Scheduler shut down");
+        }
+        Task task = new Task(body, nowNanos + Math.max(0, delayNanos), periodNanos);
+        queue.add(task);
+        return task;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        enqueue(Executors.callable(command), 0, 0);
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return enqueue(Executors.callable(command), unit.toNanos(delay), 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        return (ScheduledFuture<V>) (ScheduledFuture<?>) enqueue(callable, unit.toNanos(delay), 0);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        return enqueue(Executors.callable(command), unit.toNanos(initialDelay), unit.toNanos(period));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        // Tasks take no virtual time unless they sleep, so fixed delay and fixed rate coincide
+        return scheduleAtFixedRate(command, initialDelay, delay, unit);
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> pending = new ArrayList<>();
+        for (Task task : queue) {
+            pending.add(() -> {
+                try {
+                    task.body.call();
+                } catch (Exception ignored) {
+                }
+            });
+        }
+        queue.clear();
+        return pending;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown && queue.isEmpty();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return isTerminated();
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.temistream;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ns/message and bytes allocated per message (gc.alloc.rate.norm) for the outbound control
+ * messages, comparing the old JSONObject, toString, getBytes, wrap path against
+ * {@link OutboundEncoder}.
+ *
+ * Both paths stop at the encoded buffer. The byte[] that DataChannel.send copies every message
+ * into is paid by both and is not measured here.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OutboundEncoderBenchmark {
+
+    private final OutboundEncoder encoder = new OutboundEncoder();
+    private final List<String> locations = new ArrayList<>();
+    private float x = 1.5f;
+
+    public OutboundEncoderBenchmark() {
+        for (int i = 0; i < 12; i++) {
+            locations.add("location " + i);
+        }
+    }
+
+    @Benchmark
+    public void positionUpdateJsonObject(Blackhole blackhole) throws JSONException {
+        x += 0.01f;
+        JSONObject positionUpdate = new JSONObject();
+        positionUpdate.put("type", "position_update");
+        positionUpdate.put("x", x);
+        positionUpdate.put("y", -2.25f);
+        positionUpdate.put("yaw", 0.785f);
+        positionUpdate.put("tiltAngle", 10);
+        positionUpdate.put("tiltTarget", 15);
+        positionUpdate.put("timestamp", System.currentTimeMillis());
+        blackhole.consume(ByteBuffer.wrap(positionUpdate.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Benchmark
+    public void positionUpdateEncoder(Blackhole blackhole) {
+        x += 0.01f;
+        ByteBuffer buffer = encoder.positionUpdate(x, -2.25f, 0.785f, 10, 15, System.currentTimeMillis());
+        blackhole.consume(buffer);
+        encoder.release(buffer);
+    }
+
+    @Benchmark
+    public void commandResponseJsonObject(Blackhole blackhole) throws JSONException {
+        JSONObject response = new JSONObject();
+        response.put("type", "robot_response");
+        response.put("commandId", "cmd_1718000000000_42");
+        response.put("success", true);
+        response.put("message", "Head tilted to 25°");
+        response.put("timestamp", System.currentTimeMillis());
+        blackhole.consume(ByteBuffer.wrap(response.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Benchmark
+    public void commandResponseEncoder(Blackhole blackhole) {
+        ByteBuffer buffer = encoder.commandResponse("cmd_1718000000000_42", true, "Head tilted to 25°",
+                null, System.currentTimeMillis());
+        blackhole.consume(buffer);
+        encoder.release(buffer);
+    }
+
+    @Benchmark
+    public void locationUpdateJsonObject(Blackhole blackhole) throws JSONException {
+        JSONObject locationData = new JSONObject();
+        locationData.put("type", "location_update");
+        JSONArray locationsArray = new JSONArray();
+        for (String location : locations) {
+            locationsArray.put(location);
+        }
+        locationData.put("locations", locationsArray);
+        JSONObject positionObj = new JSONObject();
+        positionObj.put("x", x);
+        positionObj.put("y", -2.25f);
+        positionObj.put("yaw", 0.785f);
+        positionObj.put("tiltAngle", 10);
+        locationData.put("currentPosition", positionObj);
+        blackhole.consume(ByteBuffer.wrap(locationData.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Benchmark
+    public void locationUpdateEncoder(Blackhole blackhole) {
+        ByteBuffer buffer = encoder.locationUpdate(locations, true, x, -2.25f, 0.785f, 10);
+        blackhole.consume(buffer);
+        encoder.release(buffer);
+    }
+}
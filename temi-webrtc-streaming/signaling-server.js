@@ -1,6 +1,7 @@
 const WebSocket = require('ws');
 const express = require('express');
 const path = require('path');
+const crypto = require('crypto');
 const app = express();
 const server = require('http').createServer(app);
 
@@ -23,6 +24,65 @@ let robotStatus = {
 
 console.log('Starting Enhanced WebRTC Signaling Server with Robot Control...');
 
+// ICE servers handed to both peers in connection_established, in RTCIceServer format.
+// ICE_SERVERS takes a JSON array as-is; otherwise STUN_URLS and TURN_URLS are comma
+// separated lists, with either fixed TURN_USERNAME/TURN_CREDENTIAL or a TURN_SECRET shared
+// with coturn (use-auth-secret) for short-lived REST credentials.
+// ICE_POLICY is prefer_direct (TURN only after direct paths fail), all or relay.
+const DEFAULT_STUN_URLS = 'stun:stun.l.google.com:19302,stun:stun1.l.google.com:19302';
+const TURN_TTL_SECONDS = parseInt(process.env.TURN_TTL || '86400', 10);
+
+function splitUrls(value) {
+    return (value || '').split(',').map(url => url.trim()).filter(url => url);
+}
+
+// Parsed once at startup: a malformed value stops the server here rather than throwing out
+// of the connection handler on the first client.
+function parseIceServersEnv() {
+    if (!process.env.ICE_SERVERS) {
+        return null;
+    }
+    let parsed;
+    try {
+        parsed = JSON.parse(process.env.ICE_SERVERS);
+    } catch (err) {
+        console.error(`ICE_SERVERS is not valid JSON: ${err.message}`);
+        process.exit(1);
+    }
+    if (!Array.isArray(parsed)) {
+        console.error('ICE_SERVERS must be a JSON array of RTCIceServer objects');
+        process.exit(1);
+    }
+    return parsed;
+}
+
+const CONFIGURED_ICE_SERVERS = parseIceServersEnv();
+
+function buildIceConfig() {
+    let iceServers;
+    if (CONFIGURED_ICE_SERVERS) {
+        iceServers = CONFIGURED_ICE_SERVERS;
+    } else {
+        iceServers = [{ urls: splitUrls(process.env.STUN_URLS || DEFAULT_STUN_URLS) }];
+        const turnUrls = splitUrls(process.env.TURN_URLS);
+        if (turnUrls.length > 0) {
+            let username = process.env.TURN_USERNAME;
+            let credential = process.env.TURN_CREDENTIAL;
+            if (process.env.TURN_SECRET) {
+                username = `${Math.floor(Date.now() / 1000) + TURN_TTL_SECONDS}:temi`;
+                credential = crypto.createHmac('sha1', process.env.TURN_SECRET)
+                    .update(username).digest('base64');
+            }
+            if (username && credential) {
+                iceServers.push({ urls: turnUrls, username, credential });
+            } else {
+                console.warn('TURN_URLS set without credentials, TURN disabled');
+            }
+        }
+    }
+    return { iceServers, icePolicy: process.env.ICE_POLICY || 'prefer_direct' };
+}
+
 wss.on('connection', (ws, req) => {
     const clientIP = req.connection.remoteAddress;
     console.log('New WebSocket connection from:', clientIP);
@@ -218,7 +278,8 @@ wss.on('connection', (ws, req) => {
     ws.send(JSON.stringify({
         type: 'connection_established',
         timestamp: Date.now(),
-        serverVersion: '2.0.0'
+        serverVersion: '2.0.0',
+        ice: buildIceConfig()
     }));
 });
 